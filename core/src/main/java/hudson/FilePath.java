@@ -26,8 +26,10 @@
 package hudson;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.jcraft.jzlib.Deflater;
 import com.jcraft.jzlib.GZIPInputStream;
 import com.jcraft.jzlib.GZIPOutputStream;
+import com.jcraft.jzlib.JZlib;
 import hudson.Launcher.LocalLauncher;
 import hudson.Launcher.RemoteLauncher;
 import hudson.model.AbstractProject;
@@ -703,6 +705,20 @@ public final class FilePath implements Serializable {
             public OutputStream compress(OutputStream out) throws IOException {
                 return new GZIPOutputStream(new BufferedOutputStream(out));
             }
+        },
+        /**
+         * Same format as {@link #GZIP}, but at the fastest compression level,
+         * for when the CPU rather than the network is the bottleneck.
+         * @since 2.82
+         */
+        GZIP_FAST {
+            public InputStream extract(InputStream in) throws IOException {
+                return GZIP.extract(in);
+            }
+            public OutputStream compress(OutputStream out) throws IOException {
+                // 15+16 bits: the largest window, with a gzip header
+                return new GZIPOutputStream(new BufferedOutputStream(out), new Deflater(JZlib.Z_BEST_SPEED, 15 + 16), 8192, true);
+            }
         };
 
         public abstract InputStream extract(InputStream in) throws IOException;
@@ -2134,6 +2150,19 @@ public final class FilePath implements Serializable {
      * @since 1.532
      */
     public int copyRecursiveTo(final DirScanner scanner, final FilePath target, final String description) throws IOException, InterruptedException {
+        return copyRecursiveTo(scanner, target, description, TarCompression.GZIP);
+    }
+
+    /**
+     * Copies files according to a specified scanner to a target node.
+     * @param scanner a way of enumerating some files (must be serializable for possible delivery to remote side)
+     * @param target the destination basedir
+     * @param description a description of the fileset, for logging purposes
+     * @param compression how to compress the files on their way to another node; ignored for a local copy
+     * @return the number of files copied
+     * @since 2.82
+     */
+    public int copyRecursiveTo(final DirScanner scanner, final FilePath target, final String description, @Nonnull final TarCompression compression) throws IOException, InterruptedException {
         if(this.channel==target.channel) {
             // local to local copy.
             return act(new SecureFileCallable<Integer>() {
@@ -2183,7 +2212,7 @@ public final class FilePath implements Serializable {
                 private static final long serialVersionUID = 1L;
                 public Void invoke(File f, VirtualChannel channel) throws IOException {
                     try (InputStream in = pipe.getIn()) {
-                        readFromTar(remote + '/' + description, f,TarCompression.GZIP.extract(in));
+                        readFromTar(remote + '/' + description, f,compression.extract(in));
                         return null;
                     }
                 }
@@ -2191,7 +2220,7 @@ public final class FilePath implements Serializable {
             Future<Integer> future2 = actAsync(new SecureFileCallable<Integer>() {
                 private static final long serialVersionUID = 1L;
                 @Override public Integer invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
-                    return writeToTar(new File(remote), scanner, TarCompression.GZIP.compress(pipe.getOut()));
+                    return writeToTar(new File(remote), scanner, compression.compress(pipe.getOut()));
                 }
             });
             try {
@@ -2214,12 +2243,12 @@ public final class FilePath implements Serializable {
                 private static final long serialVersionUID = 1L;
                 public Integer invoke(File f, VirtualChannel channel) throws IOException {
                     try (OutputStream out = pipe.getOut()) {
-                        return writeToTar(f, scanner, TarCompression.GZIP.compress(out));
+                        return writeToTar(f, scanner, compression.compress(out));
                     }
                 }
             });
             try {
-                readFromTar(remote + '/' + description,new File(target.remote),TarCompression.GZIP.extract(pipe.getIn()));
+                readFromTar(remote + '/' + description,new File(target.remote),compression.extract(pipe.getIn()));
             } catch (IOException e) {// BuildException or IOException
                 try {
                     future.get(3,TimeUnit.SECONDS);
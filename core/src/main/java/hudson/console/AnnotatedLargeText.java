@@ -28,26 +28,40 @@ package hudson.console;
 import com.trilead.ssh2.crypto.Base64;
 import jenkins.model.Jenkins;
 import hudson.remoting.ObjectInputStreamEx;
+import hudson.util.BlockCompressedFile;
 import java.util.concurrent.TimeUnit;
 import jenkins.security.CryptoConfidentialKey;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.framework.io.ByteBuffer;
+import org.kohsuke.stapler.framework.io.CharSpool;
 import org.kohsuke.stapler.framework.io.LargeText;
+import org.kohsuke.stapler.framework.io.LineEndNormalizingWriter;
+import org.kohsuke.stapler.framework.io.WriterOutputStream;
 
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
 import javax.crypto.CipherOutputStream;
+import javax.annotation.CheckForNull;
+import javax.servlet.http.HttpServletResponse;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import com.jcraft.jzlib.GZIPInputStream;
 import com.jcraft.jzlib.GZIPOutputStream;
 
@@ -76,14 +90,80 @@ public class AnnotatedLargeText<T> extends LargeText {
      */
     private T context;
 
+    /**
+     * Set when reading a {@link BlockCompressedFile}, which {@link LargeText} cannot seek in by itself.
+     */
+    private final BlockCompressedFile blocks;
+
+    /**
+     * Set when reading a plain file, so that it can be read directly when its notes are indexed.
+     */
+    private final File file;
+
+    private File noteIndexFile;
+    private ConsoleNoteIndex noteIndex;
+    private boolean noteIndexLoaded;
+
     public AnnotatedLargeText(File file, Charset charset, boolean completed, T context) {
         super(file, charset, completed, true);
         this.context = context;
+        this.blocks = null;
+        this.file = file.getName().endsWith(".gz") ? null : file;
     }
 
     public AnnotatedLargeText(ByteBuffer memory, Charset charset, boolean completed, T context) {
         super(memory, charset, completed);
         this.context = context;
+        this.blocks = null;
+        this.file = null;
+    }
+
+    /**
+     * Serves a log stored in blocks, inflating only the blocks from the requested offset onward.
+     * @since 2.82
+     */
+    public AnnotatedLargeText(BlockCompressedFile blocks, Charset charset, boolean completed, T context) {
+        super(blocks.getFile(), charset, completed, false);
+        this.context = context;
+        this.blocks = blocks;
+        this.file = null;
+    }
+
+    /**
+     * Points to the {@link ConsoleNoteIndex} recorded along with the log, used once the log is complete.
+     * @since 2.82
+     */
+    @Restricted(NoExternalUse.class)
+    public void setNoteIndex(@CheckForNull File noteIndexFile) {
+        this.noteIndexFile = noteIndexFile;
+        this.noteIndex = null;
+        this.noteIndexLoaded = false;
+    }
+
+    private @CheckForNull ConsoleNoteIndex getNoteIndex() {
+        if (!noteIndexLoaded) {
+            noteIndexLoaded = true;
+            if (noteIndexFile != null && isComplete())
+                noteIndex = ConsoleNoteIndex.load(noteIndexFile, length());
+        }
+        return noteIndex;
+    }
+
+    /**
+     * Opens the log at the given offset, if it can be read directly.
+     */
+    private @CheckForNull InputStream openAt(long start) throws IOException {
+        if (blocks != null)
+            return blocks.read(start);
+        if (file == null)
+            return null;
+        try {
+            InputStream in = Files.newInputStream(file.toPath());
+            IOUtils.skip(in, start);
+            return in;
+        } catch (InvalidPathException e) {
+            throw new IOException(e);
+        }
     }
 
     public void doProgressiveHtml(StaplerRequest req, StaplerResponse rsp) throws IOException {
@@ -112,6 +192,71 @@ public class AnnotatedLargeText<T> extends LargeText {
         rsp.setContentType(isHtml() ? "text/html;charset=UTF-8" : "text/plain;charset=UTF-8");
     }
 
+    /**
+     * Same as {@link LargeText#doProgressText}, except that offsets are checked against
+     * the uncompressed {@link #length()} for a {@link BlockCompressedFile}.
+     */
+    @Override
+    public void doProgressText(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        if (blocks == null) {
+            super.doProgressText(req, rsp);
+            return;
+        }
+        setContentType(rsp);
+        rsp.setStatus(HttpServletResponse.SC_OK);
+
+        long start = 0;
+        String s = req.getParameter("start");
+        if (s != null)
+            start = Long.parseLong(s);
+        if (blocks.length() < start)
+            start = 0;  // text rolled over
+
+        CharSpool spool = new CharSpool();
+        long r = writeLogTo(start, spool);
+
+        rsp.addHeader("X-Text-Size", String.valueOf(r));
+        if (!isComplete())
+            rsp.addHeader("X-More-Data", "true");
+
+        // when sending big text, try compression. don't bother if it's small
+        Writer w = r - start > 4096 ? rsp.getCompressedWriter(req) : rsp.getWriter();
+        spool.writeTo(new LineEndNormalizingWriter(w));
+        w.close();
+    }
+
+    @Override
+    public long length() {
+        return blocks != null ? blocks.length() : super.length();
+    }
+
+    @Override
+    public Reader readAll() throws IOException {
+        if (blocks == null)
+            return super.readAll();
+        return new InputStreamReader(blocks.read(0), charset);
+    }
+
+    /**
+     * Writes the log from the given offset as is, which {@link LargeText} can do for plain files only.
+     * The blocks are only ever written for complete logs, so there is no partial line to hold back.
+     */
+    private long writeRawTo(long start, OutputStream out) throws IOException {
+        if (blocks == null)
+            return super.writeLogTo(start, out);
+        long count = 0;
+        try (InputStream in = blocks.read(start)) {
+            byte[] buf = new byte[8192];
+            int sz;
+            while ((sz = in.read(buf)) >= 0) {
+                out.write(buf, 0, sz);
+                count += sz;
+            }
+        }
+        out.flush();
+        return start + count;
+    }
+
     private ConsoleAnnotator createAnnotator(StaplerRequest req) throws IOException {
         try {
             String base64 = req!=null ? req.getHeader("X-ConsoleAnnotator") : null;
@@ -141,6 +286,8 @@ public class AnnotatedLargeText<T> extends LargeText {
     public long writeLogTo(long start, Writer w) throws IOException {
         if (isHtml())
             return writeHtmlTo(start, w);
+        else if (blocks != null)
+            return writeRawTo(start, new WriterOutputStream(w, charset));
         else
             return super.writeLogTo(start,w);
     }
@@ -151,7 +298,14 @@ public class AnnotatedLargeText<T> extends LargeText {
      */
     @Override
     public long writeLogTo(long start, OutputStream out) throws IOException {
-        return super.writeLogTo(start, new PlainTextConsoleOutputStream(out));
+        ConsoleNoteIndex notes = getNoteIndex();
+        if (notes != null) {
+            try (InputStream in = openAt(start)) {
+                if (in != null)
+                    return notes.strip(in, start, out);
+            }
+        }
+        return writeRawTo(start, new PlainTextConsoleOutputStream(out));
     }
 
     /**
@@ -159,13 +313,16 @@ public class AnnotatedLargeText<T> extends LargeText {
      * @since 1.577
      */
     public long writeRawLogTo(long start, OutputStream out) throws IOException {
-        return super.writeLogTo(start, out);
+        return writeRawTo(start, out);
     }
 
     public long writeHtmlTo(long start, Writer w) throws IOException {
         ConsoleAnnotationOutputStream caw = new ConsoleAnnotationOutputStream(
                 w, createAnnotator(Stapler.getCurrentRequest()), context, charset);
-        long r = super.writeLogTo(start,caw);
+        ConsoleNoteIndex notes = getNoteIndex();
+        if (notes != null)
+            caw.setNoteIndex(notes, start);
+        long r = writeRawTo(start,caw);
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         Cipher sym = PASSING_ANNOTATOR.encrypt();
@@ -0,0 +1,204 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+
+/**
+ * Compact binary form of the {@link ConsoleNote}s that core writes the most,
+ * used by {@link ConsoleNote#encodeTo(java.io.OutputStream)} in place of gzipped Java serialization.
+ *
+ * <p>
+ * The form is a {@link #MARKER} byte, the type ID, then the fields of the note.
+ * It goes inside the same signed, base64-encoded envelope as the serialized form, which always starts with
+ * the gzip magic number, so the two are told apart by the first byte and old logs read as they did.
+ * Only notes of exactly the registered classes are encoded this way; subclasses may carry more state,
+ * so they are serialized as before.
+ */
+final class CompactConsoleNotes {
+    /**
+     * First byte of the compact form. Gzip streams start with {@code 0x1F}.
+     */
+    static final byte MARKER = 0;
+
+    private CompactConsoleNotes() {}
+
+    private static abstract class Type {
+        final int id;
+        final Class<? extends ConsoleNote> type;
+
+        Type(int id, Class<? extends ConsoleNote> type) {
+            this.id = id;
+            this.type = type;
+        }
+
+        /**
+         * @return false if the note cannot be represented, such as when a field is null.
+         */
+        abstract boolean write(ConsoleNote note, DataOutputStream out) throws IOException;
+
+        abstract ConsoleNote read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Registered types, indexed by ID. IDs are stored in logs, so they must never be reused.
+     */
+    private static final Type[] TYPES = {
+        null,
+        new Type(1, HyperlinkNote.class) {
+            boolean write(ConsoleNote note, DataOutputStream out) throws IOException {
+                HyperlinkNote n = (HyperlinkNote) note;
+                if (n.getUrl() == null) {
+                    return false;
+                }
+                out.writeUTF(n.getUrl());
+                writeVarInt(out, n.getLength());
+                return true;
+            }
+            ConsoleNote read(DataInputStream in) throws IOException {
+                return new HyperlinkNote(in.readUTF(), readVarInt(in));
+            }
+        },
+        new Type(2, ModelHyperlinkNote.class) {
+            boolean write(ConsoleNote note, DataOutputStream out) throws IOException {
+                ModelHyperlinkNote n = (ModelHyperlinkNote) note;
+                if (n.getUrl() == null) {
+                    return false;
+                }
+                out.writeUTF(n.getUrl());
+                writeVarInt(out, n.getLength());
+                return true;
+            }
+            ConsoleNote read(DataInputStream in) throws IOException {
+                return new ModelHyperlinkNote(in.readUTF(), readVarInt(in));
+            }
+        },
+        new Type(3, ExpandableDetailsNote.class) {
+            boolean write(ConsoleNote note, DataOutputStream out) throws IOException {
+                ExpandableDetailsNote n = (ExpandableDetailsNote) note;
+                if (n.getCaption() == null || n.getHtml() == null) {
+                    return false;
+                }
+                out.writeUTF(n.getCaption());
+                out.writeUTF(n.getHtml());
+                return true;
+            }
+            ConsoleNote read(DataInputStream in) throws IOException {
+                return new ExpandableDetailsNote(in.readUTF(), in.readUTF());
+            }
+        },
+    };
+
+    private static @CheckForNull Type typeFor(Class<?> c) {
+        for (Type t : TYPES) {
+            if (t != null && t.type == c) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Encodes the note, if it is of a registered type.
+     *
+     * @return null if the note has to be serialized instead.
+     */
+    static @CheckForNull byte[] encode(@Nonnull ConsoleNote note) throws IOException {
+        Type t = typeFor(note.getClass());
+        if (t == null) {
+            return null;
+        }
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeByte(MARKER);
+        writeVarInt(out, t.id);
+        try {
+            if (!t.write(note, out)) {
+                return null;
+            }
+        } catch (UTFDataFormatException e) {
+            return null; // a string too long for writeUTF
+        }
+        return buf.toByteArray();
+    }
+
+    static boolean isCompact(@Nonnull byte[] payload) {
+        return payload.length > 0 && payload[0] == MARKER;
+    }
+
+    static @Nonnull ConsoleNote decode(@Nonnull byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        if (in.readByte() != MARKER) {
+            throw new IOException("Not a compact note");
+        }
+        return typeOf(in).read(in);
+    }
+
+    /**
+     * Gets the class of an encoded note without decoding it.
+     */
+    static @Nonnull String typeOf(@Nonnull byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        if (in.readByte() != MARKER) {
+            throw new IOException("Not a compact note");
+        }
+        return typeOf(in).type.getName();
+    }
+
+    private static Type typeOf(DataInputStream in) throws IOException {
+        int id = readVarInt(in);
+        if (id <= 0 || id >= TYPES.length) {
+            throw new IOException("Unknown note type " + id);
+        }
+        return TYPES[id];
+    }
+
+    static void writeVarInt(DataOutputStream out, int i) throws IOException {
+        while ((i & ~0x7F) != 0) {
+            out.writeByte((i & 0x7F) | 0x80);
+            i >>>= 7;
+        }
+        out.writeByte(i);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int r = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            r |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return r;
+            }
+        }
+        throw new EOFException("Malformed variable length integer");
+    }
+}
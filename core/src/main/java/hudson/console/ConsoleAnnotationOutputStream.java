@@ -24,7 +24,10 @@
 package hudson.console;
 
 import hudson.MarkupText;
+import jenkins.model.Jenkins;
 import org.apache.commons.io.output.ProxyWriter;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.framework.io.WriterOutputStream;
 
 import java.io.ByteArrayInputStream;
@@ -35,7 +38,9 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -62,6 +67,20 @@ public class ConsoleAnnotationOutputStream<T> extends LineTransformationOutputSt
      */
     private final WriterOutputStream lineOut;
 
+    /**
+     * If set, where the notes are, rather than having to look for them.
+     */
+    private ConsoleNoteIndex notes;
+    /**
+     * Offset in the log of the line being processed, when {@link #notes} is set.
+     */
+    private long pos;
+    private int nextNote;
+    /**
+     * Whether the note types seen so far can be loaded.
+     */
+    private final Map<String, Boolean> loadable = new HashMap<String, Boolean>();
+
     /**
      *
      */
@@ -76,6 +95,57 @@ public class ConsoleAnnotationOutputStream<T> extends LineTransformationOutputSt
         return ann;
     }
 
+    /**
+     * Uses an index of the notes of the log instead of scanning each line for them.
+     *
+     * @param start
+     *      offset in the log of the first byte that will be written to this stream.
+     * @since 2.82
+     */
+    @Restricted(NoExternalUse.class)
+    public void setNoteIndex(ConsoleNoteIndex notes, long start) {
+        this.notes = notes;
+        this.pos = start;
+        this.nextNote = notes.indexOf(start);
+    }
+
+    /**
+     * Finds the next note in the line, from the given position.
+     */
+    private int findNote(byte[] in, int from, int sz) {
+        if (notes == null) {
+            return ConsoleNote.findPreamble(in, from, sz - from);
+        }
+        while (nextNote < notes.size() && notes.getOffset(nextNote) < pos + from) {
+            nextNote++;
+        }
+        if (nextNote < notes.size() && notes.getOffset(nextNote) < pos + sz) {
+            return (int) (notes.getOffset(nextNote) - pos);
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the class of an indexed note is around, so as not to bother decoding it otherwise.
+     */
+    private boolean isLoadable(String type) {
+        if (type.isEmpty()) {
+            return true; // unknown, so try
+        }
+        Boolean r = loadable.get(type);
+        if (r == null) {
+            Jenkins jenkins = Jenkins.getInstanceOrNull();
+            try {
+                Class.forName(type, false, jenkins != null ? jenkins.pluginManager.uberClassLoader : ConsoleNote.class.getClassLoader());
+                r = true;
+            } catch (ClassNotFoundException | LinkageError e) {
+                r = false;
+            }
+            loadable.put(type, r);
+        }
+        return r;
+    }
+
     /**
      * Called after we read the whole line of plain text, which is stored in {@link #buf}.
      * This method performs annotations and send the result to {@link #out}.
@@ -84,7 +154,7 @@ public class ConsoleAnnotationOutputStream<T> extends LineTransformationOutputSt
         line.reset();
         final StringBuffer strBuf = line.getStringBuffer();
 
-        int next = ConsoleNote.findPreamble(in,0,sz);
+        int next = findNote(in,0,sz);
 
         List<ConsoleAnnotator<T>> annotators=null;
 
@@ -103,6 +173,12 @@ public class ConsoleAnnotationOutputStream<T> extends LineTransformationOutputSt
                 final int charPos = strBuf.length();
 
                 int rest = sz - next;
+                if (notes != null && !isLoadable(notes.getType(nextNote))) {
+                    // a note from a plugin that is gone, which would fail to deserialize anyway
+                    written += Math.min(notes.getLength(nextNote), rest);
+                    next = findNote(in,written,sz);
+                    continue;
+                }
                 ByteArrayInputStream b = new ByteArrayInputStream(in, next, rest);
 
                 try {
@@ -127,7 +203,7 @@ public class ConsoleAnnotationOutputStream<T> extends LineTransformationOutputSt
                 written += bytesUsed;
 
 
-                next = ConsoleNote.findPreamble(in,written,sz-written);
+                next = findNote(in,written,sz);
             }
             // finish the remaining bytes->chars conversion
             lineOut.write(in,written,sz-written);
@@ -144,6 +220,7 @@ public class ConsoleAnnotationOutputStream<T> extends LineTransformationOutputSt
         if (ann!=null)
             ann = ann.annotate(context,mt);
         out.write(mt.toString(true)); // this perform escapes
+        pos += sz;
     }
 
     @Override
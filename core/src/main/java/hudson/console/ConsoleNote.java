@@ -131,6 +131,12 @@ public abstract class ConsoleNote<T> implements Serializable, Describable<Consol
      */
     static /* nonfinal for tests & script console */ boolean INSECURE = SystemProperties.getBoolean(ConsoleNote.class.getName() + ".INSECURE");
 
+    /**
+     * Whether notes of the common types are written in the compact form of {@link CompactConsoleNotes}
+     * rather than as gzipped serialized objects. Either form can be read regardless of this flag.
+     */
+    static /* nonfinal for tests & script console */ boolean COMPACT = SystemProperties.getBoolean(ConsoleNote.class.getName() + ".compact", true);
+
     /**
      * When the line of a console output that this annotation is attached is read by someone,
      * a new {@link ConsoleNote} is de-serialized and this method is invoked to annotate that line.
@@ -179,9 +185,13 @@ public abstract class ConsoleNote<T> implements Serializable, Describable<Consol
     }
 
     private ByteArrayOutputStream encodeToBytes() throws IOException {
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        try (ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(buf))) {
-            oos.writeObject(this);
+        byte[] buf = COMPACT ? CompactConsoleNotes.encode(this) : null;
+        if (buf == null) {
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(new GZIPOutputStream(serialized))) {
+                oos.writeObject(this);
+            }
+            buf = serialized.toByteArray();
         }
 
         ByteArrayOutputStream buf2 = new ByteArrayOutputStream();
@@ -190,12 +200,12 @@ public abstract class ConsoleNote<T> implements Serializable, Describable<Consol
         try {
             buf2.write(PREAMBLE);
             if (Jenkins.getInstanceOrNull() != null) { // else we are in another JVM and cannot sign; result will be ignored unless INSECURE
-                byte[] mac = MAC.mac(buf.toByteArray());
+                byte[] mac = MAC.mac(buf);
                 dos.writeInt(- mac.length); // negative to differentiate from older form
                 dos.write(mac);
             }
-            dos.writeInt(buf.size());
-            buf.writeTo(dos);
+            dos.writeInt(buf.length);
+            dos.write(buf);
         } finally {
             dos.close();
         }
@@ -253,6 +263,10 @@ public abstract class ConsoleNote<T> implements Serializable, Describable<Consol
                 throw new IOException("MAC mismatch");
             }
 
+            if (CompactConsoleNotes.isCompact(buf)) {
+                return CompactConsoleNotes.decode(buf);
+            }
+
             Jenkins jenkins = Jenkins.getInstance();
             try (ObjectInputStream ois = new ObjectInputStreamEx(new GZIPInputStream(new ByteArrayInputStream(buf)),
                     jenkins != null ? jenkins.pluginManager.uberClassLoader : ConsoleNote.class.getClassLoader(),
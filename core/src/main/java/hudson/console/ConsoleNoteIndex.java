@@ -0,0 +1,408 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Sidecar index of the {@link ConsoleNote}s embedded in a log: where each one starts, how long it is,
+ * and the name of its class.
+ *
+ * <p>
+ * The index is {@linkplain #record(OutputStream, File) built} as the log is written, and only becomes usable
+ * once the log is closed, at which point its size is written at the end of the index. With it,
+ * {@link AnnotatedLargeText} can find the notes of the requested part of the log without scanning
+ * every line for them, leave alone the notes whose class is not around anymore without decoding them,
+ * and strip the notes from plain text output by copying the spans in between.
+ *
+ * @since 2.82
+ */
+@Restricted(NoExternalUse.class)
+public final class ConsoleNoteIndex {
+    /**
+     * Upper bound of the encoded size of a note whose class is looked up.
+     * Bigger notes are indexed all the same, with an unknown class.
+     */
+    private static final int MAX_NOTE_SIZE = 1024 * 1024;
+
+    private final long[] offsets;
+    private final int[] lengths;
+    private final String[] types;
+    private final long logLength;
+
+    private ConsoleNoteIndex(long[] offsets, int[] lengths, String[] types, long logLength) {
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.types = types;
+        this.logLength = logLength;
+    }
+
+    /**
+     * Loads a complete index.
+     *
+     * @param logLength
+     *      size of the log the index is for, or -1 if unknown.
+     * @return
+     *      null if there is no index, if the log was not closed properly,
+     *      or if the log does not have the size the index was written for.
+     */
+    public static @CheckForNull ConsoleNoteIndex load(@Nonnull File file, long logLength) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            long[] offsets = new long[16];
+            int[] lengths = new int[16];
+            String[] types = new String[16];
+            Map<String, String> interned = new HashMap<String, String>();
+            int size = 0;
+            while (true) {
+                long offset = in.readLong();
+                if (offset < 0) {
+                    long end = in.readLong();
+                    if (logLength >= 0 && end != logLength) {
+                        LOGGER.log(Level.FINE, "{0} is for a log of {1} bytes, not {2}", new Object[] {file, end, logLength});
+                        return null;
+                    }
+                    return new ConsoleNoteIndex(Arrays.copyOf(offsets, size), Arrays.copyOf(lengths, size), Arrays.copyOf(types, size), end);
+                }
+                int length = in.readInt();
+                String type = in.readUTF();
+                if (size > 0 && offset < offsets[size - 1] + lengths[size - 1] || length <= 0) {
+                    LOGGER.log(Level.WARNING, "Corrupt entry in {0}; ignoring it", file);
+                    return null;
+                }
+                if (size == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, size * 2);
+                    lengths = Arrays.copyOf(lengths, size * 2);
+                    types = Arrays.copyOf(types, size * 2);
+                }
+                String t = interned.get(type);
+                if (t == null) {
+                    interned.put(type, t = type);
+                }
+                offsets[size] = offset;
+                lengths[size] = length;
+                types[size] = t;
+                size++;
+            }
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            return null;
+        } catch (EOFException e) {
+            LOGGER.log(Level.FINE, "{0} is incomplete", file);
+            return null;
+        } catch (IOException | InvalidPathException e) {
+            LOGGER.log(Level.WARNING, "Failed to read " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Number of notes in the log.
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * Size of the log this index covers.
+     */
+    public long getLogLength() {
+        return logLength;
+    }
+
+    /**
+     * Byte offset of the preamble of the given note in the log.
+     */
+    public long getOffset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * Size of the given note in the log, from its preamble to its postamble included.
+     */
+    public int getLength(int i) {
+        return lengths[i];
+    }
+
+    /**
+     * Class name of the given note, or the empty string if it could not be determined.
+     */
+    public @Nonnull String getType(int i) {
+        return types[i];
+    }
+
+    /**
+     * Finds the first note that starts at or after the given offset.
+     *
+     * @return {@link #size()} if there is none.
+     */
+    public int indexOf(long offset) {
+        int i = Arrays.binarySearch(offsets, offset);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * Copies the log without its notes, the way {@link PlainTextConsoleOutputStream} would.
+     *
+     * @param in
+     *      the log, positioned at {@code start}.
+     * @return
+     *      the offset in the log up to which it was copied.
+     */
+    public long strip(@Nonnull InputStream in, long start, @Nonnull OutputStream out) throws IOException {
+        long pos = start;
+        int i = indexOf(start);
+        if (i > 0 && offsets[i - 1] + lengths[i - 1] > start) {
+            // starting in the middle of a note, so skip the rest of it
+            pos += IOUtils.skip(in, offsets[i - 1] + lengths[i - 1] - start);
+        }
+        for (; i < offsets.length; i++) {
+            pos += IOUtils.copyLarge(in, out, 0, offsets[i] - pos);
+            pos += IOUtils.skip(in, lengths[i]);
+            if (pos < offsets[i] + lengths[i]) {
+                break; // the log is shorter than it was indexed
+            }
+        }
+        pos += IOUtils.copyLarge(in, out);
+        out.flush();
+        return pos;
+    }
+
+    /**
+     * Wraps the stream a log is written to so as to index the notes going through it.
+     *
+     * <p>
+     * The log must start out empty, so that offsets match. Failing to write the index never affects the log itself;
+     * the index is simply not produced.
+     *
+     * @param log
+     *      the stream to the log file.
+     * @param file
+     *      where to write the index.
+     */
+    public static @Nonnull OutputStream record(@Nonnull OutputStream log, @Nonnull File file) {
+        try {
+            return new Recorder(log, file);
+        } catch (IOException | InvalidPathException e) {
+            LOGGER.log(Level.WARNING, "Failed to create " + file, e);
+            return log;
+        }
+    }
+
+    /**
+     * Determines the class of an encoded note without instantiating it.
+     *
+     * @param base64
+     *      the encoded form between the preamble and the postamble.
+     * @return
+     *      the class name, or the empty string if it could not be determined.
+     */
+    static @Nonnull String typeOf(byte[] base64) {
+        try {
+            DataInputStream decoded = new DataInputStream(new ByteArrayInputStream(Base64.decodeBase64(base64)));
+            int macSz = - decoded.readInt();
+            int sz;
+            if (macSz > 0) { // signed, see ConsoleNote.readFrom
+                IOUtils.skipFully(decoded, macSz);
+                sz = decoded.readInt();
+            } else {
+                sz = - macSz;
+            }
+            if (sz < 0 || sz > base64.length) {
+                return "";
+            }
+            byte[] payload = new byte[sz];
+            decoded.readFully(payload);
+            if (CompactConsoleNotes.isCompact(payload)) {
+                return CompactConsoleNotes.typeOf(payload);
+            }
+            DataInputStream ser = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(payload)));
+            if (ser.readShort() != ObjectStreamConstants.STREAM_MAGIC) {
+                return "";
+            }
+            ser.readShort(); // version
+            if (ser.readByte() != ObjectStreamConstants.TC_OBJECT || ser.readByte() != ObjectStreamConstants.TC_CLASSDESC) {
+                return "";
+            }
+            return ser.readUTF();
+        } catch (IOException | RuntimeException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Passes everything through to the log, watching for preambles and postambles on the way.
+     */
+    private static final class Recorder extends FilterOutputStream {
+        private final File file;
+        private DataOutputStream index;
+        /** Offset in the log of the next byte. */
+        private long pos;
+        private boolean inNote;
+        /** How much of the preamble, or of the postamble while {@link #inNote}, was seen so far. */
+        private int matched;
+        private long noteStart;
+        private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        /** Whether the current note has more than {@link #MAX_NOTE_SIZE} bytes, not all kept in {@link #payload}. */
+        private boolean oversized;
+
+        Recorder(OutputStream log, File file) throws IOException {
+            super(log);
+            this.file = file;
+            this.index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath())));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            scan((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (index == null) {
+                pos += len;
+                return;
+            }
+            for (int i = off; i < off + len; i++) {
+                byte c = b[i];
+                if (!inNote && matched == 0 && c != ConsoleNote.PREAMBLE[0]) {
+                    pos++; // the common case
+                } else {
+                    scan(c);
+                }
+            }
+        }
+
+        private void scan(byte c) throws IOException {
+            if (!inNote) {
+                if (c == ConsoleNote.PREAMBLE[matched]) {
+                    if (++matched == ConsoleNote.PREAMBLE.length) {
+                        inNote = true;
+                        matched = 0;
+                        noteStart = pos - ConsoleNote.PREAMBLE.length + 1;
+                        payload.reset();
+                        oversized = false;
+                    }
+                } else {
+                    matched = c == ConsoleNote.PREAMBLE[0] ? 1 : 0;
+                }
+            } else if (c == ConsoleNote.POSTAMBLE[matched]) {
+                if (++matched == ConsoleNote.POSTAMBLE.length) {
+                    long length = pos + 1 - noteStart;
+                    if (length <= Integer.MAX_VALUE) {
+                        // still strip an oversized note from plain text, and let the renderer try to decode it
+                        add(noteStart, (int) length, oversized ? "" : typeOf(payload.toByteArray()));
+                    }
+                    inNote = false;
+                    matched = 0;
+                }
+            } else if (matched == 0 && c != ConsoleNote.PREAMBLE[0] && c != '\n') {
+                if (payload.size() < MAX_NOTE_SIZE) {
+                    payload.write(c);
+                } else {
+                    oversized = true;
+                }
+            } else {
+                // not a note after all; the renderer will make of it whatever it did before
+                inNote = false;
+                matched = c == ConsoleNote.PREAMBLE[0] ? 1 : 0;
+            }
+            pos++;
+        }
+
+        private void add(long offset, int length, String type) {
+            if (index == null) {
+                return;
+            }
+            try {
+                index.writeLong(offset);
+                index.writeInt(length);
+                index.writeUTF(type);
+            } catch (IOException e) {
+                abandon(e);
+            }
+        }
+
+        private void abandon(IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write " + file, e);
+            try {
+                index.close();
+            } catch (IOException x) {
+                e.addSuppressed(x);
+            }
+            index = null;
+            if (!file.delete()) {
+                LOGGER.log(Level.WARNING, "Failed to delete {0}", file);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (index != null) {
+                    try {
+                        index.writeLong(-1);
+                        index.writeLong(pos);
+                        index.close();
+                    } catch (IOException e) {
+                        abandon(e);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ConsoleNoteIndex.class.getName());
+}
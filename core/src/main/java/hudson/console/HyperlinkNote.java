@@ -70,6 +70,14 @@ public class HyperlinkNote extends ConsoleNote {
         return null;
     }
 
+    String getUrl() {
+        return url;
+    }
+
+    int getLength() {
+        return length;
+    }
+
     protected String extraAttributes() {
         return "";
     }
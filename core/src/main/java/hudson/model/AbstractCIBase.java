@@ -225,6 +225,7 @@ public abstract class AbstractCIBase extends Node implements ItemGroup<TopLevelI
             // when we get to here, the number of executors should be zero so this call should not need the Queue.lock
             killComputer(c);
         }
+        getQueue().markAllDirty();
         getQueue().scheduleMaintenance();
         for (ComputerListener cl : ComputerListener.all())
             cl.onConfigurationChange();
@@ -773,6 +773,7 @@ public abstract class AbstractProject<P extends AbstractProject<P,R>,R extends A
         updateTransientActions();
 
         // notify the queue as the project might be now tied to different node
+        Jenkins.getInstance().getQueue().markDirty(this);
         Jenkins.getInstance().getQueue().scheduleMaintenance();
 
         // this is to reflect the upstream build adjustments done above
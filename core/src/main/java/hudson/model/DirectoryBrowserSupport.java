@@ -25,10 +25,17 @@ package hudson.model;
 
 import hudson.FilePath;
 import hudson.Util;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.InvalidPathException;
+import java.nio.file.StandardOpenOption;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -39,6 +46,7 @@ import java.util.Locale;
 import java.util.StringTokenizer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
 import jenkins.model.Jenkins;
@@ -301,13 +309,13 @@ public final class DirectoryBrowserSupport implements HttpResponse {
         if(LOGGER.isLoggable(Level.FINE))
             LOGGER.fine("Serving "+baseFile+" with lastModified=" + lastModified + ", length=" + length);
 
-        InputStream in = baseFile.open();
+        String fileName;
         if (view) {
             // for binary files, provide the file name for download
             rsp.setHeader("Content-Disposition", "inline; filename=" + baseFile.getName());
 
             // pseudo file name to let the Stapler set text/plain
-            rsp.serveFile(req, in, lastModified, -1, length, "plain.txt");
+            fileName = "plain.txt";
         } else {
             String csp = SystemProperties.getString(DirectoryBrowserSupport.class.getName() + ".CSP", DEFAULT_CSP_VALUE);
             if (!csp.trim().equals("")) {
@@ -316,7 +324,134 @@ public final class DirectoryBrowserSupport implements HttpResponse {
                     rsp.setHeader(header, csp);
                 }
             }
-            rsp.serveFile(req, in, lastModified, -1, length, baseFile.getName() );
+            fileName = baseFile.getName();
+        }
+
+        File localFile = baseFile.toLocalFile();
+        if (localFile != null) {
+            serveLocalFile(req, rsp, localFile, lastModified, length, fileName);
+        } else {
+            rsp.serveFile(req, baseFile.open(), lastModified, -1, length, fileName);
+        }
+    }
+
+    /**
+     * Does what {@link StaplerResponse#serveFile(StaplerRequest, InputStream, long, long, long, String)} does,
+     * but also honors a {@code Range} header for a single range, and hands the bytes to the container
+     * through {@link FileChannel#transferTo} instead of copying them through a heap buffer.
+     */
+    private static void serveLocalFile(StaplerRequest req, StaplerResponse rsp, File file, long lastModified, long length, String fileName) throws IOException {
+        try {
+            long since = req.getDateHeader("If-Modified-Since");
+            if (since != -1 && lastModified < since + 1000) {
+                rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            // malformed date, so serve the file as if there was none
+        }
+        rsp.setDateHeader("Last-Modified", lastModified);
+        rsp.setHeader("Accept-Ranges", "bytes");
+
+        long start = 0;
+        long end = length;
+        String range = req.getHeader("Range");
+        if (range != null && isRangeCurrent(req, lastModified)) {
+            long[] r = parseRange(range, length);
+            if (r != null && r.length == 0) {
+                rsp.setHeader("Content-Range", "bytes */" + length);
+                rsp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (r != null) {
+                start = r[0];
+                end = r[1];
+                rsp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                rsp.setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + length);
+            }
+        }
+
+        String mimeType = req.getServletContext().getMimeType(fileName);
+        rsp.setContentType(mimeType != null ? mimeType : "application/octet-stream");
+        rsp.setContentLengthLong(end - start);
+        if (req.getMethod().equals("HEAD")) {
+            return;
+        }
+
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            OutputStream out = rsp.getOutputStream();
+            // some containers can take the channel as is and let the kernel do the copying
+            WritableByteChannel target = out instanceof WritableByteChannel ? (WritableByteChannel) out : Channels.newChannel(out);
+            long pos = start;
+            while (pos < end) {
+                long n = ch.transferTo(pos, end - pos, target);
+                if (n <= 0 && pos >= ch.size()) {
+                    throw new EOFException(file + " was truncated while being served");
+                }
+                pos += n;
+            }
+        } catch (InvalidPathException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Checks the {@code If-Range} header, if any, against the modification date of the file.
+     */
+    private static boolean isRangeCurrent(StaplerRequest req, long lastModified) {
+        if (req.getHeader("If-Range") == null) {
+            return true;
+        }
+        try {
+            return req.getDateHeader("If-Range") / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException e) {
+            return false; // an entity tag, but we never send one
+        }
+    }
+
+    /**
+     * Parses the value of a {@code Range} header.
+     *
+     * @return
+     *      the start (inclusive) and end (exclusive) offsets of the requested range;
+     *      an empty array if the range cannot be satisfied;
+     *      or null if the header is to be ignored, which is the case for multiple ranges and malformed values.
+     */
+    static @CheckForNull long[] parseRange(String header, long length) {
+        header = header.trim();
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // suffix range: the last N bytes
+                long n = Long.parseLong(last);
+                if (n < 0) {
+                    return null;
+                }
+                if (n == 0 || length == 0) {
+                    return new long[0];
+                }
+                return new long[] {Math.max(0, length - n), length};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start) {
+                return null;
+            }
+            if (start >= length) {
+                return new long[0];
+            }
+            return new long[] {start, Math.min(end, length - 1) + 1};
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
 
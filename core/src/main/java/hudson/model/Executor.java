@@ -468,6 +468,8 @@ public class Executor extends Thread implements ModelObject {
             workUnit.context.abort(e);
         } finally {
             workUnit.setExecutor(null);
+            // the completed build may have been what kept other items blocked
+            queue.markRelatedDirty(workUnit.context.task);
         }
     }
 
@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model;
+
+import hudson.Extension;
+import hudson.Functions;
+import hudson.Util;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps each {@link Fingerprint} in its own XML file under {@code fingerprints/xx/yy/}.
+ *
+ * @since 2.82
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public final class FileFingerprintStorage extends FingerprintStorage {
+
+    @Override
+    public void save(@Nonnull Fingerprint fp) throws IOException {
+        fp.save(getFile(fp));
+    }
+
+    @Override
+    public @CheckForNull Fingerprint load(@Nonnull byte[] md5sum) throws IOException {
+        return Fingerprint.load(Fingerprint.getFingerprintFile(md5sum));
+    }
+
+    @Override
+    public void delete(@Nonnull byte[] md5sum) throws IOException {
+        File f = Fingerprint.getFingerprintFile(md5sum);
+        if (f.exists() && !f.delete()) {
+            throw new IOException("Failed to delete " + f);
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return getRoot().exists();
+    }
+
+    private static File getRoot() {
+        return new File(Jenkins.getInstance().getRootDir(), "fingerprints");
+    }
+
+    private static File getFile(Fingerprint fp) {
+        return Fingerprint.getFingerprintFile(Util.fromHexString(fp.getHashString()));
+    }
+
+    @Override
+    public int cleanUp(@Nonnull TaskListener listener) {
+        int numFiles = 0;
+
+        File[] files1 = getRoot().listFiles(LENGTH2DIR_FILTER);
+        if(files1!=null) {
+            for (File file1 : files1) {
+                File[] files2 = file1.listFiles(LENGTH2DIR_FILTER);
+                for(File file2 : files2) {
+                    File[] files3 = file2.listFiles(FINGERPRINTFILE_FILTER);
+                    for(File file3 : files3) {
+                        if(check(file3, listener))
+                            numFiles++;
+                    }
+                    deleteIfEmpty(file2);
+                }
+                deleteIfEmpty(file1);
+            }
+        }
+        return numFiles;
+    }
+
+    /**
+     * Deletes a directory if it's empty.
+     */
+    private void deleteIfEmpty(File dir) {
+        String[] r = dir.list();
+        if(r==null)     return; // can happen in a rare occasion
+        if(r.length==0)
+            dir.delete();
+    }
+
+    /**
+     * Examines the file and returns true if a file was deleted or changed.
+     */
+    private boolean check(File fingerprintFile, TaskListener listener) {
+        try {
+            Fingerprint fp = Fingerprint.load(fingerprintFile);
+            if (fp == null) {
+                listener.getLogger().println("deleting obsolete " + fingerprintFile);
+                fingerprintFile.delete();
+                return true;
+            }
+            return cleanUp(fp, listener);
+        } catch (IOException e) {
+            Functions.printStackTrace(e, listener.error("Failed to process " + fingerprintFile));
+            return false;
+        }
+    }
+
+    private static final FileFilter LENGTH2DIR_FILTER = new FileFilter() {
+        public boolean accept(File f) {
+            return f.isDirectory() && f.getName().length()==2;
+        }
+    };
+
+    private static final FileFilter FINGERPRINTFILE_FILTER = new FileFilter() {
+        private final Pattern PATTERN = Pattern.compile("[0-9a-f]{28}\\.xml");
+
+        public boolean accept(File f) {
+            return f.isFile() && PATTERN.matcher(f.getName()).matches();
+        }
+    };
+}
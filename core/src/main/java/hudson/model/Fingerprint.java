@@ -59,6 +59,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -68,7 +69,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.CheckForNull;
@@ -342,37 +345,63 @@ public class Fingerprint implements ModelObject, Saveable {
 
     /**
      * Set of {@link Range}s. Mutable.
+     *
+     * <p>
+     * The ranges are kept as a flat array of start and end pairs which is never modified once published,
+     * so that reading takes no lock, and modifications swap in a new array. Once modified, the ranges are
+     * sorted, disjoint and not adjacent, and {@link #includes(int)} is a binary search. Until then, a set
+     * parsed by {@link #fromString(String, boolean)} keeps the ranges as they were given.
      */
     @ExportedBean(defaultVisibility=3)
     public static final class RangeSet {
-        // sorted
-        private final List<Range> ranges;
+        private static final int[] EMPTY = new int[0];
+
+        private static final AtomicReferenceFieldUpdater<RangeSet,int[]> RANGES
+                = AtomicReferenceFieldUpdater.newUpdater(RangeSet.class,int[].class,"ranges");
+
+        /**
+         * Start and end of each range, one after the other.
+         */
+        private volatile int[] ranges;
+
+        /**
+         * Whether {@link #ranges} is known to be sorted, disjoint and not adjacent.
+         * Only ever goes from false to true, after {@link #ranges} is.
+         */
+        private volatile boolean normalized;
 
         public RangeSet() {
-            this(new ArrayList<Range>());
+            this(EMPTY);
+        }
+
+        private RangeSet(int[] ranges) {
+            this.ranges = ranges;
+            this.normalized = isNormalized(ranges);
         }
 
         private RangeSet(List<Range> data) {
-            this.ranges = data;
+            this(toArray(data));
         }
 
         private RangeSet(Range initial) {
-            this();
-            ranges.add(initial);
+            this(new int[] {initial.start,initial.end});
+        }
+
+        /**
+         * Creates a range set from ranges as returned by {@link #getRanges()}, that is sorted and disjoint.
+         */
+        /*package*/ static RangeSet fromRanges(List<Range> ranges) {
+            return new RangeSet(ranges);
         }
 
         /**
          * List all numbers in this range set, in the ascending order.
          */
         public Iterable<Integer> listNumbers() {
-            final List<Range> ranges = getRanges();
+            final int[] ranges = this.ranges;
             return new Iterable<Integer>() {
                 public Iterator<Integer> iterator() {
-                    return new Iterators.FlattenIterator<Integer,Range>(ranges) {
-                        protected Iterator<Integer> expand(Range range) {
-                            return Iterators.sequence(range.start,range.end).iterator();
-                        }
-                    };
+                    return new NumberIterator(ranges,false);
                 }
             };
         }
@@ -400,113 +429,133 @@ public class Fingerprint implements ModelObject, Saveable {
          * List all numbers in this range set in the descending order.
          */
         public Iterable<Integer> listNumbersReverse() {
-            final List<Range> ranges = getRanges();
+            final int[] ranges = this.ranges;
             return new Iterable<Integer>() {
                 public Iterator<Integer> iterator() {
-                    return new Iterators.FlattenIterator<Integer,Range>(Iterators.reverse(ranges)) {
-                        protected Iterator<Integer> expand(Range range) {
-                            return Iterators.reverseSequence(range.start,range.end).iterator();
-                        }
-                    };
+                    return new NumberIterator(ranges,true);
                 }
             };
         }
 
+        /**
+         * Walks through the numbers of the ranges directly, rather than through {@link Range}s.
+         */
+        private static final class NumberIterator implements Iterator<Integer> {
+            private final int[] ranges;
+            private final boolean reverse;
+            /**
+             * Index of the start of the current range.
+             */
+            private int i;
+            /**
+             * Next number to return.
+             */
+            private int next;
+
+            NumberIterator(int[] ranges, boolean reverse) {
+                this.ranges = ranges;
+                this.reverse = reverse;
+                i = reverse ? ranges.length-2 : 0;
+                if (i>=0 && i<ranges.length)
+                    next = reverse ? ranges[i+1]-1 : ranges[i];
+            }
+
+            public boolean hasNext() {
+                return i>=0 && i<ranges.length;
+            }
+
+            public Integer next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                int n = next;
+                if (reverse) {
+                    if (--next<ranges[i]) {
+                        i -= 2;
+                        if (i>=0)   next = ranges[i+1]-1;
+                    }
+                } else {
+                    if (++next>=ranges[i+1]) {
+                        i += 2;
+                        if (i<ranges.length)    next = ranges[i];
+                    }
+                }
+                return n;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        }
+
         /**
          * Gets all the ranges.
          */
         @Exported
-        public synchronized List<Range> getRanges() {
-            return new ArrayList<Range>(ranges);
+        public List<Range> getRanges() {
+            int[] ranges = this.ranges;
+            List<Range> r = new ArrayList<Range>(ranges.length/2);
+            for (int i=0; i<ranges.length; i+=2)
+                r.add(new Range(ranges[i],ranges[i+1]));
+            return r;
         }
 
         /**
          * Expands the range set to include the given value.
          * If the set already includes this number, this will be a no-op.
          */
-        public synchronized void add(int n) {
-            for( int i=0; i<ranges.size(); i++ ) {
-                Range r = ranges.get(i);
-                if(r.includes(n))   return; // already included
-                if(r.end==n) {
-                    ranges.set(i,r.expandRight());
-                    checkCollapse(i);
-                    return;
-                }
-                if(r.start==n+1) {
-                    ranges.set(i,r.expandLeft());
-                    checkCollapse(i-1);
-                    return;
-                }
-                if(r.isBiggerThan(n)) {
-                    // needs to insert a single-value Range
-                    ranges.add(i,new Range(n,n+1));
+        public void add(int n) {
+            while (true) {
+                int[] current = normalizedRanges();
+                int[] updated = add(current,n);
+                if (updated==current || RANGES.compareAndSet(this,current,updated))
                     return;
-                }
             }
-
-            ranges.add(new Range(n,n+1));
         }
 
-        public synchronized void addAll(int... n) {
-            for (int i : n)
-                add(i);
-        }
-
-
-        private void checkCollapse(int i) {
-            if(i<0 || i==ranges.size()-1)     return;
-            Range lhs = ranges.get(i);
-            Range rhs = ranges.get(i+1);
-            if(lhs.isAdjacentTo(rhs)) {
-                // collapsed
-                Range r = new Range(lhs.start,rhs.end);
-                ranges.set(i,r);
-                ranges.remove(i+1);
+        public void addAll(int... n) {
+            int[] sorted = n.clone();
+            Arrays.sort(sorted);
+            int[] that = new int[sorted.length*2];
+            int k=0;
+            for (int i : sorted) {
+                if (k>0 && i<=that[k-1]) {
+                    that[k-1] = Math.max(that[k-1],i+1);
+                } else {
+                    that[k++] = i;
+                    that[k++] = i+1;
+                }
             }
+            addNormalized(Arrays.copyOf(that,k));
         }
 
-        public synchronized boolean includes(int i) {
-            for (Range r : ranges) {
-                if(r.includes(i))
+        public boolean includes(int n) {
+            boolean normalized = this.normalized;
+            int[] ranges = this.ranges;
+            if (normalized) {
+                int i = search(ranges,n);
+                return i>=0 && n<ranges[i*2+1];
+            }
+            for (int i=0; i<ranges.length; i+=2) {
+                if (ranges[i]<=n && n<ranges[i+1])
                     return true;
             }
             return false;
         }
 
-        public synchronized void add(RangeSet that) {
-            int lhs=0,rhs=0;
-            while(lhs<this.ranges.size() && rhs<that.ranges.size()) {
-                Range lr = this.ranges.get(lhs);
-                Range rr = that.ranges.get(rhs);
-
-                // no overlap
-                if(lr.end<rr.start) {
-                    lhs++;
-                    continue;
-                }
-                if(rr.end<lr.start) {
-                    ranges.add(lhs,rr);
-                    lhs++;
-                    rhs++;
-                    continue;
-                }
-
-                // overlap. merge two
-                Range m = lr.combine(rr);
-                rhs++;
-
-                // since ranges[lhs] is expanded, it might overlap with others in this.ranges
-                while(lhs+1<this.ranges.size() && !m.isIndependent(this.ranges.get(lhs+1))) {
-                    m = m.combine(this.ranges.get(lhs+1));
-                    this.ranges.remove(lhs+1);
-                }
+        /**
+         * Adds all the numbers in the given range set, merging the two in one pass.
+         */
+        public void add(RangeSet that) {
+            addNormalized(that.normalizedRanges());
+        }
 
-                this.ranges.set(lhs,m);
+        private void addNormalized(int[] that) {
+            while (true) {
+                int[] current = normalizedRanges();
+                int[] updated = union(current,that);
+                if (updated==current || RANGES.compareAndSet(this,current,updated))
+                    return;
             }
-
-            // if anything is left in that.ranges, add them all
-            this.ranges.addAll(that.ranges.subList(rhs,that.ranges.size()));
         }
 
         /**
@@ -514,122 +563,216 @@ public class Fingerprint implements ModelObject, Saveable {
          *
          * @return true if this range set was modified as a result.
          */
-        public synchronized boolean retainAll(RangeSet that) {
-            List<Range> intersection = new ArrayList<Range>();
+        public boolean retainAll(RangeSet that) {
+            int[] other = that.normalizedRanges();
+            while (true) {
+                int[] current = normalizedRanges();
+                int[] updated = intersect(current,other);
+                if (Arrays.equals(current,updated))
+                    return false;
+                if (RANGES.compareAndSet(this,current,updated))
+                    return true;
+            }
+        }
 
-            int lhs=0,rhs=0;
-            while(lhs<this.ranges.size() && rhs<that.ranges.size()) {
-                Range lr = this.ranges.get(lhs);
-                Range rr = that.ranges.get(rhs);
+        /**
+         * Updates this range set by removing all the values in the given range set.
+         *
+         * @return true if this range set was modified as a result.
+         */
+        public boolean removeAll(RangeSet that) {
+            int[] other = that.normalizedRanges();
+            while (true) {
+                int[] current = normalizedRanges();
+                int[] updated = subtract(current,other);
+                if (Arrays.equals(current,updated))
+                    return false;
+                if (RANGES.compareAndSet(this,current,updated))
+                    return true;
+            }
+        }
 
-                if(lr.end<=rr.start) {// lr has no overlap with that.ranges
-                    lhs++;
-                    continue;
-                }
-                if(rr.end<=lr.start) {// rr has no overlap with this.ranges
-                    rhs++;
-                    continue;
-                }
+        /**
+         * Gets {@link #ranges}, sorting and merging them first if need be.
+         */
+        private int[] normalizedRanges() {
+            while (!normalized) {
+                int[] current = ranges;
+                if (RANGES.compareAndSet(this,current,normalize(current)))
+                    normalized = true;
+            }
+            return ranges;
+        }
 
-                // overlap. figure out the intersection
-                Range v = lr.intersect(rr);
-                intersection.add(v);
+        private static boolean isNormalized(int[] ranges) {
+            for (int i=0; i<ranges.length; i+=2) {
+                if (ranges[i]>=ranges[i+1] || (i>0 && ranges[i]<=ranges[i-1]))
+                    return false;
+            }
+            return true;
+        }
 
-                // move on to the next pair
-                if (lr.end<rr.end) {
-                    lhs++;
+        private static int[] normalize(int[] ranges) {
+            if (isNormalized(ranges))
+                return ranges;
+            // sort by start, then merge whatever overlaps or touches
+            long[] pairs = new long[ranges.length/2];
+            for (int i=0; i<pairs.length; i++)
+                pairs[i] = ((long)ranges[i*2]<<32) | (ranges[i*2+1]&0xFFFFFFFFL);
+            Arrays.sort(pairs);
+            int[] r = new int[ranges.length];
+            int k=0;
+            for (long p : pairs) {
+                int start = (int)(p>>32), end = (int)p;
+                if (start>=end)     continue;
+                if (k>0 && start<=r[k-1]) {
+                    r[k-1] = Math.max(r[k-1],end);
                 } else {
-                    rhs++;
+                    r[k++] = start;
+                    r[k++] = end;
                 }
             }
+            return Arrays.copyOf(r,k);
+        }
 
-            boolean same = this.ranges.equals(intersection);
+        private static int[] toArray(List<Range> ranges) {
+            int[] r = new int[ranges.size()*2];
+            int k=0;
+            for (Range range : ranges) {
+                r[k++] = range.start;
+                r[k++] = range.end;
+            }
+            return r;
+        }
 
-            if (!same) {
-                this.ranges.clear();
-                this.ranges.addAll(intersection);
-                return true;
+        /**
+         * Finds the last range that starts at or before the given number.
+         *
+         * @return its index, or -1 if there is none.
+         */
+        private static int search(int[] ranges, int n) {
+            int lo=0, hi=ranges.length/2-1;
+            while (lo<=hi) {
+                int mid = (lo+hi)>>>1;
+                if (ranges[mid*2]<=n)
+                    lo = mid+1;
+                else
+                    hi = mid-1;
+            }
+            return hi;
+        }
+
+        /**
+         * @return the given array if it already includes the number.
+         */
+        private static int[] add(int[] ranges, int n) {
+            int i = search(ranges,n);
+            if (i>=0 && n<ranges[i*2+1])
+                return ranges; // already included
+            boolean joinsLeft = i>=0 && ranges[i*2+1]==n;
+            boolean joinsRight = i*2+2<ranges.length && ranges[i*2+2]==n+1;
+            int[] r;
+            if (joinsLeft && joinsRight) {
+                // fills the gap between two ranges, so they collapse
+                r = new int[ranges.length-2];
+                System.arraycopy(ranges,0,r,0,i*2+1);
+                System.arraycopy(ranges,i*2+3,r,i*2+1,ranges.length-i*2-3);
+            } else if (joinsLeft) {
+                r = ranges.clone();
+                r[i*2+1] = n+1;
+            } else if (joinsRight) {
+                r = ranges.clone();
+                r[i*2+2] = n;
             } else {
-                return false;
+                // needs to insert a single-value range
+                r = new int[ranges.length+2];
+                System.arraycopy(ranges,0,r,0,i*2+2);
+                r[i*2+2] = n;
+                r[i*2+3] = n+1;
+                System.arraycopy(ranges,i*2+2,r,i*2+4,ranges.length-i*2-2);
             }
+            return r;
         }
 
         /**
-         * Updates this range set by removing all the values in the given range set.
-         *
-         * @return true if this range set was modified as a result.
+         * @return the first array if the second one adds nothing to it.
          */
-        public synchronized boolean removeAll(RangeSet that) {
-            boolean modified = false;
-            List<Range> sub = new ArrayList<Range>();
-
-            int lhs=0,rhs=0;
-            while(lhs<this.ranges.size() && rhs<that.ranges.size()) {
-                Range lr = this.ranges.get(lhs);
-                Range rr = that.ranges.get(rhs);
-
-                if(lr.end<=rr.start) {// lr has no overlap with that.ranges. lr stays
-                    sub.add(lr);
-                    lhs++;
-                    continue;
+        private static int[] union(int[] a, int[] b) {
+            if (b.length==0)    return a;
+            if (a.length==0)    return b;
+            int[] r = new int[a.length+b.length];
+            int i=0, j=0, k=0;
+            while (i<a.length || j<b.length) {
+                int start, end;
+                if (j>=b.length || (i<a.length && a[i]<=b[j])) {
+                    start = a[i];
+                    end = a[i+1];
+                    i += 2;
+                } else {
+                    start = b[j];
+                    end = b[j+1];
+                    j += 2;
                 }
-                if(rr.end<=lr.start) {// rr has no overlap with this.ranges
-                    rhs++;
-                    continue;
+                if (k>0 && start<=r[k-1]) {
+                    r[k-1] = Math.max(r[k-1],end);
+                } else {
+                    r[k++] = start;
+                    r[k++] = end;
                 }
-
-                // some overlap between lr and rr
-                assert !lr.isDisjoint(rr);
-                modified = true;
-
-                if (rr.contains(lr)) {
-                    // lr completely removed by rr
-                    lhs++;
-                    continue;
+            }
+            r = Arrays.copyOf(r,k);
+            return Arrays.equals(a,r) ? a : r;
+        }
+
+        private static int[] intersect(int[] a, int[] b) {
+            int[] r = new int[a.length+b.length];
+            int i=0, j=0, k=0;
+            while (i<a.length && j<b.length) {
+                int start = Math.max(a[i],b[j]);
+                int end = Math.min(a[i+1],b[j+1]);
+                if (start<end) {
+                    r[k++] = start;
+                    r[k++] = end;
                 }
-
-                // we want to look at A and B below, if they are non-null.
-                // |------------| lr
-                //     |-----|    rr
-                //   A         B
-                //
-                // note that lr and rr could be something like or the other way around
-                // |------------| lr
-                //         |------------| rr
-                //     A             (no B)
-
-                if (lr.start<rr.start) {// if A is non-empty, that will stay
-                    Range a = new Range(lr.start, rr.start);
-                    sub.add(a);
+                // move on past whichever ends first
+                if (a[i+1]<b[j+1])
+                    i += 2;
+                else
+                    j += 2;
+            }
+            return Arrays.copyOf(r,k);
+        }
+
+        private static int[] subtract(int[] a, int[] b) {
+            int[] r = new int[a.length+b.length];
+            int j=0, k=0;
+            for (int i=0; i<a.length; i+=2) {
+                int start = a[i], end = a[i+1];
+                // skip what ends before this range; ranges of b after that may still cut into the next ones of a
+                while (j<b.length && b[j+1]<=start)
+                    j += 2;
+                for (int l=j; l<b.length && b[l]<end && start<end; l+=2) {
+                    if (start<b[l]) {
+                        r[k++] = start;
+                        r[k++] = b[l];
+                    }
+                    start = Math.max(start,b[l+1]);
                 }
-
-                if (rr.end<lr.end) {// if B is non-empty
-                    // we still need to check that with that.ranges, so keep it in the place of lr.
-                    // how much of them will eventually stay is up to the remainder of that.ranges
-                    this.ranges.set(lhs,new Range(rr.end,lr.end));
-                    rhs++;
-                } else {
-                    // if B is empty, we are done considering lr
-                    lhs++;
+                if (start<end) {
+                    r[k++] = start;
+                    r[k++] = end;
                 }
             }
-
-            if (!modified)  return false;   // no changes
-
-            // whatever that remains in lhs will survive
-            sub.addAll(this.ranges.subList(lhs,this.ranges.size()));
-
-            this.ranges.clear();
-            this.ranges.addAll(sub);
-            return true;
+            return Arrays.copyOf(r,k);
         }
 
         @Override
-        public synchronized String toString() {
+        public String toString() {
+            int[] ranges = this.ranges;
             StringBuilder buf = new StringBuilder();
-            for (Range r : ranges) {
+            for (int i=0; i<ranges.length; i+=2) {
                 if(buf.length()>0)  buf.append(',');
-                buf.append(r);
+                buf.append('[').append(ranges[i]).append(',').append(ranges[i+1]).append(')');
             }
             return buf.toString();
         }
@@ -639,17 +782,17 @@ public class Fingerprint implements ModelObject, Saveable {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
 
-            return ranges.equals(((RangeSet) o).ranges);
+            return Arrays.equals(ranges,((RangeSet) o).ranges);
 
         }
 
         @Override
         public int hashCode() {
-            return ranges.hashCode();
+            return Arrays.hashCode(ranges);
         }
 
-        public synchronized boolean isEmpty() {
-            return ranges.isEmpty();
+        public boolean isEmpty() {
+            return ranges.length==0;
         }
 
         /**
@@ -657,8 +800,8 @@ public class Fingerprint implements ModelObject, Saveable {
          * <p>
          * If this range is empty, this method throws an exception.
          */
-        public synchronized int min() {
-            return ranges.get(0).start;
+        public int min() {
+            return ranges[0];
         }
 
         /**
@@ -666,8 +809,9 @@ public class Fingerprint implements ModelObject, Saveable {
          * <p>
          * If this range is empty, this method throws an exception.
          */
-        public synchronized int max() {
-            return ranges.get(ranges.size()-1).end;
+        public int max() {
+            int[] ranges = this.ranges;
+            return ranges[ranges.length-1];
         }
 
         /**
@@ -677,17 +821,18 @@ public class Fingerprint implements ModelObject, Saveable {
          *
          * Note that {} is smaller than any n.
          */
-        public synchronized boolean isSmallerThan(int n) {
-            if(ranges.isEmpty())    return true;
+        public boolean isSmallerThan(int n) {
+            int[] ranges = this.ranges;
+            if(ranges.length==0)    return true;
 
-            return ranges.get(ranges.size() - 1).isSmallerThan(n);
+            return ranges[ranges.length-1]<=n;
         }
 
         /**
          * Parses a {@link RangeSet} from a string like "1-3,5,7-9"
          */
         public static RangeSet fromString(String list, boolean skipError) {
-            RangeSet rs = new RangeSet();
+            List<Range> ranges = new ArrayList<Range>();
 
             // Reject malformed ranges like "1---10", "1,,,,3" etc.
             if (list.contains("--") || list.contains(",,")) {
@@ -696,7 +841,7 @@ public class Fingerprint implements ModelObject, Saveable {
                             String.format("Unable to parse '%s', expected correct notation M,N or M-N", list));
                 }
                 // ignore malformed notation
-                return rs;
+                return new RangeSet();
             }
 
             String[] items = Util.tokenize(list,",");
@@ -706,7 +851,7 @@ public class Fingerprint implements ModelObject, Saveable {
                             String.format("Unable to parse '%s', expected correct notation M,N or M-N", list));
                 }
                 // ignore malformed notation like ",1,2" or "1,2,"
-                return rs;
+                return new RangeSet();
             }
 
             for (String s : items) {
@@ -751,7 +896,7 @@ public class Fingerprint implements ModelObject, Saveable {
                                 // ignore inverse range like "10-5"
                                 continue;
                             }
-                            rs.ranges.add(new Range(left, right+1));
+                            ranges.add(new Range(left, right+1));
                         } else {
                             if (!skipError) {
                                 throw new IllegalArgumentException(
@@ -762,7 +907,7 @@ public class Fingerprint implements ModelObject, Saveable {
                         }
                     } else {
                         int n = Integer.parseInt(s);
-                        rs.ranges.add(new Range(n,n+1));
+                        ranges.add(new Range(n,n+1));
                     }
                 } catch (NumberFormatException e) {
                     if (!skipError)
@@ -771,7 +916,7 @@ public class Fingerprint implements ModelObject, Saveable {
                     // ignore malformed text
                 }
             }
-            return rs;
+            return new RangeSet(ranges);
         }
 
         static final class ConverterImpl implements Converter {
@@ -791,13 +936,14 @@ public class Fingerprint implements ModelObject, Saveable {
             }
 
             static String serialize(RangeSet src) {
-                StringBuilder buf = new StringBuilder(src.ranges.size()*10);
-                for (Range r : src.ranges) {
+                int[] ranges = src.ranges;
+                StringBuilder buf = new StringBuilder(ranges.length*5);
+                for (int i=0; i<ranges.length; i+=2) {
                     if(buf.length()>0)  buf.append(',');
-                    if(r.isSingle())
-                        buf.append(r.start);
+                    if(ranges[i+1]-1==ranges[i])
+                        buf.append(ranges[i]);
                     else
-                        buf.append(r.start).append('-').append(r.end-1);
+                        buf.append(ranges[i]).append('-').append(ranges[i+1]-1);
                 }
                 return buf.toString();
             }
@@ -883,10 +1029,17 @@ public class Fingerprint implements ModelObject, Saveable {
     }
 
     Fingerprint(@CheckForNull BuildPtr original, @Nonnull String fileName, @Nonnull byte[] md5sum) {
+        this(original, fileName, md5sum, new Date());
+    }
+
+    /**
+     * Restores a fingerprint read by a {@link FingerprintStorage}.
+     */
+    Fingerprint(@CheckForNull BuildPtr original, @Nonnull String fileName, @Nonnull byte[] md5sum, @Nonnull Date timestamp) {
         this.original = original;
         this.md5sum = md5sum;
         this.fileName = fileName;
-        this.timestamp = new Date();
+        this.timestamp = timestamp;
     }
 
     /**
@@ -1126,7 +1279,7 @@ public class Fingerprint implements ModelObject, Saveable {
 
         if (modified) {
             if (logger.isLoggable(Level.FINE)) {
-                logger.log(Level.FINE, "Saving trimmed {0}", getFingerprintFile(md5sum));
+                logger.log(Level.FINE, "Saving trimmed {0}", getHashString());
             }
             save();
         }
@@ -1241,12 +1394,39 @@ public class Fingerprint implements ModelObject, Saveable {
         if(logger.isLoggable(Level.FINE))
             start = System.currentTimeMillis();
 
-        File file = getFingerprintFile(md5sum);
-        save(file);
-        SaveableListener.fireOnChange(this, getConfigFile(file));
+        FingerprintStorage.get().save(this);
+        // listeners are told about the file that the fingerprint would have, whatever the storage
+        SaveableListener.fireOnChange(this, getConfigFile(getFingerprintFile(md5sum)));
+
+        if(logger.isLoggable(Level.FINE))
+            logger.fine("Saving fingerprint "+getHashString()+" took "+(System.currentTimeMillis()-start)+"ms");
+    }
+
+    /**
+     * Saves several fingerprints, as {@link #save()} would one by one, but letting the {@link FingerprintStorage} write them together.
+     */
+    /*package*/ static void saveAll(@Nonnull Collection<Fingerprint> fingerprints) throws IOException {
+        List<Fingerprint> toSave = new ArrayList<Fingerprint>(fingerprints.size());
+        for (Fingerprint fp : fingerprints) {
+            if (!BulkChange.contains(fp)) {
+                toSave.add(fp);
+            }
+        }
+        if (toSave.isEmpty()) {
+            return;
+        }
+
+        long start=0;
+        if(logger.isLoggable(Level.FINE))
+            start = System.currentTimeMillis();
+
+        FingerprintStorage.get().saveAll(toSave);
+        for (Fingerprint fp : toSave) {
+            SaveableListener.fireOnChange(fp, getConfigFile(getFingerprintFile(fp.md5sum)));
+        }
 
         if(logger.isLoggable(Level.FINE))
-            logger.fine("Saving fingerprint "+file+" took "+(System.currentTimeMillis()-start)+"ms");
+            logger.fine("Saving "+toSave.size()+" fingerprints took "+(System.currentTimeMillis()-start)+"ms");
     }
 
     void save(File file) throws IOException {
@@ -1342,9 +1522,13 @@ public class Fingerprint implements ModelObject, Saveable {
     /**
      * Determines the file name from md5sum.
      */
-    private static @Nonnull File getFingerprintFile(@Nonnull byte[] md5sum) {
+    static @Nonnull File getFingerprintFile(@Nonnull byte[] md5sum) {
+        return getFingerprintFile(Jenkins.getInstance().getRootDir(), md5sum);
+    }
+
+    static @Nonnull File getFingerprintFile(@Nonnull File rootDir, @Nonnull byte[] md5sum) {
         assert md5sum.length==16;
-        return new File( Jenkins.getInstance().getRootDir(),
+        return new File( rootDir,
             "fingerprints/"+ Util.toHexString(md5sum,0,1)+'/'+Util.toHexString(md5sum,1,1)+'/'+Util.toHexString(md5sum,2,md5sum.length-2)+".xml");
     }
 
@@ -1354,7 +1538,7 @@ public class Fingerprint implements ModelObject, Saveable {
      * malformed.
      */
     /*package*/ static @CheckForNull Fingerprint load(@Nonnull byte[] md5sum) throws IOException {
-        return load(getFingerprintFile(md5sum));
+        return FingerprintStorage.get().load(md5sum);
     }
     /*package*/ static @CheckForNull Fingerprint load(@Nonnull File file) throws IOException {
         XmlFile configFile = getConfigFile(file);
@@ -1369,11 +1553,7 @@ public class Fingerprint implements ModelObject, Saveable {
             Fingerprint f = (Fingerprint) configFile.read();
             if(logger.isLoggable(Level.FINE))
                 logger.fine("Loading fingerprint "+file+" took "+(System.currentTimeMillis()-start)+"ms");
-            if (f.facets==null)
-                f.facets = new PersistedList<FingerprintFacet>(f);
-            for (FingerprintFacet facet : f.facets)
-                facet._setOwner(f);
-            return f;
+            return f.initFacets();
         } catch (IOException e) {
             if(file.exists() && file.length()==0) {
                 // Despite the use of AtomicFile, there are reports indicating that people often see
@@ -1396,6 +1576,17 @@ public class Fingerprint implements ModelObject, Saveable {
             throw e;
         }
     }
+    /**
+     * Sets up {@link #facets} after unmarshalling.
+     */
+    /*package*/ Fingerprint initFacets() {
+        if (facets==null)
+            facets = new PersistedList<FingerprintFacet>(this);
+        for (FingerprintFacet facet : facets)
+            facet._setOwner(this);
+        return this;
+    }
+
     private static String messageOfParseException(Throwable t) {
         if (t instanceof XmlPullParserException || t instanceof EOFException) {
             return t.getMessage();
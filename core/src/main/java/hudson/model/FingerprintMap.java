@@ -27,9 +27,11 @@ import hudson.Util;
 import hudson.util.KeyedDataStorage;
 import jenkins.model.Jenkins;
 
-import java.io.File;
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
@@ -50,7 +52,7 @@ public final class FingerprintMap extends KeyedDataStorage<Fingerprint,Fingerpri
      * Returns true if there's some data in the fingerprint database.
      */
     public boolean isReady() {
-        return new File(Jenkins.getInstance().getRootDir(),"fingerprints").exists();
+        return FingerprintStorage.get().isReady();
     }
 
     /**
@@ -72,6 +74,37 @@ public final class FingerprintMap extends KeyedDataStorage<Fingerprint,Fingerpri
         return super.getOrCreate(md5sum, new FingerprintParams(build,fileName));
     }
 
+    /**
+     * Records that a build used the given files, as {@link #getOrCreate(Run, String, String)} and {@link Fingerprint#addFor(Run)}
+     * would for each of them, except that each fingerprint is saved only once, and all of them together.
+     *
+     * @param files
+     *      from MD5 checksum to file name.
+     * @param produced
+     *      checksums of the files that were produced by this build, which is then their owner if they are new.
+     * @return
+     *      from MD5 checksum to fingerprint, missing the checksums that are not valid.
+     * @throws IOException Loading or saving error
+     * @since 2.82
+     */
+    public @Nonnull Map<String,Fingerprint> addFor(@Nonnull Run<?,?> build, @Nonnull Map<String,String> files, @Nonnull Set<String> produced) throws IOException {
+        String job = build.getParent().getFullName();
+        Map<String,Fingerprint> r = new LinkedHashMap<String,Fingerprint>();
+        for (Map.Entry<String,String> e : files.entrySet()) {
+            FingerprintParams params = new FingerprintParams(produced.contains(e.getKey()) ? build : null, e.getValue(), false);
+            Fingerprint fp = super.getOrCreate(e.getKey(), params);
+            if (fp == null) {
+                continue;
+            }
+            synchronized (fp) {
+                fp.addWithoutSaving(job, build.getNumber());
+            }
+            r.put(e.getKey(), fp);
+        }
+        Fingerprint.saveAll(r.values());
+        return r;
+    }
+
     @Override
     protected Fingerprint get(String md5sum, boolean createIfNotExist, FingerprintParams createParams) throws IOException {
         // sanity check
@@ -90,6 +123,9 @@ public final class FingerprintMap extends KeyedDataStorage<Fingerprint,Fingerpri
     }
 
     protected @Nonnull Fingerprint create(@Nonnull String md5sum, @Nonnull FingerprintParams createParams) throws IOException {
+        if (!createParams.save) {
+            return new Fingerprint(createParams.build == null ? null : new Fingerprint.BuildPtr(createParams.build), createParams.fileName, toByteArray(md5sum));
+        }
         return new Fingerprint(createParams.build, createParams.fileName, toByteArray(md5sum));
     }
 
@@ -103,10 +139,19 @@ static class FingerprintParams {
      */
     final @CheckForNull Run build;
     final String fileName;
+    /**
+     * False if the caller saves the {@link Fingerprint} once it is done with it.
+     */
+    final boolean save;
 
     public FingerprintParams(@CheckForNull Run build, @Nonnull String fileName) {
+        this(build, fileName, true);
+    }
+
+    FingerprintParams(@CheckForNull Run build, @Nonnull String fileName, boolean save) {
         this.build = build;
         this.fileName = fileName;
+        this.save = save;
 
         assert fileName!=null;
     }
@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.Util;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Where {@link Fingerprint}s are kept.
+ *
+ * <p>
+ * {@link FingerprintMap} makes sure there is only one {@link Fingerprint} object per hash in memory;
+ * the storage only reads and writes them. The storage in use is chosen by the
+ * {@code hudson.model.FingerprintStorage.type} system property, naming the class of one of the extensions,
+ * and defaults to {@link FileFingerprintStorage}, the one XML file per fingerprint used historically.
+ *
+ * @since 2.82
+ */
+public abstract class FingerprintStorage implements ExtensionPoint {
+
+    /**
+     * Saves the fingerprint, replacing any previous version of it.
+     */
+    public abstract void save(@Nonnull Fingerprint fp) throws IOException;
+
+    /**
+     * Saves several fingerprints, as {@link #save(Fingerprint)} would one by one.
+     * Storages that can write them all at once should override this.
+     */
+    public void saveAll(@Nonnull Collection<Fingerprint> fingerprints) throws IOException {
+        for (Fingerprint fp : fingerprints) {
+            synchronized (fp) {
+                save(fp);
+            }
+        }
+    }
+
+    /**
+     * Loads a fingerprint.
+     *
+     * @return null if there is no fingerprint with this hash, or it could not be read.
+     */
+    public abstract @CheckForNull Fingerprint load(@Nonnull byte[] md5sum) throws IOException;
+
+    /**
+     * Deletes a fingerprint, if it exists.
+     */
+    public abstract void delete(@Nonnull byte[] md5sum) throws IOException;
+
+    /**
+     * Returns true if there is some data in the storage.
+     */
+    public abstract boolean isReady();
+
+    /**
+     * Goes through all the fingerprints, deleting those that refer to no remaining build
+     * and trimming the rest, as per {@link #cleanUp(Fingerprint, TaskListener)}.
+     *
+     * @return the number of fingerprints deleted or changed.
+     * @see FingerprintCleanupThread
+     */
+    public abstract int cleanUp(@Nonnull TaskListener listener);
+
+    /**
+     * Deletes the fingerprint if none of the builds it refers to remain, or else removes the builds that are gone from it.
+     *
+     * @param fp
+     *      as loaded from this storage.
+     * @return true if the fingerprint was deleted or changed.
+     */
+    protected final boolean cleanUp(@Nonnull Fingerprint fp, @Nonnull TaskListener listener) throws IOException {
+        if (!fp.isAlive()) {
+            listener.getLogger().println("deleting obsolete " + fp.getHashString());
+            delete(Util.fromHexString(fp.getHashString()));
+            return true;
+        }
+        // get the fingerprint in the official map so have the changes visible to Jenkins
+        // otherwise the mutation made in FingerprintMap can override our trimming.
+        listener.getLogger().println("possibly trimming " + fp.getHashString());
+        Fingerprint official = Jenkins.getInstance()._getFingerprint(fp.getHashString());
+        return official != null && official.trim();
+    }
+
+    /**
+     * Gets the storage in use.
+     */
+    public static @Nonnull FingerprintStorage get() {
+        ExtensionList<FingerprintStorage> all = ExtensionList.lookup(FingerprintStorage.class);
+        for (FingerprintStorage s : all) {
+            if (s.getClass().getName().equals(TYPE)) {
+                return s;
+            }
+        }
+        FingerprintStorage s = all.get(FileFingerprintStorage.class);
+        if (s == null) {
+            throw new IllegalStateException("No FingerprintStorage found");
+        }
+        return s;
+    }
+
+    /**
+     * Class name of the storage to use.
+     */
+    static /* nonfinal for tests & script console */ String TYPE = SystemProperties.getString(FingerprintStorage.class.getName() + ".type", FileFingerprintStorage.class.getName());
+}
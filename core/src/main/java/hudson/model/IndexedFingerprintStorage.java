@@ -0,0 +1,944 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Functions;
+import hudson.Util;
+import hudson.model.Fingerprint.BuildPtr;
+import hudson.model.Fingerprint.Range;
+import hudson.model.Fingerprint.RangeSet;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps {@link Fingerprint}s in 256 append-only segment files under {@code fingerprints/segments/},
+ * picked by the first byte of the hash, instead of one XML file each.
+ *
+ * <p>
+ * Every save appends a record to the segment, and every deletion a tombstone, so either is a single write.
+ * Each segment keeps a compact {@link OffsetIndex} from hash to the offset of its latest record, built by reading
+ * the segment once, so a lookup is a single read once the segment was indexed. Fingerprints without
+ * {@link Fingerprint#getFacets() facets}, which is most of them, are recorded in a compact binary form
+ * with the {@link RangeSet}s as pairs of integers; the others are recorded as XML.
+ * {@link #cleanUp(TaskListener)} goes through the segments one by one, and rewrites those
+ * in which superseded records take up more than half the space.
+ *
+ * <p>
+ * An index takes 16 bytes a slot, with at least one slot in four free, so some 20 to 45 bytes of heap per fingerprint,
+ * or about 40MB for a million of them. So that this is only spent while fingerprints are being used,
+ * the index of a segment not used for {@link #INDEX_TIMEOUT} is dropped, along with its open file,
+ * and built again by reading the segment the next time it is needed.
+ * This storage is not used unless chosen with {@code hudson.model.FingerprintStorage.type}.
+ *
+ * <p>
+ * Each record is a type byte, the hash, the length and contents of the data, and a CRC-32 of it all, so that a record
+ * cut short by a crash is detected, and the segment truncated before it when it is next indexed;
+ * a corrupt record followed by valid ones is skipped instead, so that those are kept.
+ * Fingerprints still in the {@link FileFingerprintStorage} are read from there, and moved over the next time they are saved.
+ *
+ * @since 2.82
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public final class IndexedFingerprintStorage extends FingerprintStorage {
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    private static final byte BINARY = 1;
+    private static final byte XML = 2;
+
+    /**
+     * Type, hash and length.
+     */
+    private static final int HEADER_SIZE = 1 + 16 + 4;
+
+    /**
+     * Largest data to accept when reading a segment; anything bigger means the segment is corrupt.
+     */
+    private static final int MAX_DATA_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Most fingerprints {@link #saveAll} holds locked at once, and thus writes together.
+     */
+    private static final int MAX_LOCKED = 256;
+
+    /**
+     * Segments smaller than this are never compacted.
+     */
+    private static final long MIN_COMPACTION_SIZE = 64 * 1024;
+
+    /**
+     * Home directory, or null for that of Jenkins.
+     */
+    private final @CheckForNull File root;
+
+    /**
+     * Milliseconds after which the index of a segment that was not used is dropped.
+     */
+    static /* nonfinal for tests & script console */ long INDEX_TIMEOUT = SystemProperties.getLong(IndexedFingerprintStorage.class.getName() + ".indexTimeout", 10 * 60 * 1000L);
+
+    private Segment[] segments;
+
+    /**
+     * When {@link #evictIdleIndexes()} last went through the segments.
+     */
+    private long lastEviction;
+
+    public IndexedFingerprintStorage() {
+        this(null);
+    }
+
+    IndexedFingerprintStorage(@CheckForNull File root) {
+        this.root = root;
+    }
+
+    private File getRoot() {
+        return root != null ? root : Jenkins.getInstance().getRootDir();
+    }
+
+    private Segment segment(byte[] md5sum) {
+        Segment[] all = segments();
+        if (isEvictionDue()) {
+            evictIdleIndexes();
+        }
+        return all[md5sum[0] & 0xFF];
+    }
+
+    private synchronized Segment[] segments() {
+        if (segments == null) {
+            File dir = new File(getRoot(), "fingerprints/segments");
+            segments = new Segment[256];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = new Segment(new File(dir, Util.toHexString(new byte[] {(byte) i})));
+            }
+        }
+        return segments;
+    }
+
+    private synchronized boolean isEvictionDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastEviction < INDEX_TIMEOUT) {
+            return false;
+        }
+        lastEviction = now;
+        return true;
+    }
+
+    /**
+     * Drops the indexes of the segments not used for {@link #INDEX_TIMEOUT}.
+     * Done outside of the lock of the storage, as a segment may be busy being read through.
+     *
+     * @return the number of indexes dropped
+     */
+    int evictIdleIndexes() {
+        long now = System.currentTimeMillis();
+        int n = 0;
+        for (Segment s : segments()) {
+            if (s.evictIndexIfIdle(now)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Number of segments whose index is in memory.
+     */
+    int getIndexedSegments() {
+        int n = 0;
+        for (Segment s : segments()) {
+            if (s.isIndexed()) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private File getLegacyFile(byte[] md5sum) {
+        return Fingerprint.getFingerprintFile(getRoot(), md5sum);
+    }
+
+    @Override
+    public void save(@Nonnull Fingerprint fp) throws IOException {
+        byte[] md5sum = Util.fromHexString(fp.getHashString());
+        segment(md5sum).write(md5sum, encode(fp));
+        File legacy = getLegacyFile(md5sum);
+        if (legacy.exists() && !legacy.delete()) {
+            LOGGER.log(Level.WARNING, "Failed to delete {0}, which is now superseded", legacy);
+        }
+    }
+
+    /**
+     * Appends the records of all the fingerprints falling in a segment with a single write to it.
+     * As with {@link Fingerprint#save()}, each fingerprint stays locked from when it is encoded until its record is written,
+     * so that a concurrent save of a newer state cannot be overtaken by this one.
+     */
+    @Override
+    public void saveAll(@Nonnull Collection<Fingerprint> fingerprints) throws IOException {
+        // sorted by hash, so that concurrent calls lock the fingerprints they share in the same order
+        Map<Segment, SortedMap<String, Fingerprint>> bySegment = new LinkedHashMap<Segment, SortedMap<String, Fingerprint>>();
+        for (Fingerprint fp : fingerprints) {
+            Segment s = segment(Util.fromHexString(fp.getHashString()));
+            SortedMap<String, Fingerprint> group = bySegment.get(s);
+            if (group == null) {
+                bySegment.put(s, group = new TreeMap<String, Fingerprint>());
+            }
+            group.put(fp.getHashString(), fp);
+        }
+        for (Map.Entry<Segment, SortedMap<String, Fingerprint>> e : bySegment.entrySet()) {
+            List<Fingerprint> group = new ArrayList<Fingerprint>(e.getValue().values());
+            for (int i = 0; i < group.size(); i += MAX_LOCKED) {
+                writeLocked(e.getKey(), group.subList(i, Math.min(i + MAX_LOCKED, group.size())), 0, new LinkedHashMap<String, byte[]>());
+            }
+        }
+        for (Fingerprint fp : fingerprints) {
+            File legacy = getLegacyFile(Util.fromHexString(fp.getHashString()));
+            if (legacy.exists() && !legacy.delete()) {
+                LOGGER.log(Level.WARNING, "Failed to delete {0}, which is now superseded", legacy);
+            }
+        }
+    }
+
+    /**
+     * Locks and encodes the fingerprints from {@code i} on, then writes them all while still holding the locks.
+     */
+    private static void writeLocked(Segment s, List<Fingerprint> fingerprints, int i, Map<String, byte[]> records) throws IOException {
+        if (i == fingerprints.size()) {
+            s.writeAll(records);
+            return;
+        }
+        Fingerprint fp = fingerprints.get(i);
+        synchronized (fp) {
+            records.put(fp.getHashString(), encode(fp));
+            writeLocked(s, fingerprints, i + 1, records);
+        }
+    }
+
+    @Override
+    public @CheckForNull Fingerprint load(@Nonnull byte[] md5sum) throws IOException {
+        byte[] data = segment(md5sum).read(md5sum);
+        if (data == null) {
+            File legacy = getLegacyFile(md5sum);
+            return legacy.exists() ? Fingerprint.load(legacy) : null;
+        }
+        try {
+            return decode(md5sum, data);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to load fingerprint " + Util.toHexString(md5sum), e);
+            return null;
+        }
+    }
+
+    @Override
+    public void delete(@Nonnull byte[] md5sum) throws IOException {
+        segment(md5sum).write(md5sum, null);
+        File legacy = getLegacyFile(md5sum);
+        if (legacy.exists() && !legacy.delete()) {
+            throw new IOException("Failed to delete " + legacy);
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return new File(getRoot(), "fingerprints").exists();
+    }
+
+    @Override
+    public int cleanUp(@Nonnull TaskListener listener) {
+        int n = 0;
+        for (int i = 0; i < 256; i++) {
+            Segment s = segment(new byte[] {(byte) i});
+            if (!s.file.exists()) {
+                continue;
+            }
+            // going through all the segments should not leave all of their indexes behind
+            boolean wasIndexed = s.isIndexed();
+            try {
+                for (byte[] md5sum : s.list()) {
+                    try {
+                        Fingerprint fp = load(md5sum);
+                        if (fp != null && cleanUp(fp, listener)) {
+                            n++;
+                        }
+                    } catch (IOException e) {
+                        Functions.printStackTrace(e, listener.error("Failed to process " + Util.toHexString(md5sum)));
+                    }
+                }
+                s.compactIfNeeded();
+            } catch (IOException e) {
+                Functions.printStackTrace(e, listener.error("Failed to process " + s.file));
+            } finally {
+                if (!wasIndexed) {
+                    s.evictIndex();
+                }
+            }
+        }
+        // whatever has not been moved over yet
+        FileFingerprintStorage legacy = ExtensionList.lookup(FingerprintStorage.class).get(FileFingerprintStorage.class);
+        if (legacy != null) {
+            n += legacy.cleanUp(listener);
+        }
+        return n;
+    }
+
+    /**
+     * Rewrites the segments that have become mostly garbage, as {@link #cleanUp(TaskListener)} does after going through them.
+     *
+     * @return the number of segments rewritten
+     */
+    int compact() throws IOException {
+        int n = 0;
+        for (int i = 0; i < 256; i++) {
+            Segment s = segment(new byte[] {(byte) i});
+            if (!s.file.exists()) {
+                continue;
+            }
+            boolean wasIndexed = s.isIndexed();
+            try {
+                if (s.compactIfNeeded()) {
+                    n++;
+                }
+            } finally {
+                if (!wasIndexed) {
+                    s.evictIndex();
+                }
+            }
+        }
+        return n;
+    }
+
+    static @Nonnull byte[] encode(@Nonnull Fingerprint fp) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        synchronized (fp) {
+            if (fp.facets.isEmpty()) {
+                try {
+                    out.writeByte(BINARY);
+                    out.writeLong(fp.getTimestamp().getTime());
+                    BuildPtr original = fp.getOriginal();
+                    out.writeBoolean(original != null);
+                    if (original != null) {
+                        out.writeUTF(original.getName());
+                        out.writeInt(original.getNumber());
+                    }
+                    out.writeUTF(fp.getFileName());
+                    Map<String, RangeSet> usages = fp.getUsages();
+                    out.writeInt(usages.size());
+                    for (Map.Entry<String, RangeSet> e : usages.entrySet()) {
+                        out.writeUTF(e.getKey());
+                        List<Range> ranges = e.getValue().getRanges();
+                        out.writeInt(ranges.size());
+                        for (Range r : ranges) {
+                            out.writeInt(r.getStart());
+                            out.writeInt(r.getEnd());
+                        }
+                    }
+                    return buf.toByteArray();
+                } catch (UTFDataFormatException e) {
+                    // a name too long for writeUTF; fall back to XML
+                    buf.reset();
+                }
+            }
+            out.writeByte(XML);
+            Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            Fingerprint.getXStream().toXML(fp, w);
+            w.flush();
+            return buf.toByteArray();
+        }
+    }
+
+    static @Nonnull Fingerprint decode(@Nonnull byte[] md5sum, @Nonnull byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte format = in.readByte();
+        if (format == XML) {
+            return ((Fingerprint) Fingerprint.getXStream().fromXML(new InputStreamReader(in, StandardCharsets.UTF_8))).initFacets();
+        }
+        if (format != BINARY) {
+            throw new IOException("Unknown format " + format);
+        }
+        Date timestamp = new Date(in.readLong());
+        BuildPtr original = in.readBoolean() ? new BuildPtr(in.readUTF(), in.readInt()) : null;
+        Fingerprint fp = new Fingerprint(original, in.readUTF(), md5sum, timestamp);
+        int jobs = in.readInt();
+        for (int i = 0; i < jobs; i++) {
+            String job = in.readUTF();
+            int size = in.readInt();
+            List<Range> ranges = new ArrayList<Range>(size);
+            for (int j = 0; j < size; j++) {
+                ranges.add(new Range(in.readInt(), in.readInt()));
+            }
+            fp.getUsages().put(job, RangeSet.fromRanges(ranges));
+        }
+        return fp;
+    }
+
+    /**
+     * One of the 256 append-only files.
+     */
+    private static final class Segment {
+        final File file;
+
+        /**
+         * Offset of the latest record of each hash, built by reading through the segment the first time it is needed.
+         */
+        private @CheckForNull OffsetIndex index;
+
+        /**
+         * Bytes taken by superseded records, tombstones and skipped corrupt records, as of the last time the index was built.
+         */
+        private long garbage;
+
+        private RandomAccessFile raf;
+
+        /**
+         * When the index was last used.
+         */
+        private long lastUsed;
+
+        Segment(File file) {
+            this.file = file;
+        }
+
+        synchronized @CheckForNull byte[] read(byte[] md5sum) throws IOException {
+            OffsetIndex index = index();
+            int slot = find(index, md5sum);
+            if (slot < 0) {
+                return null;
+            }
+            RandomAccessFile raf = open();
+            raf.seek(index.offset(slot) + HEADER_SIZE - 4);
+            byte[] data = new byte[raf.readInt()];
+            raf.readFully(data);
+            return data;
+        }
+
+        /**
+         * Appends a record.
+         *
+         * @param data null to delete.
+         */
+        synchronized void write(byte[] md5sum, @CheckForNull byte[] data) throws IOException {
+            OffsetIndex index = index();
+            if (data == null && find(index, md5sum) < 0) {
+                return;
+            }
+            RandomAccessFile raf = open();
+            long offset = raf.length();
+            byte[] record = record(data == null ? DELETE : PUT, md5sum, data == null ? new byte[0] : data);
+            raf.seek(offset);
+            raf.write(record);
+            long previous = data == null ? remove(index, md5sum) : put(index, md5sum, offset);
+            if (previous >= 0) {
+                garbage += recordSize(raf, previous);
+            }
+            if (data == null) {
+                garbage += record.length;
+            }
+        }
+
+        /**
+         * Appends several records at once.
+         *
+         * @param records from hash to data.
+         */
+        synchronized void writeAll(Map<String, byte[]> records) throws IOException {
+            OffsetIndex index = index();
+            RandomAccessFile raf = open();
+            long offset = raf.length();
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            Map<String, Long> offsets = new LinkedHashMap<String, Long>();
+            for (Map.Entry<String, byte[]> e : records.entrySet()) {
+                offsets.put(e.getKey(), offset + buf.size());
+                buf.write(record(PUT, Util.fromHexString(e.getKey()), e.getValue()));
+            }
+            raf.seek(offset);
+            raf.write(buf.toByteArray());
+            for (Map.Entry<String, Long> e : offsets.entrySet()) {
+                long previous = put(index, Util.fromHexString(e.getKey()), e.getValue());
+                if (previous >= 0) {
+                    garbage += recordSize(raf, previous);
+                }
+            }
+        }
+
+        synchronized List<byte[]> list() throws IOException {
+            RandomAccessFile raf = open();
+            List<byte[]> r = new ArrayList<byte[]>();
+            for (long offset : index().offsets()) {
+                r.add(hashAt(raf, offset));
+            }
+            return r;
+        }
+
+        /**
+         * Rewrites the segment with only the latest records if it has become mostly garbage.
+         *
+         * @return true if it was rewritten
+         */
+        synchronized boolean compactIfNeeded() throws IOException {
+            OffsetIndex index = index(); // so that garbage is up to date
+            long length = file.length();
+            if (length < MIN_COMPACTION_SIZE || garbage * 2 < length) {
+                return false;
+            }
+            File tmp = new File(file.getPath() + ".tmp");
+            OffsetIndex compacted = new OffsetIndex();
+            RandomAccessFile raf = open();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                for (long offset : index.offsets()) {
+                    byte[] record = new byte[recordSize(raf, offset)];
+                    raf.seek(offset);
+                    raf.readFully(record);
+                    compacted.add(OffsetIndex.key(Arrays.copyOfRange(record, 1, 17)), out.size());
+                    out.write(record);
+                }
+            }
+            close();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.index = compacted;
+            garbage = 0;
+            LOGGER.log(Level.FINE, "Compacted {0} from {1} to {2} bytes", new Object[] {file, length, file.length()});
+            return true;
+        }
+
+        private RandomAccessFile open() throws IOException {
+            if (raf == null) {
+                File dir = file.getParentFile();
+                if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+                    throw new IOException("Failed to create " + dir);
+                }
+                raf = new RandomAccessFile(file, "rw");
+            }
+            return raf;
+        }
+
+        private void close() throws IOException {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } finally {
+                    raf = null;
+                }
+            }
+        }
+
+        private OffsetIndex index() throws IOException {
+            if (index == null) {
+                index = scan();
+            }
+            lastUsed = System.currentTimeMillis();
+            return index;
+        }
+
+        synchronized boolean isIndexed() {
+            return index != null;
+        }
+
+        /**
+         * Drops the index if it was not used for {@link #INDEX_TIMEOUT}.
+         *
+         * @return true if it was dropped
+         */
+        synchronized boolean evictIndexIfIdle(long now) {
+            if (index == null || now - lastUsed < INDEX_TIMEOUT) {
+                return false;
+            }
+            evictIndex();
+            return true;
+        }
+
+        /**
+         * Drops the index and closes the file, until the segment is next used.
+         * {@link #garbage} is counted again when the index is rebuilt.
+         */
+        synchronized void evictIndex() {
+            index = null;
+            try {
+                close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to close " + file, e);
+            }
+        }
+
+        /**
+         * Finds the slot of a hash, checking candidates against the hash in their record.
+         *
+         * @return -1 if not found
+         */
+        private int find(OffsetIndex index, byte[] md5sum) throws IOException {
+            long key = OffsetIndex.key(md5sum);
+            for (int slot = index.first(key); slot >= 0; slot = index.next(key, slot)) {
+                if (Arrays.equals(md5sum, hashAt(open(), index.offset(slot)))) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return the offset of the record replaced, or -1
+         */
+        private long put(OffsetIndex index, byte[] md5sum, long offset) throws IOException {
+            int slot = find(index, md5sum);
+            if (slot < 0) {
+                index.add(OffsetIndex.key(md5sum), offset);
+                return -1;
+            }
+            long previous = index.offset(slot);
+            index.set(slot, offset);
+            return previous;
+        }
+
+        /**
+         * @return the offset of the record removed, or -1
+         */
+        private long remove(OffsetIndex index, byte[] md5sum) throws IOException {
+            int slot = find(index, md5sum);
+            if (slot < 0) {
+                return -1;
+            }
+            long previous = index.offset(slot);
+            index.remove(slot);
+            return previous;
+        }
+
+        /**
+         * Reads through the segment to build the index.
+         * Corrupt records are skipped up to the next record with a valid checksum, and counted as garbage,
+         * so that the records after them are kept. Only when no valid record follows, as when the last one
+         * was cut short by a crash while being appended, is the segment truncated.
+         */
+        private OffsetIndex scan() throws IOException {
+            OffsetIndex index = new OffsetIndex();
+            garbage = 0;
+            if (!file.exists()) {
+                return index;
+            }
+            RandomAccessFile raf = open();
+            long length = raf.length();
+            long offset = 0;
+            DataInputStream in = streamFrom(offset);
+            try {
+                byte[] md5sum = new byte[16];
+                while (offset < length) {
+                    byte type = in.readByte();
+                    in.readFully(md5sum);
+                    int size = readRecordSize(in, type, md5sum, offset, length);
+                    if (size < 0) {
+                        long next = findRecord(raf, offset + 1, length);
+                        if (next < 0) {
+                            break;
+                        }
+                        LOGGER.log(Level.WARNING, "Skipping {0} bytes of corrupt records at offset {1} of {2}", new Object[] {next - offset, offset, file});
+                        garbage += next - offset;
+                        offset = next;
+                        in.close();
+                        in = streamFrom(offset);
+                        continue;
+                    }
+                    long previous = type == PUT ? put(index, md5sum, offset) : remove(index, md5sum);
+                    if (previous >= 0) {
+                        // the size of the current record stands in for that of the previous one, which tend to be similar
+                        garbage += size;
+                    }
+                    if (type == DELETE) {
+                        garbage += size;
+                    }
+                    offset += size;
+                }
+            } catch (EOFException e) {
+                // a header cut short, with nothing after it
+            } finally {
+                in.close();
+            }
+            if (offset < length) {
+                LOGGER.log(Level.WARNING, "Discarding {0} bytes of an incomplete record at the end of {1}", new Object[] {length - offset, file});
+                raf.setLength(offset);
+            }
+            return index;
+        }
+
+        private DataInputStream streamFrom(long offset) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            in.getChannel().position(offset);
+            return new DataInputStream(new BufferedInputStream(in));
+        }
+
+        /**
+         * Reads the rest of a record once its type and hash were read.
+         *
+         * @return the size of the whole record, or -1 if it is not valid
+         */
+        private static int readRecordSize(DataInput in, byte type, byte[] md5sum, long offset, long length) throws IOException {
+            if (offset + HEADER_SIZE + 4 > length) {
+                return -1;
+            }
+            int size = in.readInt();
+            if ((type != PUT && type != DELETE) || size < 0 || size > MAX_DATA_SIZE || offset + HEADER_SIZE + size + 4 > length) {
+                return -1;
+            }
+            byte[] data = new byte[size];
+            in.readFully(data);
+            if (in.readInt() != (int) crc(type, md5sum, data)) {
+                return -1;
+            }
+            return HEADER_SIZE + size + 4;
+        }
+
+        /**
+         * Looks for the next valid record.
+         *
+         * @return its offset, or -1 if there is none
+         */
+        private static long findRecord(RandomAccessFile raf, long from, long length) throws IOException {
+            byte[] buf = new byte[8192];
+            byte[] md5sum = new byte[16];
+            for (long start = from; start < length; start += buf.length) {
+                int n = (int) Math.min(buf.length, length - start);
+                raf.seek(start);
+                raf.readFully(buf, 0, n);
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] != PUT && buf[i] != DELETE) {
+                        continue;
+                    }
+                    long offset = start + i;
+                    if (offset + HEADER_SIZE + 4 > length) {
+                        return -1;
+                    }
+                    raf.seek(offset + 1);
+                    raf.readFully(md5sum);
+                    if (readRecordSize(raf, buf[i], md5sum, offset, length) >= 0) {
+                        return offset;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        private static byte[] hashAt(RandomAccessFile raf, long offset) throws IOException {
+            byte[] md5sum = new byte[16];
+            raf.seek(offset + 1);
+            raf.readFully(md5sum);
+            return md5sum;
+        }
+
+        private static int recordSize(RandomAccessFile raf, long offset) throws IOException {
+            raf.seek(offset + HEADER_SIZE - 4);
+            return HEADER_SIZE + raf.readInt() + 4;
+        }
+
+        private static byte[] record(byte type, byte[] md5sum, byte[] data) throws IOException {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(HEADER_SIZE + data.length + 4);
+            DataOutputStream out = new DataOutputStream(buf);
+            out.writeByte(type);
+            out.write(md5sum);
+            out.writeInt(data.length);
+            out.write(data);
+            out.writeInt((int) crc(type, md5sum, data));
+            return buf.toByteArray();
+        }
+
+        private static long crc(byte type, byte[] md5sum, byte[] data) {
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(md5sum);
+            crc.update(data);
+            return crc.getValue();
+        }
+    }
+
+    /**
+     * Hash table from fingerprints to the offsets of their records in a segment, in two arrays of primitives
+     * using 16 bytes a slot rather than the objects of a {@link Map}, so that it can stay in memory for millions of fingerprints.
+     * Only 8 bytes of each hash are kept, those after the first one, which picks the segment;
+     * as different fingerprints may share them, {@link Segment} checks candidates against the hash in their record.
+     */
+    static final class OffsetIndex {
+        private long[] keys;
+        /**
+         * Offset plus one, so that zero marks a free slot.
+         */
+        private long[] offsets;
+        private int size;
+
+        OffsetIndex() {
+            keys = new long[16];
+            offsets = new long[16];
+        }
+
+        static long key(byte[] md5sum) {
+            long key = 0;
+            for (int i = 1; i < 9; i++) {
+                key = (key << 8) | (md5sum[i] & 0xFF);
+            }
+            return key;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return the first slot with this key, or -1
+         */
+        int first(long key) {
+            return probe(key, home(key));
+        }
+
+        /**
+         * @return the next slot after this one with this key, or -1
+         */
+        int next(long key, int slot) {
+            return probe(key, (slot + 1) & mask());
+        }
+
+        long offset(int slot) {
+            return offsets[slot] - 1;
+        }
+
+        void set(int slot, long offset) {
+            offsets[slot] = offset + 1;
+        }
+
+        /**
+         * Adds an entry, without looking for one to replace.
+         */
+        void add(long key, long offset) {
+            if ((size + 1) * 4L > keys.length * 3L) {
+                resize(keys.length * 2);
+            }
+            int slot = home(key);
+            while (offsets[slot] != 0) {
+                slot = (slot + 1) & mask();
+            }
+            keys[slot] = key;
+            offsets[slot] = offset + 1;
+            size++;
+        }
+
+        void remove(int slot) {
+            int mask = mask();
+            int hole = slot;
+            offsets[hole] = 0;
+            // shift back the entries that would no longer be found past the hole
+            for (int i = (hole + 1) & mask; offsets[i] != 0; i = (i + 1) & mask) {
+                int home = home(keys[i]);
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    offsets[hole] = offsets[i];
+                    offsets[i] = 0;
+                    hole = i;
+                }
+            }
+            size--;
+        }
+
+        /**
+         * All the offsets, in ascending order.
+         */
+        long[] offsets() {
+            long[] r = new long[size];
+            int n = 0;
+            for (long offset : offsets) {
+                if (offset != 0) {
+                    r[n++] = offset - 1;
+                }
+            }
+            Arrays.sort(r);
+            return r;
+        }
+
+        private int probe(long key, int slot) {
+            while (offsets[slot] != 0) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask();
+            }
+            return -1;
+        }
+
+        private int mask() {
+            return keys.length - 1;
+        }
+
+        private int home(long key) {
+            // the key is part of an MD5 hash, so already well spread
+            return (int) (key ^ (key >>> 32)) & mask();
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            long[] oldOffsets = offsets;
+            keys = new long[capacity];
+            offsets = new long[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldOffsets[i] != 0) {
+                    add(oldKeys[i], oldOffsets[i] - 1);
+                }
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(IndexedFingerprintStorage.class.getName());
+}
@@ -730,7 +730,14 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
     @Exported(name="allBuilds",visibility=-2)
     @WithBridgeMethods(List.class)
     public RunList<RunT> getBuilds() {
-        return RunList.<RunT>fromRuns(_getRuns().values());
+        SortedMap<Integer, ? extends RunT> runs = _getRuns();
+        if (runs instanceof RunMap) {
+            // lets filters go by the build summaries rather than load every build
+            @SuppressWarnings("unchecked")
+            RunMap<RunT> map = (RunMap) runs;
+            return RunList.fromRunMap(map);
+        }
+        return RunList.<RunT>fromRuns(runs.values());
     }
 
     /**
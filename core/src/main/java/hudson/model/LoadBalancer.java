@@ -23,6 +23,7 @@
  */
 package hudson.model;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.Maps;
 import hudson.Extension;
 import hudson.ExtensionPoint;
@@ -30,8 +31,11 @@ import hudson.model.Queue.Task;
 import hudson.model.queue.MappingWorksheet;
 import hudson.model.queue.MappingWorksheet.ExecutorChunk;
 import hudson.model.queue.MappingWorksheet.Mapping;
-import hudson.util.ConsistentHash;
-import hudson.util.ConsistentHash.Hash;
+import hudson.model.MultiStageTimeSeries.TimeScale;
+import hudson.model.queue.MappingWorksheet.WorkChunk;
+import hudson.util.ConsistentHashRings;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -75,50 +79,83 @@ public abstract class LoadBalancer implements ExtensionPoint {
     /**
      * Uses a consistent hash for scheduling.
      */
-    public static final LoadBalancer CONSISTENT_HASH = new LoadBalancer() {
+    public static final LoadBalancer CONSISTENT_HASH = new ConsistentHashLoadBalancer(false);
+
+    /**
+     * Variant of {@link #CONSISTENT_HASH} that gives fewer points on the ring to nodes that have been busy lately,
+     * according to their {@link LoadStatistics}, so that affinity does not keep piling builds onto saturated nodes.
+     *
+     * @since 2.82
+     */
+    public static final LoadBalancer WORKLOAD_AWARE_CONSISTENT_HASH = new ConsistentHashLoadBalancer(true);
+
+    /**
+     * Consistent hash over the nodes that can take each {@link MappingWorksheet.WorkChunk}, where each node gets
+     * 100 points per idle executor. The rings are cached per label through {@link ConsistentHashRings}.
+     */
+    private static final class ConsistentHashLoadBalancer extends LoadBalancer {
+        private final boolean workloadAware;
+        private final ConsistentHashRings rings = new ConsistentHashRings();
+
+        ConsistentHashLoadBalancer(boolean workloadAware) {
+            this.workloadAware = workloadAware;
+        }
+
         @Override
         public Mapping map(Task task, MappingWorksheet ws) {
-            // build consistent hash for each work chunk
-            List<ConsistentHash<ExecutorChunk>> hashes = new ArrayList<ConsistentHash<ExecutorChunk>>(ws.works.size());
+            // order the applicable executor chunks of each work chunk along the ring
+            List<List<ExecutorChunk>> orders = new ArrayList<List<ExecutorChunk>>(ws.works.size());
             for (int i=0; i<ws.works.size(); i++) {
-                ConsistentHash<ExecutorChunk> hash = new ConsistentHash<ExecutorChunk>(new Hash<ExecutorChunk>() {
-                    public String hash(ExecutorChunk node) {
-                        return node.getName();
-                    }
-                });
-
-                // Build a Map to pass in rather than repeatedly calling hash.add() because each call does lots of expensive work
-                List<ExecutorChunk> chunks = ws.works(i).applicableExecutorChunks();
-                Map<ExecutorChunk, Integer> toAdd = Maps.newHashMapWithExpectedSize(chunks.size());
+                WorkChunk wc = ws.works(i);
+                List<ExecutorChunk> chunks = wc.applicableExecutorChunks();
+                Map<String, ExecutorChunk> byName = Maps.newHashMapWithExpectedSize(chunks.size());
+                Map<String, Integer> weights = Maps.newHashMapWithExpectedSize(chunks.size());
                 for (ExecutorChunk ec : chunks) {
-                    toAdd.put(ec, ec.size()*100);
+                    byName.put(ec.getName(), ec);
+                    weights.put(ec.getName(), weightOf(ec));
                 }
-                hash.addAll(toAdd);
 
-                hashes.add(hash);
+                String key = task.getFullDisplayName() + (i>0 ? String.valueOf(i) : "");
+                List<ExecutorChunk> order = new ArrayList<ExecutorChunk>(chunks.size());
+                for (String name : rings.list(wc.assignedLabel != null ? wc.assignedLabel.getExpression() : "", key, weights, NODE_EXISTS)) {
+                    order.add(byName.get(name));
+                }
+                orders.add(order);
             }
 
             // do a greedy assignment
             Mapping m = ws.new Mapping();
             assert m.size()==ws.works.size();   // just so that you the reader of the source code don't get confused with the for loop index
 
-            if (assignGreedily(m,task,hashes,0)) {
+            if (assignGreedily(m,orders,0)) {
                 assert m.isCompletelyValid();
                 return m;
             } else
                 return null;
         }
 
-        private boolean assignGreedily(Mapping m, Task task, List<ConsistentHash<ExecutorChunk>> hashes, int i) {
-            if (i==hashes.size())   return true;    // fully assigned
+        private int weightOf(ExecutorChunk ec) {
+            int points = ec.size()*100;
+            if (workloadAware && ec.node != null) {
+                LoadStatistics stats = ec.node.getSelfLabel().loadStatistics;
+                float total = stats.onlineExecutors.getLatest(TimeScale.SEC10);
+                if (total > 0) {
+                    float utilization = Math.min(1, stats.busyExecutors.getLatest(TimeScale.SEC10) / total);
+                    // never drop to zero, as the node is still able to take the task
+                    points = Math.max(MIN_WORKLOAD_AWARE_POINTS, Math.round(points * (1 - utilization)));
+                }
+            }
+            return points;
+        }
 
-            String key = task.getFullDisplayName() + (i>0 ? String.valueOf(i) : "");
+        private boolean assignGreedily(Mapping m, List<List<ExecutorChunk>> orders, int i) {
+            if (i==orders.size())   return true;    // fully assigned
 
-            for (ExecutorChunk ec : hashes.get(i).list(key)) {
+            for (ExecutorChunk ec : orders.get(i)) {
                 // let's attempt this assignment
                 m.assign(i,ec);
 
-                if (m.isPartiallyValid() && assignGreedily(m,task,hashes,i+1))
+                if (m.isPartiallyValid() && assignGreedily(m,orders,i+1))
                     return true;    // successful greedily allocation
 
                 // otherwise 'ec' wasn't a good fit for us. try next.
@@ -128,8 +165,31 @@ public abstract class LoadBalancer implements ExtensionPoint {
             m.assign(i,null);
             return false;
         }
+    }
+
+    /**
+     * Ring points a node gets at least under {@link #WORKLOAD_AWARE_CONSISTENT_HASH}, however busy it is.
+     */
+    private static final int MIN_WORKLOAD_AWARE_POINTS = 10;
+
+    /**
+     * Lets {@link ConsistentHashRings} forget nodes that were removed.
+     */
+    private static final Predicate<String> NODE_EXISTS = new Predicate<String>() {
+        @Override
+        public boolean apply(String name) {
+            Jenkins j = Jenkins.getInstanceOrNull();
+            return j != null && (name.isEmpty() || j.getNode(name) != null);
+        }
     };
 
+    /**
+     * Whether Jenkins starts with {@link #WORKLOAD_AWARE_CONSISTENT_HASH} rather than {@link #CONSISTENT_HASH}.
+     *
+     * @since 2.82
+     */
+    public static boolean WORKLOAD_AWARE = SystemProperties.getBoolean(LoadBalancer.class.getName()+".workloadAware");
+
     /**
      * Traditional implementation of this.
      *
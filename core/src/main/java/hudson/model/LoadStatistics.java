@@ -331,7 +331,7 @@ public abstract class LoadStatistics {
      */
     public LoadStatisticsSnapshot computeSnapshot() {
         if (modern) {
-            return computeSnapshot(Jenkins.getInstance().getQueue().getBuildableItems());
+            return computeSnapshot(Jenkins.getInstance().getQueue().getSnapshot().getBuildableItems());
         } else {
             int t = computeTotalExecutors();
             int i = computeIdleExecutors();
@@ -389,7 +389,7 @@ public abstract class LoadStatistics {
 
         protected void doRun() {
             Jenkins j = Jenkins.getInstance();
-            List<Queue.BuildableItem> bis = j.getQueue().getBuildableItems();
+            List<Queue.BuildableItem> bis = j.getQueue().getSnapshot().getBuildableItems();
 
             // update statistics on agents
             for( Label l : j.getLabels() ) {
@@ -26,6 +26,7 @@ package hudson.model;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterables;
 import com.infradna.tool.bridge_method_injector.WithBridgeMethods;
 import hudson.BulkChange;
 import hudson.ExtensionList;
@@ -35,17 +36,25 @@ import hudson.XmlFile;
 import hudson.init.Initializer;
 import static hudson.init.InitMilestone.JOB_LOADED;
 import static hudson.util.Iterators.reverse;
+import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 
 import hudson.cli.declarative.CLIResolver;
 import hudson.model.labels.LabelAssignmentAction;
+import hudson.model.labels.LabelAtom;
 import hudson.model.queue.AbstractQueueTask;
+import hudson.model.queue.DispatcherEvaluator;
+import hudson.model.queue.DispatcherStatistics;
 import hudson.model.queue.Executables;
 import hudson.model.queue.QueueListener;
+import hudson.model.queue.QueueMetrics;
 import hudson.model.queue.QueueTaskFuture;
+import hudson.model.queue.ScheduleRequest;
 import hudson.model.queue.ScheduleResult;
 import hudson.model.queue.ScheduleResult.Created;
 import hudson.model.queue.SubTask;
 import hudson.model.queue.FutureImpl;
+import hudson.model.queue.LabelIndex;
+import hudson.model.queue.MaintenanceStatistics;
 import hudson.model.queue.MappingWorksheet;
 import hudson.model.queue.MappingWorksheet.Mapping;
 import hudson.model.queue.QueueSorter;
@@ -66,6 +75,8 @@ import hudson.security.AccessControlled;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import jenkins.security.QueueItemAuthenticatorProvider;
+import jenkins.util.SystemProperties;
+import jenkins.util.TimeDuration;
 import jenkins.util.Timer;
 import hudson.triggers.SafeTimerTask;
 import java.util.concurrent.TimeUnit;
@@ -95,7 +106,9 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -106,6 +119,9 @@ import javax.annotation.Nonnull;
 import javax.servlet.ServletException;
 
 import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import jenkins.model.ParameterizedJobMixIn;
 import jenkins.security.QueueItemAuthenticator;
 import jenkins.util.AtmostOneTaskExecutor;
 import org.acegisecurity.AccessDeniedException;
@@ -129,6 +145,7 @@ import javax.annotation.Nonnegative;
 import jenkins.model.queue.AsynchronousExecution;
 import jenkins.model.queue.CompositeCauseOfBlockage;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 
 /**
@@ -203,7 +220,12 @@ public class Queue extends ResourceController implements Saveable {
      */
     private final ItemList<BuildableItem> pendings = new ItemList<BuildableItem>();
 
-    private transient volatile Snapshot snapshot = new Snapshot(waitingList, blockedProjects, buildables, pendings);
+    /**
+     * Incremented every time {@link #snapshot} is replaced. Guarded by {@link #lock}.
+     */
+    private transient long snapshotGeneration;
+
+    private transient volatile Snapshot snapshot = new Snapshot(0, waitingList, blockedProjects, buildables, pendings);
 
     /**
      * Items that left queue would stay here for a while to enable tracking via {@link Item#getId()}.
@@ -229,8 +251,14 @@ public class Queue extends ResourceController implements Saveable {
          */
         private WorkUnit workUnit;
 
-        private JobOffer(Executor executor) {
+        /**
+         * Used instead of asking {@link QueueTaskDispatcher}s directly, if set.
+         */
+        private final @CheckForNull DispatcherEvaluator dispatchers;
+
+        private JobOffer(Executor executor, @CheckForNull DispatcherEvaluator dispatchers) {
             this.executor = executor;
+            this.dispatchers = dispatchers;
         }
 
         @Override
@@ -269,11 +297,18 @@ public class Queue extends ResourceController implements Saveable {
             if (reason != null) {
                 return reason;
             }
-            for (QueueTaskDispatcher d : QueueTaskDispatcher.all()) {
-                reason = d.canTake(node, item);
+            if (dispatchers != null) {
+                reason = dispatchers.canTake(node, item);
                 if (reason != null) {
                     return reason;
                 }
+            } else {
+                for (QueueTaskDispatcher d : QueueTaskDispatcher.all()) {
+                    reason = d.canTake(node, item);
+                    if (reason != null) {
+                        return reason;
+                    }
+                }
             }
             // inlining isAvailable:
             if (workUnit != null) { // unlikely in practice (should not have even found this executor if so)
@@ -331,6 +366,56 @@ public class Queue extends ResourceController implements Saveable {
 
     private transient final Condition condition = lock.newCondition();
 
+    /**
+     * Tasks whose items need to be re-evaluated by the next incremental {@link #maintain()} pass.
+     * @see #markDirty(Task)
+     */
+    private transient final Set<Task> dirtyTasks = Collections.newSetFromMap(new ConcurrentHashMap<Task, Boolean>());
+
+    /**
+     * Set when the next {@link #maintain()} pass needs to re-evaluate every item.
+     * @see #markAllDirty()
+     */
+    private transient final AtomicBoolean allDirty = new AtomicBoolean(true);
+
+    /**
+     * When the last full sweep of the queue happened. Guarded by {@link #lock}.
+     */
+    private transient long lastFullSweep;
+
+    /**
+     * {@link Jenkins#isQuietingDown()} as seen by the previous {@link #maintain()} pass. Guarded by {@link #lock}.
+     */
+    private transient boolean lastQuietingDown;
+
+    /**
+     * Executors that were parked during the previous {@link #maintain()} pass, and were not given work in it.
+     * Guarded by {@link #lock}.
+     */
+    private transient Set<Executor> lastParked = Collections.emptySet();
+
+    /**
+     * IDs of {@link BuildableItem}s that none of the {@link #lastParked} executors could take.
+     * Unless new executors become available, these are not worth offering again. Guarded by {@link #lock}.
+     */
+    private transient final Set<Long> unmappable = new HashSet<Long>();
+
+    /**
+     * The {@link #lastParked} executors indexed by the labels of their node. Guarded by {@link #lock}.
+     */
+    private transient final LabelIndex<Executor> idleExecutors = new LabelIndex<Executor>();
+
+    private transient final MaintenanceStatistics maintenanceStatistics = new MaintenanceStatistics();
+
+    private transient final DispatcherEvaluator dispatchers = new DispatcherEvaluator();
+
+    private transient final QueueMetrics metrics = new QueueMetrics();
+
+    /**
+     * Created on first use when {@link #JOURNAL} is on. Guarded by {@link #lock}.
+     */
+    private transient QueueJournal journal;
+
     public Queue(@Nonnull LoadBalancer loadBalancer) {
         this.loadBalancer =  loadBalancer.sanitize();
         // if all the executors are busy doing something, then the queue won't be maintained in
@@ -374,6 +459,8 @@ public class Queue extends ResourceController implements Saveable {
             blockedProjects.clear();
             buildables.clear();
             pendings.clear();
+            // read the journal up front, as entering the items below appends to it
+            Map<Long, Item> journaled = journal != null || getJournalFile().exists() ? journal().replay() : null;
             // first try the old format
             File queueFile = getQueueFile();
             if (queueFile.exists()) {
@@ -445,6 +532,17 @@ public class Queue extends ResourceController implements Saveable {
                     queueFile.delete();
                 }
             }
+
+            // then apply whatever changed after queue.xml was last written
+            if (journaled != null) {
+                applyJournal(journaled);
+                updateSnapshot();
+                if (JOURNAL) {
+                    save(); // start over from a fresh queue.xml
+                } else {
+                    journal().reset();
+                }
+            }
         } catch (IOException e) {
             LOGGER.log(Level.WARNING, "Failed to load the queue file " + getXMLQueueFile(), e);
         } finally { updateSnapshot(); } } finally {
@@ -473,6 +571,9 @@ public class Queue extends ResourceController implements Saveable {
 
             try {
                 queueFile.write(state);
+                if (journal != null) {
+                    journal.reset(); // everything it recorded is now in queue.xml
+                }
             } catch (IOException e) {
                 LOGGER.log(Level.WARNING, "Failed to write out the queue file " + getXMLQueueFile(), e);
             }
@@ -509,6 +610,99 @@ public class Queue extends ResourceController implements Saveable {
         return new File(Jenkins.getInstance().getRootDir(), "queue.xml");
     }
 
+    /*package*/ File getJournalFile() {
+        return new File(Jenkins.getInstance().getRootDir(), "queue.journal");
+    }
+
+    private QueueJournal journal() {
+        if (journal == null) {
+            journal = new QueueJournal(getJournalFile(), XSTREAM);
+        }
+        return journal;
+    }
+
+    /**
+     * Writes out what was recorded in the journal so far, if anything.
+     */
+    /*package*/ void flushJournal() throws IOException {
+        lock.lock();
+        try {
+            if (journal != null) {
+                journal.flush();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records in the journal that the item entered a stage of the queue or otherwise changed.
+     */
+    private void journalEnter(Item item) {
+        if (!JOURNAL || item.task instanceof TransientTask) {
+            return;
+        }
+        journal().enter(item);
+    }
+
+    /**
+     * Records in the journal that the item left the queue, or at least its current stage.
+     */
+    private void journalLeave(Item item) {
+        if (!JOURNAL || item.task instanceof TransientTask) {
+            return;
+        }
+        journal().leave(item.getId());
+    }
+
+    /**
+     * Applies the changes {@linkplain QueueJournal#replay() read from the journal} on top of the items loaded from {@code queue.xml}.
+     */
+    private void applyJournal(Map<Long, Item> changes) {
+        Map<Long, Item> live = new HashMap<Long, Item>();
+        for (Item item : Iterables.<Item>concat(waitingList, blockedProjects, buildables, pendings)) {
+            live.put(item.getId(), item);
+        }
+        long maxId = WaitingItem.COUNTER.get();
+        for (Map.Entry<Long, Item> e : changes.entrySet()) {
+            maxId = Math.max(maxId, e.getKey());
+            Item existing = live.remove(e.getKey());
+            if (existing != null) {
+                waitingList.remove(existing);
+                blockedProjects.remove(existing);
+                buildables.remove(existing);
+                pendings.remove(existing);
+            }
+            Item item = e.getValue();
+            if (item == null || item.task == null) {
+                continue;
+            }
+            if (item instanceof BuildableItem) {
+                ((BuildableItem) item).isPending = false; // the executor it was handed to is gone
+            }
+            item.enter(this);
+        }
+        WaitingItem.COUNTER.set(maxId);
+        LOGGER.log(Level.INFO, "Replayed {0} queue changes from {1}", new Object[] {changes.size(), getJournalFile()});
+    }
+
+    /**
+     * Saves the queue in full once the journal gets long, so that it does not grow forever,
+     * or once it could not keep up with the changes.
+     */
+    private void compactJournalIfNeeded() {
+        QueueJournal j = journal;
+        if (j != null && j.needsCompaction(JOURNAL_COMPACTION_THRESHOLD)) {
+            // save() only writes out what the current user can see
+            ACL.impersonate(ACL.SYSTEM, new Runnable() {
+                @Override
+                public void run() {
+                    save();
+                }
+            });
+        }
+    }
+
     /**
      * @deprecated as of 1.311
      *      Use {@link #schedule(AbstractProject)}
@@ -585,12 +779,61 @@ public class Queue extends ResourceController implements Saveable {
                 if (!h.shouldSchedule(p, actions))
                     return ScheduleResult.refused();    // veto
 
-            return scheduleInternal(p, quietPeriod, actions);
+            return scheduleInternal(p, quietPeriod, actions, true);
         } finally { updateSnapshot(); } } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * Schedules executions of many tasks at once.
+     *
+     * <p>
+     * This is equivalent to calling {@link #schedule2(Task, int, List)} for each request in turn,
+     * except that the queue lock is taken only once, a single new {@link Snapshot} is published for the
+     * whole batch, and the queue maintenance that lets executors pick up the new items is triggered once
+     * rather than once per item.
+     * Callers that fan out to many downstream tasks should prefer this method.
+     *
+     * @param requests
+     *      tasks to schedule. The same task may appear more than once, in which case later requests
+     *      are folded into the item created for the earlier one as usual.
+     * @return
+     *      the outcome of each request, in the same order as {@code requests}.
+     * @since 2.82
+     */
+    public @Nonnull List<ScheduleResult> schedule2(@Nonnull List<ScheduleRequest> requests) {
+        List<ScheduleResult> results = new ArrayList<ScheduleResult>(requests.size());
+        if (requests.isEmpty()) {
+            return results;
+        }
+        boolean accepted = false;
+        lock.lock();
+        try { try {
+            List<QueueDecisionHandler> handlers = QueueDecisionHandler.all();
+            REQUESTS:
+            for (ScheduleRequest r : requests) {
+                List<Action> actions = new ArrayList<Action>(r.getActions());
+                for (QueueDecisionHandler h : handlers) {
+                    if (!h.shouldSchedule(r.getTask(), actions)) {
+                        results.add(ScheduleResult.refused());    // veto
+                        continue REQUESTS;
+                    }
+                }
+                results.add(scheduleInternal(r.getTask(), r.getQuietPeriod(), actions, false));
+                accepted = true;
+            }
+        } finally { updateSnapshot(); } } finally {
+            lock.unlock();
+        }
+        if (accepted) {
+            scheduleMaintenance();   // let executors know that new items are in the queue.
+        }
+        compactJournalIfNeeded();
+        LOGGER.log(Level.FINE, "Scheduled a batch of {0} tasks", requests.size());
+        return results;
+    }
+
     /**
      * Schedules an execution of a task.
      *
@@ -603,72 +846,76 @@ public class Queue extends ResourceController implements Saveable {
      *      and by the time you inspect the object, some of its information can be already stale.
      *
      *      That said, one can still look at {@link WaitingItem#future}, {@link WaitingItem#getId()}, etc.
-     */
-    private @Nonnull ScheduleResult scheduleInternal(Task p, int quietPeriod, List<Action> actions) {
-        lock.lock();
-        try { try {
-            Calendar due = new GregorianCalendar();
-            due.add(Calendar.SECOND, quietPeriod);
-
-            // Do we already have this task in the queue? Because if so, we won't schedule a new one.
-            List<Item> duplicatesInQueue = new ArrayList<Item>();
-            for (Item item : liveGetItems(p)) {
-                boolean shouldScheduleItem = false;
-                for (QueueAction action : item.getActions(QueueAction.class)) {
-                    shouldScheduleItem |= action.shouldSchedule(actions);
-                }
-                for (QueueAction action : Util.filter(actions, QueueAction.class)) {
-                    shouldScheduleItem |= action.shouldSchedule((new ArrayList<Action>(item.getAllActions())));
-                }
-                if (!shouldScheduleItem) {
-                    duplicatesInQueue.add(item);
-                }
+     *
+     *      Must be called with {@link #lock} held. The caller publishes the new {@link #snapshot}
+     *      once it is done, so that a batch of requests only publishes one.
+     */
+    private @Nonnull ScheduleResult scheduleInternal(Task p, int quietPeriod, List<Action> actions, boolean maintain) {
+        Calendar due = new GregorianCalendar();
+        due.add(Calendar.SECOND, quietPeriod);
+
+        // Do we already have this task in the queue? Because if so, we won't schedule a new one.
+        List<Item> duplicatesInQueue = new ArrayList<Item>();
+        for (Item item : liveGetItems(p)) {
+            boolean shouldScheduleItem = false;
+            for (QueueAction action : item.getActions(QueueAction.class)) {
+                shouldScheduleItem |= action.shouldSchedule(actions);
+            }
+            for (QueueAction action : Util.filter(actions, QueueAction.class)) {
+                shouldScheduleItem |= action.shouldSchedule((new ArrayList<Action>(item.getAllActions())));
             }
-            if (duplicatesInQueue.isEmpty()) {
-                LOGGER.log(Level.FINE, "{0} added to queue", p);
+            if (!shouldScheduleItem) {
+                duplicatesInQueue.add(item);
+            }
+        }
+        if (duplicatesInQueue.isEmpty()) {
+            LOGGER.log(Level.FINE, "{0} added to queue", p);
 
-                // put the item in the queue
-                WaitingItem added = new WaitingItem(due, p, actions);
-                added.enter(this);
+            // put the item in the queue
+            WaitingItem added = new WaitingItem(due, p, actions);
+            added.enter(this);
+            if (maintain)
                 scheduleMaintenance();   // let an executor know that a new item is in the queue.
-                return ScheduleResult.created(added);
-            }
+            return ScheduleResult.created(added);
+        }
 
-            LOGGER.log(Level.FINE, "{0} is already in the queue", p);
+        LOGGER.log(Level.FINE, "{0} is already in the queue", p);
 
-            // but let the actions affect the existing stuff.
-            for (Item item : duplicatesInQueue) {
-                for (FoldableAction a : Util.filter(actions, FoldableAction.class)) {
-                    a.foldIntoExisting(item, p, actions);
-                    if (LOGGER.isLoggable(Level.FINE)) {
-                        LOGGER.log(Level.FINE, "after folding {0}, {1} includes {2}", new Object[] {a, item, item.getAllActions()});
-                    }
+        // but let the actions affect the existing stuff.
+        for (Item item : duplicatesInQueue) {
+            boolean folded = false;
+            for (FoldableAction a : Util.filter(actions, FoldableAction.class)) {
+                a.foldIntoExisting(item, p, actions);
+                folded = true;
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "after folding {0}, {1} includes {2}", new Object[] {a, item, item.getAllActions()});
                 }
             }
-
-            boolean queueUpdated = false;
-            for (WaitingItem wi : Util.filter(duplicatesInQueue, WaitingItem.class)) {
-                // make sure to always use the shorter of the available due times
-                if (wi.timestamp.before(due))
-                    continue;
-
-                // waitingList is sorted, so when we change a timestamp we need to maintain order
-                wi.leave(this);
-                wi.timestamp = due;
-                wi.enter(this);
-                queueUpdated = true;
+            if (folded) {
+                journalEnter(item);
             }
+        }
 
-            if (queueUpdated) scheduleMaintenance();
+        boolean queueUpdated = false;
+        for (WaitingItem wi : Util.filter(duplicatesInQueue, WaitingItem.class)) {
+            // make sure to always use the shorter of the available due times
+            if (wi.timestamp.before(due))
+                continue;
 
-            // REVISIT: when there are multiple existing items in the queue that matches the incoming one,
-            // whether the new one should affect all existing ones or not is debatable. I for myself
-            // thought this would only affect one, so the code was bit of surprise, but I'm keeping the current
-            // behaviour.
-            return ScheduleResult.existing(duplicatesInQueue.get(0));
-        } finally { updateSnapshot(); } } finally {
-            lock.unlock();
+            // waitingList is sorted, so when we change a timestamp we need to maintain order
+            wi.leave(this);
+            wi.timestamp = due;
+            wi.enter(this);
+            queueUpdated = true;
         }
+
+        if (queueUpdated && maintain) scheduleMaintenance();
+
+        // REVISIT: when there are multiple existing items in the queue that matches the incoming one,
+        // whether the new one should affect all existing ones or not is debatable. I for myself
+        // thought this would only affect one, so the code was bit of surprise, but I'm keeping the current
+        // behaviour.
+        return ScheduleResult.existing(duplicatesInQueue.get(0));
     }
 
 
@@ -731,7 +978,7 @@ public class Queue extends ResourceController implements Saveable {
     }
 
     private void updateSnapshot() {
-        Snapshot revised = new Snapshot(waitingList, blockedProjects, buildables, pendings);
+        Snapshot revised = new Snapshot(++snapshotGeneration, waitingList, blockedProjects, buildables, pendings);
         if (LOGGER.isLoggable(Level.FINEST)) {
             LOGGER.log(Level.FINEST, "{0} → {1}; leftItems={2}", new Object[] {snapshot, revised, leftItems.asMap()});
         }
@@ -760,6 +1007,64 @@ public class Queue extends ResourceController implements Saveable {
         return HttpResponses.forwardToPreviousPage();
     }
 
+    /**
+     * Schedules builds of several jobs in one go, via {@link #schedule2(List)}.
+     *
+     * <p>
+     * Jobs are given by their full names in repeated {@code job} parameters.
+     * Jobs that do not exist, cannot be built, or that the current user may not build are reported as refused
+     * rather than failing the whole request.
+     *
+     * @param delay
+     *      quiet period to use for every job; each job's own quiet period if omitted.
+     * @return
+     *      one JSON object per {@code job} parameter, in order, with the queue item {@code id} and whether it was newly {@code created},
+     *      or {@code refused} set.
+     * @since 2.82
+     */
+    @RequirePOST
+    public HttpResponse doScheduleBatch(StaplerRequest req, @QueryParameter TimeDuration delay) {
+        String[] names = req.getParameterValues("job");
+        if (names == null) {
+            return HttpResponses.error(SC_BAD_REQUEST, "No job parameter given");
+        }
+        int quietPeriod = delay != null ? delay.getTimeInSeconds() : -1;
+
+        List<ScheduleRequest> requests = new ArrayList<ScheduleRequest>();
+        List<Integer> indices = new ArrayList<Integer>();
+        ScheduleResult[] results = new ScheduleResult[names.length];
+        for (int i = 0; i < names.length; i++) {
+            Job<?,?> job = Jenkins.getInstance().getItemByFullName(names[i], Job.class);
+            ScheduleRequest r = job != null && job.hasPermission(hudson.model.Item.BUILD)
+                    ? ParameterizedJobMixIn.scheduleRequest(job, quietPeriod, new CauseAction(new Cause.UserIdCause())) : null;
+            if (r == null) {
+                results[i] = ScheduleResult.refused();
+            } else {
+                requests.add(r);
+                indices.add(i);
+            }
+        }
+        List<ScheduleResult> scheduled = schedule2(requests);
+        for (int i = 0; i < scheduled.size(); i++) {
+            results[indices.get(i)] = scheduled.get(i);
+        }
+
+        JSONArray data = new JSONArray();
+        for (int i = 0; i < names.length; i++) {
+            JSONObject o = new JSONObject();
+            o.put("job", names[i]);
+            Item item = results[i].getItem();
+            if (item == null) {
+                o.put("refused", true);
+            } else {
+                o.put("id", item.getId());
+                o.put("created", results[i].isCreated());
+            }
+            data.add(o);
+        }
+        return hudson.util.HttpResponses.okJSON(data);
+    }
+
     public boolean isEmpty() {
         Snapshot snapshot = this.snapshot;
         return snapshot.waitingList.isEmpty() && snapshot.blockedProjects.isEmpty() && snapshot.buildables.isEmpty()
@@ -870,25 +1175,8 @@ public class Queue extends ResourceController implements Saveable {
     }
 
     public Item getItem(long id) {
-        Snapshot snapshot = this.snapshot;
-        for (Item item : snapshot.blockedProjects) {
-            if (item.id == id)
-                return item;
-        }
-        for (Item item : snapshot.buildables) {
-            if (item.id == id)
-                return item;
-        }
-        for (Item item : snapshot.pendings) {
-            if (item.id == id)
-                return item;
-        }
-        for (Item item : snapshot.waitingList) {
-            if (item.id == id) {
-                return item;
-            }
-        }
-        return leftItems.getIfPresent(id);
+        Item item = snapshot.getItem(id);
+        return item != null ? item : leftItems.getIfPresent(id);
     }
 
     /**
@@ -914,12 +1202,25 @@ public class Queue extends ResourceController implements Saveable {
 
     /**
      * Gets the snapshot of all {@link BuildableItem}s.
+     *
+     * @see Snapshot#getBuildableItems()
      */
     public List<BuildableItem> getBuildableItems() {
-        Snapshot snapshot = this.snapshot;
-        ArrayList<BuildableItem> r = new ArrayList<BuildableItem>(snapshot.buildables);
-        r.addAll(snapshot.pendings);
-        return r;
+        return new ArrayList<BuildableItem>(snapshot.getBuildableItems());
+    }
+
+    /**
+     * Gets the current state of the queue as an immutable {@link Snapshot}.
+     *
+     * <p>
+     * This never takes the {@link Queue} lock, and repeated calls return the same object
+     * until the queue changes, so callers that look at the queue many times (UI, REST API, polling plugins)
+     * should prefer this over the methods on {@link Queue} that copy the state into new collections.
+     *
+     * @since 2.82
+     */
+    public @Nonnull Snapshot getSnapshot() {
+        return snapshot;
     }
 
     /**
@@ -986,9 +1287,8 @@ public class Queue extends ResourceController implements Saveable {
      * Is the given task currently pending execution?
      */
     public boolean isPending(Task t) {
-        Snapshot snapshot = this.snapshot;
-        for (BuildableItem i : snapshot.pendings)
-            if (i.task.equals(t))
+        for (Item i : snapshot.getItems(t))
+            if (i instanceof BuildableItem && ((BuildableItem) i).isPending())
                 return true;
         return false;
     }
@@ -1002,16 +1302,7 @@ public class Queue extends ResourceController implements Saveable {
      */
     public @Nonnegative int countBuildableItemsFor(@CheckForNull Label l) {
         Snapshot snapshot = this.snapshot;
-        int r = 0;
-        for (BuildableItem bi : snapshot.buildables)
-            for (SubTask st : bi.task.getSubTasks())
-                if (null == l || bi.getAssignedLabelFor(st) == l)
-                    r++;
-        for (BuildableItem bi : snapshot.pendings)
-            for (SubTask st : bi.task.getSubTasks())
-                if (null == l || bi.getAssignedLabelFor(st) == l)
-                    r++;
-        return r;
+        return l == null ? snapshot.countSubTasks() : snapshot.countSubTasksFor(l);
     }
     
     /**
@@ -1025,17 +1316,7 @@ public class Queue extends ResourceController implements Saveable {
      * @since 1.615
      */
     public @Nonnegative int strictCountBuildableItemsFor(@CheckForNull Label l) {
-        Snapshot _snapshot = this.snapshot;
-        int r = 0;
-        for (BuildableItem bi : _snapshot.buildables)
-            for (SubTask st : bi.task.getSubTasks())
-                if (bi.getAssignedLabelFor(st) == l)
-                    r++;
-        for (BuildableItem bi : _snapshot.pendings)
-            for (SubTask st : bi.task.getSubTasks())
-                if (bi.getAssignedLabelFor(st) == l)
-                    r++;
-        return r;
+        return snapshot.countSubTasksFor(l);
     }
 
     /**
@@ -1051,25 +1332,7 @@ public class Queue extends ResourceController implements Saveable {
      * @return null if the project is not in the queue.
      */
     public Item getItem(Task t) {
-        Snapshot snapshot = this.snapshot;
-        for (Item item : snapshot.blockedProjects) {
-            if (item.task.equals(t))
-                return item;
-        }
-        for (Item item : snapshot.buildables) {
-            if (item.task.equals(t))
-                return item;
-        }
-        for (Item item : snapshot.pendings) {
-            if (item.task.equals(t))
-                return item;
-        }
-        for (Item item : snapshot.waitingList) {
-            if (item.task.equals(t)) {
-                return item;
-            }
-        }
-        return null;
+        return snapshot.getItem(t);
     }
 
     /**
@@ -1108,29 +1371,7 @@ public class Queue extends ResourceController implements Saveable {
      * @return null if the project is not in the queue.
      */
     public List<Item> getItems(Task t) {
-        Snapshot snapshot = this.snapshot;
-        List<Item> result = new ArrayList<Item>();
-        for (Item item : snapshot.blockedProjects) {
-            if (item.task.equals(t)) {
-                result.add(item);
-            }
-        }
-        for (Item item : snapshot.buildables) {
-            if (item.task.equals(t)) {
-                result.add(item);
-            }
-        }
-        for (Item item : snapshot.pendings) {
-            if (item.task.equals(t)) {
-                result.add(item);
-            }
-        }
-        for (Item item : snapshot.waitingList) {
-            if (item.task.equals(t)) {
-                result.add(item);
-            }
-        }
-        return result;
+        return new ArrayList<Item>(snapshot.getItems(t));
     }
 
     /**
@@ -1150,6 +1391,7 @@ public class Queue extends ResourceController implements Saveable {
         try { try {
             final WorkUnit wu = exec.getCurrentWorkUnit();
             pendings.remove(wu.context.item);
+            journalLeave(wu.context.item);
 
             LeftItem li = new LeftItem(wu.context);
             li.enter(this);
@@ -1172,6 +1414,81 @@ public class Queue extends ResourceController implements Saveable {
         return maintainerThread.submit();
     }
 
+    /**
+     * Notes that something affecting whether the items of the given task are blocked has changed,
+     * so that the next {@link #maintain()} pass re-evaluates them even when
+     * {@link #INCREMENTAL_MAINTENANCE incremental maintenance} is on.
+     *
+     * <p>
+     * {@link QueueTaskDispatcher}s whose vetoes depend on state outside the queue should call
+     * this (or {@link #markAllDirty()}) when that state changes, otherwise their items are only
+     * reconsidered by the periodic full sweep.
+     *
+     * @since 2.82
+     */
+    public void markDirty(@Nonnull Task task) {
+        dirtyTasks.add(task);
+    }
+
+    /**
+     * Makes the next {@link #maintain()} pass re-evaluate every item in the queue.
+     *
+     * @since 2.82
+     */
+    public void markAllDirty() {
+        allDirty.set(true);
+    }
+
+    /**
+     * Counters describing how many items {@link #maintain()} re-evaluated.
+     *
+     * @since 2.82
+     */
+    public @Nonnull MaintenanceStatistics getMaintenanceStatistics() {
+        return maintenanceStatistics;
+    }
+
+    /**
+     * Time spent by {@link #maintain()} in each {@link QueueTaskDispatcher}.
+     *
+     * @since 2.82
+     */
+    public @Nonnull Collection<DispatcherStatistics> getDispatcherStatistics() {
+        return dispatchers.getStatistics();
+    }
+
+    /**
+     * Timings of {@link #maintain()}, and how long items wait for an executor.
+     *
+     * @since 2.82
+     */
+    public @Nonnull QueueMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Marks dirty everything that a build of the given task could have been blocking:
+     * the task itself, its upstream and downstream projects, and if it holds any {@link Resource}
+     * the whole queue.
+     */
+    /*package*/ void markRelatedDirty(@Nonnull Task task) {
+        if (!INCREMENTAL_MAINTENANCE) {
+            return;
+        }
+        ResourceList resources = task.getResourceList();
+        if (resources != null && !resources.isEmpty()) {
+            markAllDirty();
+            return;
+        }
+        markDirty(task);
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins != null && task instanceof AbstractProject) {
+            DependencyGraph graph = jenkins.getDependencyGraph();
+            dirtyTasks.addAll(graph.getTransitiveUpstream((AbstractProject) task));
+            dirtyTasks.addAll(graph.getTransitiveDownstream((AbstractProject) task));
+        }
+    }
+
     /**
      * Checks if the given item should be prevented from entering into the {@link #buildables} state
      * and instead stay in the {@link #blockedProjects} state.
@@ -1180,12 +1497,7 @@ public class Queue extends ResourceController implements Saveable {
         if (i.task.isBuildBlocked() || !canRun(i.task.getResourceList()))
             return true;
 
-        for (QueueTaskDispatcher d : QueueTaskDispatcher.all()) {
-            if (d.canRun(i)!=null)
-                return true;
-        }
-
-        return false;
+        return dispatchers.canRun(i) != null;
     }
 
     /**
@@ -1413,11 +1725,34 @@ public class Queue extends ResourceController implements Saveable {
      * and it also gets invoked periodically (see {@link Queue.MaintainTask}.)
      */
     public void maintain() {
+        final long lockRequested = System.nanoTime();
         lock.lock();
+        final long lockAcquired = System.nanoTime();
         try { try {
 
             LOGGER.log(Level.FINE, "Queue maintenance started on {0} with {1}", new Object[] {this, snapshot});
 
+            // decide whether this pass looks at everything or only at what changed since the last one
+            final long now = System.currentTimeMillis();
+            final boolean fullSweepRequested = allDirty.getAndSet(false);
+            // quieting down or cancelling it decides whether any blocked or waiting item may become buildable
+            Jenkins jenkins = Jenkins.getInstanceOrNull();
+            final boolean quietingDown = jenkins != null && jenkins.isQuietingDown();
+            final boolean quietDownChanged = quietingDown != lastQuietingDown;
+            lastQuietingDown = quietingDown;
+            final boolean fullSweep = !INCREMENTAL_MAINTENANCE || fullSweepRequested || quietDownChanged
+                    || now - lastFullSweep >= FULL_SWEEP_INTERVAL;
+            if (fullSweep) {
+                lastFullSweep = now;
+            }
+            final Set<Task> dirty = new HashSet<Task>();
+            for (Iterator<Task> itr = dirtyTasks.iterator(); itr.hasNext();) {
+                dirty.add(itr.next());
+                itr.remove();
+            }
+            int evaluated = 0, skipped = 0;
+            dispatchers.reset();
+
             // The executors that are currently waiting for a job to run.
             Map<Executor, JobOffer> parked = new HashMap<Executor, JobOffer>();
 
@@ -1437,7 +1772,7 @@ public class Queue extends ResourceController implements Saveable {
                         }
                         if (e.isParking()) {
                             LOGGER.log(Level.FINEST, "{0} is parking and is waiting for a job to execute.", e.getDisplayName());
-                            parked.put(e, new JobOffer(e));
+                            parked.put(e, new JobOffer(e, dispatchers));
                         }
                         final WorkUnit workUnit = e.getCurrentWorkUnit();
                         if (workUnit != null) {
@@ -1454,11 +1789,38 @@ public class Queue extends ResourceController implements Saveable {
                     }
                     p.isPending = false;
                     pendings.remove(p);
+                    journalLeave(p);
                     makeBuildable(p); // TODO whatever this is for, the return value is being ignored, so this does nothing at all
                 }
             }
 
+            // an executor that was freed or came online since the last pass may take what nobody could before
+            if (fullSweep || !lastParked.containsAll(parked.keySet())) {
+                unmappable.clear();
+            }
+            lastParked = new HashSet<Executor>(parked.keySet());
+
+            {// keep the label index in line with the executors that are idle right now
+                idleExecutors.retainAll(parked.keySet());
+                // labels can change without anyone telling (Slave.setLabelString, LabelFinder, overrides
+                // of getAssignedLabels()), so ask each node once per pass, as canTake would have done anyway
+                Map<Node, Set<LabelAtom>> labels = new HashMap<Node, Set<LabelAtom>>();
+                for (Executor e : parked.keySet()) {
+                    Node n = e.getOwner().getNode();
+                    if (n == null) {
+                        idleExecutors.remove(e); // cannot take anything anyway
+                        continue;
+                    }
+                    Set<LabelAtom> atoms = labels.get(n);
+                    if (atoms == null) {
+                        labels.put(n, atoms = n.getAssignedLabels());
+                    }
+                    idleExecutors.update(e, atoms);
+                }
+            }
+
             final QueueSorter s = sorter;
+            long phaseStart = System.nanoTime();
 
             {// blocked -> buildable
                 // copy as we'll mutate the list and we want to process in a potentially different order
@@ -1470,6 +1832,11 @@ public class Queue extends ResourceController implements Saveable {
                     Collections.sort(blockedItems, QueueSorter.DEFAULT_BLOCKED_ITEM_COMPARATOR);
                 }
                 for (BlockedItem p : blockedItems) {
+                    if (!fullSweep && !dirty.contains(p.task)) {
+                        skipped++;
+                        continue;
+                    }
+                    evaluated++;
                     String taskDisplayName = LOGGER.isLoggable(Level.FINEST) ? p.task.getFullDisplayName() : null;
                     LOGGER.log(Level.FINEST, "Current blocked item: {0}", taskDisplayName);
                     if (!isBuildBlocked(p) && allowNewBuildableTask(p.task)) {
@@ -1491,6 +1858,9 @@ public class Queue extends ResourceController implements Saveable {
                 }
             }
 
+            metrics.recordPhase(QueueMetrics.Phase.BLOCKED_TO_BUILDABLE, System.nanoTime() - phaseStart);
+            phaseStart = System.nanoTime();
+
             // waitingList -> buildable/blocked
             while (!waitingList.isEmpty()) {
                 WaitingItem top = peek();
@@ -1520,8 +1890,12 @@ public class Queue extends ResourceController implements Saveable {
                 }
             }
 
+            metrics.recordPhase(QueueMetrics.Phase.WAITING_TO_BLOCKED, System.nanoTime() - phaseStart);
+            phaseStart = System.nanoTime();
+
             if (s != null)
                 s.sortBuildableItems(buildables);
+            metrics.recordPhase(QueueMetrics.Phase.SORT, System.nanoTime() - phaseStart);
             
             // Ensure that identification of blocked tasks is using the live state: JENKINS-27708 & JENKINS-27871
             updateSnapshot();
@@ -1529,6 +1903,12 @@ public class Queue extends ResourceController implements Saveable {
             // allocate buildable jobs to executors
             for (BuildableItem p : new ArrayList<BuildableItem>(
                     buildables)) {// copy as we'll mutate the list in the loop
+                if (!fullSweep && unmappable.contains(p.getId()) && !dirty.contains(p.task)) {
+                    // no new executor since it last failed to find one, so the outcome would be the same
+                    skipped++;
+                    continue;
+                }
+                evaluated++;
                 // one last check to make sure this build is not blocked.
                 if (isBuildBlocked(p)) {
                     p.leave(this);
@@ -1552,9 +1932,34 @@ public class Queue extends ResourceController implements Saveable {
                     }
                 } else {
 
-                    List<JobOffer> candidates = new ArrayList<>(parked.size());
-                    List<CauseOfBlockage> reasons = new ArrayList<>(parked.size());
-                    for (JobOffer j : parked.values()) {
+                    Collection<JobOffer> offers = parked.values();
+                    Label label = p.getAssignedLabel();
+                    if (label != null) {
+                        // only the executors whose node carries the label stand a chance
+                        Set<Executor> matching = idleExecutors.select(label);
+                        offers = new ArrayList<JobOffer>(matching.size());
+                        for (Executor e : matching) {
+                            JobOffer j = parked.get(e);
+                            if (j != null) {
+                                offers.add(j);
+                            }
+                        }
+                    }
+
+                    if (DispatcherEvaluator.PARALLEL) {
+                        Set<Node> nodes = new HashSet<Node>();
+                        for (JobOffer j : offers) {
+                            Node n = j.getNode();
+                            if (n != null) {
+                                nodes.add(n);
+                            }
+                        }
+                        dispatchers.prefetch(nodes, p);
+                    }
+
+                    List<JobOffer> candidates = new ArrayList<>(offers.size());
+                    List<CauseOfBlockage> reasons = new ArrayList<>(offers.size());
+                    for (JobOffer j : offers) {
                         CauseOfBlockage reason = j.getCauseOfBlockage(p);
                         if (reason == null) {
                             LOGGER.log(Level.FINEST,
@@ -1568,7 +1973,9 @@ public class Queue extends ResourceController implements Saveable {
                     }
 
                     MappingWorksheet ws = new MappingWorksheet(p, candidates);
+                    long mapStart = System.nanoTime();
                     Mapping m = loadBalancer.map(p.task, ws);
+                    metrics.recordPhase(QueueMetrics.Phase.MAP, System.nanoTime() - mapStart);
                     if (m == null) {
                         // if we couldn't find the executor that fits,
                         // just leave it in the buildables list and
@@ -1576,6 +1983,7 @@ public class Queue extends ResourceController implements Saveable {
                         LOGGER.log(Level.FINER, "Failed to map {0} to executors. candidates={1} parked={2}",
                                 new Object[]{p, candidates, parked.values()});
                         p.transientCausesOfBlockage = reasons.isEmpty() ? null : reasons;
+                        unmappable.add(p.getId());
                         continue;
                     }
 
@@ -1588,6 +1996,7 @@ public class Queue extends ResourceController implements Saveable {
                     if (!wuc.getWorkUnits().isEmpty()) {
                         LOGGER.log(Level.FINEST, "BuildableItem {0} marked as pending.", taskDisplayName);
                         makePending(p);
+                        metrics.recordStarted(p.getAssignedLabel(), System.currentTimeMillis() - p.getInQueueSince());
                     }
                     else
                         LOGGER.log(Level.FINEST, "BuildableItem {0} with empty work units!?", p);
@@ -1605,9 +2014,24 @@ public class Queue extends ResourceController implements Saveable {
                     updateSnapshot();
                 }
             }
+
+            // an executor given work in this pass is available anew once it parks again, which may well be
+            // before the next pass gets to see it busy, so it must not count as one that has seen the unmappable items
+            for (JobOffer j : parked.values()) {
+                if (j.workUnit != null) {
+                    lastParked.remove(j.executor);
+                }
+            }
+
+            dispatchers.reset();
+            maintenanceStatistics.record(fullSweep, evaluated, skipped);
+            LOGGER.log(Level.FINE, "Queue maintenance re-evaluated {0} items and skipped {1} (full sweep: {2})",
+                    new Object[] {evaluated, skipped, fullSweep});
         } finally { updateSnapshot(); } } finally {
             lock.unlock();
+            metrics.recordLock(lockAcquired - lockRequested, System.nanoTime() - lockAcquired);
         }
+        compactJournalIfNeeded();
     }
 
     /**
@@ -1699,6 +2123,7 @@ public class Queue extends ResourceController implements Saveable {
     private boolean makePending(BuildableItem p) {
         // LOGGER.info("Making "+p.task+" pending"); // REMOVE
         p.isPending = true;
+        journalEnter(p);
         return pendings.add(p);
     }
 
@@ -2388,6 +2813,7 @@ public class Queue extends ResourceController implements Saveable {
         @Override
         /*package*/ void enter(Queue q) {
             if (q.waitingList.add(this)) {
+                q.journalEnter(this);
                 for (QueueListener ql : QueueListener.all()) {
                     try {
                         ql.onEnterWaiting(this);
@@ -2403,6 +2829,7 @@ public class Queue extends ResourceController implements Saveable {
         /*package*/ boolean leave(Queue q) {
             boolean r = q.waitingList.remove(this);
             if (r) {
+                q.journalLeave(this);
                 for (QueueListener ql : QueueListener.all()) {
                     try {
                         ql.onLeaveWaiting(this);
@@ -2471,6 +2898,7 @@ public class Queue extends ResourceController implements Saveable {
         /*package*/ void enter(Queue q) {
             LOGGER.log(Level.FINE, "{0} is blocked", this);
             blockedProjects.add(this);
+            q.journalEnter(this);
             for (QueueListener ql : QueueListener.all()) {
                 try {
                     ql.onEnterBlocked(this);
@@ -2484,6 +2912,7 @@ public class Queue extends ResourceController implements Saveable {
         /*package*/ boolean leave(Queue q) {
             boolean r = blockedProjects.remove(this);
             if (r) {
+                q.journalLeave(this);
                 LOGGER.log(Level.FINE, "{0} no longer blocked", this);
                 for (QueueListener ql : QueueListener.all()) {
                     try {
@@ -2578,6 +3007,7 @@ public class Queue extends ResourceController implements Saveable {
         @Override
         /*package*/ void enter(Queue q) {
             q.buildables.add(this);
+            q.journalEnter(this);
             for (QueueListener ql : QueueListener.all()) {
                 try {
                     ql.onEnterBuildable(this);
@@ -2592,6 +3022,7 @@ public class Queue extends ResourceController implements Saveable {
         /*package*/ boolean leave(Queue q) {
             boolean r = q.buildables.remove(this);
             if (r) {
+                q.journalLeave(this);
                 LOGGER.log(Level.FINE, "{0} no longer blocked", this);
                 for (QueueListener ql : QueueListener.all()) {
                     try {
@@ -2656,6 +3087,8 @@ public class Queue extends ResourceController implements Saveable {
         @Override
         void enter(Queue q) {
             q.leftItems.put(getId(),this);
+            // whatever this item was holding back may now be able to proceed
+            q.markRelatedDirty(task);
             for (QueueListener ql : QueueListener.all()) {
                 try {
                     ql.onLeft(this);
@@ -2675,6 +3108,44 @@ public class Queue extends ResourceController implements Saveable {
 
     private static final Logger LOGGER = Logger.getLogger(Queue.class.getName());
 
+    /**
+     * If true, {@link #maintain()} only re-evaluates the blocked and buildable items affected by
+     * changes since the previous pass, instead of asking every {@link QueueTaskDispatcher} about every item.
+     *
+     * <p>
+     * Core marks items dirty when they are scheduled, when builds start or finish, when nodes change,
+     * and when {@link Jenkins#isQuietingDown()} flips. It cannot see changes to the state that
+     * {@link QueueTaskDispatcher#canRun}, {@link QueueTaskDispatcher#canTake} or
+     * {@link Task#getCauseOfBlockage()} depend on. Unless whoever changes that state calls
+     * {@link #markDirty(Task)} or {@link #markAllDirty()}, the affected items wait for the next full sweep,
+     * which is up to {@link #FULL_SWEEP_INTERVAL} later (30 seconds by default) rather than the next pass.
+     * @see #markDirty(Task)
+     * @since 2.82
+     */
+    public static boolean INCREMENTAL_MAINTENANCE = SystemProperties.getBoolean(Queue.class.getName()+".incrementalMaintenance");
+
+    /**
+     * Upper bound in milliseconds between two {@link #maintain()} passes that re-evaluate every item,
+     * as a safety net for changes nobody {@linkplain #markDirty(Task) reported}.
+     * @since 2.82
+     */
+    public static long FULL_SWEEP_INTERVAL = SystemProperties.getLong(Queue.class.getName()+".fullSweepInterval", TimeUnit.SECONDS.toMillis(30));
+
+    /**
+     * If true, changes to the queue are appended to {@code queue.journal} as they happen, so that the queue
+     * can be restored after a crash without rewriting {@code queue.xml} on every change.
+     * The journal is written and forced to disk in the background, so a crash loses the changes made
+     * since its last write, which is normally a few milliseconds' worth.
+     * @since 2.82
+     */
+    public static boolean JOURNAL = SystemProperties.getBoolean(Queue.class.getName()+".journal");
+
+    /**
+     * Number of journal records after which the queue is saved in full and the journal starts over.
+     * @since 2.82
+     */
+    public static int JOURNAL_COMPACTION_THRESHOLD = SystemProperties.getInteger(Queue.class.getName()+".journalCompactionThreshold", 1000);
+
     /**
      * This {@link XStream} instance is used to persist {@link Task}s.
      */
@@ -2835,29 +3306,190 @@ public class Queue extends ResourceController implements Saveable {
                 justification = "It will invoke the inherited clear() method according to Java semantics. "
                               + "FindBugs recommends suppressing warnings in such case")
         public void cancelAll() {
-            for (T t : new ArrayList<T>(this))
+            for (T t : new ArrayList<T>(this)) {
                 t.cancel(Queue.this);
+                journalLeave(t); // pending items do not leave by themselves
+            }
             clear();
         }
     }
 
-    private static class Snapshot {
+    /**
+     * Immutable state of the {@link Queue} at some point in time.
+     *
+     * <p>
+     * A new snapshot is published every time the queue changes, and each one carries a
+     * {@linkplain #getGeneration() generation number} that only ever increases, so callers can tell
+     * whether anything changed since they last looked. The lookup tables behind {@link #getItem(Task)},
+     * {@link #getItem(long)} and {@link #getBuildableItems(Label)} are computed the first time they are needed
+     * and then shared by all readers of the same snapshot.
+     *
+     * <p>
+     * The items themselves are live objects, and no permission check is applied.
+     *
+     * @see Queue#getSnapshot()
+     * @since 2.82
+     */
+    public static final class Snapshot {
+        private final long generation;
         private final Set<WaitingItem> waitingList;
         private final List<BlockedItem> blockedProjects;
         private final List<BuildableItem> buildables;
         private final List<BuildableItem> pendings;
 
-        public Snapshot(Set<WaitingItem> waitingList, List<BlockedItem> blockedProjects, List<BuildableItem> buildables,
+        // lookup tables computed on demand; racing threads may compute them twice, which is harmless
+        private volatile List<BuildableItem> buildablesAndPendings;
+        private volatile Map<Long, Item> byId;
+        private volatile Map<Task, List<Item>> byTask;
+        private volatile Map<Label, List<BuildableItem>> byLabel;
+        private volatile Map<Label, Integer> subTasksByLabel;
+
+        private Snapshot(long generation, Set<WaitingItem> waitingList, List<BlockedItem> blockedProjects, List<BuildableItem> buildables,
                         List<BuildableItem> pendings) {
+            this.generation = generation;
             this.waitingList = new LinkedHashSet<WaitingItem>(waitingList);
             this.blockedProjects = new ArrayList<BlockedItem>(blockedProjects);
             this.buildables = new ArrayList<BuildableItem>(buildables);
             this.pendings = new ArrayList<BuildableItem>(pendings);
         }
 
+        /**
+         * Number that increases every time the queue changes.
+         */
+        public long getGeneration() {
+            return generation;
+        }
+
+        public @Nonnull Set<WaitingItem> getWaitingItems() {
+            return Collections.unmodifiableSet(waitingList);
+        }
+
+        public @Nonnull List<BlockedItem> getBlockedItems() {
+            return Collections.unmodifiableList(blockedProjects);
+        }
+
+        /**
+         * Buildable items, including those {@linkplain BuildableItem#isPending() pending} execution.
+         */
+        public @Nonnull List<BuildableItem> getBuildableItems() {
+            List<BuildableItem> r = buildablesAndPendings;
+            if (r == null) {
+                List<BuildableItem> all = new ArrayList<BuildableItem>(buildables.size() + pendings.size());
+                all.addAll(buildables);
+                all.addAll(pendings);
+                buildablesAndPendings = r = Collections.unmodifiableList(all);
+            }
+            return r;
+        }
+
+        public @Nonnull List<BuildableItem> getPendingItems() {
+            return Collections.unmodifiableList(pendings);
+        }
+
+        /**
+         * Buildable (including pending) items whose {@linkplain BuildableItem#getAssignedLabel() assigned label} is exactly the given one.
+         *
+         * @param l null to get the items that can run anywhere.
+         */
+        public @Nonnull List<BuildableItem> getBuildableItems(@CheckForNull Label l) {
+            Map<Label, List<BuildableItem>> m = byLabel;
+            if (m == null) {
+                m = new HashMap<Label, List<BuildableItem>>();
+                for (BuildableItem bi : getBuildableItems()) {
+                    Label label = bi.getAssignedLabel();
+                    List<BuildableItem> bucket = m.get(label);
+                    if (bucket == null) {
+                        m.put(label, bucket = new ArrayList<BuildableItem>());
+                    }
+                    bucket.add(bi);
+                }
+                byLabel = m;
+            }
+            List<BuildableItem> r = m.get(l);
+            return r == null ? Collections.<BuildableItem>emptyList() : Collections.unmodifiableList(r);
+        }
+
+        /**
+         * Gets the first item in the queue for the given task, looking at blocked, buildable, pending and waiting items in that order.
+         */
+        public @CheckForNull Item getItem(Task t) {
+            List<Item> items = getItems(t);
+            return items.isEmpty() ? null : items.get(0);
+        }
+
+        /**
+         * Gets all the items in the queue for the given task, ordered like {@link #getItem(Task)}.
+         */
+        public @Nonnull List<Item> getItems(Task t) {
+            Map<Task, List<Item>> m = byTask;
+            if (m == null) {
+                m = new HashMap<Task, List<Item>>();
+                for (Item item : Iterables.<Item>concat(blockedProjects, buildables, pendings, waitingList)) {
+                    List<Item> items = m.get(item.task);
+                    if (items == null) {
+                        m.put(item.task, items = new ArrayList<Item>(1));
+                    }
+                    items.add(item);
+                }
+                byTask = m;
+            }
+            List<Item> r = m.get(t);
+            return r == null ? Collections.<Item>emptyList() : Collections.unmodifiableList(r);
+        }
+
+        /**
+         * Gets the item with the given {@link Item#getId()}, unless it already left the queue.
+         */
+        public @CheckForNull Item getItem(long id) {
+            Map<Long, Item> m = byId;
+            if (m == null) {
+                m = new HashMap<Long, Item>();
+                for (Item item : Iterables.<Item>concat(blockedProjects, buildables, pendings, waitingList)) {
+                    m.put(item.getId(), item);
+                }
+                byId = m;
+            }
+            return m.get(id);
+        }
+
+        /**
+         * Counts the {@link SubTask}s of buildable (including pending) items whose assigned label is exactly the given one.
+         */
+        /*package*/ int countSubTasksFor(@CheckForNull Label l) {
+            Integer r = subTasksByLabel().get(l);
+            return r == null ? 0 : r;
+        }
+
+        /**
+         * Counts the {@link SubTask}s of all buildable (including pending) items.
+         */
+        /*package*/ int countSubTasks() {
+            int r = 0;
+            for (Integer i : subTasksByLabel().values()) {
+                r += i;
+            }
+            return r;
+        }
+
+        private Map<Label, Integer> subTasksByLabel() {
+            Map<Label, Integer> m = subTasksByLabel;
+            if (m == null) {
+                m = new HashMap<Label, Integer>();
+                for (BuildableItem bi : getBuildableItems()) {
+                    for (SubTask st : bi.task.getSubTasks()) {
+                        Label label = bi.getAssignedLabelFor(st);
+                        Integer n = m.get(label);
+                        m.put(label, n == null ? 1 : n + 1);
+                    }
+                }
+                subTasksByLabel = m;
+            }
+            return m;
+        }
+
         @Override
         public String toString() {
-            return "Queue.Snapshot{waitingList=" + waitingList + ";blockedProjects=" + blockedProjects + ";buildables=" + buildables + ";pendings=" + pendings + "}";
+            return "Queue.Snapshot{generation=" + generation + ";waitingList=" + waitingList + ";blockedProjects=" + blockedProjects + ";buildables=" + buildables + ";pendings=" + pendings + "}";
         }
     }
     
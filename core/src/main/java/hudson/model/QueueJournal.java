@@ -0,0 +1,343 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model;
+
+import com.thoughtworks.xstream.XStream;
+import hudson.model.Queue.Item;
+import jenkins.util.AtmostOneTaskExecutor;
+import jenkins.util.SystemProperties;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only log of the changes made to the {@link Queue} since it was last saved to {@code queue.xml}.
+ *
+ * <p>
+ * Every time an item enters a stage of the queue, its serialized form is appended; every time it leaves,
+ * only its ID is. {@link Queue#load()} replays this on top of {@code queue.xml}, so that the queue survives
+ * a crash without having to save the whole queue on each change. Once the log grows past
+ * {@link Queue#JOURNAL_COMPACTION_THRESHOLD} records, the queue is saved in full and the log starts over.
+ *
+ * <p>
+ * Changes are recorded while holding the queue lock. Recording one serializes the item right away, so that the record
+ * captures the state it had then, and adds it to a bounded list of pending records. These are written by a background
+ * thread, all those pending at a time in one go, followed by a single {@link FileChannel#force fsync}.
+ * If the writer falls behind by more than {@link #MAX_PENDING} records, or fails to write them, further changes are dropped
+ * and the journal asks to be {@linkplain #needsCompaction(int) compacted}, which saves the queue in full instead.
+ *
+ * <p>
+ * Recovery is therefore not entirely lossless: changes recorded since the last group commit are lost if the JVM
+ * or the machine goes down before the writer gets to them. The writer starts as soon as a change is recorded,
+ * so this window is normally the time one write and fsync take, and while the writer is busy, those of the records that
+ * arrive in the meantime. Anything already forced to disk survives a power loss.
+ *
+ * <p>
+ * Each record is a type byte, the item ID, and for {@link #ENTER} the length-prefixed XML of the item.
+ * A record cut short by a crash is ignored on replay.
+ *
+ * @see Queue#JOURNAL
+ */
+final class QueueJournal {
+    private static final byte ENTER = 1;
+    private static final byte LEAVE = 2;
+
+    /**
+     * Maximum number of records waiting to be written.
+     */
+    static int MAX_PENDING = SystemProperties.getInteger(QueueJournal.class.getName() + ".maxPending", 1000);
+
+    private final File file;
+    private final XStream xs;
+
+    /**
+     * Records waiting to be written, each already in its final form.
+     * Guarded by {@code this}, as are {@link #records} and {@link #incomplete}.
+     */
+    private List<byte[]> pending = new ArrayList<byte[]>();
+    private int records;
+    /**
+     * Whether some changes could not be recorded, so that the log no longer reflects the queue.
+     */
+    private boolean incomplete;
+
+    /**
+     * Held while writing, so that {@link #reset()} does not let records already superseded by {@code queue.xml} through.
+     * Guards {@link #out}.
+     */
+    private final Object writeLock = new Object();
+    private DataOutputStream out;
+    private FileChannel channel;
+
+    private final AtmostOneTaskExecutor<Void> writer = new AtmostOneTaskExecutor<Void>(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+            flush();
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "QueueJournal writer";
+        }
+    });
+
+    QueueJournal(@Nonnull File file, @Nonnull XStream xs) {
+        this.file = file;
+        this.xs = xs;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Records that the item entered a stage of the queue, or that its state otherwise changed.
+     * The item is serialized right away, as the queue may change it before the record is written.
+     */
+    void enter(@Nonnull Item item) {
+        if (isIncomplete()) {
+            return; // do not bother serializing
+        }
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try {
+            ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            try (Writer w = new OutputStreamWriter(xml, StandardCharsets.UTF_8)) {
+                xs.toXML(item, w);
+            }
+            DataOutputStream record = new DataOutputStream(buf);
+            record.writeByte(ENTER);
+            record.writeLong(item.getId());
+            record.writeInt(xml.size());
+            xml.writeTo(record);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to record queue item #" + item.getId() + " in " + file + "; the queue will be saved in full instead", e);
+            synchronized (this) {
+                incomplete = true;
+            }
+            return;
+        }
+        add(buf.toByteArray());
+    }
+
+    /**
+     * Records that the item with the given ID is no longer in the queue.
+     */
+    void leave(long id) {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(9);
+        try {
+            DataOutputStream record = new DataOutputStream(buf);
+            record.writeByte(LEAVE);
+            record.writeLong(id);
+        } catch (IOException e) {
+            throw new AssertionError(e); // in memory
+        }
+        add(buf.toByteArray());
+    }
+
+    private synchronized boolean isIncomplete() {
+        return incomplete;
+    }
+
+    private void add(byte[] record) {
+        synchronized (this) {
+            if (incomplete) {
+                return; // pointless until the queue is saved in full
+            }
+            if (pending.size() >= MAX_PENDING) {
+                LOGGER.log(Level.WARNING, "{0} is falling behind; the queue will be saved in full instead", file);
+                incomplete = true;
+                return;
+            }
+            pending.add(record);
+            records++;
+        }
+        writer.submit();
+    }
+
+    /**
+     * Number of records appended since the last {@link #reset()}, including those not written yet.
+     */
+    synchronized int size() {
+        return records;
+    }
+
+    /**
+     * Whether the queue should be saved in full, as the log is getting long or is missing changes.
+     */
+    synchronized boolean needsCompaction(int threshold) {
+        return incomplete || records >= threshold;
+    }
+
+    /**
+     * Writes out the pending records, and forces them to disk.
+     */
+    void flush() throws IOException {
+        synchronized (writeLock) {
+            List<byte[]> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<byte[]>();
+            }
+            try {
+                DataOutputStream out = open();
+                for (byte[] record : batch) {
+                    out.write(record);
+                }
+                out.flush();
+                channel.force(false);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    incomplete = true;
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Discards the log, once its contents are safely in {@code queue.xml}.
+     */
+    void reset() throws IOException {
+        synchronized (writeLock) {
+            synchronized (this) {
+                pending.clear();
+                records = 0;
+                incomplete = false;
+            }
+            close();
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Failed to delete " + file);
+            }
+        }
+    }
+
+    void close() throws IOException {
+        synchronized (writeLock) {
+            if (out != null) {
+                try {
+                    out.close();
+                } finally {
+                    out = null;
+                    channel = null;
+                }
+            }
+        }
+    }
+
+    private DataOutputStream open() throws IOException {
+        assert Thread.holdsLock(writeLock);
+        if (out == null) {
+            FileOutputStream fos = new FileOutputStream(file, true);
+            channel = fos.getChannel();
+            out = new DataOutputStream(new BufferedOutputStream(fos));
+        }
+        return out;
+    }
+
+    /**
+     * Reads back the log.
+     *
+     * @return
+     *      the final state of each item ID mentioned in the log, in the order they were last recorded;
+     *      null values stand for items that left the queue.
+     */
+    @Nonnull Map<Long, Item> replay() throws IOException {
+        flush();
+        Map<Long, Item> result = new LinkedHashMap<Long, Item>();
+        if (!file.exists()) {
+            return result;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break; // clean end of the log
+                }
+                try {
+                    long id = in.readLong();
+                    result.remove(id); // so that the iteration order reflects the last record
+                    if (type == ENTER) {
+                        int length = in.readInt();
+                        if (length < 0 || length > file.length()) {
+                            LOGGER.log(Level.WARNING, "Corrupt record for queue item #{0} in {1}; ignoring the rest", new Object[] {id, file});
+                            break;
+                        }
+                        byte[] xml = new byte[length];
+                        in.readFully(xml);
+                        result.put(id, read(id, new ByteArrayInputStream(xml)));
+                    } else if (type == LEAVE) {
+                        result.put(id, null);
+                    } else {
+                        LOGGER.log(Level.WARNING, "Unexpected record type {0} in {1}; ignoring the rest", new Object[] {type, file});
+                        break;
+                    }
+                } catch (EOFException e) {
+                    LOGGER.log(Level.FINE, "Ignoring the truncated last record of {0}", file);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private @CheckForNull Item read(long id, InputStream xml) {
+        try {
+            return (Item) xs.fromXML(xml);
+        } catch (RuntimeException e) { // e.g. the job was deleted in the meantime
+            LOGGER.log(Level.WARNING, "Failed to restore queue item #" + id + " from " + file, e);
+            return null;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(QueueJournal.class.getName());
+}
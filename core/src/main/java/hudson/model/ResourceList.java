@@ -107,6 +107,14 @@ public final class ResourceList {
         return this;
     }
 
+    /**
+     * Checks if this list does not contain any resource.
+     * @since 2.82
+     */
+    public boolean isEmpty() {
+        return all.isEmpty();
+    }
+
     /**
      * Checks if this resource list and that resource list has any conflicting
      * resource access.
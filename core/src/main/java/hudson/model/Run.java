@@ -39,6 +39,7 @@ import hudson.Functions;
 import hudson.console.AnnotatedLargeText;
 import hudson.console.ConsoleLogFilter;
 import hudson.console.ConsoleNote;
+import hudson.console.ConsoleNoteIndex;
 import hudson.console.ModelHyperlinkNote;
 import hudson.console.PlainTextConsoleOutputStream;
 import java.nio.file.Files;
@@ -59,12 +60,14 @@ import hudson.security.Permission;
 import hudson.security.PermissionGroup;
 import hudson.security.PermissionScope;
 import hudson.tasks.BuildWrapper;
+import hudson.util.BlockCompressedFile;
 import hudson.util.FormApply;
 import hudson.util.LogTaskListener;
 import hudson.util.ProcessTree;
 import hudson.util.XStream2;
 
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -100,6 +103,7 @@ import javax.servlet.http.HttpServletResponse;
 import jenkins.model.ArtifactManager;
 import jenkins.model.ArtifactManagerConfiguration;
 import jenkins.model.ArtifactManagerFactory;
+import jenkins.model.BackgroundBuildDiscarder;
 import jenkins.model.BuildDiscarder;
 import jenkins.model.Jenkins;
 import jenkins.model.JenkinsLocationConfiguration;
@@ -1343,6 +1347,10 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         if (rawF.isFile()) {
             return rawF;
         }
+        File blocksF = new File(getRootDir(), LOG_BLOCKS);
+        if (blocksF.isFile()) {
+            return blocksF;
+        }
         File gzF = new File(getRootDir(), "log.gz");
         if (gzF.isFile()) {
             return gzF;
@@ -1353,7 +1361,8 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
 
     /**
      * Returns an input stream that reads from the log file.
-     * It will use a gzip-compressed log file (log.gz) if that exists.
+     * It will use a gzip-compressed log file (log.gz) or a {@linkplain BlockCompressedFile block compressed} one
+     * if that exists.
      *
      * @throws IOException 
      * @return An input stream from the log file. 
@@ -1366,6 +1375,9 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
     	if (logFile.exists() ) {
     	    // Checking if a ".gz" file was return
             try {
+                if (logFile.getName().equals(LOG_BLOCKS)) {
+                    return BlockCompressedFile.open(logFile).read(0);
+                }
                 InputStream fis = Files.newInputStream(logFile.toPath());
                 if (logFile.getName().endsWith(".gz")) {
                     return new GZIPInputStream(fis);
@@ -1432,7 +1444,19 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      * @return A {@link Run} log with annotations
      */   
     public @Nonnull AnnotatedLargeText getLogText() {
-        return new AnnotatedLargeText(getLogFile(),getCharset(),!isLogUpdated(),this);
+        File logFile = getLogFile();
+        if (logFile.getName().equals(LOG_BLOCKS)) {
+            try {
+                AnnotatedLargeText text = new AnnotatedLargeText(BlockCompressedFile.open(logFile),getCharset(),!isLogUpdated(),this);
+                text.setNoteIndex(new File(getRootDir(), LOG_NOTES));
+                return text;
+            } catch (IOException e) {
+                LOGGER.log(WARNING, "Failed to open " + logFile, e);
+            }
+        }
+        AnnotatedLargeText text = new AnnotatedLargeText(logFile,getCharset(),!isLogUpdated(),this);
+        text.setNoteIndex(new File(getRootDir(), LOG_NOTES));
+        return text;
     }
 
     @Override
@@ -1491,18 +1515,21 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         File tmp = new File(rootDir.getParentFile(),'.'+rootDir.getName());
         
         if (tmp.exists()) {
-            Util.deleteRecursive(tmp);
+            if (BackgroundBuildDiscarder.ENABLED) {
+                // an earlier build with this number may still be waiting to be deleted, so keep out of its way
+                for (int i = 1; tmp.exists(); i++) {
+                    tmp = new File(rootDir.getParentFile(), '.' + rootDir.getName() + '.' + i);
+                }
+            } else {
+                Util.deleteRecursive(tmp);
+            }
         }
         // TODO on Java 7 prefer: Files.move(rootDir.toPath(), tmp.toPath(), StandardCopyOption.ATOMIC_MOVE)
         boolean renamingSucceeded = rootDir.renameTo(tmp);
-        Util.deleteRecursive(tmp);
-        // some user reported that they see some left-over .xyz files in the workspace,
-        // so just to make sure we've really deleted it, schedule the deletion on VM exit, too.
-        if(tmp.exists())
-            tmp.deleteOnExit();
-
         if(!renamingSucceeded)
             throw new IOException(rootDir+" is in use");
+        // nothing refers to tmp anymore, so the bulk of the work need not hold up the caller
+        BackgroundBuildDiscarder.deleteLater(tmp);
         LOGGER.log(FINE, "{0}: {1} successfully deleted", new Object[] {this, rootDir});
 
         removeRunFromParent();
@@ -1785,7 +1812,7 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
             }
 
             try {
-                getParent().logRotate();
+                BackgroundBuildDiscarder.schedule(getParent());
             } catch (Exception e) {
                 LOGGER.log(Level.SEVERE, "Failed to rotate log",e);
             }
@@ -1794,6 +1821,10 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
             if (logger != null) {
                 try {
                     logger.close();
+                    File log = new File(getRootDir(), "log");
+                    if (COMPRESS_LOG && log.isFile()) {
+                        BlockCompressedFile.compressLater(log, new File(getRootDir(), LOG_BLOCKS));
+                    }
                 } catch (IOException x) {
                     LOGGER.log(Level.WARNING, "failed to close log for " + Run.this, x);
                 }
@@ -1806,7 +1837,16 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         // gets reflected to the file immediately, which can then be
         // served to the browser immediately
         try {
-            return Files.newOutputStream(getLogFile().toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            File logFile = getLogFile();
+            File notes = new File(getRootDir(), LOG_NOTES);
+            boolean fresh = !logFile.exists() || logFile.length() == 0;
+            OutputStream log = Files.newOutputStream(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            if (INDEX_NOTES && fresh) {
+                return ConsoleNoteIndex.record(log, notes);
+            }
+            // offsets would not match an index of what was written before
+            Files.deleteIfExists(notes.toPath());
+            return log;
         } catch (InvalidPathException e) {
             throw new IOException(e);
         }
@@ -1947,7 +1987,13 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      */
     @Deprecated
     public @Nonnull String getLog() throws IOException {
-        return Util.loadFile(getLogFile(),getCharset());
+        if (!getLogFile().exists()) {
+            return "";
+        }
+        // decompresses log.gz and log.blocks alike
+        try (Reader r = getLogReader()) {
+            return IOUtils.toString(r);
+        }
     }
 
     /**
@@ -1969,12 +2015,11 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         final List<String> lastLines = new ArrayList<>(Math.min(maxLines, 128));
         final List<Byte> bytes = new ArrayList<>();
 
-        try (RandomAccessFile fileHandler = new RandomAccessFile(getLogFile(), "r")) {
+        try (LogBytes fileHandler = openLogBytes()) {
             long fileLength = fileHandler.length() - 1;
 
             for (filePointer = fileLength; filePointer != -1 && maxLines != lines; filePointer--) {
-                fileHandler.seek(filePointer);
-                byte readByte = fileHandler.readByte();
+                byte readByte = fileHandler.get(filePointer);
 
                 if (readByte == 0x0A) {
                     if (filePointer < fileLength) {
@@ -2004,6 +2049,50 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         return ConsoleNote.removeNotes(lastLines);
     }
 
+    /**
+     * Random access to the bytes of the log, for {@link #getLog(int)}.
+     */
+    private static abstract class LogBytes implements Closeable {
+        abstract long length() throws IOException;
+        abstract byte get(long pos) throws IOException;
+    }
+
+    private LogBytes openLogBytes() throws IOException {
+        File logFile = getLogFile();
+        if (logFile.getName().equals(LOG_BLOCKS)) {
+            final BlockCompressedFile blocks = BlockCompressedFile.open(logFile);
+            return new LogBytes() {
+                private int block = -1;
+                private byte[] data;
+                long length() {
+                    return blocks.length();
+                }
+                byte get(long pos) throws IOException {
+                    int b = (int) (pos / blocks.getBlockSize());
+                    if (b != block) {
+                        data = blocks.readBlock(b);
+                        block = b;
+                    }
+                    return data[(int) (pos - (long) b * blocks.getBlockSize())];
+                }
+                public void close() {}
+            };
+        }
+        final RandomAccessFile fileHandler = new RandomAccessFile(logFile, "r");
+        return new LogBytes() {
+            long length() throws IOException {
+                return fileHandler.length();
+            }
+            byte get(long pos) throws IOException {
+                fileHandler.seek(pos);
+                return fileHandler.readByte();
+            }
+            public void close() throws IOException {
+                fileHandler.close();
+            }
+        };
+    }
+
     private String convertBytesToString(List<Byte> bytes) {
         Collections.reverse(bytes);
         Byte[] byteArray = bytes.toArray(new Byte[bytes.size()]);
@@ -2138,6 +2227,15 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      */
     public void doConsoleText(StaplerRequest req, StaplerResponse rsp) throws IOException {
         rsp.setContentType("text/plain;charset=UTF-8");
+        ConsoleNoteIndex notes = isLogUpdated() ? null : ConsoleNoteIndex.load(new File(getRootDir(), LOG_NOTES), getLogText().length());
+        if (notes != null) {
+            // copy what is between the notes as is rather than looking for them line by line
+            try (InputStream input = getLogInputStream();
+                 OutputStream os = rsp.getCompressedOutputStream(req)) {
+                notes.strip(input, 0, os);
+            }
+            return;
+        }
         try (InputStream input = getLogInputStream();
              OutputStream os = rsp.getCompressedOutputStream(req);
              PlainTextConsoleOutputStream out = new PlainTextConsoleOutputStream(os)) {
@@ -2388,6 +2486,30 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
 
     private static final Logger LOGGER = Logger.getLogger(Run.class.getName());
 
+    /**
+     * Name of the log file once {@linkplain #COMPRESS_LOG compressed}.
+     */
+    private static final String LOG_BLOCKS = "log.blocks";
+
+    /**
+     * Name of the {@link ConsoleNoteIndex} of the log.
+     */
+    private static final String LOG_NOTES = "log.notes";
+
+    /**
+     * If true, the log of a finished build is rewritten in the background as a {@link BlockCompressedFile},
+     * which takes a fraction of the space yet can still be served from any offset without inflating it all.
+     * @since 2.82
+     */
+    public static boolean COMPRESS_LOG = SystemProperties.getBoolean(Run.class.getName()+".compressLog");
+
+    /**
+     * If true, the console notes of a build are indexed as its log is written, so that rendering the log
+     * does not have to scan every line for them.
+     * @since 2.82
+     */
+    public static boolean INDEX_NOTES = SystemProperties.getBoolean(Run.class.getName()+".indexNotes", true);
+
     /**
      * Sort by date. Newer ones first. 
      */
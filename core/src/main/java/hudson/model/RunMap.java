@@ -39,6 +39,7 @@ import jenkins.model.RunIdMigrator;
 import jenkins.model.lazy.AbstractLazyLoadRunMap;
 import static jenkins.model.lazy.AbstractLazyLoadRunMap.Direction.*;
 import jenkins.model.lazy.BuildReference;
+import jenkins.model.lazy.BuildSummaryIndex;
 import jenkins.model.lazy.LazyBuildMixIn;
 import org.apache.commons.collections.comparators.ReverseComparator;
 import org.kohsuke.accmod.Restricted;
@@ -66,6 +67,8 @@ public final class RunMap<R extends Run<?,R>> extends AbstractLazyLoadRunMap<R>
     @Restricted(NoExternalUse.class)
     public RunIdMigrator runIdMigrator = new RunIdMigrator();
 
+    private BuildSummaryIndex summaryIndex;
+
     // TODO: before first complete build
     // patch up next/previous build link
 
@@ -125,9 +128,31 @@ public final class RunMap<R extends Run<?,R>> extends AbstractLazyLoadRunMap<R>
     public boolean removeValue(R run) {
         run.dropLinks();
         runIdMigrator.delete(dir, run.getId());
+        BuildSummaryIndex index = getSummaryIndex();
+        if (index != null) {
+            index.remove(run.getNumber());
+        }
         return super.removeValue(run);
     }
 
+    /**
+     * Gets the summaries of the completed builds in this map.
+     *
+     * @return null if the index is disabled, or the builds directory is not known yet.
+     * @since 2.82
+     */
+    @Restricted(NoExternalUse.class)
+    public synchronized BuildSummaryIndex getSummaryIndex() {
+        if (BuildSummaryIndex.DISABLED || dir == null) {
+            return null;
+        }
+        if (summaryIndex == null || !summaryIndex.getFile().getParentFile().equals(dir)) {
+            // the builds directory moves along with a renamed job
+            summaryIndex = new BuildSummaryIndex(dir);
+        }
+        return summaryIndex;
+    }
+
     /**
      * Gets the read-only view of this map.
      */
@@ -34,7 +34,7 @@ public class BackFiller extends LoadPredictor {
         TimeRange timeRange = new TimeRange(start, end - start);
         List<FutureLoad> loads = new ArrayList<FutureLoad>();
 
-        for (BuildableItem bi : Jenkins.getInstance().getQueue().getBuildableItems()) {
+        for (BuildableItem bi : Jenkins.getInstance().getQueue().getSnapshot().getBuildableItems()) {
             TentativePlan tp = bi.getAction(TentativePlan.class);
             if (tp==null) {// do this even for bi==plan.item ensures that we have FIFO semantics in tentative plans.
                 tp = makeTentativePlan(bi);
@@ -0,0 +1,259 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import hudson.model.Node;
+import hudson.model.Queue;
+import hudson.model.Queue.BuildableItem;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.security.SecurityContextExecutorService;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asks the {@link QueueTaskDispatcher}s about items on behalf of {@link Queue#maintain()}, timing each call.
+ *
+ * <p>
+ * Answers from dispatchers that are {@link QueueTaskDispatcher#isThreadSafe() thread-safe} are remembered
+ * for the rest of the pass, so that a node with many idle executors is only asked once about a given item,
+ * and with {@link #PARALLEL} they are computed for all the candidate nodes at once via {@link #prefetch}.
+ * Other dispatchers are called from the queue maintenance thread exactly as before.
+ *
+ * @since 2.82
+ */
+@Restricted(NoExternalUse.class)
+public final class DispatcherEvaluator {
+    /**
+     * Stands for a null answer in {@link #memo}.
+     */
+    private static final Object NONE = new Object();
+
+    /**
+     * Replaced rather than cleared on {@link #reset()}, so that a prefetch that outlived its
+     * {@link #PREFETCH_TIMEOUT} cannot leave answers behind for the next pass.
+     */
+    private volatile ConcurrentMap<Key, Object> memo = new ConcurrentHashMap<Key, Object>();
+
+    private final ConcurrentMap<String, DispatcherStatistics> statistics = new ConcurrentHashMap<String, DispatcherStatistics>();
+
+    /**
+     * Forgets the answers remembered so far. Called at the start and end of each maintenance pass.
+     */
+    public void reset() {
+        memo = new ConcurrentHashMap<Key, Object>();
+    }
+
+    /**
+     * Same as asking each {@link QueueTaskDispatcher#canTake(Node, BuildableItem)} in turn.
+     */
+    public @CheckForNull CauseOfBlockage canTake(@Nonnull Node node, @Nonnull BuildableItem item) {
+        for (QueueTaskDispatcher d : QueueTaskDispatcher.all()) {
+            CauseOfBlockage reason = d.isThreadSafe() ? memoizedCanTake(memo, d, node, item) : timedCanTake(d, node, item);
+            if (reason != null) {
+                return reason;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same as asking each {@link QueueTaskDispatcher#canRun(Queue.Item)} in turn.
+     *
+     * <p>
+     * These answers are never remembered, as {@link Queue#maintain()} deliberately asks again right before
+     * handing an item to an executor, in case something changed earlier in the same pass.
+     */
+    public @CheckForNull CauseOfBlockage canRun(@Nonnull Queue.Item item) {
+        for (QueueTaskDispatcher d : QueueTaskDispatcher.all()) {
+            long start = System.nanoTime();
+            CauseOfBlockage reason = d.canRun(item);
+            statisticsOf(d).record(System.nanoTime() - start, reason != null);
+            if (reason != null) {
+                return reason;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes the answers of the thread-safe dispatchers about the item on each of the nodes in parallel,
+     * so that subsequent calls to {@link #canTake(Node, BuildableItem)} find them ready.
+     * Does nothing unless {@link #PARALLEL} is set.
+     *
+     * <p>
+     * The caller holds the {@link Queue} lock, so a dispatcher that wrongly takes it from a pool thread
+     * would wait forever. Waiting is therefore bounded by {@link #PREFETCH_TIMEOUT}, after which whatever
+     * was not computed yet is left for {@link #canTake(Node, BuildableItem)} to compute on the calling thread.
+     */
+    public void prefetch(@Nonnull Collection<Node> nodes, @Nonnull final BuildableItem item) {
+        if (!PARALLEL || nodes.size() < 2) {
+            return;
+        }
+        final List<QueueTaskDispatcher> dispatchers = new ArrayList<QueueTaskDispatcher>();
+        for (QueueTaskDispatcher d : QueueTaskDispatcher.all()) {
+            if (d.isThreadSafe()) {
+                dispatchers.add(d);
+            }
+        }
+        if (dispatchers.isEmpty()) {
+            return;
+        }
+        final ConcurrentMap<Key, Object> memo = this.memo;
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nodes.size());
+        for (final Node node : nodes) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (QueueTaskDispatcher d : dispatchers) {
+                        if (memoizedCanTake(memo, d, node, item) != null) {
+                            break; // later dispatchers would not be asked either
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        try {
+            // failures are not remembered, so they resurface when canTake asks again
+            for (Future<Void> f : Pool.INSTANCE.invokeAll(tasks, PREFETCH_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                if (f.isCancelled()) {
+                    LOGGER.log(Level.WARNING, "Thread-safe dispatchers took over {0}ms to answer about {1}; evaluating the rest serially. "
+                            + "Dispatchers declaring isThreadSafe() must not call into the Queue.", new Object[] {PREFETCH_TIMEOUT, item});
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.FINE, "Interrupted while evaluating dispatchers for " + item, e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Timings of each dispatcher called so far, sorted by class name.
+     */
+    public @Nonnull Collection<DispatcherStatistics> getStatistics() {
+        return Collections.unmodifiableCollection(new TreeMap<String, DispatcherStatistics>(statistics).values());
+    }
+
+    private CauseOfBlockage memoizedCanTake(ConcurrentMap<Key, Object> memo, QueueTaskDispatcher d, Node node, BuildableItem item) {
+        Key key = new Key(d, node, item);
+        Object answer = memo.get(key);
+        if (answer != null) {
+            statisticsOf(d).recordMemoized();
+        } else {
+            CauseOfBlockage reason = timedCanTake(d, node, item);
+            memo.put(key, answer = reason != null ? reason : NONE);
+        }
+        return answer == NONE ? null : (CauseOfBlockage) answer;
+    }
+
+    private CauseOfBlockage timedCanTake(QueueTaskDispatcher d, Node node, BuildableItem item) {
+        long start = System.nanoTime();
+        CauseOfBlockage reason = d.canTake(node, item);
+        statisticsOf(d).record(System.nanoTime() - start, reason != null);
+        return reason;
+    }
+
+    private DispatcherStatistics statisticsOf(QueueTaskDispatcher d) {
+        String name = d.getClass().getName();
+        DispatcherStatistics s = statistics.get(name);
+        if (s == null) {
+            DispatcherStatistics fresh = new DispatcherStatistics(name);
+            s = statistics.putIfAbsent(name, fresh);
+            if (s == null) {
+                s = fresh;
+            }
+        }
+        return s;
+    }
+
+    private static final class Key {
+        private final QueueTaskDispatcher dispatcher;
+        private final Node node;
+        private final BuildableItem item;
+
+        Key(QueueTaskDispatcher dispatcher, Node node, BuildableItem item) {
+            this.dispatcher = dispatcher;
+            this.node = node;
+            this.item = item;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return dispatcher == that.dispatcher && node == that.node && item == that.item;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(dispatcher) * 31 + System.identityHashCode(node)) * 31 + System.identityHashCode(item);
+        }
+    }
+
+    private static final class Pool {
+        static final ExecutorService INSTANCE = new SecurityContextExecutorService(Executors.newFixedThreadPool(THREADS,
+                new ExceptionCatchingThreadFactory(new NamingThreadFactory(new DaemonThreadFactory(), "DispatcherEvaluator"))));
+    }
+
+    /**
+     * Whether to ask {@link QueueTaskDispatcher#isThreadSafe() thread-safe} dispatchers about several nodes concurrently.
+     */
+    public static boolean PARALLEL = SystemProperties.getBoolean(DispatcherEvaluator.class.getName() + ".parallel");
+
+    /**
+     * How long in milliseconds {@link #prefetch} waits for the dispatchers before giving up on them.
+     */
+    public static long PREFETCH_TIMEOUT = SystemProperties.getLong(DispatcherEvaluator.class.getName() + ".prefetchTimeout", 5000L);
+
+    /**
+     * Number of threads used when {@link #PARALLEL} is set.
+     */
+    private static final int THREADS = Math.max(1, SystemProperties.getInteger(DispatcherEvaluator.class.getName() + ".threads",
+            Runtime.getRuntime().availableProcessors()));
+
+    private static final Logger LOGGER = Logger.getLogger(DispatcherEvaluator.class.getName());
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import hudson.model.Queue;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How much time {@link Queue#maintain()} spends in a single {@link QueueTaskDispatcher}.
+ *
+ * @since 2.82
+ * @see Queue#getDispatcherStatistics()
+ */
+@ExportedBean
+public final class DispatcherStatistics {
+    private final String dispatcher;
+    private final AtomicLong vetoes = new AtomicLong();
+    private final AtomicLong memoized = new AtomicLong();
+    private final DurationHistogram durations = new DurationHistogram();
+
+    public DispatcherStatistics(String dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Records one call to the dispatcher.
+     *
+     * @param nanos
+     *      how long the call took.
+     * @param veto
+     *      whether the dispatcher returned a {@link CauseOfBlockage}.
+     */
+    public void record(long nanos, boolean veto) {
+        if (veto)
+            vetoes.incrementAndGet();
+        durations.record(nanos);
+    }
+
+    /**
+     * Records that an answer was reused instead of calling the dispatcher again.
+     */
+    public void recordMemoized() {
+        memoized.incrementAndGet();
+    }
+
+    /**
+     * Class name of the dispatcher.
+     */
+    @Exported
+    public String getDispatcher() {
+        return dispatcher;
+    }
+
+    @Exported
+    public long getCalls() {
+        return durations.getCount();
+    }
+
+    /**
+     * Number of calls that blocked the item.
+     */
+    @Exported
+    public long getVetoes() {
+        return vetoes.get();
+    }
+
+    /**
+     * Number of calls saved by reusing an earlier answer from the same {@link Queue#maintain()} pass.
+     */
+    @Exported
+    public long getMemoized() {
+        return memoized.get();
+    }
+
+    /**
+     * How long the calls took.
+     */
+    @Exported(inline=true)
+    public DurationHistogram getDurations() {
+        return durations;
+    }
+
+    @Override
+    public String toString() {
+        return "DispatcherStatistics{dispatcher=" + dispatcher + ";calls=" + getCalls() + ";vetoes=" + vetoes
+                + ";totalMillis=" + durations.getTotalMillis() + "}";
+    }
+}
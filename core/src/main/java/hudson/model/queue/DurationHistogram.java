@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import com.google.common.base.Ticker;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts durations in buckets from 10&micro;s up to 10 hours on a roughly logarithmic scale, decimal up to 10s and
+ * then in minutes and hours, so that outliers stand out even when the average looks harmless. This covers the long
+ * queue waits and builds as well as quick calls. Safe to update from any thread.
+ *
+ * <p>
+ * Only the durations recorded within the last {@link #WINDOW_MINUTES} are counted, so that the figures
+ * reflect how Jenkins behaves now rather than since it started. The window moves in steps of a sixth of its length.
+ *
+ * @since 2.82
+ * @see QueueMetrics
+ * @see DispatcherStatistics
+ */
+@ExportedBean
+public final class DurationHistogram {
+    /**
+     * Upper bounds, in nanoseconds, of all but the last bucket of {@link #getBuckets()}.
+     */
+    private static final long[] BOUNDS = {
+            TimeUnit.MICROSECONDS.toNanos(10),
+            TimeUnit.MICROSECONDS.toNanos(100),
+            TimeUnit.MILLISECONDS.toNanos(1),
+            TimeUnit.MILLISECONDS.toNanos(10),
+            TimeUnit.MILLISECONDS.toNanos(100),
+            TimeUnit.SECONDS.toNanos(1),
+            TimeUnit.SECONDS.toNanos(10),
+            TimeUnit.MINUTES.toNanos(1),
+            TimeUnit.MINUTES.toNanos(10),
+            TimeUnit.HOURS.toNanos(1),
+            TimeUnit.HOURS.toNanos(10),
+    };
+
+    /**
+     * Number of steps the window moves in.
+     */
+    private static final int SLOTS = 6;
+
+    private final Ticker ticker;
+    private final long slotNanos;
+    private final AtomicReferenceArray<Slot> slots = new AtomicReferenceArray<Slot>(SLOTS);
+
+    public DurationHistogram() {
+        this(TimeUnit.MINUTES.toNanos(Math.max(1, WINDOW_MINUTES)), Ticker.systemTicker());
+    }
+
+    DurationHistogram(long windowNanos, Ticker ticker) {
+        this.ticker = ticker;
+        this.slotNanos = Math.max(1, windowNanos / SLOTS);
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0; // clock went backwards
+        }
+        slotOf(Math.floorDiv(ticker.read(), slotNanos)).record(nanos);
+    }
+
+    /**
+     * Gets the slot for the given step of the window, replacing the one it left behind a full window ago.
+     */
+    private Slot slotOf(long step) {
+        int i = (int) Math.floorMod(step, (long) SLOTS);
+        while (true) {
+            Slot s = slots.get(i);
+            if (s != null && s.step >= step) {
+                return s; // a thread that lagged behind may record into the next round, which is harmless
+            }
+            Slot fresh = new Slot(step);
+            if (slots.compareAndSet(i, s, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    /**
+     * Adds up the slots still within the window.
+     */
+    private Slot current() {
+        long step = Math.floorDiv(ticker.read(), slotNanos);
+        Slot sum = new Slot(step);
+        for (int i = 0; i < SLOTS; i++) {
+            Slot s = slots.get(i);
+            if (s != null && s.step > step - SLOTS) {
+                sum.add(s);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Number of recorded durations.
+     */
+    @Exported
+    public long getCount() {
+        return current().count.get();
+    }
+
+    /**
+     * Sum of the recorded durations, in milliseconds.
+     */
+    @Exported
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(current().totalNanos.get());
+    }
+
+    /**
+     * Mean of the recorded durations, in milliseconds.
+     */
+    @Exported
+    public double getMeanMillis() {
+        Slot s = current();
+        long n = s.count.get();
+        return n == 0 ? 0 : s.totalNanos.get() / (n * 1e6);
+    }
+
+    /**
+     * Longest recorded duration, in milliseconds.
+     */
+    @Exported
+    public long getMaxMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(current().maxNanos.get());
+    }
+
+    /**
+     * Counts of durations up to 10&micro;s, 100&micro;s, 1ms, 10ms, 100ms, 1s, 10s, 1min, 10min, 1h, 10h,
+     * and above 10h respectively.
+     */
+    @Exported
+    public long[] getBuckets() {
+        Slot s = current();
+        long[] r = new long[s.buckets.length()];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = s.buckets.get(i);
+        }
+        return r;
+    }
+
+    /**
+     * Length of the window durations are counted over, in minutes.
+     */
+    @Exported
+    public long getWindowMinutes() {
+        return TimeUnit.NANOSECONDS.toMinutes(slotNanos * SLOTS);
+    }
+
+    /**
+     * Labels for {@link #getBuckets()}, for display.
+     */
+    public static String[] getBucketLabels() {
+        return new String[] {"10\u00b5s", "100\u00b5s", "1ms", "10ms", "100ms", "1s", "10s", "1min", "10min", "1h", "10h", "\u221e"};
+    }
+
+    @Override
+    public String toString() {
+        Slot s = current();
+        return "DurationHistogram{count=" + s.count + ";totalMillis=" + TimeUnit.NANOSECONDS.toMillis(s.totalNanos.get())
+                + ";maxMillis=" + TimeUnit.NANOSECONDS.toMillis(s.maxNanos.get()) + "}";
+    }
+
+    /**
+     * Durations recorded during one step of the window.
+     */
+    private static final class Slot {
+        final long step;
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+
+        Slot(long step) {
+            this.step = step;
+        }
+
+        void record(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            raiseMax(nanos);
+            int i = 0;
+            while (i < BOUNDS.length && nanos > BOUNDS[i]) {
+                i++;
+            }
+            buckets.incrementAndGet(i);
+        }
+
+        void add(Slot s) {
+            count.addAndGet(s.count.get());
+            totalNanos.addAndGet(s.totalNanos.get());
+            raiseMax(s.maxNanos.get());
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.addAndGet(i, s.buckets.get(i));
+            }
+        }
+
+        private void raiseMax(long nanos) {
+            long max;
+            while ((max = maxNanos.get()) < nanos && !maxNanos.compareAndSet(max, nanos)) {
+                // retry
+            }
+        }
+    }
+
+    /**
+     * How far back durations are counted, in minutes.
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* nonfinal */ int WINDOW_MINUTES = SystemProperties.getInteger(DurationHistogram.class.getName() + ".windowMinutes", 60);
+}
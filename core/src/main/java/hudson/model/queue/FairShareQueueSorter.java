@@ -0,0 +1,350 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.Queue.BuildableItem;
+import hudson.model.Queue.LeftItem;
+import hudson.model.Queue.Task;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Weighted fair-share ordering of buildable items across tenants.
+ *
+ * <p>
+ * Items are grouped by tenant (their folder, label or the identity they run as, see {@link Tenancy}),
+ * oldest first within each tenant. Tenants then take turns, each getting a share of the turns proportional
+ * to its weight, and the tenants that recently started fewer builds relative to their weight going first.
+ * So a team with a couple of jobs is not starved by one that scheduled hundreds a minute earlier.
+ *
+ * <p>
+ * Picking the next item takes O(log n) through a heap of tenants, each with its own heap of items.
+ * As {@link QueueSorter#sortBuildableItems} hands over the whole list on each call, the heaps are rebuilt
+ * every time, but that is no worse than the full sort {@link AbstractQueueSorterImpl} does.
+ *
+ * <p>
+ * Not installed by default; set {@code -Dhudson.model.queue.FairShareQueueSorter.tenancy=FOLDER} (or {@code LABEL},
+ * {@code AUTHENTICATION}) and optionally {@code -Dhudson.model.queue.FairShareQueueSorter.weights=teamA=3,teamB=2},
+ * or install one with {@link Queue#setSorter(QueueSorter)}.
+ *
+ * @since 2.82
+ */
+@ExportedBean
+public class FairShareQueueSorter extends QueueSorter {
+    /**
+     * How to tell which tenant an item belongs to.
+     */
+    public enum Tenancy {
+        /**
+         * The folder (or other {@link ItemGroup}) the task is in; the empty string for top-level items.
+         */
+        FOLDER {
+            @Override
+            public String tenantOf(Queue.Item item) {
+                Task owner = Tasks.getOwnerTaskOf(item.task);
+                if (owner instanceof Item) {
+                    ItemGroup<?> parent = ((Item) owner).getParent();
+                    if (parent instanceof Item) {
+                        return ((Item) parent).getFullName();
+                    }
+                }
+                return "";
+            }
+        },
+        /**
+         * The label expression the item is assigned to; the empty string if none.
+         */
+        LABEL {
+            @Override
+            public String tenantOf(Queue.Item item) {
+                Label l = item.getAssignedLabel();
+                return l != null ? l.getExpression() : "";
+            }
+        },
+        /**
+         * The user the item {@linkplain Queue.Item#authenticate() runs as}.
+         */
+        AUTHENTICATION {
+            @Override
+            public String tenantOf(Queue.Item item) {
+                return item.authenticate().getName();
+            }
+        };
+
+        public abstract @Nonnull String tenantOf(@Nonnull Queue.Item item);
+    }
+
+    private final Tenancy tenancy;
+    private final Map<String, Integer> weights = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentMap<String, TenantStatistics> tenants = new ConcurrentHashMap<String, TenantStatistics>();
+
+    public FairShareQueueSorter(@Nonnull Tenancy tenancy) {
+        this.tenancy = tenancy;
+    }
+
+    @Exported
+    public @Nonnull Tenancy getTenancy() {
+        return tenancy;
+    }
+
+    /**
+     * Sets the relative share of a tenant. Tenants not given a weight have 1.
+     */
+    public void setWeight(@Nonnull String tenant, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight of " + tenant + " must be positive: " + weight);
+        }
+        weights.put(tenant, weight);
+    }
+
+    public int getWeight(@Nonnull String tenant) {
+        Integer w = weights.get(tenant);
+        return w != null ? w : 1;
+    }
+
+    /**
+     * Statistics of each tenant seen so far, by name.
+     */
+    @Exported(inline=true)
+    public @Nonnull List<TenantStatistics> getTenants() {
+        return new ArrayList<TenantStatistics>(new TreeMap<String, TenantStatistics>(tenants).values());
+    }
+
+    @Override
+    public void sortBuildableItems(List<BuildableItem> buildables) {
+        if (buildables.size() < 2) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+
+        Map<String, Lane> lanes = new HashMap<String, Lane>();
+        for (BuildableItem bi : buildables) {
+            String tenant = tenancy.tenantOf(bi);
+            Lane lane = lanes.get(tenant);
+            if (lane == null) {
+                int weight = getWeight(tenant);
+                lanes.put(tenant, lane = new Lane(statisticsOf(tenant).getUsage(now) / weight, weight));
+            }
+            lane.items.add(bi);
+        }
+
+        PriorityQueue<Lane> turns = new PriorityQueue<Lane>(lanes.size(), LANE_ORDER);
+        turns.addAll(lanes.values());
+        int i = 0;
+        while (!turns.isEmpty()) {
+            Lane lane = turns.poll();
+            buildables.set(i++, lane.items.poll());
+            if (!lane.items.isEmpty()) {
+                lane.virtualTime += 1.0 / lane.weight;
+                turns.add(lane);
+            }
+        }
+    }
+
+    /**
+     * Accounts for an item that left the queue to start building.
+     */
+    void onStarted(@Nonnull LeftItem li) {
+        statisticsOf(tenancy.tenantOf(li)).recordStarted(System.currentTimeMillis(), li.getInQueueSince());
+    }
+
+    private TenantStatistics statisticsOf(String tenant) {
+        TenantStatistics s = tenants.get(tenant);
+        if (s == null) {
+            TenantStatistics fresh = new TenantStatistics(tenant);
+            s = tenants.putIfAbsent(tenant, fresh);
+            if (s == null) {
+                s = fresh;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * The items of one tenant during {@link #sortBuildableItems}.
+     */
+    private static final class Lane {
+        final PriorityQueue<BuildableItem> items = new PriorityQueue<BuildableItem>(11, FIFO);
+        final int weight;
+        /**
+         * Turns taken so far, including the recent usage, divided by the weight.
+         */
+        double virtualTime;
+
+        Lane(double virtualTime, int weight) {
+            this.virtualTime = virtualTime;
+            this.weight = weight;
+        }
+    }
+
+    private static final Comparator<BuildableItem> FIFO = new Comparator<BuildableItem>() {
+        @Override
+        public int compare(BuildableItem lhs, BuildableItem rhs) {
+            int r = Long.compare(lhs.buildableStartMilliseconds, rhs.buildableStartMilliseconds);
+            return r != 0 ? r : Long.compare(lhs.getId(), rhs.getId());
+        }
+    };
+
+    private static final Comparator<Lane> LANE_ORDER = new Comparator<Lane>() {
+        @Override
+        public int compare(Lane lhs, Lane rhs) {
+            int r = Double.compare(lhs.virtualTime, rhs.virtualTime);
+            // on a tie, the tenant with the oldest item goes first
+            return r != 0 ? r : FIFO.compare(lhs.items.peek(), rhs.items.peek());
+        }
+    };
+
+    /**
+     * What a tenant got out of the queue.
+     */
+    @ExportedBean
+    public final class TenantStatistics {
+        private final String name;
+        private final DurationHistogram waitTime = new DurationHistogram();
+        /**
+         * Builds started, decayed with {@link #HALF_LIFE}, as of {@link #usageTimestamp}.
+         */
+        private double usage;
+        private long usageTimestamp = System.currentTimeMillis();
+
+        TenantStatistics(String name) {
+            this.name = name;
+        }
+
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        @Exported
+        public int getWeight() {
+            return FairShareQueueSorter.this.getWeight(name);
+        }
+
+        /**
+         * Number of builds started recently, with older ones counting less.
+         */
+        @Exported
+        public double getUsage() {
+            return getUsage(System.currentTimeMillis());
+        }
+
+        synchronized double getUsage(long now) {
+            if (now > usageTimestamp) {
+                usage *= Math.pow(0.5, (double) (now - usageTimestamp) / HALF_LIFE);
+                usageTimestamp = now;
+            }
+            return usage;
+        }
+
+        synchronized void recordStarted(long now, long inQueueSince) {
+            usage = getUsage(now) + 1;
+            waitTime.record(TimeUnit.MILLISECONDS.toNanos(now - inQueueSince));
+        }
+
+        /**
+         * How long the items of this tenant waited in the queue.
+         */
+        @Exported(inline=true)
+        public DurationHistogram getWaitTime() {
+            return waitTime;
+        }
+    }
+
+    /**
+     * Creates the sorter configured through system properties, if any.
+     */
+    static @CheckForNull FairShareQueueSorter fromSystemProperties() {
+        String tenancy = SystemProperties.getString(FairShareQueueSorter.class.getName() + ".tenancy");
+        if (tenancy == null) {
+            return null;
+        }
+        FairShareQueueSorter s;
+        try {
+            s = new FairShareQueueSorter(Tenancy.valueOf(tenancy.trim().toUpperCase(Locale.ENGLISH)));
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Unknown tenancy {0}; expected one of FOLDER, LABEL, AUTHENTICATION", tenancy);
+            return null;
+        }
+        String weights = SystemProperties.getString(FairShareQueueSorter.class.getName() + ".weights", "");
+        for (String entry : weights.split(",")) {
+            int eq = entry.lastIndexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+            try {
+                s.setWeight(entry.substring(0, eq).trim(), Integer.parseInt(entry.substring(eq + 1).trim()));
+            } catch (IllegalArgumentException e) {
+                LOGGER.log(Level.WARNING, "Ignoring the weight " + entry, e);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Time after which a started build counts half as much towards the usage of its tenant.
+     */
+    private static final long HALF_LIFE = SystemProperties.getLong(FairShareQueueSorter.class.getName() + ".halfLife", TimeUnit.MINUTES.toMillis(10));
+
+    @Extension @Restricted(NoExternalUse.class)
+    public static class Listener extends QueueListener {
+        @Override
+        public void onLeft(LeftItem li) {
+            if (li.isCancelled()) {
+                return;
+            }
+            QueueSorter s = Jenkins.getInstance().getQueue().getSorter();
+            if (s instanceof FairShareQueueSorter) {
+                ((FairShareQueueSorter) s).onStarted(li);
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(FairShareQueueSorter.class.getName());
+}
@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import hudson.model.Label;
+import hudson.model.Queue;
+import hudson.model.labels.LabelAtom;
+import hudson.model.labels.LabelExpression;
+import hudson.model.labels.LabelVisitor;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index from {@link LabelAtom} to the values (such as idle executors) whose node carries that label.
+ *
+ * <p>
+ * {@link Queue#maintain()} uses this to find the executors that can possibly satisfy a label
+ * expression by intersecting and uniting the per-atom sets, rather than checking every idle
+ * executor against every buildable item. Entries are added and removed as executors become idle
+ * or busy, and {@link #update} only touches the entries whose labels actually changed.
+ *
+ * <p>
+ * The result of {@link #select(Label)} is exact for the labels that core knows how to
+ * evaluate; callers are still expected to run the regular checks on the selected values,
+ * as those cover more than just labels.
+ *
+ * @param <T> type of the indexed values
+ * @since 2.82
+ */
+@Restricted(NoExternalUse.class)
+public final class LabelIndex<T> {
+    private final Map<LabelAtom, Set<T>> byAtom = new HashMap<LabelAtom, Set<T>>();
+    private final Map<T, Set<LabelAtom>> atomsOf = new HashMap<T, Set<LabelAtom>>();
+
+    /**
+     * Indexes the value under the given atoms, replacing any previous entry for it.
+     */
+    public void add(@Nonnull T value, @Nonnull Collection<LabelAtom> atoms) {
+        remove(value);
+        Set<LabelAtom> copy = new HashSet<LabelAtom>(atoms);
+        atomsOf.put(value, copy);
+        for (LabelAtom a : copy) {
+            Set<T> values = byAtom.get(a);
+            if (values == null) {
+                byAtom.put(a, values = new HashSet<T>());
+            }
+            values.add(value);
+        }
+    }
+
+    /**
+     * Indexes the value under the given atoms unless it is already indexed under exactly those.
+     *
+     * @return false if the index was left untouched.
+     */
+    public boolean update(@Nonnull T value, @Nonnull Set<LabelAtom> atoms) {
+        if (atoms.equals(atomsOf.get(value))) {
+            return false;
+        }
+        add(value, atoms);
+        return true;
+    }
+
+    /**
+     * Removes the value from the index.
+     *
+     * @return false if the value was not indexed.
+     */
+    public boolean remove(@Nonnull T value) {
+        Set<LabelAtom> atoms = atomsOf.remove(value);
+        if (atoms == null) {
+            return false;
+        }
+        for (LabelAtom a : atoms) {
+            Set<T> values = byAtom.get(a);
+            if (values != null) {
+                values.remove(value);
+                if (values.isEmpty()) {
+                    byAtom.remove(a);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes all the values that are not in the given collection.
+     */
+    public void retainAll(@Nonnull Collection<?> values) {
+        for (T value : new HashSet<T>(atomsOf.keySet())) {
+            if (!values.contains(value)) {
+                remove(value);
+            }
+        }
+    }
+
+    public boolean contains(@Nonnull T value) {
+        return atomsOf.containsKey(value);
+    }
+
+    public int size() {
+        return atomsOf.size();
+    }
+
+    public void clear() {
+        byAtom.clear();
+        atomsOf.clear();
+    }
+
+    /**
+     * Gets all the indexed values.
+     */
+    public @Nonnull Set<T> all() {
+        return Collections.unmodifiableSet(atomsOf.keySet());
+    }
+
+    /**
+     * Gets the indexed values whose atoms satisfy the given label.
+     *
+     * @return a set that the caller must not modify.
+     */
+    public @Nonnull Set<T> select(@Nonnull Label label) {
+        if (label instanceof LabelAtom || label instanceof LabelExpression) {
+            return label.accept(selector, null);
+        }
+        // a kind of label we cannot take apart, so just ask it
+        Set<T> r = new HashSet<T>();
+        for (Map.Entry<T, Set<LabelAtom>> e : atomsOf.entrySet()) {
+            if (label.matches(e.getValue())) {
+                r.add(e.getKey());
+            }
+        }
+        return r;
+    }
+
+    private Set<T> union(Set<T> a, Set<T> b) {
+        if (a.isEmpty()) return b;
+        if (b.isEmpty()) return a;
+        Set<T> r = new HashSet<T>(a);
+        r.addAll(b);
+        return r;
+    }
+
+    private Set<T> intersection(Set<T> a, Set<T> b) {
+        if (a.size() > b.size()) {
+            Set<T> t = a; a = b; b = t;
+        }
+        Set<T> r = new HashSet<T>();
+        for (T v : a) {
+            if (b.contains(v)) {
+                r.add(v);
+            }
+        }
+        return r;
+    }
+
+    private Set<T> complement(Set<T> a) {
+        if (a.isEmpty()) return all();
+        Set<T> r = new HashSet<T>(atomsOf.keySet());
+        r.removeAll(a);
+        return r;
+    }
+
+    private final LabelVisitor<Set<T>, Void> selector = new LabelVisitor<Set<T>, Void>() {
+        @Override
+        public Set<T> onAtom(LabelAtom a, Void param) {
+            Set<T> values = byAtom.get(a);
+            return values != null ? Collections.unmodifiableSet(values) : Collections.<T>emptySet();
+        }
+
+        @Override
+        public Set<T> onParen(LabelExpression.Paren p, Void param) {
+            return select(p.base);
+        }
+
+        @Override
+        public Set<T> onNot(LabelExpression.Not p, Void param) {
+            return complement(select(p.base));
+        }
+
+        @Override
+        public Set<T> onAnd(LabelExpression.And p, Void param) {
+            return intersection(select(p.lhs), select(p.rhs));
+        }
+
+        @Override
+        public Set<T> onOr(LabelExpression.Or p, Void param) {
+            return union(select(p.lhs), select(p.rhs));
+        }
+
+        @Override
+        public Set<T> onIff(LabelExpression.Iff p, Void param) {
+            Set<T> lhs = select(p.lhs), rhs = select(p.rhs);
+            return union(intersection(lhs, rhs), complement(union(lhs, rhs)));
+        }
+
+        @Override
+        public Set<T> onImplies(LabelExpression.Implies p, Void param) {
+            return union(complement(select(p.lhs)), select(p.rhs));
+        }
+    };
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import hudson.model.Queue;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how much work {@link Queue#maintain()} actually does.
+ *
+ * <p>
+ * When {@link Queue#INCREMENTAL_MAINTENANCE} is enabled, most passes only re-evaluate the items
+ * that were {@linkplain Queue#markDirty(Queue.Task) marked dirty}, so comparing the evaluated and skipped
+ * counters tells how effective the incremental mode is on a given controller.
+ *
+ * @since 2.82
+ * @see Queue#getMaintenanceStatistics()
+ */
+@ExportedBean
+public final class MaintenanceStatistics {
+    private final AtomicLong passes = new AtomicLong();
+    private final AtomicLong fullSweeps = new AtomicLong();
+    private final AtomicLong evaluated = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    private volatile int lastEvaluated;
+    private volatile int lastSkipped;
+    private volatile boolean lastFullSweep;
+
+    /**
+     * Records the outcome of a single {@link Queue#maintain()} pass.
+     *
+     * @param fullSweep
+     *      true if every item was re-evaluated regardless of whether it was dirty.
+     * @param evaluated
+     *      number of blocked and buildable items whose blockage was re-checked.
+     * @param skipped
+     *      number of blocked and buildable items left as they were.
+     */
+    public void record(boolean fullSweep, int evaluated, int skipped) {
+        passes.incrementAndGet();
+        if (fullSweep)
+            fullSweeps.incrementAndGet();
+        this.evaluated.addAndGet(evaluated);
+        this.skipped.addAndGet(skipped);
+        this.lastFullSweep = fullSweep;
+        this.lastEvaluated = evaluated;
+        this.lastSkipped = skipped;
+    }
+
+    /**
+     * Total number of maintenance passes.
+     */
+    @Exported
+    public long getPasses() {
+        return passes.get();
+    }
+
+    /**
+     * Number of passes that re-evaluated every item.
+     */
+    @Exported
+    public long getFullSweeps() {
+        return fullSweeps.get();
+    }
+
+    /**
+     * Total number of items re-evaluated across all passes.
+     */
+    @Exported
+    public long getEvaluated() {
+        return evaluated.get();
+    }
+
+    /**
+     * Total number of items skipped across all passes because nothing relevant to them changed.
+     */
+    @Exported
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Number of items re-evaluated by the most recent pass.
+     */
+    @Exported
+    public int getLastEvaluated() {
+        return lastEvaluated;
+    }
+
+    /**
+     * Number of items skipped by the most recent pass.
+     */
+    @Exported
+    public int getLastSkipped() {
+        return lastSkipped;
+    }
+
+    /**
+     * Whether the most recent pass was a full sweep.
+     */
+    @Exported
+    public boolean isLastFullSweep() {
+        return lastFullSweep;
+    }
+
+    @Override
+    public String toString() {
+        return "MaintenanceStatistics{passes=" + passes + ";fullSweeps=" + fullSweeps
+                + ";lastEvaluated=" + lastEvaluated + ";lastSkipped=" + lastSkipped + "}";
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.Label;
+import hudson.model.LoadBalancer;
+import hudson.model.MultiStageTimeSeries;
+import hudson.model.MultiStageTimeSeries.TimeScale;
+import hudson.model.MultiStageTimeSeries.TrendChart;
+import hudson.model.PeriodicWork;
+import hudson.model.Queue;
+import hudson.util.ColorPalette;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time of {@link Queue#maintain()} goes, and how long items wait for an executor.
+ *
+ * <p>
+ * Durations are kept as {@link DurationHistogram}s over the last hour, while {@link #tick()} turns the activity of
+ * the last 10 seconds into {@link MultiStageTimeSeries} data points, the same way {@link hudson.model.LoadStatistics} does.
+ *
+ * @since 2.82
+ * @see Queue#getMetrics()
+ */
+@ExportedBean
+public final class QueueMetrics {
+    /**
+     * The parts of {@link Queue#maintain()} that are timed separately.
+     */
+    public enum Phase {
+        /**
+         * Moving blocked items that are no longer blocked to the buildable state.
+         */
+        BLOCKED_TO_BUILDABLE,
+        /**
+         * Moving items whose quiet period is over to the blocked or buildable state.
+         */
+        WAITING_TO_BLOCKED,
+        /**
+         * {@link QueueSorter#sortBuildableItems}.
+         */
+        SORT,
+        /**
+         * {@link LoadBalancer#map}.
+         */
+        MAP
+    }
+
+    private final DurationHistogram lockWait = new DurationHistogram();
+    private final DurationHistogram lockHold = new DurationHistogram();
+    private final Map<Phase, DurationHistogram> phases = new ConcurrentHashMap<Phase, DurationHistogram>();
+    private final ConcurrentMap<String, DurationHistogram> timeToExecutor = new ConcurrentHashMap<String, DurationHistogram>();
+    private final AtomicLong started = new AtomicLong();
+
+    // activity since the last tick
+    private final AtomicLong recentPasses = new AtomicLong();
+    private final AtomicLong recentWaitNanos = new AtomicLong();
+    private final AtomicLong recentHoldNanos = new AtomicLong();
+    private final AtomicLong recentStarted = new AtomicLong();
+    private long lastTick = System.nanoTime();
+
+    /**
+     * Average time {@link Queue#maintain()} held the queue lock per pass, in milliseconds.
+     */
+    @Exported
+    public final MultiStageTimeSeries holdTime = new MultiStageTimeSeries(Messages._QueueMetrics_HoldTime(), ColorPalette.RED, 0, DECAY);
+
+    /**
+     * Average time {@link Queue#maintain()} waited for the queue lock per pass, in milliseconds.
+     */
+    @Exported
+    public final MultiStageTimeSeries waitTime = new MultiStageTimeSeries(Messages._QueueMetrics_WaitTime(), ColorPalette.YELLOW, 0, DECAY);
+
+    /**
+     * Number of items handed to executors per second.
+     */
+    @Exported
+    public final MultiStageTimeSeries throughput = new MultiStageTimeSeries(Messages._QueueMetrics_Throughput(), ColorPalette.BLUE, 0, DECAY);
+
+    public QueueMetrics() {
+        for (Phase p : Phase.values()) {
+            phases.put(p, new DurationHistogram());
+        }
+    }
+
+    /**
+     * Records how long a {@link Queue#maintain()} pass waited for the queue lock, and then held it.
+     */
+    public void recordLock(long waitNanos, long holdNanos) {
+        lockWait.record(waitNanos);
+        lockHold.record(holdNanos);
+        recentPasses.incrementAndGet();
+        recentWaitNanos.addAndGet(waitNanos);
+        recentHoldNanos.addAndGet(holdNanos);
+    }
+
+    public void recordPhase(@Nonnull Phase phase, long nanos) {
+        phases.get(phase).record(nanos);
+    }
+
+    /**
+     * Records that an item was handed to an executor.
+     *
+     * @param label
+     *      the label the item was assigned to, if any.
+     * @param waitMillis
+     *      how long the item was in the queue.
+     */
+    public void recordStarted(@CheckForNull Label label, long waitMillis) {
+        started.incrementAndGet();
+        recentStarted.incrementAndGet();
+        String key = label != null ? label.getExpression() : "";
+        DurationHistogram h = timeToExecutor.get(key);
+        if (h == null && timeToExecutor.size() >= MAX_LABELS) {
+            key = OTHER_LABELS;
+            h = timeToExecutor.get(key);
+        }
+        if (h == null) {
+            DurationHistogram fresh = new DurationHistogram();
+            h = timeToExecutor.putIfAbsent(key, fresh);
+            if (h == null) {
+                h = fresh;
+            }
+        }
+        h.record(TimeUnit.MILLISECONDS.toNanos(waitMillis));
+    }
+
+    /**
+     * Adds a data point to the time series, summarizing the activity since the previous call.
+     * Expected to be called every 10 seconds.
+     */
+    public synchronized void tick() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(now - lastTick));
+        lastTick = now;
+
+        long passes = recentPasses.getAndSet(0);
+        long wait = recentWaitNanos.getAndSet(0);
+        long hold = recentHoldNanos.getAndSet(0);
+        long startedItems = recentStarted.getAndSet(0);
+
+        holdTime.update(passes == 0 ? 0 : (float) (hold / (passes * 1e6)));
+        waitTime.update(passes == 0 ? 0 : (float) (wait / (passes * 1e6)));
+        throughput.update((float) (startedItems / seconds));
+
+        // make room for labels in use now
+        for (Iterator<DurationHistogram> it = timeToExecutor.values().iterator(); it.hasNext();) {
+            if (it.next().getCount() == 0) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Time {@link Queue#maintain()} spent waiting for the queue lock.
+     */
+    @Exported(inline=true)
+    public DurationHistogram getLockWait() {
+        return lockWait;
+    }
+
+    /**
+     * Time {@link Queue#maintain()} spent holding the queue lock.
+     */
+    @Exported(inline=true)
+    public DurationHistogram getLockHold() {
+        return lockHold;
+    }
+
+    public @Nonnull DurationHistogram getPhase(@Nonnull Phase phase) {
+        return phases.get(phase);
+    }
+
+    @Exported(inline=true)
+    public DurationHistogram getBlockedToBuildable() {
+        return getPhase(Phase.BLOCKED_TO_BUILDABLE);
+    }
+
+    @Exported(inline=true)
+    public DurationHistogram getWaitingToBlocked() {
+        return getPhase(Phase.WAITING_TO_BLOCKED);
+    }
+
+    @Exported(inline=true)
+    public DurationHistogram getSort() {
+        return getPhase(Phase.SORT);
+    }
+
+    @Exported(inline=true)
+    public DurationHistogram getMap() {
+        return getPhase(Phase.MAP);
+    }
+
+    /**
+     * Total number of items handed to executors.
+     */
+    @Exported
+    public long getStarted() {
+        return started.get();
+    }
+
+    /**
+     * How long items waited in the queue before getting an executor, by label expression.
+     * Items without a label are listed under the empty string, and those of labels beyond the first
+     * {@link #MAX_LABELS} under {@link #OTHER_LABELS}. Labels no item was started for in a while are dropped.
+     */
+    @Exported(inline=true)
+    public Map<String, DurationHistogram> getTimeToExecutor() {
+        return new TreeMap<String, DurationHistogram>(timeToExecutor);
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    /**
+     * Trend of {@link #holdTime}, {@link #waitTime} and {@link #throughput}.
+     */
+    public TrendChart doGraph(@QueryParameter String type) {
+        return MultiStageTimeSeries.createTrendChart(TimeScale.parse(type), holdTime, waitTime, throughput);
+    }
+
+    @Override
+    public String toString() {
+        return "QueueMetrics{started=" + started + ";lockHold=" + lockHold + ";lockWait=" + lockWait + "}";
+    }
+
+    private static final float DECAY = 0.9f;
+
+    /**
+     * Key of {@link #getTimeToExecutor()} for the items of all labels beyond {@link #MAX_LABELS}.
+     */
+    public static final String OTHER_LABELS = "*";
+
+    /**
+     * Most labels {@link #getTimeToExecutor()} tracks separately.
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* nonfinal */ int MAX_LABELS = SystemProperties.getInteger(QueueMetrics.class.getName() + ".maxLabels", 100);
+
+    @Extension @Restricted(NoExternalUse.class)
+    public static class Updater extends PeriodicWork {
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.SECONDS.toMillis(10);
+        }
+
+        @Override
+        protected void doRun() {
+            Jenkins.getInstance().getQueue().getMetrics().tick();
+        }
+    }
+}
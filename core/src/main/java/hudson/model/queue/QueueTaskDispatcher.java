@@ -123,6 +123,8 @@ public abstract class QueueTaskDispatcher implements ExtensionPoint {
      * the 'blocked' state, and generally speaking it stays in this state for a few seconds before
      * its state gets re-evaluated. If a {@link QueueTaskDispatcher} wants the blockage condition
      * to be re-evaluated earlier, call {@link Queue#scheduleMaintenance()} to initiate that process.
+     * When {@link Queue#INCREMENTAL_MAINTENANCE} is on, also call {@link Queue#markDirty(Queue.Task)}
+     * (or {@link Queue#markAllDirty()}) as otherwise the item is only re-evaluated by the periodic full sweep.
      *
      * @return
      *      null to indicate that the item is ready to proceed to the buildable state as far as this
@@ -134,6 +136,29 @@ public abstract class QueueTaskDispatcher implements ExtensionPoint {
         return null;
     }
 
+    /**
+     * Declares that {@link #canTake(Node, Queue.BuildableItem)} and {@link #canRun(Queue.Item)} are safe to call
+     * from several threads at once, and have no side effects.
+     *
+     * <p>
+     * {@link Queue} then reuses the answer of {@link #canTake(Node, Queue.BuildableItem)} for a given node and item
+     * for the rest of a maintenance pass, rather than asking once per idle executor of that node,
+     * and may ask about several nodes concurrently.
+     *
+     * <p>
+     * Those concurrent calls run on other threads while the queue maintenance thread holds the {@link Queue} lock
+     * and waits for them. So a thread-safe dispatcher must not call {@link Queue} methods that take the lock,
+     * such as {@link Queue#schedule2(Queue.Task, int, java.util.List)}, {@link Queue#cancel(Queue.Item)},
+     * {@link Queue#save()} or {@link Queue#withLock(Runnable)}; reading {@link Queue#getSnapshot()} or
+     * {@link Queue#getItems()} is fine. A dispatcher that does is given up on after a timeout,
+     * and the remaining answers are computed on the maintenance thread.
+     *
+     * @since 2.82
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
     /**
      * All registered {@link QueueTaskDispatcher}s.
      */
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import hudson.model.Action;
+import hudson.model.Queue;
+import hudson.model.Queue.Task;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One entry of a batch submitted to {@link Queue#schedule2(List)}:
+ * the same arguments that {@link Queue#schedule2(Task, int, List)} takes for a single task.
+ *
+ * @since 2.82
+ * @see ScheduleResult
+ */
+public final class ScheduleRequest {
+    private final Task task;
+    private final int quietPeriod;
+    private final List<Action> actions;
+
+    /**
+     * @param actions
+     *      may contain null, which is silently ignored, just like in {@link Queue#schedule2(Task, int, List)}.
+     */
+    public ScheduleRequest(@Nonnull Task task, int quietPeriod, @Nonnull List<Action> actions) {
+        this.task = task;
+        this.quietPeriod = quietPeriod;
+        List<Action> nonNull = new ArrayList<Action>(actions.size());
+        for (Action a : actions) {
+            if (a != null) {
+                nonNull.add(a);
+            }
+        }
+        this.actions = Collections.unmodifiableList(nonNull);
+    }
+
+    public ScheduleRequest(@Nonnull Task task, int quietPeriod, Action... actions) {
+        this(task, quietPeriod, Arrays.asList(actions));
+    }
+
+    public @Nonnull Task getTask() {
+        return task;
+    }
+
+    public int getQuietPeriod() {
+        return quietPeriod;
+    }
+
+    public @Nonnull List<Action> getActions() {
+        return actions;
+    }
+
+    @Override
+    public String toString() {
+        return "ScheduleRequest{task=" + task + ";quietPeriod=" + quietPeriod + ";actions=" + actions + "}";
+    }
+}
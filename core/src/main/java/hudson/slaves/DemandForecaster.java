@@ -0,0 +1,371 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.slaves;
+
+import hudson.model.Api;
+import hudson.model.Run;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Forecasts how many executors each label is going to need a little while from now.
+ *
+ * <p>
+ * Arrivals into the queue are counted per period, and the rate is smoothed with a linear trend
+ * (Holt's double exponential smoothing), so that a rising burst of commits is extrapolated rather than
+ * just averaged. Multiplying the expected arrival rate by the mean {@linkplain Run#getEstimatedDuration() estimated duration}
+ * of the builds gives the number of executors kept busy (Little's law), which is what
+ * {@link PredictiveProvisioningStrategy} provisions for ahead of time.
+ *
+ * <p>
+ * Each forecast is remembered until its time comes, and then compared with the demand actually observed,
+ * so that the accuracy of the forecasts (and thus how much lead time they buy) can be measured.
+ *
+ * <p>
+ * All times are in milliseconds and passed in by the caller, which lets {@link ProvisioningReplay}
+ * run recorded traces through the forecaster faster than real time.
+ *
+ * @since 2.82
+ */
+@ExportedBean
+public final class DemandForecaster {
+    /**
+     * Weight of the latest period in the smoothed arrival rate.
+     */
+    static final double ALPHA = 0.3;
+    /**
+     * Weight of the latest period in the smoothed trend of the arrival rate.
+     */
+    static final double BETA = 0.1;
+    /**
+     * Weight of the latest build in the mean estimated duration.
+     */
+    static final double DURATION_ALPHA = 0.1;
+    /**
+     * Past this many labels, the ones that have not seen any arrival for a while are forgotten.
+     */
+    static final int MAX_LABELS = 1000;
+    /**
+     * Bound on the forecasts per label waiting to come due, in case the lead time is many periods long.
+     */
+    static final int MAX_PENDING = 1000;
+
+    private final long period;
+    private final long leadTime;
+    private final ConcurrentMap<String, LabelForecast> labels = new ConcurrentHashMap<String, LabelForecast>();
+
+    /**
+     * @param period
+     *      length of the periods arrivals are counted over, typically the recurrence period of {@link NodeProvisioner}.
+     * @param leadTime
+     *      how far ahead to forecast, typically the time a cloud takes to bring a node online.
+     */
+    public DemandForecaster(long period, long leadTime) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+        this.period = period;
+        this.leadTime = Math.max(0, leadTime);
+    }
+
+    @Exported
+    public long getPeriod() {
+        return period;
+    }
+
+    @Exported
+    public long getLeadTime() {
+        return leadTime;
+    }
+
+    /**
+     * Records that an item requiring the given label entered the queue.
+     *
+     * @param estimatedDuration
+     *      as {@link Run#getEstimatedDuration()}, -1 if unknown.
+     */
+    public void arrived(@Nonnull String label, long now, long estimatedDuration) {
+        if (labels.size() > MAX_LABELS) {
+            prune(now);
+        }
+        forecastOf(label).arrived(now, estimatedDuration);
+    }
+
+    /**
+     * Records the demand (busy executors plus queued items) currently seen for the label,
+     * and settles the forecasts made for this time.
+     */
+    public void observe(@Nonnull String label, long now, int actual) {
+        forecastOf(label).observe(now, actual);
+    }
+
+    /**
+     * Forecasts the number of executors the label is going to need {@linkplain #getLeadTime() lead time} from now,
+     * and remembers it to be compared with the actual demand later.
+     */
+    public double forecast(@Nonnull String label, long now) {
+        return forecastOf(label).forecast(now);
+    }
+
+    /**
+     * Records that executors were provisioned for the label because of a forecast.
+     */
+    public void provisioned(@Nonnull String label, int executors) {
+        forecastOf(label).provisioned(executors);
+    }
+
+    /**
+     * Forecasts of each label seen so far, by name.
+     */
+    @Exported(inline=true)
+    public @Nonnull List<LabelForecast> getLabels() {
+        return new ArrayList<LabelForecast>(new TreeMap<String, LabelForecast>(labels).values());
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    private LabelForecast forecastOf(String label) {
+        LabelForecast f = labels.get(label);
+        if (f == null) {
+            LabelForecast fresh = new LabelForecast(label);
+            f = labels.putIfAbsent(label, fresh);
+            if (f == null) {
+                f = fresh;
+            }
+        }
+        return f;
+    }
+
+    private void prune(long now) {
+        for (Iterator<LabelForecast> it = labels.values().iterator(); it.hasNext(); ) {
+            if (it.next().isIdle(now)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * A forecast that has not come due yet.
+     */
+    private static final class Prediction {
+        final long due;
+        final double value;
+
+        Prediction(long due, double value) {
+            this.due = due;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Demand history and forecasts of one label.
+     */
+    @ExportedBean
+    public final class LabelForecast {
+        private final String name;
+
+        private long periodStart = Long.MIN_VALUE;
+        private int periodArrivals;
+        /**
+         * Smoothed arrivals per period, and its trend per period.
+         */
+        private double level, trend;
+        private boolean primed;
+        /**
+         * Smoothed estimated duration of the builds that gave one, or -1 if none did.
+         */
+        private double meanDuration = -1;
+        private long lastArrival;
+        private long arrivals;
+        private long provisioned;
+
+        private final ArrayDeque<Prediction> pending = new ArrayDeque<Prediction>();
+        private double lastForecast;
+        private int lastActual;
+        private double absoluteError;
+        private long settled;
+
+        LabelForecast(String name) {
+            this.name = name;
+        }
+
+        /**
+         * The label expression; the empty string for items that can run anywhere.
+         */
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Number of items that entered the queue.
+         */
+        @Exported
+        public synchronized long getArrivals() {
+            return arrivals;
+        }
+
+        /**
+         * Smoothed number of items entering the queue per minute.
+         */
+        @Exported
+        public synchronized double getArrivalRate() {
+            return Math.max(0, level) * 60000 / period;
+        }
+
+        /**
+         * Smoothed estimated duration of the builds, or -1 if unknown.
+         */
+        @Exported
+        public synchronized long getMeanDuration() {
+            return Math.round(meanDuration);
+        }
+
+        /**
+         * The most recent forecast.
+         */
+        @Exported
+        public synchronized double getForecast() {
+            return lastForecast;
+        }
+
+        /**
+         * The most recently observed demand.
+         */
+        @Exported
+        public synchronized int getActual() {
+            return lastActual;
+        }
+
+        /**
+         * Number of forecasts that came due and were compared with the actual demand.
+         */
+        @Exported
+        public synchronized long getSettled() {
+            return settled;
+        }
+
+        /**
+         * Mean difference in executors between the forecasts and the actual demand, once due.
+         */
+        @Exported
+        public synchronized double getMeanAbsoluteError() {
+            return settled == 0 ? 0 : absoluteError / settled;
+        }
+
+        /**
+         * Number of executors provisioned ahead of demand.
+         */
+        @Exported
+        public synchronized long getProvisioned() {
+            return provisioned;
+        }
+
+        synchronized void arrived(long now, long estimatedDuration) {
+            advance(now);
+            periodArrivals++;
+            arrivals++;
+            lastArrival = now;
+            if (estimatedDuration >= 0) {
+                meanDuration = meanDuration < 0 ? estimatedDuration
+                        : DURATION_ALPHA * estimatedDuration + (1 - DURATION_ALPHA) * meanDuration;
+            }
+        }
+
+        synchronized void observe(long now, int actual) {
+            advance(now);
+            lastActual = actual;
+            while (!pending.isEmpty() && pending.peekFirst().due <= now) {
+                absoluteError += Math.abs(pending.pollFirst().value - actual);
+                settled++;
+            }
+        }
+
+        synchronized double forecast(long now) {
+            advance(now);
+            double rate = Math.max(0, level + trend * leadTime / period) / period;
+            // without any duration to go by, assume builds keep an executor busy for the lead time
+            double f = rate * (meanDuration >= 0 ? meanDuration : leadTime);
+            lastForecast = f;
+            if (pending.size() < MAX_PENDING) {
+                pending.addLast(new Prediction(now + leadTime, f));
+            }
+            return f;
+        }
+
+        synchronized void provisioned(int executors) {
+            provisioned += executors;
+        }
+
+        synchronized boolean isIdle(long now) {
+            return now - lastArrival > 100 * (period + leadTime);
+        }
+
+        /**
+         * Closes the periods that ended by now.
+         */
+        private void advance(long now) {
+            if (periodStart == Long.MIN_VALUE) {
+                periodStart = now;
+                return;
+            }
+            long elapsed = (now - periodStart) / period;
+            if (elapsed <= 0) {
+                return;
+            }
+            if (elapsed > 1000) {
+                // quiet for long enough that the history means nothing
+                level = trend = 0;
+                primed = true;
+                periodArrivals = 0;
+                periodStart += elapsed * period;
+                return;
+            }
+            for (long i = 0; i < elapsed; i++) {
+                double observed = periodArrivals;
+                periodArrivals = 0;
+                if (!primed) {
+                    level = observed;
+                    primed = true;
+                } else {
+                    double previous = level;
+                    level = ALPHA * observed + (1 - ALPHA) * (level + trend);
+                    trend = BETA * (level - previous) + (1 - BETA) * trend;
+                }
+            }
+            periodStart += elapsed * period;
+        }
+    }
+}
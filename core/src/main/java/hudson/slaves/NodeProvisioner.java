@@ -886,8 +886,8 @@ public class NodeProvisioner {
         }
     }
 
-    private static void fireOnStarted(final Cloud cloud, final Label label,
-                                      final Collection<NodeProvisioner.PlannedNode> plannedNodes) {
+    static void fireOnStarted(final Cloud cloud, final Label label,
+                              final Collection<NodeProvisioner.PlannedNode> plannedNodes) {
         for (CloudProvisioningListener cl : CloudProvisioningListener.all()) {
             try {
                 cl.onStarted(cloud, label, plannedNodes);
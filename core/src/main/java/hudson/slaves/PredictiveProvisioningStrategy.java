@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.slaves;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Label;
+import hudson.model.LoadStatistics;
+import hudson.model.Queue.WaitingItem;
+import hudson.model.queue.QueueListener;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+import hudson.slaves.NodeProvisioner.StrategyDecision;
+import hudson.slaves.NodeProvisioner.StrategyState;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.jenkinsci.Symbol;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provisions executors ahead of the demand {@linkplain DemandForecaster forecast} from the rate at which items
+ * enter the queue and how long their builds are expected to take.
+ *
+ * <p>
+ * {@link NodeProvisioner.StandardStrategyImpl} only reacts once the smoothed queue length shows a backlog,
+ * which with clouds that take minutes to bring a node online means bursts of builds wait that long.
+ * This strategy runs before it and tops the capacity of the label up to what is forecast to be needed
+ * {@link #LEAD_TIME} from now; the standard strategy then takes care of whatever the forecast missed,
+ * counting the nodes provisioned here as planned capacity.
+ *
+ * <p>
+ * Not enabled by default; set {@code -Dhudson.slaves.PredictiveProvisioningStrategy.enabled=true}.
+ * The forecasts and how they compared with the actual demand are shown on the provisioning forecasts page,
+ * and {@link ProvisioningReplay} runs recorded queue traces through the same logic offline.
+ *
+ * @since 2.82
+ */
+@Extension(ordinal = 100) @Symbol("predictive")
+public class PredictiveProvisioningStrategy extends NodeProvisioner.Strategy {
+
+    private final DemandForecaster forecaster = new DemandForecaster(
+            Math.max(1, NodeProvisioner.NodeProvisionerInvoker.RECURRENCEPERIOD), LEAD_TIME);
+
+    public @Nonnull DemandForecaster getForecaster() {
+        return forecaster;
+    }
+
+    @Nonnull
+    @Override
+    public StrategyDecision apply(@Nonnull StrategyState state) {
+        if (!ENABLED) {
+            return StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+        }
+        Label label = state.getLabel();
+        String key = keyOf(label);
+        LoadStatistics.LoadStatisticsSnapshot snapshot = state.getSnapshot();
+        long now = System.currentTimeMillis();
+
+        forecaster.observe(key, now, snapshot.getBusyExecutors() + snapshot.getQueueLength());
+        double forecast = forecaster.forecast(key, now);
+        int capacity = snapshot.getOnlineExecutors() + snapshot.getConnectingExecutors()
+                + state.getPlannedCapacitySnapshot() + state.getAdditionalPlannedCapacity();
+        int excessWorkload = excessWorkload(forecast, capacity, MAX_AHEAD);
+        if (excessWorkload <= 0) {
+            return StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+        }
+        LOGGER.log(Level.FINE, "Forecast demand of {0,number,#.###} for {1} exceeds the capacity of {2,number,integer}",
+                new Object[] {forecast, label, capacity});
+
+        CLOUD:
+        for (Cloud c : Jenkins.getInstance().clouds) {
+            if (excessWorkload <= 0) {
+                break;
+            }
+            if (!c.canProvision(label)) {
+                continue;
+            }
+            for (CloudProvisioningListener cl : CloudProvisioningListener.all()) {
+                if (cl.canProvision(c, label, excessWorkload) != null) {
+                    continue CLOUD;
+                }
+            }
+            Collection<PlannedNode> additionalCapacities = c.provision(label, excessWorkload);
+            NodeProvisioner.fireOnStarted(c, label, additionalCapacities);
+            for (PlannedNode ac : additionalCapacities) {
+                excessWorkload -= ac.numExecutors;
+                forecaster.provisioned(key, ac.numExecutors);
+                LOGGER.log(Level.INFO, "Started provisioning {0} from {1} with {2,number,integer} executors "
+                        + "ahead of forecast demand", new Object[] {ac.displayName, c.name, ac.numExecutors});
+            }
+            state.recordPendingLaunches(additionalCapacities);
+        }
+        // whatever the queue needs right now is still up to the other strategies
+        return StrategyDecision.CONSULT_REMAINING_STRATEGIES;
+    }
+
+    /**
+     * Number of executors to provision so that the capacity covers the forecast.
+     * Rounds down, so that a forecast of a fraction of an executor does not keep a node around.
+     *
+     * @param forecast
+     *      executors forecast to be needed.
+     * @param capacity
+     *      executors online, connecting or planned.
+     * @param maxAhead
+     *      upper bound of the result.
+     */
+    static int excessWorkload(double forecast, int capacity, int maxAhead) {
+        int excess = (int) Math.floor(forecast - capacity);
+        return Math.max(0, Math.min(excess, maxAhead));
+    }
+
+    static @Nonnull String keyOf(@CheckForNull Label label) {
+        return label != null ? label.getExpression() : "";
+    }
+
+    /**
+     * The registered instance, if any.
+     */
+    public static @CheckForNull PredictiveProvisioningStrategy get() {
+        return ExtensionList.lookup(NodeProvisioner.Strategy.class).get(PredictiveProvisioningStrategy.class);
+    }
+
+    /**
+     * Counts arrivals for {@link DemandForecaster}.
+     */
+    @Extension @Restricted(NoExternalUse.class)
+    public static class Listener extends QueueListener {
+        @Override
+        public void onEnterWaiting(WaitingItem wi) {
+            if (!ENABLED) {
+                return;
+            }
+            PredictiveProvisioningStrategy s = get();
+            if (s != null) {
+                s.forecaster.arrived(keyOf(wi.getAssignedLabel()), System.currentTimeMillis(), wi.task.getEstimatedDuration());
+            }
+        }
+    }
+
+    /**
+     * Whether to provision ahead of forecast demand at all.
+     */
+    public static boolean ENABLED = SystemProperties.getBoolean(PredictiveProvisioningStrategy.class.getName() + ".enabled");
+
+    /**
+     * How far ahead to forecast, which should be about how long clouds take to bring a node online.
+     */
+    private static final long LEAD_TIME = SystemProperties.getLong(PredictiveProvisioningStrategy.class.getName() + ".leadTime", TimeUnit.MINUTES.toMillis(2));
+
+    /**
+     * Most executors provisioned ahead of demand per label on each pass, to contain a forecast gone wild.
+     */
+    public static int MAX_AHEAD = SystemProperties.getInteger(PredictiveProvisioningStrategy.class.getName() + ".maxAhead", 10);
+
+    private static final Logger LOGGER = Logger.getLogger(PredictiveProvisioningStrategy.class.getName());
+}
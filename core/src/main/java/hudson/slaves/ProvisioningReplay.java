@@ -0,0 +1,287 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.slaves;
+
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a recorded queue trace against a simulated cloud, to evaluate {@link PredictiveProvisioningStrategy}
+ * without a live one.
+ *
+ * <p>
+ * The simulation advances in steps of the provisioning period. On each step, finished builds free their executors,
+ * nodes that were provisioned come online, the items that arrived get executors if any are idle, idle executors past
+ * their retention time go away, and then new nodes of one executor are provisioned: first ahead of the forecast
+ * demand as {@link PredictiveProvisioningStrategy} does (unless replaying without a forecaster), then for whatever
+ * is still queued, which stands in for {@link NodeProvisioner.StandardStrategyImpl} without its smoothing.
+ *
+ * <p>
+ * A trace has one line per item that entered the queue: {@code time,label,duration[,estimatedDuration]},
+ * with times in milliseconds, an empty label for items that can run anywhere, and the estimated duration
+ * defaulting to the actual one. Such lines are easily derived from build records (start time minus queue time,
+ * label, duration). Lines starting with {@code #} are ignored.
+ * {@code ProvisioningReplayTester} in the test sources runs a trace file with and without forecasts.
+ *
+ * @since 2.82
+ */
+@Restricted(NoExternalUse.class)
+public final class ProvisioningReplay {
+
+    /**
+     * An item entering the queue.
+     */
+    public static final class Arrival {
+        final long time;
+        final String label;
+        final long duration;
+        final long estimatedDuration;
+
+        public Arrival(long time, @Nonnull String label, long duration, long estimatedDuration) {
+            this.time = time;
+            this.label = label;
+            this.duration = duration;
+            this.estimatedDuration = estimatedDuration;
+        }
+    }
+
+    /**
+     * What the builds of a trace went through.
+     */
+    public static final class Result {
+        private long builds;
+        private long totalWait;
+        private long maxWait;
+        private long executorTime;
+        private long provisioned;
+
+        public long getBuilds() {
+            return builds;
+        }
+
+        /**
+         * Mean time in milliseconds the builds waited for an executor.
+         */
+        public long getMeanWait() {
+            return builds == 0 ? 0 : totalWait / builds;
+        }
+
+        public long getMaxWait() {
+            return maxWait;
+        }
+
+        /**
+         * Total time in milliseconds executors were online, busy or not, which is what the cloud bills for.
+         */
+        public long getExecutorTime() {
+            return executorTime;
+        }
+
+        /**
+         * Number of executors provisioned.
+         */
+        public long getProvisioned() {
+            return provisioned;
+        }
+
+        @Override
+        public String toString() {
+            return "builds=" + builds + ", meanWait=" + getMeanWait() + "ms, maxWait=" + maxWait
+                    + "ms, executorTime=" + TimeUnit.MILLISECONDS.toMinutes(executorTime) + "min, provisioned=" + provisioned;
+        }
+    }
+
+    private final long period;
+    private final long provisioningDelay;
+    private final long retention;
+
+    /**
+     * @param period
+     *      how often to provision, as {@link NodeProvisioner.NodeProvisionerInvoker#RECURRENCEPERIOD}.
+     * @param provisioningDelay
+     *      time it takes a node to come online once provisioned.
+     * @param retention
+     *      time after which an idle executor goes away.
+     */
+    public ProvisioningReplay(long period, long provisioningDelay, long retention) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+        this.period = period;
+        this.provisioningDelay = provisioningDelay;
+        this.retention = retention;
+    }
+
+    /**
+     * Replays the trace.
+     *
+     * @param forecaster
+     *      the forecaster to provision ahead of demand with, or null to only react to the queue.
+     * @param maxAhead
+     *      as {@link PredictiveProvisioningStrategy#MAX_AHEAD}.
+     */
+    public @Nonnull Result run(@Nonnull List<Arrival> trace, @CheckForNull DemandForecaster forecaster, int maxAhead) {
+        List<Arrival> arrivals = new ArrayList<Arrival>(trace);
+        Collections.sort(arrivals, BY_TIME);
+        Result result = new Result();
+        if (arrivals.isEmpty()) {
+            return result;
+        }
+        Map<String, Pool> pools = new HashMap<String, Pool>();
+        int next = 0;
+        for (long now = arrivals.get(0).time; ; now += period) {
+            for (; next < arrivals.size() && arrivals.get(next).time <= now; next++) {
+                Arrival a = arrivals.get(next);
+                Pool pool = pools.get(a.label);
+                if (pool == null) {
+                    pools.put(a.label, pool = new Pool());
+                }
+                pool.queue.add(a);
+                if (forecaster != null) {
+                    forecaster.arrived(a.label, a.time, a.estimatedDuration);
+                }
+            }
+            boolean done = next == arrivals.size();
+            for (Map.Entry<String, Pool> e : pools.entrySet()) {
+                Pool pool = e.getValue();
+                pool.step(now, result);
+                if (forecaster != null) {
+                    forecaster.observe(e.getKey(), now, pool.busy.size() + pool.queue.size());
+                    double forecast = forecaster.forecast(e.getKey(), now);
+                    int ahead = PredictiveProvisioningStrategy.excessWorkload(forecast, pool.capacity(), maxAhead);
+                    pool.provision(now, ahead, result);
+                    forecaster.provisioned(e.getKey(), ahead);
+                }
+                pool.provision(now, pool.queue.size() - pool.pending.size(), result);
+                done &= pool.queue.isEmpty();
+            }
+            if (done) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Executors and queue of one label.
+     */
+    private final class Pool {
+        final ArrayDeque<Arrival> queue = new ArrayDeque<Arrival>();
+        /**
+         * When each busy executor frees up.
+         */
+        final PriorityQueue<Long> busy = new PriorityQueue<Long>();
+        /**
+         * When each provisioned node comes online, in order.
+         */
+        final ArrayDeque<Long> pending = new ArrayDeque<Long>();
+        /**
+         * Since when each idle executor is idle, most recent first.
+         */
+        final ArrayDeque<Long> idle = new ArrayDeque<Long>();
+
+        void step(long now, Result result) {
+            result.executorTime += (long) (busy.size() + idle.size()) * period;
+            while (!busy.isEmpty() && busy.peek() <= now) {
+                idle.addFirst(busy.poll());
+            }
+            while (!pending.isEmpty() && pending.peekFirst() <= now) {
+                idle.addFirst(pending.pollFirst());
+            }
+            while (!queue.isEmpty() && !idle.isEmpty()) {
+                Arrival a = queue.pollFirst();
+                idle.pollFirst();
+                long wait = now - a.time;
+                result.builds++;
+                result.totalWait += wait;
+                result.maxWait = Math.max(result.maxWait, wait);
+                busy.add(now + a.duration);
+            }
+            while (!idle.isEmpty() && idle.peekLast() + retention <= now) {
+                idle.pollLast();
+            }
+        }
+
+        int capacity() {
+            return busy.size() + idle.size() + pending.size();
+        }
+
+        void provision(long now, int executors, Result result) {
+            for (int i = 0; i < executors; i++) {
+                pending.addLast(now + provisioningDelay);
+                result.provisioned++;
+            }
+        }
+    }
+
+    /**
+     * Reads a trace in the format described above.
+     */
+    public static @Nonnull List<Arrival> parse(@Nonnull Reader r) throws IOException {
+        List<Arrival> trace = new ArrayList<Arrival>();
+        BufferedReader in = new BufferedReader(r);
+        String line;
+        int n = 0;
+        while ((line = in.readLine()) != null) {
+            n++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",", -1);
+            if (fields.length < 3) {
+                throw new IOException("Expected time,label,duration[,estimatedDuration] on line " + n + ": " + line);
+            }
+            try {
+                long duration = Long.parseLong(fields[2].trim());
+                long estimated = fields.length > 3 ? Long.parseLong(fields[3].trim()) : duration;
+                trace.add(new Arrival(Long.parseLong(fields[0].trim()), fields[1].trim(), duration, estimated));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed number on line " + n + ": " + line, e);
+            }
+        }
+        return trace;
+    }
+
+    private static final Comparator<Arrival> BY_TIME = new Comparator<Arrival>() {
+        @Override
+        public int compare(Arrival lhs, Arrival rhs) {
+            return Long.compare(lhs.time, rhs.time);
+        }
+    };
+}
@@ -231,7 +231,7 @@ public abstract class RetentionStrategy<T extends Computer> extends AbstractDesc
 
                 boolean needComputer = false;
                 long demandMilliseconds = 0;
-                for (Queue.BuildableItem item : Queue.getInstance().getBuildableItems()) {
+                for (Queue.BuildableItem item : Queue.getInstance().getSnapshot().getBuildableItems()) {
                     // can any of the currently idle executors take this task?
                     // assume the answer is no until we can find such an executor
                     boolean needExecutor = true;
@@ -40,14 +40,15 @@ import hudson.model.DependencyGraph;
 import hudson.model.DependencyGraph.Dependency;
 import hudson.model.Fingerprint;
 import hudson.model.Fingerprint.BuildPtr;
-import hudson.model.FingerprintMap;
 import hudson.model.Job;
 import jenkins.model.Jenkins;
 import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.FormValidation;
+import hudson.util.NamingThreadFactory;
 import hudson.util.PackedMap;
 import hudson.util.RunList;
 import net.sf.json.JSONObject;
@@ -67,6 +68,7 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -74,6 +76,11 @@ import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.RunAction2;
@@ -194,17 +201,14 @@ public class Fingerprinter extends Recorder implements Serializable, DependencyD
             final String relativePath;
             final String fileName;
             final String md5sum;
+            final long size;
 
-            public Record(boolean produced, String relativePath, String fileName, String md5sum) {
+            public Record(boolean produced, String relativePath, String fileName, String md5sum, long size) {
                 this.produced = produced;
                 this.relativePath = relativePath;
                 this.fileName = fileName;
                 this.md5sum = md5sum;
-            }
-
-            Fingerprint addRecord(Run build) throws IOException {
-                FingerprintMap map = Jenkins.getInstance().getFingerprintMap();
-                return map.getOrCreate(produced?build:null, fileName, md5sum);
+                this.size = size;
             }
 
             private static final long serialVersionUID = 1L;
@@ -212,43 +216,91 @@ public class Fingerprinter extends Recorder implements Serializable, DependencyD
 
         final long buildTimestamp = build.getTimeInMillis();
 
+        long start = System.currentTimeMillis();
         List<Record> records = ws.act(new MasterToSlaveFileCallable<List<Record>>() {
-            public List<Record> invoke(File baseDir, VirtualChannel channel) throws IOException {
-                List<Record> results = new ArrayList<Record>();
-
+            public List<Record> invoke(final File baseDir, VirtualChannel channel) throws IOException, InterruptedException {
                 FileSet src = Util.createFileSet(baseDir,targets);
 
                 DirectoryScanner ds = src.getDirectoryScanner();
-                for( String f : ds.getIncludedFiles() ) {
-                    File file = new File(baseDir,f);
-
-                    // consider the file to be produced by this build only if the timestamp
-                    // is newer than when the build has started.
-                    // 2000ms is an error margin since since VFAT only retains timestamp at 2sec precision
-                    boolean produced = buildTimestamp <= file.lastModified()+2000;
-
-                    try {
-                        results.add(new Record(produced,f,file.getName(),new FilePath(file).digest()));
-                    } catch (IOException e) {
-                        throw new IOException(Messages.Fingerprinter_DigestFailed(file),e);
-                    } catch (InterruptedException e) {
-                        throw new IOException(Messages.Fingerprinter_Aborted(),e);
+                String[] files = ds.getIncludedFiles();
+                List<Record> results = new ArrayList<Record>(files.length);
+
+                // digests are computed on all the cores of the agent
+                int threads = Math.min(files.length, Runtime.getRuntime().availableProcessors());
+                if (threads <= 1) {
+                    for (String f : files) {
+                        results.add(digest(baseDir, f));
+                    }
+                    return results;
+                }
+                ExecutorService pool = Executors.newFixedThreadPool(threads, new NamingThreadFactory(new DaemonThreadFactory(), "Fingerprinter"));
+                try {
+                    List<Future<Record>> futures = new ArrayList<Future<Record>>(files.length);
+                    for (final String f : files) {
+                        futures.add(pool.submit(new Callable<Record>() {
+                            public Record call() throws IOException {
+                                return digest(baseDir, f);
+                            }
+                        }));
                     }
+                    for (Future<Record> future : futures) {
+                        try {
+                            results.add(future.get());
+                        } catch (ExecutionException e) {
+                            Throwable cause = e.getCause();
+                            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                        }
+                    }
+                    return results;
+                } finally {
+                    pool.shutdownNow();
                 }
+            }
 
-                return results;
+            private Record digest(File baseDir, String f) throws IOException {
+                File file = new File(baseDir,f);
+
+                // consider the file to be produced by this build only if the timestamp
+                // is newer than when the build has started.
+                // 2000ms is an error margin since since VFAT only retains timestamp at 2sec precision
+                boolean produced = buildTimestamp <= file.lastModified()+2000;
+
+                try {
+                    return new Record(produced,f,file.getName(),new FilePath(file).digest(),file.length());
+                } catch (IOException e) {
+                    throw new IOException(Messages.Fingerprinter_DigestFailed(file),e);
+                } catch (InterruptedException e) {
+                    throw new IOException(Messages.Fingerprinter_Aborted(),e);
+                }
             }
         });
+        long digested = System.currentTimeMillis();
 
+        // from checksum to file name; a file found more than once is recorded under the first name
+        Map<String,String> files = new LinkedHashMap<String,String>();
+        Set<String> produced = new HashSet<String>();
+        long size = 0;
         for (Record r : records) {
-            Fingerprint fp = r.addRecord(build);
+            if (!files.containsKey(r.md5sum)) {
+                files.put(r.md5sum, r.fileName);
+                size += r.size;
+            }
+            if (r.produced) {
+                produced.add(r.md5sum);
+            }
+        }
+        Map<String,Fingerprint> fingerprints = Jenkins.getInstance().getFingerprintMap().addFor(build, files, produced);
+        for (Record r : records) {
+            Fingerprint fp = fingerprints.get(r.md5sum);
             if(fp==null) {
                 listener.error(Messages.Fingerprinter_FailedFor(r.relativePath));
                 continue;
             }
-            fp.addFor(build);
             record.put(r.relativePath,fp.getHashString());
         }
+
+        long end = System.currentTimeMillis();
+        listener.getLogger().println(Messages.Fingerprinter_Recorded(fingerprints.size(), Functions.humanReadableByteSize(size), end - start, digested - start));
     }
 
     @Extension @Symbol("fingerprint")
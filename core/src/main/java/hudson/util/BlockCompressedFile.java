@@ -0,0 +1,369 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.util;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Read-only file compressed in independent blocks, so that reading can start at any offset
+ * of the uncompressed data without inflating everything before it.
+ *
+ * <p>
+ * The file is a sequence of gzip members, each holding {@link #getBlockSize()} bytes of the original
+ * data (the last one possibly less), followed by the offset of each member as a {@code long} and
+ * a fixed size trailer. Seeking to an offset therefore costs reading one index entry and inflating
+ * at most one block, and {@link #length()} is known up front, which is what {@link hudson.console.AnnotatedLargeText}
+ * needs to serve the tail or an arbitrary range of a large build log.
+ *
+ * <p>
+ * Unlike {@link CompressedFile}, the contents cannot be appended to once written;
+ * files are produced from a finished plain file by {@link #compress(File, File)}.
+ *
+ * @since 2.82
+ */
+public final class BlockCompressedFile {
+    /**
+     * Uncompressed size of each block written by {@link #compress(File, File)}.
+     */
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    private static final int MAGIC = 0x4A424C4B; // "JBLK"
+    /** Index offset, uncompressed length, block size, magic. */
+    private static final int TRAILER = 8 + 8 + 4 + 4;
+
+    private final File file;
+    private final long indexOffset;
+    private final long length;
+    private final int blockSize;
+    private final int blocks;
+
+    private BlockCompressedFile(File file, long indexOffset, long length, int blockSize, int blocks) {
+        this.file = file;
+        this.indexOffset = indexOffset;
+        this.length = length;
+        this.blockSize = blockSize;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Opens a file written by {@link #compress(File, File)}.
+     *
+     * @throws IOException if the file does not exist or is not in the expected format.
+     */
+    public static @Nonnull BlockCompressedFile open(@Nonnull File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long size = raf.length();
+            if (size < TRAILER) {
+                throw new IOException(file + " is too short to be block compressed");
+            }
+            raf.seek(size - TRAILER);
+            long indexOffset = raf.readLong();
+            long length = raf.readLong();
+            int blockSize = raf.readInt();
+            if (raf.readInt() != MAGIC) {
+                throw new IOException(file + " is not block compressed");
+            }
+            long indexSize = size - TRAILER - indexOffset;
+            if (indexOffset < 0 || indexSize < 0 || indexSize % 8 != 0 || blockSize <= 0 || length < 0
+                    || (length + blockSize - 1) / blockSize != indexSize / 8) {
+                throw new IOException("Corrupt trailer in " + file);
+            }
+            return new BlockCompressedFile(file, indexOffset, length, blockSize, (int) (indexSize / 8));
+        }
+    }
+
+    public @Nonnull File getFile() {
+        return file;
+    }
+
+    /**
+     * Size of the uncompressed data.
+     */
+    public long length() {
+        return length;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlockCount() {
+        return blocks;
+    }
+
+    /**
+     * Reads the uncompressed data starting at the given offset.
+     *
+     * @param offset
+     *      byte offset in the uncompressed data. At or past {@link #length()}, the stream is empty.
+     */
+    public @Nonnull InputStream read(long offset) throws IOException {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Negative offset " + offset);
+        }
+        BlockInputStream in = new BlockInputStream((int) Math.min(offset / blockSize, blocks));
+        try {
+            IOUtils.skipFully(in, offset - (long) in.block * blockSize);
+        } catch (EOFException e) {
+            // past the end, so nothing to read
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+    /**
+     * Reads one whole block of uncompressed data.
+     */
+    public @Nonnull byte[] readBlock(int block) throws IOException {
+        if (block < 0 || block >= blocks) {
+            throw new IndexOutOfBoundsException("Block " + block + " of " + blocks + " in " + file);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             InputStream in = openBlock(raf, block)) {
+            byte[] data = new byte[(int) Math.min(blockSize, length - (long) block * blockSize)];
+            IOUtils.readFully(in, data);
+            return data;
+        }
+    }
+
+    private InputStream openBlock(RandomAccessFile raf, int block) throws IOException {
+        raf.seek(indexOffset + 8L * block);
+        long start = raf.readLong();
+        long end = block + 1 < blocks ? raf.readLong() : indexOffset;
+        if (start < 0 || start > end || end > indexOffset) {
+            throw new IOException("Corrupt index entry " + block + " in " + file);
+        }
+        return new GZIPInputStream(new Region(raf, start, end), 8192);
+    }
+
+    /**
+     * Reads the blocks one after another, starting from the given one.
+     */
+    private final class BlockInputStream extends InputStream {
+        private final RandomAccessFile raf;
+        private int block;
+        private InputStream current;
+
+        BlockInputStream(int block) throws IOException {
+            this.raf = new RandomAccessFile(file, "r");
+            this.block = block;
+        }
+
+        private boolean next() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+                block++;
+            }
+            if (block >= blocks) {
+                return false;
+            }
+            current = openBlock(raf, block);
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (current != null || next()) {
+                int n = current.read(b, off, len);
+                if (n > 0) {
+                    return n;
+                }
+                if (!next()) {
+                    break;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (current != null) {
+                    current.close();
+                }
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Part of a file, read through a {@link RandomAccessFile} that may be seeked elsewhere in between.
+     */
+    private static final class Region extends InputStream {
+        private final RandomAccessFile raf;
+        private long pos;
+        private final long end;
+
+        Region(RandomAccessFile raf, long start, long end) {
+            this.raf = raf;
+            this.pos = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos >= end) {
+                return -1;
+            }
+            raf.seek(pos++);
+            return raf.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (pos >= end) {
+                return -1;
+            }
+            raf.seek(pos);
+            int n = raf.read(b, off, (int) Math.min(len, end - pos));
+            if (n > 0) {
+                pos += n;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - pos);
+        }
+
+        @Override
+        public void close() {
+            // the file is owned by the caller
+        }
+    }
+
+    /**
+     * Writes the contents of a plain file to a new block compressed file.
+     * The destination is replaced atomically, so readers never see it partially written.
+     */
+    public static void compress(@Nonnull File src, @Nonnull File dst) throws IOException {
+        File tmp = new File(dst.getParentFile(), dst.getName() + ".tmp");
+        try {
+            long length = 0;
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            DataOutputStream indexOut = new DataOutputStream(index);
+            try (InputStream in = Files.newInputStream(src.toPath());
+                 CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())));
+                 DataOutputStream out = new DataOutputStream(counter)) {
+                byte[] buf = new byte[BLOCK_SIZE];
+                int n;
+                while ((n = IOUtils.read(in, buf)) > 0) {
+                    indexOut.writeLong(counter.getByteCount());
+                    try (OutputStream gz = new GZIPOutputStream(new CloseShieldOutputStream(counter), 8192)) {
+                        gz.write(buf, 0, n);
+                    }
+                    length += n;
+                }
+                long indexOffset = counter.getByteCount();
+                index.writeTo(out);
+                out.writeLong(indexOffset);
+                out.writeLong(length);
+                out.writeInt(BLOCK_SIZE);
+                out.writeInt(MAGIC);
+            }
+            Files.move(tmp.toPath(), dst.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (InvalidPathException e) {
+            throw new IOException(e);
+        } finally {
+            if (tmp.exists() && !tmp.delete()) {
+                LOGGER.log(Level.WARNING, "Failed to delete {0}", tmp);
+            }
+        }
+    }
+
+    /**
+     * Asynchronously replaces a plain file by its block compressed form.
+     *
+     * <p>
+     * Once the compressed file is in place, the original is removed. Callers are expected to keep
+     * preferring the original while it exists, so that readers never see the data disappear.
+     */
+    public static void compressLater(@Nonnull final File src, @Nonnull final File dst) {
+        compressionThread.submit(new Runnable() {
+            public void run() {
+                try {
+                    compress(src, dst);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to compress " + src, e);
+                    return;
+                }
+                if (!src.delete()) {
+                    // e.g. still open for reading on Windows; keep the original and drop the copy
+                    LOGGER.log(Level.FINE, "Failed to delete {0} after compressing it", src);
+                    if (!dst.delete()) {
+                        LOGGER.log(Level.WARNING, "Failed to delete {0}", dst);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Executor used for compression. Limited up to one thread since
+     * this should be a fairly low-priority task.
+     */
+    private static final ExecutorService compressionThread = new ThreadPoolExecutor(
+        0, 1, 5L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ExceptionCatchingThreadFactory(new NamingThreadFactory(new DaemonThreadFactory(), "BlockCompressedFile")));
+
+    private static final Logger LOGGER = Logger.getLogger(BlockCompressedFile.class.getName());
+}
@@ -288,7 +288,7 @@ public class ConsistentHash<T> {
     /**
      * Compresses a string into an integer with MD5.
      */
-    private int md5(String s) {
+    /*package*/ static int md5(String s) {
         MD5 md5 = new MD5();
         md5.update(s.getBytes());
         byte[] digest = new byte[16];
@@ -303,7 +303,7 @@ public class ConsistentHash<T> {
     /**
      * unsigned byte->int.
      */
-    private int b2i(byte b) {
+    private static int b2i(byte b) {
         return ((int)b)&0xFF;
     }
 
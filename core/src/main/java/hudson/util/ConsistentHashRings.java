@@ -0,0 +1,232 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.util;
+
+import com.google.common.base.Predicate;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Consistent hash rings over names, kept across lookups.
+ *
+ * <p>
+ * {@link ConsistentHash} has to be rebuilt, hashing every point with MD5, whenever the set of members
+ * or their weights change. For load balancing that is every time, as the members are the nodes with idle
+ * executors and the weights their number. This class instead keeps one ring per key (such as a label)
+ * with enough points for each member to cover any weight asked for so far, and filters the ring when
+ * walking it. Rings are only rebuilt when a new member or a higher weight shows up, and even then
+ * the MD5 of existing points is reused.
+ *
+ * <p>
+ * {@link #list} returns members in exactly the order {@link ConsistentHash#list(String)} would,
+ * had a {@link ConsistentHash} been built with the given weights and the names as {@link ConsistentHash.Hash},
+ * so switching to this class does not move any task to another node.
+ *
+ * @since 2.82
+ */
+@Restricted(NoExternalUse.class)
+public final class ConsistentHashRings {
+    /**
+     * Rings are dropped altogether once there are more than this many keys, for example because of ad-hoc label expressions.
+     */
+    private static final int MAX_RINGS = 1000;
+
+    /**
+     * Hash of each point of each member, as in {@link ConsistentHash}: the MD5 of {@code name:i}.
+     */
+    private final Map<String, int[]> points = new HashMap<String, int[]>();
+
+    private final Map<String, Ring> rings = new HashMap<String, Ring>();
+
+    /**
+     * Lists the given members in the order of the ring for the key, starting from the query point.
+     *
+     * @param ringKey
+     *      identifies the ring to use, for example a label expression.
+     * @param queryPoint
+     *      as in {@link ConsistentHash#list(String)}.
+     * @param weights
+     *      members to include, to their number of points. Points of any other member of the ring are skipped.
+     * @param alive
+     *      tells whether a member known from a previous call that is not part of {@code weights}
+     *      is worth keeping when the ring needs to be rebuilt anyway.
+     * @return
+     *      all the keys of {@code weights}, in order.
+     */
+    public synchronized @Nonnull List<String> list(@Nonnull String ringKey, @Nonnull String queryPoint,
+                                                   @Nonnull Map<String, Integer> weights, @Nonnull Predicate<String> alive) {
+        if (weights.isEmpty()) {
+            return new ArrayList<String>();
+        }
+        Ring ring = rings.get(ringKey);
+        if (ring == null || !ring.covers(weights)) {
+            ring = rebuild(ring, weights, alive);
+            if (rings.size() >= MAX_RINGS) {
+                rings.clear();
+            }
+            rings.put(ringKey, ring);
+        }
+        return ring.list(ConsistentHash.md5(queryPoint), weights);
+    }
+
+    /**
+     * Number of rings currently kept.
+     */
+    public synchronized int size() {
+        return rings.size();
+    }
+
+    public synchronized void clear() {
+        rings.clear();
+        points.clear();
+    }
+
+    private Ring rebuild(Ring old, Map<String, Integer> weights, Predicate<String> alive) {
+        Map<String, Integer> capacity = new HashMap<String, Integer>();
+        if (old != null) {
+            for (Map.Entry<String, Integer> e : old.capacity.entrySet()) {
+                if (weights.containsKey(e.getKey()) || alive.apply(e.getKey())) {
+                    capacity.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        for (Map.Entry<String, Integer> e : weights.entrySet()) {
+            Integer c = capacity.get(e.getKey());
+            if (c == null || c < e.getValue()) {
+                capacity.put(e.getKey(), e.getValue());
+            }
+        }
+        // forget the points of members that are gone from every ring
+        if (old != null) {
+            for (String name : old.capacity.keySet()) {
+                if (!capacity.containsKey(name) && !isMemberOfAnyRingBut(old, name)) {
+                    points.remove(name);
+                }
+            }
+        }
+        return new Ring(capacity);
+    }
+
+    private boolean isMemberOfAnyRingBut(Ring ring, String name) {
+        for (Ring r : rings.values()) {
+            if (r != ring && r.capacity.containsKey(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int[] pointsOf(String name, int n) {
+        int[] p = points.get(name);
+        if (p == null || p.length < n) {
+            int from = p == null ? 0 : p.length;
+            p = p == null ? new int[n] : Arrays.copyOf(p, n);
+            for (int i = from; i < n; i++) {
+                p[i] = ConsistentHash.md5(name + ':' + i);
+            }
+            points.put(name, p);
+        }
+        return p;
+    }
+
+    /**
+     * One ring, sorted by hash.
+     */
+    private final class Ring {
+        private final Map<String, Integer> capacity;
+        private final int[] hash;
+        private final String[] owner;
+        private final int[] replica;
+
+        Ring(Map<String, Integer> capacity) {
+            this.capacity = capacity;
+            int n = 0;
+            for (int c : capacity.values()) {
+                n += c;
+            }
+            // sort the points by hash, with their position in ownerAt and replicaAt in the low bits
+            long[] sortable = new long[n];
+            String[] ownerAt = new String[n];
+            int[] replicaAt = new int[n];
+            int k = 0;
+            for (Map.Entry<String, Integer> e : capacity.entrySet()) {
+                int c = e.getValue();
+                int[] p = pointsOf(e.getKey(), c);
+                for (int i = 0; i < c; i++, k++) {
+                    sortable[k] = ((long) p[i] << 32) | k;
+                    ownerAt[k] = e.getKey();
+                    replicaAt[k] = i;
+                }
+            }
+            Arrays.sort(sortable);
+            hash = new int[n];
+            owner = new String[n];
+            replica = new int[n];
+            for (int j = 0; j < n; j++) {
+                int at = (int) sortable[j];
+                hash[j] = (int) (sortable[j] >> 32);
+                owner[j] = ownerAt[at];
+                replica[j] = replicaAt[at];
+            }
+        }
+
+        boolean covers(Map<String, Integer> weights) {
+            for (Map.Entry<String, Integer> e : weights.entrySet()) {
+                Integer c = capacity.get(e.getKey());
+                if (c == null || c < e.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        List<String> list(int queryPoint, Map<String, Integer> weights) {
+            Set<String> r = new LinkedHashSet<String>();
+            if (hash.length == 0) {
+                return new ArrayList<String>(r);
+            }
+            int start = Arrays.binarySearch(hash, queryPoint);
+            if (start < 0) {
+                start = (-start - 1) % hash.length; // insertion point, around the circle
+            }
+            for (int pos = 0; pos < hash.length && r.size() < weights.size(); pos++) {
+                int j = (start + pos) % hash.length;
+                Integer w = weights.get(owner[j]);
+                if (w != null && replica[j] < w) {
+                    r.add(owner[j]);
+                }
+            }
+            return new ArrayList<String>(r);
+        }
+    }
+}
@@ -23,18 +23,29 @@
  */
 package hudson.util;
 
+import com.google.common.base.Function;
 import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
+import hudson.ExtensionList;
 import hudson.model.AbstractBuild;
 import hudson.model.Job;
 import hudson.model.Node;
 import hudson.model.Result;
 import hudson.model.Run;
+import hudson.model.RunMap;
 import hudson.model.TopLevelItem;
 import hudson.model.View;
 import hudson.util.Iterators.CountingPredicate;
+import jenkins.model.lazy.BuildSummary;
+import jenkins.model.lazy.BuildSummaryIndex;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
 import java.util.*;
 
 /**
@@ -46,6 +57,25 @@ public class RunList<R extends Run> extends AbstractList<R> {
 
     private Iterable<R> base;
 
+    /**
+     * When listing the builds of a single job, those builds newest first along with what the
+     * {@link BuildSummaryIndex} knows about them, so that filters can skip builds without loading them.
+     * {@link #base} is then derived from this. Null otherwise.
+     */
+    private Iterable<Candidate<R>> candidates;
+    /**
+     * The map {@link #candidates} come from, as long as none were filtered out.
+     */
+    private RunMap<?> runMap;
+    /**
+     * The map {@link #candidates} come from, filtered or not.
+     */
+    private RunMap<?> source;
+    /**
+     * When {@link #runMap} is set, the candidates are the builds of the map numbered below this.
+     */
+    private int bound = Integer.MAX_VALUE;
+
     private R first;
     private Integer size;
 
@@ -54,7 +84,12 @@ public class RunList<R extends Run> extends AbstractList<R> {
     }
 
     public RunList(Job j) {
-        base = j.getBuilds();
+        RunList<R> builds = j.getBuilds();
+        base = builds.base;
+        candidates = builds.candidates;
+        runMap = builds.runMap;
+        source = builds.source;
+        bound = builds.bound;
     }
 
     public RunList(View view) {// this is a type unsafe operation
@@ -108,6 +143,216 @@ public class RunList<R extends Run> extends AbstractList<R> {
         base = c;
     }
 
+    /**
+     * Creates a {@link RunList} of the builds in the map, which filters them by their {@link BuildSummary}
+     * where possible rather than by loading them.
+     * @since 2.82
+     */
+    @Restricted(NoExternalUse.class)
+    public static <R extends Run<?,R>> RunList<R> fromRunMap(RunMap<R> runs) {
+        BuildSummaryIndex index = runs.getSummaryIndex();
+        if (index == null) {
+            return fromRuns(runs.values());
+        }
+        RunList<R> r = new RunList<R>();
+        r.setCandidates(RunList.<R>candidatesOf(runs, index, Integer.MAX_VALUE));
+        r.runMap = runs;
+        r.source = runs;
+        return r;
+    }
+
+    /**
+     * Lists the builds of the map numbered below the given number, newest first.
+     */
+    private static <R extends Run> Iterable<Candidate<R>> candidatesOf(final RunMap<?> runs, final BuildSummaryIndex index, final int below) {
+        return new Iterable<Candidate<R>>() {
+            @Override
+            public Iterator<Candidate<R>> iterator() {
+                final List<Integer> numbers = runs.numbersOnDisk();
+                return new AbstractIterator<Candidate<R>>() {
+                    int i = numbers.size();
+
+                    @Override
+                    protected Candidate<R> computeNext() {
+                        while (i > 0) {
+                            int n = numbers.get(--i);
+                            if (n >= below) {
+                                continue;
+                            }
+                            Candidate<R> c = new Candidate<R>(runs, index, n);
+                            // summarized builds loaded fine before; others we have to try, as values() would
+                            if (c.summary != null || c.run() != null) {
+                                return c;
+                            }
+                        }
+                        return endOfData();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Gets the builds numbered below the given number.
+     * Unlike the filters, this leaves this list as it is, and it skips the newer builds without loading them where it can.
+     * @since 2.82
+     */
+    @Restricted(NoExternalUse.class)
+    public RunList<R> below(final int number) {
+        if (runMap != null) {
+            BuildSummaryIndex index = runMap.getSummaryIndex();
+            if (index != null) {
+                RunList<R> r = new RunList<R>();
+                r.setCandidates(RunList.<R>candidatesOf(runMap, index, Math.min(number, bound)));
+                r.runMap = runMap;
+                r.source = runMap;
+                r.bound = Math.min(number, bound);
+                return r;
+            }
+        }
+        return new RunList<R>(Iterables.filter(base, new Predicate<R>() {
+            public boolean apply(R r) {
+                return r.getNumber() < number;
+            }
+        }));
+    }
+
+    /**
+     * Starts loading the first builds of this list in parallel, for callers about to go through a page of them.
+     * Only works as long as the list is of all the builds of a job, or those {@linkplain #below below} some number,
+     * since otherwise which builds come first is not known until they are loaded.
+     * @param n the number of builds to load; no more than that are loaded, so that a page needing 25 builds loads 25
+     * @since 2.82
+     */
+    @Restricted(NoExternalUse.class)
+    public void prefetch(int n) {
+        if (runMap == null) {
+            return;
+        }
+        List<Integer> numbers = runMap.numbersOnDisk();
+        List<Integer> page = new ArrayList<Integer>();
+        for (int i = numbers.size() - 1; i >= 0 && page.size() < n; i--) {
+            int number = numbers.get(i);
+            if (number < bound) {
+                page.add(number);
+            }
+        }
+        runMap.prefetch(page);
+    }
+
+    private void setCandidates(Iterable<Candidate<R>> candidates) {
+        this.candidates = candidates;
+        this.runMap = null;
+        this.base = Iterables.filter(Iterables.transform(candidates, new Function<Candidate<R>, R>() {
+            public R apply(Candidate<R> c) {
+                return c.run();
+            }
+        }), Predicates.notNull());
+    }
+
+    /**
+     * Like {@link #iterator()}, but yields the {@link BuildSummary} instead of the {@link Run}
+     * for the builds whose summary is all there is to display about them.
+     * @return an {@link Iterable} of {@link BuildSummary} and {@link Run} objects
+     * @since 2.82
+     */
+    @Restricted(NoExternalUse.class)
+    public Iterable<?> summarized() {
+        if (candidates == null) {
+            return base;
+        }
+        return Iterables.filter(Iterables.transform(candidates, new Function<Candidate<R>, Object>() {
+            public Object apply(Candidate<R> c) {
+                return c.summary != null && c.summary.isComplete() ? c.summary : c.run();
+            }
+        }), Predicates.notNull());
+    }
+
+    /**
+     * Loads the build a {@link BuildSummary} yielded by {@link #summarized()} stands for.
+     * @return null if it failed to load, or was deleted in the meantime
+     * @since 2.82
+     */
+    @Restricted(NoExternalUse.class)
+    @SuppressWarnings("unchecked")
+    public @CheckForNull R load(@Nonnull BuildSummary summary) {
+        if (source == null) {
+            throw new IllegalStateException("not a list of summarized builds");
+        }
+        return (R) source.getByNumber(summary.getNumber());
+    }
+
+    /**
+     * A build of the job being listed, loaded only when needed.
+     */
+    private static final class Candidate<R extends Run> {
+        final int number;
+        final @CheckForNull BuildSummary summary;
+        private final RunMap<?> runs;
+        private final BuildSummaryIndex index;
+        private R run;
+
+        Candidate(RunMap<?> runs, BuildSummaryIndex index, int number) {
+            this.runs = runs;
+            this.index = index;
+            this.number = number;
+            this.summary = index.get(number);
+        }
+
+        @SuppressWarnings("unchecked")
+        R run() {
+            if (run == null) {
+                run = (R) runs.getByNumber(number);
+                if (run != null && summary == null) {
+                    index.offer(run);
+                }
+            }
+            return run;
+        }
+
+        boolean test(Predicate<R> p) {
+            if (summary != null && p instanceof Condition) {
+                Boolean b = ((Condition<R>) p).test(summary);
+                if (b != null) {
+                    return b;
+                }
+            }
+            R r = run();
+            return r != null && p.apply(r);
+        }
+
+        boolean test(int i, CountingPredicate<R> p) {
+            if (summary != null && p instanceof CountingCondition) {
+                Boolean b = ((CountingCondition<R>) p).test(i, summary);
+                if (b != null) {
+                    return b;
+                }
+            }
+            R r = run();
+            return r != null && p.apply(i, r);
+        }
+    }
+
+    /**
+     * A filter that can often tell from the {@link BuildSummary} alone.
+     */
+    private static abstract class Condition<R extends Run> implements Predicate<R> {
+        /**
+         * @return null if the build has to be loaded to tell
+         */
+        abstract @CheckForNull Boolean test(BuildSummary s);
+    }
+
+    /**
+     * A {@link CountingPredicate} that can often tell from the {@link BuildSummary} alone.
+     */
+    private static abstract class CountingCondition<R extends Run> implements CountingPredicate<R> {
+        /**
+         * @return null if the build has to be loaded to tell
+         */
+        abstract @CheckForNull Boolean test(int index, BuildSummary s);
+    }
+
     @Override
     public Iterator<R> iterator() {
         return base.iterator();
@@ -207,10 +452,18 @@ public class RunList<R extends Run> extends AbstractList<R> {
      * <em>Warning:</em> this method mutates the original list and then returns it.
      * @since 1.544
      */
-    public RunList<R> filter(Predicate<R> predicate) {
+    public RunList<R> filter(final Predicate<R> predicate) {
         size = null;
         first = null;
-        base = Iterables.filter(base,predicate);
+        if (candidates != null) {
+            setCandidates(Iterables.filter(candidates, new Predicate<Candidate<R>>() {
+                public boolean apply(Candidate<R> c) {
+                    return c.test(predicate);
+                }
+            }));
+        } else {
+            base = Iterables.filter(base,predicate);
+        }
         return this;
     }
 
@@ -222,6 +475,19 @@ public class RunList<R extends Run> extends AbstractList<R> {
     private RunList<R> limit(final CountingPredicate<R> predicate) {
         size = null;
         first = null;
+        if (candidates != null) {
+            final Iterable<Candidate<R>> nested = candidates;
+            setCandidates(new Iterable<Candidate<R>>() {
+                public Iterator<Candidate<R>> iterator() {
+                    return hudson.util.Iterators.limit(nested.iterator(), new CountingPredicate<Candidate<R>>() {
+                        public boolean apply(int index, Candidate<R> c) {
+                            return c.test(index, predicate);
+                        }
+                    });
+                }
+            });
+            return this;
+        }
         final Iterable<R> nested = base;
         base = new Iterable<R>() {
             public Iterator<R> iterator() {
@@ -244,10 +510,15 @@ public class RunList<R extends Run> extends AbstractList<R> {
      * @since 1.507
      */
     public RunList<R> limit(final int n) {
-        return limit(new CountingPredicate<R>() {
+        return limit(new CountingCondition<R>() {
             public boolean apply(int index, R input) {
                 return index<n;
             }
+
+            @Override
+            Boolean test(int index, BuildSummary s) {
+                return index<n;
+            }
         });
     }
 
@@ -256,10 +527,15 @@ public class RunList<R extends Run> extends AbstractList<R> {
      * <em>Warning:</em> this method mutates the original list and then returns it.
      */
     public RunList<R> failureOnly() {
-        return filter(new Predicate<R>() {
+        return filter(new Condition<R>() {
             public boolean apply(R r) {
                 return r.getResult()!=Result.SUCCESS;
             }
+
+            @Override
+            Boolean test(BuildSummary s) {
+                return s.getResult()!=Result.SUCCESS;
+            }
         });
     }
 
@@ -269,10 +545,15 @@ public class RunList<R extends Run> extends AbstractList<R> {
      * @since 1.517
      */
     public RunList<R> overThresholdOnly(final Result threshold) {
-        return filter(new Predicate<R>() {
+        return filter(new Condition<R>() {
             public boolean apply(R r) {
                 return (r.getResult() != null && r.getResult().isBetterOrEqualTo(threshold));
             }
+
+            @Override
+            Boolean test(BuildSummary s) {
+                return s.getResult().isBetterOrEqualTo(threshold);
+            }
         });
     }
 
@@ -282,10 +563,15 @@ public class RunList<R extends Run> extends AbstractList<R> {
      * @since 1.561
      */
     public RunList<R> completedOnly() {
-        return filter(new Predicate<R>() {
+        return filter(new Condition<R>() {
             public boolean apply(R r) {
                 return !r.isBuilding();
             }
+
+            @Override
+            Boolean test(BuildSummary s) {
+                return true;
+            }
         });
     }
 
@@ -294,10 +580,18 @@ public class RunList<R extends Run> extends AbstractList<R> {
      * <em>Warning:</em> this method mutates the original list and then returns it.
      */
     public RunList<R> node(final Node node) {
-        return filter(new Predicate<R>() {
+        return filter(new Condition<R>() {
             public boolean apply(R r) {
                 return (r instanceof AbstractBuild) && ((AbstractBuild)r).getBuiltOn()==node;
             }
+
+            @Override
+            Boolean test(BuildSummary s) {
+                if (!s.isAbstractBuild()) {
+                    return false;
+                }
+                return s.getBuiltOnStr() != null ? s.getBuiltOn()==node : null;
+            }
         });
     }
 
@@ -306,10 +600,20 @@ public class RunList<R extends Run> extends AbstractList<R> {
      * <em>Warning:</em> this method mutates the original list and then returns it.
      */
     public RunList<R> regressionOnly() {
-        return filter(new Predicate<R>() {
+        return filter(new Condition<R>() {
             public boolean apply(R r) {
                 return r.getBuildStatusSummary().isWorse;
             }
+
+            @Override
+            Boolean test(BuildSummary s) {
+                // built-in summaries only call failed and unstable builds worse, and then depending on the previous build
+                if (s.getResult()==Result.FAILURE || s.getResult()==Result.UNSTABLE
+                        || !ExtensionList.lookup(Run.StatusSummarizer.class).isEmpty()) {
+                    return null;
+                }
+                return false;
+            }
         });
     }
 
@@ -321,14 +625,24 @@ public class RunList<R extends Run> extends AbstractList<R> {
      */
     public RunList<R> byTimestamp(final long start, final long end) {
         return
-        limit(new CountingPredicate<R>() {
+        limit(new CountingCondition<R>() {
             public boolean apply(int index, R r) {
                 return start<=r.getTimeInMillis();
             }
-        }).filter(new Predicate<R>() {
+
+            @Override
+            Boolean test(int index, BuildSummary s) {
+                return start<=s.getTimestamp();
+            }
+        }).filter(new Condition<R>() {
         	public boolean apply(R r) {
         		return r.getTimeInMillis()<end;
                     }
+
+            @Override
+            Boolean test(BuildSummary s) {
+                return s.getTimestamp()<end;
+            }
         });
     }
 
@@ -344,16 +658,26 @@ public class RunList<R extends Run> extends AbstractList<R> {
         final long t = cal.getTimeInMillis();
 
         // can't publish on-going builds
-        return filter(new Predicate<R>() {
+        return filter(new Condition<R>() {
             public boolean apply(R r) {
                 return !r.isBuilding();
             }
+
+            @Override
+            Boolean test(BuildSummary s) {
+                return true;
+            }
         })
         // put at least 10 builds, but otherwise ignore old builds
-        .limit(new CountingPredicate<R>() {
+        .limit(new CountingCondition<R>() {
             public boolean apply(int index, R r) {
                 return index < 10 || r.getTimeInMillis() >= t;
             }
+
+            @Override
+            Boolean test(int index, BuildSummary s) {
+                return index < 10 || s.getTimestamp() >= t;
+            }
         });
     }
 }
@@ -3,6 +3,7 @@ package jenkins;
 import jenkins.util.SystemProperties;
 import hudson.init.InitMilestone;
 import hudson.init.InitReactorListener;
+import hudson.model.AbstractCIBase;
 import hudson.util.DaemonThreadFactory;
 import hudson.util.NamingThreadFactory;
 import hudson.util.Service;
@@ -35,6 +36,9 @@ import org.kohsuke.accmod.restrictions.NoExternalUse;
  */
 public class InitReactorRunner {
     public void run(Reactor reactor) throws InterruptedException, ReactorException, IOException {
+        synchronized (phases) {
+            phaseStart = System.currentTimeMillis();
+        }
          reactor.addAll(InitMilestone.ordering().discoverTasks(reactor));
 
         ExecutorService es;
@@ -48,6 +52,11 @@ public class InitReactorRunner {
         } finally {
             es.shutdownNow();   // upon a successful return the executor queue should be empty. Upon an exception, we want to cancel all pending tasks
         }
+        synchronized (phases) {
+            if (phases.length() > 0) {
+                LOGGER.log(AbstractCIBase.LOG_STARTUP_PERFORMANCE ? Level.INFO : Level.FINE, "Time spent reaching each milestone:{0}", phases);
+            }
+        }
 
     }
 
@@ -81,6 +90,7 @@ public class InitReactorRunner {
                     lv = Level.INFO; // noteworthy milestones --- at least while we debug problems further
                     onInitMilestoneAttained((InitMilestone) milestone);
                     s = milestone.toString();
+                    recordPhase(milestone);
                 }
                 LOGGER.log(lv,s);
             }
@@ -88,6 +98,20 @@ public class InitReactorRunner {
         return new ReactorListener.Aggregator(r);
     }
 
+    /**
+     * Wall clock time between consecutive {@link InitMilestone}s, as they are attained.
+     */
+    private final StringBuilder phases = new StringBuilder();
+    private long phaseStart = System.currentTimeMillis();
+
+    private void recordPhase(Milestone milestone) {
+        synchronized (phases) {
+            long now = System.currentTimeMillis();
+            phases.append(String.format("%n%8dms %s", now - phaseStart, milestone));
+            phaseStart = now;
+        }
+    }
+
     /** Like {@link Task#getDisplayName} but more robust. */
     @Restricted(NoExternalUse.class)
     public static String getDisplayName(Task t) {
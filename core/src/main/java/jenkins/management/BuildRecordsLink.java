@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.management;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import hudson.model.queue.DurationHistogram;
+import hudson.security.Permission;
+import jenkins.model.BackgroundBuildDiscarder;
+import jenkins.model.Jenkins;
+import jenkins.model.PeepholePermalink;
+import jenkins.model.lazy.BuildCache;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.StaplerProxy;
+
+/**
+ * Shows how well the caches that save Jenkins from reading build records work, and how far behind discarding old builds is.
+ *
+ * @since 2.82
+ */
+@Extension(ordinal = Integer.MAX_VALUE - 720) @Symbol("buildRecords")
+public class BuildRecordsLink extends ManagementLink implements StaplerProxy {
+
+    @Override
+    public String getIconFileName() {
+        return "folder.png";
+    }
+
+    public String getDisplayName() {
+        return Messages.BuildRecordsLink_DisplayName();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.BuildRecordsLink_Description();
+    }
+
+    @Override
+    public String getUrlName() {
+        return "buildRecords";
+    }
+
+    @Override
+    public Permission getRequiredPermission() {
+        return Jenkins.ADMINISTER;
+    }
+
+    @Override
+    public Object getTarget() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return this;
+    }
+
+    /**
+     * Also exposed as {@code buildRecords/permalinks/api/json}.
+     */
+    public PeepholePermalink.Statistics getPermalinks() {
+        return PeepholePermalink.getStatistics();
+    }
+
+    /**
+     * Also exposed as {@code buildRecords/buildCache/api/json}.
+     */
+    public BuildCache getBuildCache() {
+        return BuildCache.get();
+    }
+
+    /**
+     * Also exposed as {@code buildRecords/buildDiscarder/api/json}.
+     */
+    public BackgroundBuildDiscarder.Statistics getBuildDiscarder() {
+        return BackgroundBuildDiscarder.getStatistics();
+    }
+
+    public String[] getBucketLabels() {
+        return DurationHistogram.getBucketLabels();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.management;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import hudson.security.Permission;
+import hudson.slaves.DemandForecaster;
+import hudson.slaves.PredictiveProvisioningStrategy;
+import jenkins.model.Jenkins;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.StaplerProxy;
+
+/**
+ * Shows how the forecasts of {@link PredictiveProvisioningStrategy} compare with the actual demand.
+ * Only listed when the strategy is enabled.
+ *
+ * @since 2.82
+ */
+@Extension(ordinal = Integer.MAX_VALUE - 730) @Symbol("provisioningForecasts")
+public class ProvisioningForecastsLink extends ManagementLink implements StaplerProxy {
+
+    @Override
+    public String getIconFileName() {
+        return PredictiveProvisioningStrategy.ENABLED ? "graph.png" : null;
+    }
+
+    public String getDisplayName() {
+        return Messages.ProvisioningForecastsLink_DisplayName();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.ProvisioningForecastsLink_Description();
+    }
+
+    @Override
+    public String getUrlName() {
+        return "provisioningForecasts";
+    }
+
+    @Override
+    public Permission getRequiredPermission() {
+        return Jenkins.ADMINISTER;
+    }
+
+    @Override
+    public Object getTarget() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return this;
+    }
+
+    /**
+     * Forecasts of {@link PredictiveProvisioningStrategy}, if enabled;
+     * also exposed as {@code provisioningForecasts/forecaster/api/json}.
+     */
+    public DemandForecaster getForecaster() {
+        if (!PredictiveProvisioningStrategy.ENABLED) {
+            return null;
+        }
+        PredictiveProvisioningStrategy s = PredictiveProvisioningStrategy.get();
+        return s != null ? s.getForecaster() : null;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.management;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.ManagementLink;
+import hudson.model.queue.DispatcherStatistics;
+import hudson.model.queue.DurationHistogram;
+import hudson.model.queue.FairShareQueueSorter;
+import hudson.model.queue.MaintenanceStatistics;
+import hudson.model.queue.QueueMetrics;
+import hudson.model.queue.QueueSorter;
+import hudson.security.Permission;
+import jenkins.model.Jenkins;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.StaplerProxy;
+
+import java.util.Collection;
+
+/**
+ * Shows where the time of {@link hudson.model.Queue#maintain()} goes.
+ *
+ * @since 2.82
+ */
+@Extension(ordinal = Integer.MAX_VALUE - 710) @Symbol("queueMetrics")
+public class QueueMetricsLink extends ManagementLink implements StaplerProxy {
+
+    @Override
+    public String getIconFileName() {
+        return "monitor.png";
+    }
+
+    public String getDisplayName() {
+        return Messages.QueueMetricsLink_DisplayName();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.QueueMetricsLink_Description();
+    }
+
+    @Override
+    public String getUrlName() {
+        return "queueMetrics";
+    }
+
+    @Override
+    public Permission getRequiredPermission() {
+        return Jenkins.ADMINISTER;
+    }
+
+    @Override
+    public Object getTarget() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return this;
+    }
+
+    public QueueMetrics getMetrics() {
+        return Jenkins.getInstance().getQueue().getMetrics();
+    }
+
+    public MaintenanceStatistics getMaintenanceStatistics() {
+        return Jenkins.getInstance().getQueue().getMaintenanceStatistics();
+    }
+
+    public Collection<DispatcherStatistics> getDispatcherStatistics() {
+        return Jenkins.getInstance().getQueue().getDispatcherStatistics();
+    }
+
+    /**
+     * The installed sorter, if it is the fair-share one.
+     */
+    public FairShareQueueSorter getFairShare() {
+        QueueSorter s = Jenkins.getInstance().getQueue().getSorter();
+        return s instanceof FairShareQueueSorter ? (FairShareQueueSorter) s : null;
+    }
+
+    public String[] getBucketLabels() {
+        return DurationHistogram.getBucketLabels();
+    }
+
+    /**
+     * Exposes {@link QueueMetrics} as {@code queueMetrics/api/json} and the like.
+     */
+    public Api getApi() {
+        return getMetrics().getApi();
+    }
+}
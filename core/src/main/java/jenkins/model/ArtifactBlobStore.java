@@ -0,0 +1,355 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Functions;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import org.jenkinsci.Symbol;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.regex.Pattern;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Content-addressed storage of artifact contents for {@link DeduplicatingArtifactManager},
+ * under {@code $JENKINS_HOME/artifactBlobs/}.
+ *
+ * <p>
+ * Each distinct content is stored once, as {@code blobs/xx/<sha-256>}, next to a {@code .refs} file
+ * counting the artifacts that have this content. Each build with artifacts has a manifest,
+ * {@code manifests/<job full name>/<build number>}, listing them. The manifests are kept here
+ * rather than in the build directories, so that they outlive a job deleted as a whole, and
+ * {@link Sweeper} can then release what they reference.
+ *
+ * <p>
+ * A reference is counted before the manifest mentioning it is written, and released after it is removed,
+ * so a crash in between leaves a blob around for longer than needed, but never removes one still in use.
+ *
+ * @since 2.82
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public final class ArtifactBlobStore {
+    private static final String ORPHANED = ".orphaned";
+    private static final Pattern DIGEST = Pattern.compile("[0-9a-f]{64}");
+
+    /**
+     * Home directory, or null for {@code artifactBlobs} in that of Jenkins.
+     */
+    private final @CheckForNull File root;
+
+    public ArtifactBlobStore() {
+        this(null);
+    }
+
+    ArtifactBlobStore(@CheckForNull File root) {
+        this.root = root;
+    }
+
+    public static @Nonnull ArtifactBlobStore get() {
+        return ExtensionList.lookup(ArtifactBlobStore.class).get(0);
+    }
+
+    @Nonnull File getRoot() {
+        return root != null ? root : new File(Jenkins.getInstance().getRootDir(), "artifactBlobs");
+    }
+
+    /**
+     * Checks whether a string is a digest as {@link #digest(File)} computes it:
+     * exactly 64 lowercase hexadecimal digits.
+     * Digests reported by agents must be checked with this before they are used to name files.
+     */
+    static boolean isDigest(@CheckForNull String digest) {
+        return digest != null && DIGEST.matcher(digest).matches();
+    }
+
+    /**
+     * Gets the file holding the given content, which may not exist.
+     *
+     * @throws IllegalArgumentException if this is not a {@link #isDigest digest}
+     */
+    @Nonnull File getBlob(@Nonnull String digest) {
+        checkDigest(digest);
+        return new File(getRoot(), "blobs/" + digest.substring(0, 2) + "/" + digest);
+    }
+
+    private File getRefs(String digest) {
+        checkDigest(digest);
+        return new File(getRoot(), "blobs/" + digest.substring(0, 2) + "/" + digest + ".refs");
+    }
+
+    private static void checkDigest(String digest) {
+        if (!isDigest(digest)) {
+            throw new IllegalArgumentException("Not a SHA-256 digest: " + digest);
+        }
+    }
+
+    /**
+     * Gets the manifest of a build, which may not exist.
+     */
+    @Nonnull File getManifest(@Nonnull String jobFullName, int number) {
+        return new File(getRoot(), "manifests/" + jobFullName + "/" + number);
+    }
+
+    /**
+     * Gets the manifest of a build as {@link #sweep} renames it when it thinks the build is gone.
+     */
+    @Nonnull File getOrphanedManifest(@Nonnull String jobFullName, int number) {
+        return new File(getRoot(), "manifests/" + jobFullName + "/" + number + ORPHANED);
+    }
+
+    /**
+     * Creates an empty directory to receive new contents in, before they are {@link #add added}.
+     */
+    @Nonnull File createStagingDirectory() throws IOException {
+        File staging = new File(getRoot(), "staging");
+        Files.createDirectories(staging.toPath());
+        return Files.createTempDirectory(staging.toPath(), "archive").toFile();
+    }
+
+    /**
+     * Counts one more reference to each of the given contents, if all of them are stored.
+     *
+     * @param digests contents, once per reference; may repeat
+     * @return true if all of them are stored, and now referenced; false if some are not, and nothing changed
+     */
+    synchronized boolean retainAll(@Nonnull Collection<String> digests) throws IOException {
+        for (String digest : digests) {
+            if (!getBlob(digest).isFile()) {
+                return false;
+            }
+        }
+        for (String digest : digests) {
+            writeRefs(digest, readRefs(digest) + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Releases one reference to each of the given contents, deleting those no longer referenced.
+     *
+     * @param digests contents, once per reference; may repeat
+     */
+    synchronized void releaseAll(@Nonnull Collection<String> digests) throws IOException {
+        for (String digest : digests) {
+            int refs = readRefs(digest) - 1;
+            if (refs > 0) {
+                writeRefs(digest, refs);
+            } else {
+                Files.deleteIfExists(getBlob(digest).toPath());
+                Files.deleteIfExists(getRefs(digest).toPath());
+                LOGGER.log(Level.FINE, "Deleted {0}, no longer referenced", digest);
+            }
+        }
+    }
+
+    /**
+     * Moves a file holding new content into the store, with no references yet, unless the content is stored already.
+     *
+     * @param staged a file in a {@link #createStagingDirectory() staging directory}
+     * @throws IOException if the file does not have the given digest, for example as it changed while being transferred
+     */
+    synchronized void add(@Nonnull String digest, @Nonnull File staged) throws IOException {
+        String actual = digest(staged);
+        if (!actual.equals(digest)) {
+            throw new IOException("Expected " + staged.getName() + " to have digest " + digest + " but it has " + actual + "; was it modified while being archived?");
+        }
+        File blob = getBlob(digest);
+        if (blob.isFile()) {
+            Files.delete(staged.toPath());
+            return;
+        }
+        Files.createDirectories(blob.getParentFile().toPath());
+        try {
+            Files.move(staged.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            Files.delete(staged.toPath());
+        }
+    }
+
+    private int readRefs(String digest) throws IOException {
+        File refs = getRefs(digest);
+        if (!refs.isFile()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(new String(Files.readAllBytes(refs.toPath()), StandardCharsets.US_ASCII).trim());
+        } catch (NumberFormatException e) {
+            // better keep the content forever than lose it
+            LOGGER.log(Level.WARNING, "Corrupt " + refs + "; assuming it is still referenced", e);
+            return Integer.MAX_VALUE / 2;
+        }
+    }
+
+    private void writeRefs(String digest, int refs) throws IOException {
+        File file = getRefs(digest);
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), Integer.toString(refs).getBytes(StandardCharsets.US_ASCII));
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Moves the manifests along with a job or folder.
+     */
+    synchronized void renamed(@Nonnull String oldFullName, @Nonnull String newFullName) throws IOException {
+        File from = new File(getRoot(), "manifests/" + oldFullName);
+        if (!from.isDirectory()) {
+            return;
+        }
+        File to = new File(getRoot(), "manifests/" + newFullName);
+        Files.createDirectories(to.getParentFile().toPath());
+        Files.move(from.toPath(), to.toPath());
+    }
+
+    /**
+     * Releases the contents of manifests left behind by deleted jobs or builds.
+     * A manifest found without its build is only marked the first time,
+     * and released if its build is still missing the next time,
+     * so that a job being renamed in the meantime does not lose its artifacts.
+     *
+     * @return the number of manifests released
+     */
+    int sweep(@Nonnull TaskListener listener) {
+        return sweep(new File(getRoot(), "manifests"), "", listener);
+    }
+
+    private int sweep(File dir, String fullName, TaskListener listener) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return 0;
+        }
+        Item item = fullName.isEmpty() ? null : Jenkins.getInstance().getItemByFullName(fullName);
+        int n = 0;
+        for (File child : children) {
+            String name = child.getName();
+            if (child.isDirectory()) {
+                n += sweep(child, fullName.isEmpty() ? name : fullName + "/" + name, listener);
+                continue;
+            }
+            boolean marked = name.endsWith(ORPHANED);
+            String number = marked ? name.substring(0, name.length() - ORPHANED.length()) : name;
+            if (fullName.isEmpty() || !number.matches("[0-9]+")) {
+                continue;
+            }
+            try {
+                boolean inUse = item instanceof Job && new File(((Job) item).getBuildDir(), number).isDirectory();
+                if (inUse) {
+                    if (marked) {
+                        Files.move(child.toPath(), new File(dir, number).toPath());
+                    }
+                } else if (!marked) {
+                    Files.move(child.toPath(), new File(dir, number + ORPHANED).toPath());
+                } else {
+                    DeduplicatingArtifactManager.releaseManifest(this, child);
+                    listener.getLogger().println("Released the artifacts of " + fullName + " #" + number);
+                    n++;
+                }
+            } catch (IOException e) {
+                Functions.printStackTrace(e, listener.error("Failed to sweep " + child));
+            }
+        }
+        if (!fullName.isEmpty()) {
+            dir.delete(); // if now empty
+        }
+        return n;
+    }
+
+    /**
+     * Computes the SHA-256 digest of a file, in hexadecimal.
+     */
+    static @Nonnull String digest(@Nonnull File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not installed", e); // impossible
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+            while (in.read(buffer) >= 0)
+                ; // simply discard the input
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    /**
+     * Releases what deleted jobs and builds no longer need, in case they went away without saying so.
+     */
+    @Extension @Symbol("artifactBlobSweeper")
+    public static final class Sweeper extends AsyncPeriodicWork {
+        public Sweeper() {
+            super("Artifact blob sweeper");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return DAY;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException, InterruptedException {
+            ArtifactBlobStore store = get();
+            if (!store.getRoot().isDirectory()) {
+                return;
+            }
+            listener.getLogger().println("Released the artifacts of " + store.sweep(listener) + " builds");
+        }
+    }
+
+    @Extension
+    public static final class ItemListenerImpl extends ItemListener {
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            try {
+                get().renamed(oldFullName, newFullName);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to move the artifact manifests of " + oldFullName + " to " + newFullName, e);
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ArtifactBlobStore.class.getName());
+}
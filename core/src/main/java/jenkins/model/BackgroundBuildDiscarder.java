@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.Util;
+import hudson.model.Api;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Runs {@link BuildDiscarder}s and deletes build directories off the executor threads.
+ *
+ * <p>
+ * When a build completes, {@link Run} only asks for its job to be {@linkplain #schedule(Job) rotated};
+ * the {@link BuildDiscarder} then runs on a dedicated thread. Requests for a job that is already waiting
+ * are coalesced, so a burst of builds of the same job leads to one pass over its history.
+ *
+ * <p>
+ * {@link Run#delete()} in turn only renames the build directory out of the way and
+ * {@linkplain #deleteLater(File) leaves} the recursive deletion to another thread, so that deleting a build
+ * with large artifacts takes no longer than a rename for the caller. Directories are deleted one at a time,
+ * optionally pausing in between, so that a large backlog does not saturate the disk.
+ * Directories left behind by a restart are picked up the next time their job is rotated.
+ * How far behind both threads are is shown on the build records page.
+ *
+ * @since 2.82
+ */
+@Restricted(NoExternalUse.class)
+public final class BackgroundBuildDiscarder {
+    /**
+     * Set to false to run {@link BuildDiscarder}s and delete builds inline, as before.
+     */
+    public static /* nonfinal for tests & script console */ boolean ENABLED = SystemProperties.getBoolean(BackgroundBuildDiscarder.class.getName() + ".enabled", true);
+
+    /**
+     * Milliseconds to wait after deleting each build directory, to limit the load on the disk.
+     */
+    public static /* nonfinal for tests & script console */ long DELETION_PAUSE = SystemProperties.getLong(BackgroundBuildDiscarder.class.getName() + ".deletionPause", 0L);
+
+    /**
+     * Name of a build directory that {@link Run#delete()} moved aside: {@code .N}, or {@code .N.M}
+     * when {@code .N} was still waiting to be deleted.
+     */
+    private static final Pattern DELETED_BUILD_DIR = Pattern.compile("\\.\\d+(\\.\\d+)?");
+
+    private static final Set<Job<?,?>> pendingJobs = Collections.newSetFromMap(new ConcurrentHashMap<Job<?,?>, Boolean>());
+    private static final Set<File> pendingDirs = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    private static final AtomicLong deleted = new AtomicLong();
+
+    private BackgroundBuildDiscarder() {}
+
+    /**
+     * Runs the {@link BuildDiscarder} of the job soon, unless that is already pending.
+     */
+    public static void schedule(@Nonnull final Job<?,?> job) throws IOException, InterruptedException {
+        if (!ENABLED) {
+            job.logRotate();
+            return;
+        }
+        if (pendingJobs.add(job)) {
+            rotationThread.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // builds completing from now on need another pass
+                    pendingJobs.remove(job);
+                    rotate(job);
+                }
+            });
+        }
+    }
+
+    private static void rotate(Job<?,?> job) {
+        if (!job.getRootDir().isDirectory()) {
+            return; // deleted in the meantime
+        }
+        long start = System.nanoTime();
+        try (ACLContext ctx = ACL.as(ACL.SYSTEM)) {
+            job.logRotate();
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Failed to rotate log of " + job, e);
+        }
+        LOGGER.log(Level.FINE, "Rotated {0} in {1}ms", new Object[] {job, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+
+        String[] names = job.getBuildDir().list();
+        if (names != null) {
+            for (String name : names) {
+                if (DELETED_BUILD_DIR.matcher(name).matches()) {
+                    deleteLater(new File(job.getBuildDir(), name));
+                }
+            }
+        }
+    }
+
+    /**
+     * Recursively deletes a directory that is no longer referenced, unless that is already pending.
+     * Does nothing if the directory is gone by the time its turn comes.
+     *
+     * <p>
+     * A directory is no longer pending once its deletion starts, so that a directory created again
+     * under the same name while the old one is being deleted gets a deletion of its own.
+     */
+    public static void deleteLater(@Nonnull final File dir) {
+        if (!ENABLED) {
+            delete(dir);
+            return;
+        }
+        if (pendingDirs.add(dir)) {
+            deletionThread.submit(new Runnable() {
+                @Override
+                public void run() {
+                    pendingDirs.remove(dir);
+                    try {
+                        delete(dir);
+                        if (DELETION_PAUSE > 0) {
+                            Thread.sleep(DELETION_PAUSE);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+    }
+
+    private static void delete(File dir) {
+        if (!dir.exists()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Util.deleteRecursive(dir);
+            deleted.incrementAndGet();
+            LOGGER.log(Level.FINE, "Deleted {0} in {1}ms", new Object[] {dir, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)});
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to delete " + dir, e);
+        }
+    }
+
+    /**
+     * How far behind the background threads are, shown by {@link jenkins.management.BuildRecordsLink}.
+     */
+    public static @Nonnull Statistics getStatistics() {
+        return statistics;
+    }
+
+    private static final Statistics statistics = new Statistics();
+
+    @ExportedBean
+    public static final class Statistics {
+        Statistics() {}
+
+        /**
+         * Whether build discarders run and builds are deleted in the background at all.
+         */
+        @Exported
+        public boolean isEnabled() {
+            return ENABLED;
+        }
+
+        /**
+         * Number of jobs waiting for their {@link BuildDiscarder} to run.
+         */
+        @Exported
+        public int getPendingRotations() {
+            return pendingJobs.size();
+        }
+
+        /**
+         * Number of build directories waiting to be deleted.
+         */
+        @Exported
+        public int getPendingDeletions() {
+            return pendingDirs.size();
+        }
+
+        /**
+         * Number of build directories deleted in the background since startup.
+         */
+        @Exported
+        public long getDeleted() {
+            return deleted.get();
+        }
+
+        public Api getApi() {
+            return new Api(this);
+        }
+    }
+
+    /**
+     * Waits until everything scheduled so far has been done.
+     */
+    public static void await() throws InterruptedException, ExecutionException {
+        // rotation schedules deletions, so flush it first
+        rotationThread.submit(NOOP).get();
+        deletionThread.submit(NOOP).get();
+    }
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {}
+    };
+
+    /**
+     * Executor used for {@link BuildDiscarder}s, which load builds and may deal with artifacts of their own.
+     */
+    private static final ExecutorService rotationThread = new ThreadPoolExecutor(
+        0, 1, 5L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ExceptionCatchingThreadFactory(new NamingThreadFactory(new DaemonThreadFactory(), "BackgroundBuildDiscarder.rotation")));
+
+    /**
+     * Executor used for recursive deletions. Limited up to one thread since
+     * this should be a fairly low-priority task.
+     */
+    private static final ExecutorService deletionThread = new ThreadPoolExecutor(
+        0, 1, 5L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ExceptionCatchingThreadFactory(new NamingThreadFactory(new DaemonThreadFactory(), "BackgroundBuildDiscarder.deletion")));
+
+    private static final Logger LOGGER = Logger.getLogger(BackgroundBuildDiscarder.class.getName());
+}
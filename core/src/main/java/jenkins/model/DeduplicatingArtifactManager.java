@@ -0,0 +1,587 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.BuildListener;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.VirtualFile;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Artifact manager storing the contents of artifacts once in the {@link ArtifactBlobStore}, however many builds archive them.
+ *
+ * <p>
+ * The agent computes the digest of each artifact, and only those whose contents are not stored yet are transferred.
+ * The build then only has a manifest, from artifact path to digest, and each content is deleted once no manifest
+ * references it any more.
+ *
+ * @see DeduplicatingArtifactManagerFactory
+ * @since 2.82
+ */
+public final class DeduplicatingArtifactManager extends ArtifactManager {
+    /**
+     * Number of times to try again if contents just transferred are deleted by another build before being referenced.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    private transient Run<?,?> build;
+
+    /**
+     * Manifest read from disk, cached.
+     */
+    private transient volatile Manifest manifest;
+
+    public DeduplicatingArtifactManager(Run<?,?> build) {
+        onLoad(build);
+    }
+
+    @Override public void onLoad(Run<?,?> build) {
+        this.build = build;
+    }
+
+    @Override public void archive(FilePath workspace, Launcher launcher, BuildListener listener, Map<String,String> artifacts) throws IOException, InterruptedException {
+        ArtifactBlobStore store = ArtifactBlobStore.get();
+        Manifest added = Manifest.verify(workspace.act(new Digester(artifacts)), artifacts);
+        List<String> references = added.digests();
+
+        long transferred = 0;
+        Set<String> missing = new LinkedHashSet<String>();
+        for (int attempt = 0; !store.retainAll(references); attempt++) {
+            if (attempt == MAX_ATTEMPTS) {
+                throw new IOException("Gave up archiving after " + attempt + " attempts, as the contents transferred kept being deleted");
+            }
+            missing.clear();
+            for (String digest : references) {
+                if (!store.getBlob(digest).isFile()) {
+                    missing.add(digest);
+                }
+            }
+            transferred += transfer(store, workspace, added, missing);
+        }
+
+        List<String> replaced;
+        try {
+            synchronized (this) {
+                Manifest m = new Manifest(getManifest().entries);
+                replaced = m.putAll(added);
+                m.write(store.getManifest(build.getParent().getFullName(), build.getNumber()));
+                manifest = m;
+            }
+        } catch (IOException | RuntimeException e) {
+            store.releaseAll(references);
+            throw e;
+        }
+        store.releaseAll(replaced);
+        listener.getLogger().println(Messages.DeduplicatingArtifactManager_Archived(artifacts.size(), missing.size(), Functions.humanReadableByteSize(transferred)));
+    }
+
+    /**
+     * Copies the given contents from the workspace into the store.
+     *
+     * @return the number of bytes copied
+     */
+    private long transfer(ArtifactBlobStore store, FilePath workspace, Manifest added, Set<String> digests) throws IOException, InterruptedException {
+        // from digest to a file with that content
+        Map<String,String> files = new LinkedHashMap<String,String>();
+        long size = 0;
+        for (Map.Entry<String,Entry> e : added.entries.entrySet()) {
+            String digest = e.getValue().digest;
+            if (digest != null && digests.contains(digest) && !files.containsKey(digest)) {
+                files.put(digest, e.getValue().source);
+                size += e.getValue().size;
+            }
+        }
+        File staging = store.createStagingDirectory();
+        try {
+            workspace.copyRecursiveTo(new FilePath.ExplicitlySpecifiedDirScanner(files), new FilePath(staging), "transfer of " + files.size() + " files", StandardArtifactManager.ARCHIVE_COMPRESSION);
+            for (String digest : files.keySet()) {
+                store.add(digest, new File(staging, digest));
+            }
+        } finally {
+            Util.deleteRecursive(staging);
+        }
+        return size;
+    }
+
+    @Override public boolean delete() throws IOException, InterruptedException {
+        ArtifactBlobStore store = ArtifactBlobStore.get();
+        synchronized (this) {
+            File file = getManifestFile(store);
+            manifest = new Manifest(Collections.<String,Entry>emptyMap());
+            if (file == null) {
+                return false;
+            }
+            releaseManifest(store, file);
+            return true;
+        }
+    }
+
+    /**
+     * Deletes a manifest, and releases the contents it references.
+     */
+    static void releaseManifest(@Nonnull ArtifactBlobStore store, @Nonnull File file) throws IOException {
+        List<String> digests = Manifest.read(file).digests();
+        Files.delete(file.toPath());
+        store.releaseAll(digests);
+    }
+
+    @Override public VirtualFile root() {
+        return new ManifestVF(getManifest(), getArtifactsDir(), ArtifactBlobStore.get().getRoot(), "");
+    }
+
+    private @CheckForNull File getManifestFile(ArtifactBlobStore store) {
+        String job = build.getParent().getFullName();
+        File file = store.getManifest(job, build.getNumber());
+        if (!file.isFile()) {
+            // see ArtifactBlobStore.sweep
+            file = store.getOrphanedManifest(job, build.getNumber());
+        }
+        return file.isFile() ? file : null;
+    }
+
+    private Manifest getManifest() {
+        Manifest m = manifest;
+        if (m == null) {
+            File file = getManifestFile(ArtifactBlobStore.get());
+            try {
+                m = file != null ? Manifest.read(file) : new Manifest(Collections.<String,Entry>emptyMap());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to read the artifact manifest of " + build, e);
+                return new Manifest(Collections.<String,Entry>emptyMap());
+            }
+            manifest = m;
+        }
+        return m;
+    }
+
+    @SuppressWarnings("deprecation")
+    private File getArtifactsDir() {
+        return build.getArtifactsDir();
+    }
+
+    /**
+     * One artifact.
+     */
+    static final class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * SHA-256 of the contents, or null for a symbolic link.
+         */
+        final @CheckForNull String digest;
+        /**
+         * Target of the symbolic link, or null for a file.
+         */
+        final @CheckForNull String link;
+        final long size;
+        final long lastModified;
+        /**
+         * Path in the workspace, only known while archiving.
+         */
+        final @CheckForNull String source;
+
+        Entry(@CheckForNull String digest, @CheckForNull String link, long size, long lastModified, String source) {
+            this.digest = digest;
+            this.link = link;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.source = source;
+        }
+    }
+
+    /**
+     * Artifacts of a build, by path. Immutable once built.
+     *
+     * <p>
+     * On disk, a magic number, the number of entries, and for each its path, whether it is a link,
+     * and then either the link target, or the digest, size, and modification time of the file.
+     */
+    static final class Manifest implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private static final int MAGIC = 0x4A414D31; // JAM1
+
+        final SortedMap<String,Entry> entries;
+
+        Manifest(Map<String,Entry> entries) {
+            this.entries = new TreeMap<String,Entry>(entries);
+        }
+
+        /**
+         * Digests referenced, once per artifact.
+         */
+        List<String> digests() {
+            List<String> r = new ArrayList<String>(entries.size());
+            for (Entry e : entries.values()) {
+                if (e.digest != null) {
+                    r.add(e.digest);
+                }
+            }
+            return r;
+        }
+
+        /**
+         * Adds or replaces entries.
+         *
+         * @return the digests of replaced entries
+         */
+        List<String> putAll(Manifest added) {
+            List<String> replaced = new ArrayList<String>();
+            for (Map.Entry<String,Entry> e : added.entries.entrySet()) {
+                Entry previous = entries.put(e.getKey(), e.getValue());
+                if (previous != null && previous.digest != null) {
+                    replaced.add(previous.digest);
+                }
+            }
+            return replaced;
+        }
+
+        void write(File file) throws IOException {
+            Files.createDirectories(file.getParentFile().toPath());
+            File tmp = new File(file.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(entries.size());
+                for (Map.Entry<String,Entry> e : entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeBoolean(entry.link != null);
+                    if (entry.link != null) {
+                        out.writeUTF(entry.link);
+                    } else {
+                        out.writeUTF(entry.digest);
+                        out.writeLong(entry.size);
+                        out.writeLong(entry.lastModified);
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * Checks a manifest computed by an agent, which is not trusted to name files on the controller.
+         *
+         * @param artifacts what the agent was asked for
+         * @return a copy with the paths and sources as requested
+         * @throws IOException if the agent reported other artifacts, or something other than a digest
+         */
+        static Manifest verify(Manifest reported, Map<String,String> artifacts) throws IOException {
+            if (!reported.entries.keySet().equals(artifacts.keySet())) {
+                throw new IOException("Agent reported other artifacts than " + artifacts.keySet());
+            }
+            Map<String,Entry> entries = new TreeMap<String,Entry>();
+            for (Map.Entry<String,Entry> e : reported.entries.entrySet()) {
+                Entry entry = e.getValue();
+                if (entry.link == null ? !ArtifactBlobStore.isDigest(entry.digest) : entry.digest != null) {
+                    throw new IOException("Agent reported an invalid digest for " + e.getKey());
+                }
+                entries.put(e.getKey(), new Entry(entry.digest, entry.link, entry.size, entry.lastModified, artifacts.get(e.getKey())));
+            }
+            return new Manifest(entries);
+        }
+
+        static Manifest read(File file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException(file + " is not an artifact manifest");
+                }
+                int size = in.readInt();
+                Map<String,Entry> entries = new TreeMap<String,Entry>();
+                for (int i = 0; i < size; i++) {
+                    String path = in.readUTF();
+                    if (in.readBoolean()) {
+                        entries.put(path, new Entry(null, in.readUTF(), 0, 0, null));
+                    } else {
+                        String digest = in.readUTF();
+                        if (!ArtifactBlobStore.isDigest(digest)) {
+                            throw new IOException(file + " has an invalid digest for " + path);
+                        }
+                        entries.put(path, new Entry(digest, null, in.readLong(), in.readLong(), null));
+                    }
+                }
+                return new Manifest(entries);
+            }
+        }
+    }
+
+    /**
+     * Computes the digests of artifacts in the workspace.
+     */
+    private static final class Digester extends MasterToSlaveFileCallable<Manifest> {
+        private static final long serialVersionUID = 1L;
+        private final Map<String,String> artifacts;
+
+        Digester(Map<String,String> artifacts) {
+            this.artifacts = artifacts;
+        }
+
+        @Override public Manifest invoke(File ws, VirtualChannel channel) throws IOException, InterruptedException {
+            Map<String,Entry> entries = new TreeMap<String,Entry>();
+            for (Map.Entry<String,String> e : artifacts.entrySet()) {
+                File f = new File(ws, e.getValue());
+                String link = Util.resolveSymlink(f);
+                if (link != null) {
+                    // kept as a link, like StandardArtifactManager does, rather than archiving whatever it points to
+                    entries.put(e.getKey(), new Entry(null, link, 0, 0, e.getValue()));
+                } else {
+                    entries.put(e.getKey(), new Entry(ArtifactBlobStore.digest(f), null, f.length(), f.lastModified(), e.getValue()));
+                }
+            }
+            return new Manifest(entries);
+        }
+    }
+
+    /**
+     * View of the artifacts in a manifest, reading their contents from the store.
+     * Directories are implied by the paths of the artifacts. Symbolic links are followed
+     * within the artifacts only, so that one pointing elsewhere does not exist, as with {@link StandardArtifactManager}.
+     */
+    private static final class ManifestVF extends VirtualFile {
+        private static final long serialVersionUID = 1L;
+        /**
+         * Maximum number of links to follow, in case they form a loop.
+         */
+        private static final int MAX_LINKS = 8;
+
+        private final Manifest manifest;
+        private final File artifactsDir;
+        private final File storeRoot;
+        /**
+         * Path from the root, without leading or trailing slash; empty for the root itself.
+         */
+        private final String path;
+
+        ManifestVF(Manifest manifest, File artifactsDir, File storeRoot, String path) {
+            this.manifest = manifest;
+            this.artifactsDir = artifactsDir;
+            this.storeRoot = storeRoot;
+            this.path = path;
+        }
+
+        @Override public String getName() {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+
+        @Override public URI toURI() {
+            return (path.isEmpty() ? artifactsDir : new File(artifactsDir, path)).toURI();
+        }
+
+        @Override public VirtualFile getParent() {
+            if (path.isEmpty()) {
+                return VirtualFile.forFile(artifactsDir.getParentFile());
+            }
+            int slash = path.lastIndexOf('/');
+            return new ManifestVF(manifest, artifactsDir, storeRoot, slash < 0 ? "" : path.substring(0, slash));
+        }
+
+        /**
+         * Gets the file this path stands for, following links.
+         */
+        private @CheckForNull Entry file() {
+            String p = path;
+            for (int i = 0; i <= MAX_LINKS; i++) {
+                Entry e = manifest.entries.get(p);
+                if (e == null || e.link == null) {
+                    return e;
+                }
+                int slash = p.lastIndexOf('/');
+                p = normalize((slash < 0 ? "" : p.substring(0, slash + 1)) + e.link);
+                if (p == null) {
+                    return null; // points outside
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Resolves {@code .} and {@code ..} in a relative path.
+         *
+         * @return null if it is absolute or goes above the root
+         */
+        private static @CheckForNull String normalize(String path) {
+            if (path.startsWith("/") || path.contains("\\") || path.matches("[a-zA-Z]:.*")) {
+                return null;
+            }
+            List<String> segments = new ArrayList<String>();
+            for (String segment : path.split("/")) {
+                if (segment.isEmpty() || segment.equals(".")) {
+                    continue;
+                }
+                if (segment.equals("..")) {
+                    if (segments.isEmpty()) {
+                        return null;
+                    }
+                    segments.remove(segments.size() - 1);
+                } else {
+                    segments.add(segment);
+                }
+            }
+            return Util.join(segments, "/");
+        }
+
+        private String prefix() {
+            return path.isEmpty() ? "" : path + "/";
+        }
+
+        @Override public boolean isDirectory() throws IOException {
+            String prefix = prefix();
+            SortedMap<String,Entry> tail = manifest.entries.tailMap(prefix);
+            return !tail.isEmpty() && tail.firstKey().startsWith(prefix);
+        }
+
+        @Override public boolean isFile() throws IOException {
+            return file() != null;
+        }
+
+        @Override public boolean exists() throws IOException {
+            return isFile() || isDirectory();
+        }
+
+        @Override public VirtualFile[] list() throws IOException {
+            String prefix = prefix();
+            Set<String> names = new LinkedHashSet<String>();
+            for (String p : manifest.entries.tailMap(prefix).keySet()) {
+                if (!p.startsWith(prefix)) {
+                    break;
+                }
+                String rest = p.substring(prefix.length());
+                int slash = rest.indexOf('/');
+                names.add(slash < 0 ? rest : rest.substring(0, slash));
+            }
+            List<VirtualFile> r = new ArrayList<VirtualFile>(names.size());
+            for (String name : names) {
+                r.add(child(name));
+            }
+            return r.toArray(new VirtualFile[r.size()]);
+        }
+
+        @Override public String[] list(String glob) throws IOException {
+            String prefix = prefix();
+            List<String> patterns = new ArrayList<String>();
+            for (String pattern : glob.split(",")) {
+                pattern = pattern.trim();
+                if (!pattern.isEmpty()) {
+                    patterns.add(pattern.endsWith("/") ? pattern + "**" : pattern);
+                }
+            }
+            List<String> r = new ArrayList<String>();
+            for (String p : manifest.entries.tailMap(prefix).keySet()) {
+                if (!p.startsWith(prefix)) {
+                    break;
+                }
+                String relative = p.substring(prefix.length());
+                for (String pattern : patterns) {
+                    if (SelectorUtils.matchPath(pattern, relative)) {
+                        r.add(relative);
+                        break;
+                    }
+                }
+            }
+            return r.toArray(new String[r.size()]);
+        }
+
+        @Override public VirtualFile child(String name) {
+            return new ManifestVF(manifest, artifactsDir, storeRoot, path.isEmpty() ? name : path + "/" + name);
+        }
+
+        @Override public long length() throws IOException {
+            Entry e = file();
+            return e != null ? e.size : 0;
+        }
+
+        @Override public long lastModified() throws IOException {
+            Entry e = file();
+            return e != null ? e.lastModified : 0;
+        }
+
+        @Override public boolean canRead() throws IOException {
+            return isFile();
+        }
+
+        @Override public InputStream open() throws IOException {
+            File blob = toLocalFile();
+            if (blob == null) {
+                throw new FileNotFoundException(path);
+            }
+            return Files.newInputStream(blob.toPath());
+        }
+
+        @Override public File toLocalFile() {
+            Entry e = file();
+            return e != null ? new ArtifactBlobStore(storeRoot).getBlob(e.digest) : null;
+        }
+    }
+
+    /**
+     * Deletes the artifacts of a build as it is deleted.
+     */
+    @Extension
+    public static final class RunListenerImpl extends RunListener<Run> {
+        @Override public void onDeleted(Run run) {
+            ArtifactManager manager = run.getArtifactManager();
+            if (manager instanceof DeduplicatingArtifactManager) {
+                try {
+                    manager.delete();
+                } catch (IOException | InterruptedException e) {
+                    LOGGER.log(Level.WARNING, "Failed to release the artifacts of " + run, e);
+                }
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(DeduplicatingArtifactManager.class.getName());
+}
@@ -283,6 +283,7 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
@@ -861,7 +862,7 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
             final InitStrategy is = InitStrategy.get(Thread.currentThread().getContextClassLoader());
 
             Trigger.timer = new java.util.Timer("Jenkins cron thread");
-            queue = new Queue(LoadBalancer.CONSISTENT_HASH);
+            queue = new Queue(LoadBalancer.WORKLOAD_AWARE ? LoadBalancer.WORKLOAD_AWARE_CONSISTENT_HASH : LoadBalancer.CONSISTENT_HASH);
 
             try {
                 dependencyGraph = DependencyGraph.EMPTY;
@@ -3082,6 +3083,8 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
         File[] subdirs = projectsDir.listFiles();
 
         final Set<String> loadedNames = Collections.synchronizedSet(new HashSet<String>());
+        // total time spent by all the loading threads in each step, for the startup report
+        final AtomicLong readNanos = new AtomicLong(), onLoadNanos = new AtomicLong();
 
         TaskGraphBuilder g = new TaskGraphBuilder();
         Handle loadJenkins = g.requires(EXTENSIONS_AUGMENTED).attains(JOB_LOADED).add("Loading global config", new Executable() {
@@ -3106,7 +3109,13 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
                         //Does not have job config file, so it is not a jenkins job hence skip it
                         return;
                     }
-                    TopLevelItem item = (TopLevelItem) Items.load(Jenkins.this, subdir);
+                    // like Items.load, timing each step: parsing config.xml, then onLoad, which includes plugin code and listing builds
+                    long start = System.nanoTime();
+                    TopLevelItem item = (TopLevelItem) Items.getConfigFile(subdir).read();
+                    long read = System.nanoTime();
+                    item.onLoad(Jenkins.this, subdir.getName());
+                    readNanos.addAndGet(read - start);
+                    onLoadNanos.addAndGet(System.nanoTime() - read);
                     items.put(item.getName(), item);
                     loadedNames.add(item.getName());
                 }
@@ -3125,6 +3134,9 @@ public class Jenkins extends AbstractCIBase implements DirectlyModifiableTopLeve
                     if (!loadedNames.contains(name))
                         items.remove(name);
                 }
+
+                LOGGER.log(LOG_STARTUP_PERFORMANCE ? Level.INFO : Level.FINE, "Loaded {0} items, spending {1}ms reading their configuration and {2}ms in onLoad across all threads",
+                        new Object[] {loadedNames.size(), TimeUnit.NANOSECONDS.toMillis(readNanos.get()), TimeUnit.NANOSECONDS.toMillis(onLoadNanos.get())});
             }
         });
 
@@ -160,6 +160,8 @@ public class Nodes implements Saveable {
             xmlFile.write(node);
             SaveableListener.fireOnChange(this, xmlFile);
         }
+        // labels or executors may have changed, so every item needs to be matched again
+        jenkins.getQueue().markAllDirty();
         jenkins.getQueue().scheduleMaintenance();
     }
 
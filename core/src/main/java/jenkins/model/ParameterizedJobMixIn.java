@@ -43,6 +43,7 @@ import hudson.model.Queue;
 import hudson.model.Run;
 import hudson.model.listeners.ItemListener;
 import hudson.model.queue.QueueTaskFuture;
+import hudson.model.queue.ScheduleRequest;
 import hudson.search.SearchIndexBuilder;
 import hudson.triggers.Trigger;
 import hudson.triggers.TriggerDescriptor;
@@ -145,6 +146,33 @@ public abstract class ParameterizedJobMixIn<JobT extends Job<JobT, RunT> & Param
     }
 
     @CheckForNull Queue.Item scheduleBuild2(int quietPeriod, List<Action> actions) {
+        ScheduleRequest request = scheduleRequest(quietPeriod, actions);
+        if (request == null)
+            return null;
+        return Jenkins.getInstance().getQueue().schedule2(request.getTask(), request.getQuietPeriod(), request.getActions()).getItem();
+    }
+
+    /**
+     * Prepares what {@link #scheduleBuild2(Job, int, Action...)} would submit to the queue, without submitting it,
+     * so that many builds can be scheduled at once via {@link Queue#schedule2(List)}.
+     * @param job a job which might be schedulable
+     * @param quietPeriod seconds to wait before starting; use {@code -1} to use the job’s default settings
+     * @param actions various actions to associate with the scheduling, such as {@link ParametersAction} or {@link CauseAction}
+     * @return the request, including default parameter values if needed; null if {@code job} is not a {@link ParameterizedJob} or it is not {@link Job#isBuildable}
+     * @since 2.82
+     */
+    public static @CheckForNull ScheduleRequest scheduleRequest(final Job<?,?> job, int quietPeriod, Action... actions) {
+        if (!(job instanceof ParameterizedJob)) {
+            return null;
+        }
+        return new ParameterizedJobMixIn() {
+            @Override protected Job asJob() {
+                return job;
+            }
+        }.scheduleRequest(quietPeriod == -1 ? ((ParameterizedJob) job).getQuietPeriod() : quietPeriod, Arrays.asList(actions));
+    }
+
+    private @CheckForNull ScheduleRequest scheduleRequest(int quietPeriod, List<Action> actions) {
         if (!asJob().isBuildable())
             return null;
 
@@ -152,7 +180,7 @@ public abstract class ParameterizedJobMixIn<JobT extends Job<JobT, RunT> & Param
         if (isParameterized() && Util.filter(queueActions, ParametersAction.class).isEmpty()) {
             queueActions.add(new ParametersAction(getDefaultParametersValues()));
         }
-        return Jenkins.getInstance().getQueue().schedule2(asJob(), quietPeriod, queueActions).getItem();
+        return new ScheduleRequest(asJob(), quietPeriod, queueActions);
     }
 
     private List<ParameterValue> getDefaultParametersValues() {
@@ -3,24 +3,36 @@ package jenkins.model;
 import com.google.common.base.Predicate;
 import hudson.Extension;
 import hudson.Util;
+import hudson.model.Api;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Items;
 import hudson.model.Job;
 import hudson.model.PermalinkProjectAction.Permalink;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
 import hudson.model.listeners.RunListener;
 import hudson.util.AtomicFileWriter;
 import hudson.util.StreamTaskListener;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.apache.commons.io.FileUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 
 /**
  * Convenient base implementation for {@link Permalink}s that satisfy
@@ -46,8 +58,10 @@ import org.apache.commons.io.FileUtils;
  *
  * <p>
  * This base class provides a file-based caching mechanism that avoids
- * walking the long build history. The cache is a symlink to the build directory
- * where symlinks are supported, and text file that contains the build number otherwise.
+ * walking the long build history. The cache is a {@code permalinks} file in the builds directory
+ * shared by all the peephole permalinks of the job; the symlinks to the build directory (or text files
+ * that contain the build number where symlinks are not supported) used before are still written for the
+ * benefit of tools looking at the builds directory, but only read when the file lacks an entry.
  *
  * <p>
  * The implementation transparently tolerates G(B) that goes from true to false over time
@@ -64,6 +78,8 @@ public abstract class PeepholePermalink extends Permalink implements Predicate<R
     /** JENKINS-22822: avoids rereading symlinks */
     static final Map<File,String> symlinks = new HashMap<File,String>();
 
+    private static final Statistics statistics = new Statistics();
+
     /**
      * Checks if the given build satisfies the peep-hole criteria.
      *
@@ -72,7 +88,7 @@ public abstract class PeepholePermalink extends Permalink implements Predicate<R
     public abstract boolean apply(Run<?,?> run);
 
     /**
-     * The file in which the permalink target gets recorded.
+     * The file in which the permalink target used to get recorded, and still does for compatibility.
      */
     protected File getPermalinkFile(Job<?,?> job) {
         return new File(job.getBuildDir(),getId());
@@ -83,32 +99,23 @@ public abstract class PeepholePermalink extends Permalink implements Predicate<R
      */
     @Override
     public Run<?, ?> resolve(Job<?, ?> job) {
-        File f = getPermalinkFile(job);
+        PermalinkFile cache = PermalinkFile.of(job);
+        Integer n = cache.get(getId());
+        if (n == null && cache.repairIfIdle(job)) {
+            n = cache.get(getId());
+        }
         Run<?,?> b=null;
 
-        try {
-            String target = readSymlink(f);
-            if (target!=null) {
-                int n = Integer.parseInt(Util.getFileName(target));
-                if (n==RESOLVES_TO_NONE)  return null;
+        if (n != null) {
+            if (n==RESOLVES_TO_NONE)  return null;
 
-                b = job.getBuildByNumber(n);
-                if (b!=null && apply(b))
-                    return b;   // found it (in the most efficient way possible)
+            b = job.getBuildByNumber(n);
+            if (b!=null && apply(b))
+                return b;   // found it (in the most efficient way possible)
 
-                // the cache is stale. start the search
-                if (b==null)
-                     b=job.getNearestOldBuild(n);
-            }
-        } catch (InterruptedException e) {
-            LOGGER.log(Level.WARNING, "Failed to read permalink cache:" + f, e);
-            // if we fail to read the cache, fall back to the re-computation
-        } catch (NumberFormatException e) { 
-            LOGGER.log(Level.WARNING, "Failed to parse the build number in the permalink cache:" + f, e);
-            // if we fail to read the cache, fall back to the re-computation
-        } catch (IOException e) {
-            // this happens when the symlink doesn't exist
-            // (and it cannot be distinguished from the case when the actual I/O error happened
+            // the cache is stale. start the search
+            if (b==null)
+                 b=job.getNearestOldBuild(n);
         }
 
         if (b==null) {
@@ -117,27 +124,121 @@ public abstract class PeepholePermalink extends Permalink implements Predicate<R
         }
 
         // start from the build 'b' and locate the build that matches the criteria going back in time
+        statistics.fallbackWalks.incrementAndGet();
         b = find(b);
 
         updateCache(job,b);
         return b;
     }
 
+    /**
+     * Reads the symlink (or text file) the permalink target used to be recorded in.
+     *
+     * @return null if there is none or it cannot be read
+     */
+    /*package*/ Integer readLegacyCache(Job<?,?> job) {
+        File f = getPermalinkFile(job);
+        try {
+            String target = readSymlink(f);
+            if (target != null) {
+                return Integer.parseInt(Util.getFileName(target));
+            }
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Failed to read permalink cache:" + f, e);
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Failed to parse the build number in the permalink cache:" + f, e);
+        } catch (IOException e) {
+            // this happens when the symlink doesn't exist
+            // (and it cannot be distinguished from the case when the actual I/O error happened
+        }
+        return null;
+    }
+
     /**
      * Start from the build 'b' and locate the build that matches the criteria going back in time
      */
     private Run<?,?> find(Run<?,?> b) {
         for ( ; b!=null && !apply(b); b=b.getPreviousBuild())
-            ;
+            statistics.fallbackBuilds.incrementAndGet();
         return b;
     }
 
+    /**
+     * How often the cache did not have the answer.
+     * @since 2.82
+     */
+    @Restricted(NoExternalUse.class)
+    public static @Nonnull Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Counts the walks back through the builds that the cache is there to avoid.
+     * @since 2.82
+     */
+    @Restricted(NoExternalUse.class)
+    @ExportedBean
+    public static final class Statistics {
+        final AtomicLong fallbackWalks = new AtomicLong();
+        final AtomicLong fallbackBuilds = new AtomicLong();
+        final AtomicLong repairWalks = new AtomicLong();
+        final AtomicLong repairBuilds = new AtomicLong();
+
+        Statistics() {}
+
+        /**
+         * Number of times a permalink was not found where the cache said, so builds had to be walked through.
+         */
+        @Exported
+        public long getFallbackWalks() {
+            return fallbackWalks.get();
+        }
+
+        /**
+         * Number of builds looked at by {@link #getFallbackWalks()}.
+         */
+        @Exported
+        public long getFallbackBuilds() {
+            return fallbackBuilds.get();
+        }
+
+        /**
+         * Number of times the builds of a job were walked through to fill in a missing cache.
+         */
+        @Exported
+        public long getRepairWalks() {
+            return repairWalks.get();
+        }
+
+        /**
+         * Number of builds looked at by {@link #getRepairWalks()}.
+         */
+        @Exported
+        public long getRepairBuilds() {
+            return repairBuilds.get();
+        }
+
+        /**
+         * Number of jobs found without a cache on startup that are still to be repaired.
+         */
+        @Exported
+        public int getPendingRepairs() {
+            return PermalinkFile.getPendingRepairs();
+        }
+
+        public Api getApi() {
+            return new Api(this);
+        }
+    }
+
     /**
      * Remembers the value 'n' in the cache for future {@link #resolve(Job)}.
      */
     protected void updateCache(@Nonnull Job<?,?> job, @Nullable Run<?,?> b) {
         final int n = b==null ? RESOLVES_TO_NONE : b.getNumber();
 
+        PermalinkFile.of(job).put(getId(), n);
+
         File cache = getPermalinkFile(job);
         cache.getParentFile().mkdirs();
 
@@ -241,7 +342,46 @@ public abstract class PeepholePermalink extends Permalink implements Predicate<R
         }
     }
 
-    private static final int RESOLVES_TO_NONE = -1;
+    /**
+     * Fills in the cache of the jobs that have none, say after an upgrade, in the background,
+     * and forgets about the cache of jobs that are deleted or moved.
+     */
+    @Extension
+    public static class ItemListenerImpl extends ItemListener {
+        @Override
+        public void onLoaded() {
+            List<Job<?,?>> jobs = new ArrayList<Job<?,?>>();
+            for (Job<?,?> j : Jenkins.getInstance().allItems(Job.class)) {
+                if (!new File(j.getBuildDir(), PermalinkFile.FILE_NAME).exists()) {
+                    jobs.add(j);
+                }
+            }
+            PermalinkFile.repairLater(jobs);
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            forget(item);
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            forget(item);
+        }
+
+        private static void forget(Item item) {
+            if (item instanceof Job) {
+                PermalinkFile.forget((Job<?,?>) item);
+            }
+            if (item instanceof ItemGroup) {
+                for (Job<?,?> j : Items.getAllItems((ItemGroup<?>) item, Job.class)) {
+                    PermalinkFile.forget(j);
+                }
+            }
+        }
+    }
+
+    private static final int RESOLVES_TO_NONE = PermalinkFile.RESOLVES_TO_NONE;
 
     private static final Logger LOGGER = Logger.getLogger(PeepholePermalink.class.getName());
 }
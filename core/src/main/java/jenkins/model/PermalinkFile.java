@@ -0,0 +1,362 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.Util;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.security.ACL;
+import hudson.util.AtomicFileWriter;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.security.ImpersonatingExecutorService;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.apache.commons.io.FileUtils;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Where each {@link PeepholePermalink} of a job points, kept in a single {@code permalinks} file in its builds directory.
+ *
+ * <p>
+ * The file has a line {@code id number} per permalink, {@code -1} standing for no build, and is replaced
+ * atomically on every change, so a crash leaves either the previous or the new version of it.
+ * Entries missing from it, for example right after an upgrade or if the file was lost, are taken from the
+ * symlinks used before, or else filled in by a single walk back through the builds that evaluates all
+ * the permalinks of the job at once. That happens on a background thread, unless a caller needs an answer first.
+ * Jobs found without the file on startup are repaired one at a time, {@link #REPAIR_INTERVAL} apart,
+ * so that an upgrade does not start by walking through the builds of every job at once.
+ *
+ * @since 2.82
+ */
+final class PermalinkFile {
+    static final String FILE_NAME = "permalinks";
+
+    static final int RESOLVES_TO_NONE = -1;
+
+    /**
+     * Milliseconds to wait between two repairs {@linkplain #repairLater(Collection) scheduled in bulk}.
+     */
+    static long REPAIR_INTERVAL = SystemProperties.getLong(PermalinkFile.class.getName() + ".repairInterval", 100L);
+
+    /**
+     * Forgotten once the job is deleted or moved, its builds directory changing.
+     */
+    private static final Map<Job<?,?>,PermalinkFile> files = new WeakHashMap<Job<?,?>,PermalinkFile>();
+
+    /**
+     * Full names of the jobs waiting for {@link #repairLater(Collection)}.
+     */
+    private static final Queue<String> backlog = new ConcurrentLinkedQueue<String>();
+    private static final AtomicBoolean draining = new AtomicBoolean();
+
+    private final File file;
+
+    /**
+     * Set once the job is gone from where this file is, so that nothing gets written there any more.
+     */
+    private boolean forgotten;
+
+    /**
+     * From permalink ID to build number. Null until read.
+     */
+    private Map<String,Integer> targets;
+
+    /**
+     * Repair scheduled or underway, if any.
+     */
+    private FutureTask<Void> repair;
+
+    PermalinkFile(@Nonnull File file) {
+        this.file = file;
+    }
+
+    static @Nonnull PermalinkFile of(@Nonnull Job<?,?> job) {
+        synchronized (files) {
+            PermalinkFile p = files.get(job);
+            if (p == null) {
+                files.put(job, p = new PermalinkFile(new File(job.getBuildDir(), FILE_NAME)));
+            }
+            return p;
+        }
+    }
+
+    /**
+     * Drops what is known about a job that was deleted or moved.
+     */
+    static void forget(@Nonnull Job<?,?> job) {
+        PermalinkFile p;
+        synchronized (files) {
+            p = files.remove(job);
+        }
+        if (p != null) {
+            synchronized (p) {
+                p.forgotten = true;
+            }
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the build number, {@link #RESOLVES_TO_NONE}, or null if not known
+     */
+    synchronized @CheckForNull Integer get(@Nonnull String id) {
+        return load().get(id);
+    }
+
+    synchronized void put(@Nonnull String id, int number) {
+        Integer old = load().put(id, number);
+        if (old == null || old != number) {
+            save();
+        }
+    }
+
+    /**
+     * Records what a repair found, except where someone recorded something newer in the meantime.
+     */
+    private synchronized void putMissing(Map<String,Integer> found) {
+        boolean changed = false;
+        Map<String,Integer> m = load();
+        for (Map.Entry<String,Integer> e : found.entrySet()) {
+            if (!m.containsKey(e.getKey())) {
+                m.put(e.getKey(), e.getValue());
+                changed = true;
+            }
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    private Map<String,Integer> load() {
+        assert Thread.holdsLock(this);
+        if (targets == null) {
+            targets = new TreeMap<String,Integer>();
+            if (file.exists()) {
+                try {
+                    for (String line : FileUtils.readLines(file, "UTF-8")) {
+                        int sep = line.lastIndexOf(' ');
+                        if (sep <= 0) {
+                            continue;
+                        }
+                        try {
+                            targets.put(line.substring(0, sep), Integer.parseInt(line.substring(sep + 1).trim()));
+                        } catch (NumberFormatException e) {
+                            LOGGER.log(Level.WARNING, "Ignoring malformed line in {0}: {1}", new Object[] {file, line});
+                        }
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to read " + file, e);
+                }
+            }
+        }
+        return targets;
+    }
+
+    private void save() {
+        assert Thread.holdsLock(this);
+        if (forgotten) {
+            return;
+        }
+        try {
+            file.getParentFile().mkdirs();
+            AtomicFileWriter w = new AtomicFileWriter(file, "UTF-8");
+            try {
+                for (Map.Entry<String,Integer> e : targets.entrySet()) {
+                    w.write(e.getKey() + " " + e.getValue() + "\n");
+                }
+                w.commit();
+            } finally {
+                w.abort();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to update " + file, e);
+        }
+    }
+
+    /**
+     * Schedules filling in the missing entries in the background, unless that is already scheduled.
+     */
+    FutureTask<Void> repair(@Nonnull final Job<?,?> job) {
+        final FutureTask<Void> task;
+        synchronized (this) {
+            if (repair != null) {
+                return repair;
+            }
+            task = repair = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    try {
+                        doRepair(job);
+                    } finally {
+                        synchronized (PermalinkFile.this) {
+                            repair = null;
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+        Repairer.INSTANCE.execute(task);
+        return task;
+    }
+
+    /**
+     * Fills in the missing entries now, unless another thread is already doing so.
+     * Callers then find their answer some other way rather than wait for the whole job to be repaired.
+     *
+     * @return whether the entries were filled in
+     */
+    boolean repairIfIdle(@Nonnull Job<?,?> job) {
+        FutureTask<Void> task = repair(job);
+        task.run(); // unless another thread got to it first
+        if (!task.isDone()) {
+            return false;
+        }
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.WARNING, "Failed to repair " + file, e.getCause());
+        }
+        return true;
+    }
+
+    /**
+     * Repairs the given jobs in the background, one at a time, unless their file is there by then.
+     */
+    static void repairLater(@Nonnull Collection<? extends Job<?,?>> jobs) {
+        for (Job<?,?> job : jobs) {
+            backlog.add(job.getFullName());
+        }
+        drainLater();
+    }
+
+    /**
+     * Number of jobs {@linkplain #repairLater(Collection) waiting to be repaired}.
+     */
+    static int getPendingRepairs() {
+        return backlog.size();
+    }
+
+    private static void drainLater() {
+        if (!backlog.isEmpty() && draining.compareAndSet(false, true)) {
+            Timer.get().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    Repairer.INSTANCE.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                String name = backlog.poll();
+                                Jenkins j = Jenkins.getInstanceOrNull();
+                                Job<?,?> job = name != null && j != null ? j.getItemByFullName(name, Job.class) : null;
+                                if (job != null) {
+                                    PermalinkFile cache = of(job);
+                                    if (!cache.getFile().exists()) {
+                                        cache.repairIfIdle(job);
+                                    }
+                                }
+                            } finally {
+                                draining.set(false);
+                                drainLater();
+                            }
+                        }
+                    });
+                }
+            }, REPAIR_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void doRepair(Job<?,?> job) {
+        List<PeepholePermalink> missing = new ArrayList<PeepholePermalink>();
+        Map<String,Integer> found = new HashMap<String,Integer>();
+        for (PeepholePermalink pp : Util.filter(job.getPermalinks(), PeepholePermalink.class)) {
+            if (get(pp.getId()) != null) {
+                continue;
+            }
+            Integer legacy = pp.readLegacyCache(job);
+            if (legacy != null) {
+                found.put(pp.getId(), legacy);
+            } else {
+                missing.add(pp);
+            }
+        }
+        if (!missing.isEmpty()) {
+            LOGGER.log(Level.FINE, "Walking back through the builds of {0} for {1}", new Object[] {job, missing});
+            PeepholePermalink.Statistics stats = PeepholePermalink.getStatistics();
+            stats.repairWalks.incrementAndGet();
+            for (Run<?,?> b = job.getLastBuild(); b != null && !missing.isEmpty(); b = b.getPreviousBuild()) {
+                stats.repairBuilds.incrementAndGet();
+                for (Iterator<PeepholePermalink> it = missing.iterator(); it.hasNext(); ) {
+                    PeepholePermalink pp = it.next();
+                    if (pp.apply(b)) {
+                        found.put(pp.getId(), b.getNumber());
+                        it.remove();
+                    }
+                }
+            }
+            for (PeepholePermalink pp : missing) {
+                found.put(pp.getId(), RESOLVES_TO_NONE);
+            }
+        }
+        putMissing(found);
+    }
+
+    private static final class Repairer {
+        static final ExecutorService INSTANCE = new ImpersonatingExecutorService(Executors.newSingleThreadExecutor(
+                new ExceptionCatchingThreadFactory(new NamingThreadFactory(new DaemonThreadFactory(), "PeepholePermalink.repair"))),
+                ACL.SYSTEM);
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(PermalinkFile.class.getName());
+}
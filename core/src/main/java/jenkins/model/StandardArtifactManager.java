@@ -25,16 +25,45 @@
 package jenkins.model;
 
 import hudson.FilePath;
+import hudson.FilePath.TarCompression;
+import hudson.Functions;
 import hudson.Launcher;
 import hudson.Util;
 import hudson.model.BuildListener;
 import hudson.model.Run;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.NamingThreadFactory;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.SystemProperties;
 import jenkins.util.VirtualFile;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 /**
  * Default artifact manager which transfers files over the remoting channel and stores them inside the build directory.
@@ -55,10 +84,192 @@ public class StandardArtifactManager extends ArtifactManager {
         this.build = build;
     }
 
+    /**
+     * Maximum number of concurrent streams to archive artifacts from an agent with; 1 to always use a single stream.
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* nonfinal for tests & script console */ int ARCHIVE_STREAMS = SystemProperties.getInteger(StandardArtifactManager.class.getName() + ".archiveStreams", 4);
+
+    /**
+     * Total size in bytes below which artifacts are archived in a single stream, as more would not pay off.
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* nonfinal for tests & script console */ long PARALLEL_ARCHIVE_THRESHOLD = SystemProperties.getLong(StandardArtifactManager.class.getName() + ".parallelArchiveThreshold", 64L * 1024 * 1024);
+
+    /**
+     * Size in bytes from which a file gets a stream of its own, rather than being batched with other files.
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* nonfinal for tests & script console */ long LARGE_FILE_SIZE = SystemProperties.getLong(StandardArtifactManager.class.getName() + ".largeFileSize", 16L * 1024 * 1024);
+
+    /**
+     * How artifacts are compressed on their way from an agent: {@code NONE}, {@code GZIP_FAST} or {@code GZIP}.
+     * Compression pays off on slow links, and costs more CPU than it saves time on fast ones.
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* nonfinal for tests & script console */ TarCompression ARCHIVE_COMPRESSION = parseCompression(SystemProperties.getString(StandardArtifactManager.class.getName() + ".archiveCompression"));
+
+    /**
+     * Maximum number of threads archiving artifacts in parallel, across all builds.
+     */
+    private static final int ARCHIVE_THREADS = Math.max(1, SystemProperties.getInteger(StandardArtifactManager.class.getName() + ".archiveThreads", 2 * Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Threads shared by all builds that archive in parallel, so that many builds completing at once
+     * do not start {@link #ARCHIVE_STREAMS} threads each. Idle threads go away after a while.
+     */
+    private static final ThreadPoolExecutor archiveThreads = new ThreadPoolExecutor(
+        ARCHIVE_THREADS, ARCHIVE_THREADS, 5L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ExceptionCatchingThreadFactory(new NamingThreadFactory(new DaemonThreadFactory(), "StandardArtifactManager.archive")));
+
+    static {
+        archiveThreads.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Parses {@link #ARCHIVE_COMPRESSION}, falling back to {@link TarCompression#GZIP} rather than failing to load this class.
+     */
+    static @Nonnull TarCompression parseCompression(@CheckForNull String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return TarCompression.GZIP;
+        }
+        try {
+            return TarCompression.valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            LOG.log(Level.WARNING, "Unknown {0}.archiveCompression {1}, expected one of {2}; using GZIP",
+                    new Object[] {StandardArtifactManager.class.getName(), name, Arrays.toString(TarCompression.values())});
+            return TarCompression.GZIP;
+        }
+    }
+
     @Override public void archive(FilePath workspace, Launcher launcher, BuildListener listener, final Map<String,String> artifacts) throws IOException, InterruptedException {
         File dir = getArtifactsDir();
+        if (workspace.isRemote() && ARCHIVE_STREAMS > 1 && artifacts.size() > 1) {
+            Map<String,Long> sizes = workspace.act(new Sizes(artifacts));
+            long total = 0;
+            for (long size : sizes.values()) {
+                total += size;
+            }
+            if (total >= PARALLEL_ARCHIVE_THRESHOLD) {
+                archiveInParallel(workspace, new FilePath(dir), listener, artifacts, sizes);
+                return;
+            }
+        }
         String description = "transfer of " + artifacts.size() + " files"; // TODO improve when just one file
-        workspace.copyRecursiveTo(new FilePath.ExplicitlySpecifiedDirScanner(artifacts), new FilePath(dir), description);
+        workspace.copyRecursiveTo(new FilePath.ExplicitlySpecifiedDirScanner(artifacts), new FilePath(dir), description, ARCHIVE_COMPRESSION);
+    }
+
+    /**
+     * Splits the artifacts in shards, and archives up to {@link #ARCHIVE_STREAMS} of them at a time,
+     * each in a stream of its own, so that several cores of the agent and of the master tar and compress them.
+     * The streams run on threads shared with other builds, so when many builds archive at once they take turns.
+     * Each large file is a shard of its own, and the rest are spread in batches of about the same size.
+     */
+    private void archiveInParallel(FilePath workspace, final FilePath target, BuildListener listener, Map<String,String> artifacts, Map<String,Long> sizes) throws IOException, InterruptedException {
+        List<Shard> shards = new ArrayList<Shard>();
+        Shard[] batches = new Shard[ARCHIVE_STREAMS];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = new Shard();
+        }
+        // largest first, each to the lightest batch
+        List<Map.Entry<String,Long>> bySize = new ArrayList<Map.Entry<String,Long>>(sizes.entrySet());
+        Collections.sort(bySize, new Comparator<Map.Entry<String,Long>>() {
+            @Override public int compare(Map.Entry<String,Long> e1, Map.Entry<String,Long> e2) {
+                return Long.compare(e2.getValue(), e1.getValue());
+            }
+        });
+        for (Map.Entry<String,Long> e : bySize) {
+            Shard shard;
+            if (e.getValue() >= LARGE_FILE_SIZE) {
+                shards.add(shard = new Shard());
+            } else {
+                shard = batches[0];
+                for (Shard b : batches) {
+                    if (b.size < shard.size) {
+                        shard = b;
+                    }
+                }
+            }
+            shard.files.put(e.getKey(), artifacts.get(e.getKey()));
+            shard.size += e.getValue();
+        }
+        for (Shard b : batches) {
+            if (!b.files.isEmpty()) {
+                shards.add(b);
+            }
+        }
+
+        final PrintStream logger = listener.getLogger();
+        CompletionService<Void> streams = new ExecutorCompletionService<Void>(archiveThreads);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(shards.size());
+        try {
+            int done = 0;
+            while (done < shards.size()) {
+                // keep up to ARCHIVE_STREAMS shards of this build going
+                while (futures.size() < shards.size() && futures.size() - done < ARCHIVE_STREAMS) {
+                    final int number = futures.size() + 1, count = shards.size();
+                    final Shard shard = shards.get(number - 1);
+                    final FilePath ws = workspace;
+                    final String description = "transfer of " + shard.files.size() + " files in stream " + number + " of " + count;
+                    futures.add(streams.submit(new Callable<Void>() {
+                        @Override public Void call() throws IOException, InterruptedException {
+                            long start = System.nanoTime();
+                            ws.copyRecursiveTo(new FilePath.ExplicitlySpecifiedDirScanner(shard.files), target, description, ARCHIVE_COMPRESSION);
+                            long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                            logger.println(Messages.StandardArtifactManager_StreamArchived(number, count, shard.files.size(),
+                                    Functions.humanReadableByteSize(shard.size), millis, Functions.humanReadableByteSize(shard.size * 1000 / millis)));
+                            return null;
+                        }
+                    }));
+                }
+                try {
+                    streams.take().get();
+                    done++;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof InterruptedException) {
+                        throw (InterruptedException) cause;
+                    } else {
+                        throw new IOException(cause);
+                    }
+                }
+            }
+        } finally {
+            // on failure or interruption, stop the streams still going
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Files archived together in one stream.
+     */
+    private static final class Shard {
+        final Map<String,String> files = new LinkedHashMap<String,String>();
+        long size;
+    }
+
+    /**
+     * Gets the size of each artifact, by archived path.
+     */
+    private static final class Sizes extends MasterToSlaveFileCallable<Map<String,Long>> {
+        private static final long serialVersionUID = 1L;
+        private final Map<String,String> artifacts;
+
+        Sizes(Map<String,String> artifacts) {
+            this.artifacts = artifacts;
+        }
+
+        @Override public Map<String,Long> invoke(File ws, VirtualChannel channel) throws IOException, InterruptedException {
+            Map<String,Long> sizes = new HashMap<String,Long>();
+            for (Map.Entry<String,String> e : artifacts.entrySet()) {
+                sizes.put(e.getKey(), new File(ws, e.getValue()).length());
+            }
+            return sizes;
+        }
     }
 
     @Override public final boolean delete() throws IOException, InterruptedException {
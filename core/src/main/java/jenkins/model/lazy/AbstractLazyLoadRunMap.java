@@ -26,6 +26,10 @@ package jenkins.model.lazy;
 import hudson.model.Job;
 import hudson.model.Run;
 import hudson.model.RunMap;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.NamingThreadFactory;
 import java.io.File;
 import java.io.IOException;
 import java.util.AbstractMap;
@@ -38,9 +42,19 @@ import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.CheckForNull;
+import jenkins.security.ImpersonatingExecutorService;
+import jenkins.util.SystemProperties;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
@@ -80,8 +94,11 @@ import static jenkins.model.lazy.AbstractLazyLoadRunMap.Direction.DESC;
  *
  * <p>
  * Object lock of {@code this} is used to make sure mutation occurs sequentially.
- * That is, ensure that only one thread is actually calling {@link #retrieve(File)} and
- * updating {@link jenkins.model.lazy.AbstractLazyLoadRunMap.Index#byNumber}.
+ * That is, ensure that only one thread is actually updating {@link jenkins.model.lazy.AbstractLazyLoadRunMap.Index#byNumber}.
+ * Builds are normally loaded without the lock, whether by {@link #getByNumber(int)} or {@linkplain #prefetch(Iterable) prefetching},
+ * with concurrent requests for the same build waiting for a single {@link #retrieve(File)},
+ * and the lock only taken to add the result unless a build of that number was loaded in the meantime.
+ * A thread already in the middle of loading a build loads any other it needs with the lock held instead.
  *
  * @author Kohsuke Kawaguchi
  * @since 1.485
@@ -99,6 +116,19 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
     private volatile Index index = new Index();
     private LazyLoadRunMapEntrySet<R> entrySet = new LazyLoadRunMapEntrySet<R>(this);
 
+    /**
+     * Builds being loaded without the lock, by number, whether {@linkplain #prefetch(Iterable) in the background}
+     * or by {@link #getByNumber(int)}, so that other threads wanting the same build wait for that load rather than
+     * doing it again.
+     */
+    /*package*/ final ConcurrentMap<Integer,FutureTask<R>> prefetching = new ConcurrentHashMap<Integer,FutureTask<R>>();
+
+    /**
+     * Numbers of the last two builds {@link #getByNumber(int)} had to load itself, to tell when builds are being walked through.
+     * Guarded by {@code this}.
+     */
+    private int lastLoaded, lastLoadedBefore;
+
     /**
      * Historical holder for map.
      * 
@@ -180,12 +210,25 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
      * @since 1.507
      */
     public synchronized void purgeCache() {
+        for (BuildReference<R> ref : index.byNumber.values()) {
+            if (ref != null) {
+                ref.uncache();
+            }
+        }
         index = new Index();
         fullyLoaded = false;
         loadNumberOnDisk();
     }
 
     private void loadNumberOnDisk() {
+        if (CACHE_NUMBERS) {
+            SortedIntList cached = BuildNumbersFile.read(dir);
+            if (cached != null) {
+                numberOnDisk = cached;
+                return;
+            }
+        }
+        long listedAt = System.currentTimeMillis();
         String[] kids = dir.list();
         if (kids == null) {
             // the job may have just been created
@@ -201,6 +244,9 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
         }
         list.sort();
         numberOnDisk = list;
+        if (CACHE_NUMBERS && !list.isEmpty()) {
+            BuildNumbersFile.write(dir, list, listedAt, dir.lastModified());
+        }
     }
 
     public Comparator<? super Integer> comparator() {
@@ -243,6 +289,17 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
         R end = search(toKey, ASC);
         if (end==null)      return EMPTY_SORTED_MAP;
 
+        // all of those are about to be loaded anyway, so do it in parallel, in the order they are walked
+        SortedIntList numbers = numberOnDisk;
+        List<Integer> range = new ArrayList<Integer>();
+        for (int k = numbers.size() - 1; k >= 0; k--) {
+            int m = numbers.get(k);
+            if (toKey < m && m <= fromKey) {
+                range.add(m);
+            }
+        }
+        prefetch(range);
+
         for (R i=start; i!=end; ) {
             i = search(getNumberOf(i)-1,DESC);
             assert i!=null;
@@ -363,9 +420,42 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
             BuildReference<R> ref = snapshot.byNumber.get(n);
             if (ref==null)      return null;    // known failure
             R v = unwrap(ref);
-            if (v!=null)        return v;       // already in memory
+            if (v!=null) {                      // already in memory
+                BuildCache.get().hit();
+                return v;
+            }
             // otherwise fall through to load
         }
+        if (numberOnDisk.contains(n)) {
+            BuildCache.get().miss();
+        }
+        if (dir != null && !Thread.holdsLock(this) && LOADING.get()[0] == 0) {
+            // Load without the lock, unless another thread is loading this build already, in which case wait for it.
+            // A thread in the middle of loading a build never waits: it may hold the lock of another map,
+            // or be a prefetching thread, and the thread it would wait for may be loading a build that needs that lock,
+            // as when a build of one job refers to that of another job which refers back to it.
+            FutureTask<R> task = loadTask(n);
+            FutureTask<R> f = prefetching.putIfAbsent(n, task);
+            if (f == null) {
+                f = task;
+            }
+            f.run(); // if no thread got to it yet, rather than wait, load it here
+            try {
+                R v = f.get(); // null if it failed to load, just as below
+                if (f == task) {
+                    synchronized (this) {
+                        readAhead(n);
+                    }
+                }
+                return v;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.WARNING, "Failed to load #" + n + " in " + dir, e.getCause());
+            } catch (CancellationException e) {
+                // fall through to load
+            }
+        }
         synchronized (this) {
             if (index.byNumber.containsKey(n)) { // JENKINS-22767: recheck inside lock
                 BuildReference<R> ref = index.byNumber.get(n);
@@ -377,10 +467,145 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
                     return v;
                 }
             }
-            return load(n, null);
+            R v = load(n, null);
+            readAhead(n);
+            return v;
+        }
+    }
+
+    /**
+     * Starts loading the given builds in the background, in parallel, unless they are loaded or being loaded already.
+     * {@link #getByNumber(int)} then waits for those rather than loading them again.
+     *
+     * <p>
+     * Callers that know which builds they are about to need, such as a page of history, can ask for exactly those.
+     * This is also done automatically for up to {@link #PREFETCH} builds ahead once builds are being loaded one after another.
+     *
+     * @param numbers the build numbers; those not on disk are ignored
+     * @since 2.82
+     */
+    @Restricted(NoExternalUse.class)
+    public void prefetch(Iterable<Integer> numbers) {
+        if (dir == null) {
+            return;
+        }
+        Index snapshot = index;
+        for (final Integer n : numbers) {
+            if (!numberOnDisk.contains(n) || prefetching.containsKey(n)) {
+                continue;
+            }
+            if (snapshot.byNumber.containsKey(n)) {
+                BuildReference<R> ref = snapshot.byNumber.get(n);
+                if (ref == null || ref.get() != null) {
+                    continue; // known failure, or in memory
+                }
+            }
+            FutureTask<R> task = loadTask(n);
+            if (prefetching.putIfAbsent(n, task) == null) {
+                Prefetcher.INSTANCE.execute(task);
+            }
+        }
+    }
+
+    /**
+     * Creates a task to load a build without the lock, to be listed in {@link #prefetching} while it is pending.
+     */
+    private FutureTask<R> loadTask(final int n) {
+        return new FutureTask<R>(new Callable<R>() {
+            @Override
+            public R call() {
+                try {
+                    return loadUnlocked(n);
+                } finally {
+                    prefetching.remove(n);
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads a build without the lock and adds it to the index, unless someone else was faster.
+     */
+    private R loadUnlocked(int n) {
+        Index snapshot = index;
+        if (snapshot.byNumber.containsKey(n)) { // loaded since the caller looked
+            BuildReference<R> ref = snapshot.byNumber.get(n);
+            R v = ref != null ? unwrap(ref) : null;
+            if (ref == null || v != null) {
+                return v;
+            }
+        }
+        boolean onDisk = numberOnDisk.contains(n);
+        File d = new File(dir, String.valueOf(n));
+        R r;
+        try {
+            r = retrieveTimed(d);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + d, e);
+            return null;
+        }
+        synchronized (this) {
+            if (onDisk && !numberOnDisk.contains(n)) {
+                return null; // deleted in the meantime
+            }
+            if (index.byNumber.containsKey(n)) {
+                BuildReference<R> ref = index.byNumber.get(n);
+                R v = ref != null ? unwrap(ref) : null;
+                if (v != null) {
+                    return v;
+                }
+            }
+            if (r == null) {
+                return null;
+            }
+            Index copy = copy();
+            copy.byNumber.put(n, createReference(r));
+            index = copy;
+            return r;
         }
     }
 
+    /**
+     * Once three loads in a row are of builds close to one another in the same direction,
+     * someone is likely walking through the builds, so prefetch the next ones in that direction.
+     * Two are not enough: an iterator looking at the newest couple of builds would then load a third for nothing.
+     */
+    private void readAhead(int n) {
+        assert Thread.holdsLock(this);
+        int previous = lastLoaded, beforePrevious = lastLoadedBefore;
+        lastLoadedBefore = previous;
+        lastLoaded = n;
+        if (PREFETCH <= 0 || previous == 0 || beforePrevious == 0) {
+            return;
+        }
+        SortedIntList numbers = numberOnDisk;
+        int i = numbers.find(n);
+        int j = numbers.find(previous);
+        int k = numbers.find(beforePrevious);
+        if (i < 0 || j < 0 || k < 0 || i == j || j == k || Math.abs(i - j) > PREFETCH + 1 || Math.abs(j - k) > PREFETCH + 1
+                || (i < j) != (j < k)) {
+            return;
+        }
+        int step = i < j ? -1 : 1;
+        List<Integer> ahead = new ArrayList<Integer>(PREFETCH);
+        for (int m = i + step; numbers.isInRange(m) && ahead.size() < PREFETCH; m += step) {
+            ahead.add(numbers.get(m));
+        }
+        prefetch(ahead);
+    }
+
+    /**
+     * Gets the numbers of the builds believed to exist, in ascending order, without loading any of them.
+     * Like {@link #runExists}, a number may turn out not to load.
+     *
+     * @return an unmodifiable snapshot
+     * @since 2.82
+     */
+    @Restricted(NoExternalUse.class)
+    public List<Integer> numbersOnDisk() {
+        return Collections.unmodifiableList(numberOnDisk);
+    }
+
     /**
      * @return the highest recorded build number, or 0 if there are none
      */
@@ -497,7 +722,7 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
     private R load(File dataDir, Index editInPlace) {
         assert Thread.holdsLock(this);
         try {
-            R r = retrieve(dataDir);
+            R r = retrieveTimed(dataDir);
             if (r==null)    return null;
 
             Index copy = editInPlace!=null ? editInPlace : new Index(index);
@@ -515,6 +740,23 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
         return null;
     }
 
+    /**
+     * Calls {@link #retrieve(File)}, reporting the time it took to the {@link BuildCache}.
+     * This is the only place the map calls out to other code while possibly holding its lock,
+     * so it is where {@link #LOADING} is tracked.
+     */
+    private R retrieveTimed(File dataDir) throws IOException {
+        long start = System.nanoTime();
+        int[] loading = LOADING.get();
+        loading[0]++;
+        try {
+            return retrieve(dataDir);
+        } finally {
+            loading[0]--;
+            BuildCache.get().loaded(System.nanoTime() - start);
+        }
+    }
+
     /**
      * Subtype to provide {@link Run#getNumber()} so that this class doesn't have to depend on it.
      */
@@ -550,6 +792,9 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
         Index copy = copy();
         int n = getNumberOf(run);
         BuildReference<R> old = copy.byNumber.remove(n);
+        if (old != null) {
+            old.uncache();
+        }
         SortedIntList a = new SortedIntList(numberOnDisk);
         a.removeValue(n);
         numberOnDisk = a;
@@ -587,6 +832,44 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
         ASC, DESC, EXACT
     }
 
+    /**
+     * Number of builds to load ahead in the background once builds are being loaded one after another; 0 to disable.
+     * @since 2.82
+     */
+    @Restricted(NoExternalUse.class)
+    public static int PREFETCH = SystemProperties.getInteger(AbstractLazyLoadRunMap.class.getName() + ".prefetch", 8);
+
+    /**
+     * Number of threads loading builds in the background, across all jobs.
+     * @since 2.82
+     */
+    @Restricted(NoExternalUse.class)
+    public static int PREFETCH_THREADS = SystemProperties.getInteger(AbstractLazyLoadRunMap.class.getName() + ".prefetchThreads", 4);
+
+    /**
+     * Whether to cache the build numbers found in builds directories, to save listing them on the next startup.
+     * @since 2.82
+     */
+    @Restricted(NoExternalUse.class)
+    public static boolean CACHE_NUMBERS = SystemProperties.getBoolean(AbstractLazyLoadRunMap.class.getName() + ".cacheNumbers", true);
+
+    /**
+     * Number of builds the current thread is in the middle of loading, in any map,
+     * whether for {@link #prefetch(Iterable)} or holding the lock of the map.
+     */
+    private static final ThreadLocal<int[]> LOADING = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    private static final class Prefetcher {
+        static final ExecutorService INSTANCE = new ImpersonatingExecutorService(Executors.newFixedThreadPool(Math.max(1, PREFETCH_THREADS),
+                new ExceptionCatchingThreadFactory(new NamingThreadFactory(new DaemonThreadFactory(), "AbstractLazyLoadRunMap.prefetch"))),
+                ACL.SYSTEM);
+    }
+
     private static final String[] EMPTY_STRING_ARRAY = new String[0];
 
     private static final SortedMap EMPTY_SORTED_MAP = Collections.unmodifiableSortedMap(new TreeMap());
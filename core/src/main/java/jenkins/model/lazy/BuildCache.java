@@ -0,0 +1,357 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import hudson.model.Api;
+import hudson.model.Run;
+import hudson.model.queue.DurationHistogram;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the most recently used builds of all jobs in memory, within a fixed budget.
+ *
+ * <p>
+ * With {@link SoftReference}s, it is up to the garbage collector when builds are dropped,
+ * and under heap pressure it tends to clear thousands of them at once, only for the next page
+ * to load them all back from disk. Builds held by this cache are instead strongly reachable until
+ * they are the least recently used ones over the budget, at which point they are left weakly reachable,
+ * so a build still in use elsewhere stays where it is and rejoins the cache when it is next asked for.
+ *
+ * <p>
+ * The budget is both a number of builds and a total size. The size of a build is taken to be that of
+ * its {@code build.xml}, which is what it is loaded from and so a fair proxy for its footprint in memory.
+ *
+ * <p>
+ * Every access to a build goes through here, so hits take no lock: they only mark the build as referenced.
+ * The lock is taken to admit a build, and eviction then gives referenced builds a second chance
+ * rather than keeping the builds in exact order of use.
+ *
+ * <p>
+ * This is only used when {@link BuildReference.DefaultHolderFactory#MODE_PROPERTY} is set to {@code cached}.
+ *
+ * @since 2.82
+ * @see BuildReference.DefaultHolderFactory
+ */
+@Restricted(NoExternalUse.class)
+@ExportedBean
+public final class BuildCache {
+    private static final long MEGABYTE = 1024 * 1024;
+
+    /**
+     * Maximum number of builds to keep in memory.
+     */
+    public static int MAX_ENTRIES = SystemProperties.getInteger(BuildCache.class.getName() + ".maxEntries", 10000);
+
+    /**
+     * Maximum total size in megabytes of the builds to keep in memory; by default a sixteenth of the heap.
+     */
+    public static int MAX_MEGABYTES = SystemProperties.getInteger(BuildCache.class.getName() + ".maxMegabytes",
+            (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 16 / MEGABYTE));
+
+    /**
+     * Size assumed for a build whose record is not written yet.
+     */
+    static final long MIN_SIZE = 4096;
+
+    private static final BuildCache INSTANCE = new BuildCache(MAX_ENTRIES, MAX_MEGABYTES * MEGABYTE);
+
+    private final int maxEntries;
+    private final long maxSize;
+
+    /**
+     * Builds in the cache, in the order they were admitted or given a second chance.
+     * May also contain nodes already {@linkplain #remove(Node) removed}, which are skipped.
+     * Guarded by {@code this}, as are {@link #entries}, {@link #size} and {@link #evictions}.
+     */
+    private final ArrayDeque<Node> clock = new ArrayDeque<Node>();
+    private int entries;
+    private long size;
+    private long evictions;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final DurationHistogram loads = new DurationHistogram();
+
+    BuildCache(int maxEntries, long maxSize) {
+        this.maxEntries = maxEntries;
+        this.maxSize = maxSize;
+    }
+
+    public static @Nonnull BuildCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates a holder for a build, adding the build to the cache.
+     */
+    <R> BuildReference.Holder<R> make(@Nonnull R build) {
+        return make(build, sizeOf(build));
+    }
+
+    <R> BuildReference.Holder<R> make(@Nonnull R build, long size) {
+        return new Entry<R>(this, build, size);
+    }
+
+    private static long sizeOf(Object build) {
+        if (build instanceof Run) {
+            long length = new File(((Run) build).getRootDir(), "build.xml").length();
+            return Math.max(MIN_SIZE, length);
+        }
+        return MIN_SIZE;
+    }
+
+    private synchronized Node admit(Object build, long size) {
+        Node node = new Node(build, size);
+        clock.addLast(node);
+        entries++;
+        this.size += size;
+        // always keep the one just added, however large
+        while ((entries > maxEntries || this.size > maxSize) && entries > 1) {
+            Node eldest = clock.pollFirst();
+            if (!eldest.cached) {
+                continue;
+            }
+            if (eldest.referenced || eldest == node) {
+                eldest.referenced = false;
+                clock.addLast(eldest);
+                continue;
+            }
+            drop(eldest);
+            evictions++;
+        }
+        return node;
+    }
+
+    private synchronized void remove(Node node) {
+        if (node.cached) {
+            drop(node);
+            if (clock.size() > 2 * entries + 16) {
+                // removed nodes are otherwise only skipped over by eviction, which may not come for a while
+                for (Iterator<Node> it = clock.iterator(); it.hasNext();) {
+                    if (!it.next().cached) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    private void drop(Node node) {
+        assert Thread.holdsLock(this);
+        node.cached = false;
+        node.build = null;
+        entries--;
+        size -= node.size;
+    }
+
+    /**
+     * Admits the build of the entry again after it was evicted, unless another thread just did.
+     */
+    private synchronized Node readmit(Entry<?> entry, Object build) {
+        Node n = entry.node;
+        if (n.cached) {
+            return n;
+        }
+        return entry.node = admit(build, entry.size);
+    }
+
+    /**
+     * Records that a lookup found the build in memory.
+     * Counted by {@link AbstractLazyLoadRunMap} whatever the {@link BuildReference.DefaultHolderFactory#MODE_PROPERTY},
+     * together with {@link #miss()}, so that the hit rate compares the modes.
+     */
+    public void hit() {
+        hits.increment();
+    }
+
+    /**
+     * Records that a lookup did not find the build in memory, and so had to load it or wait for it to load.
+     */
+    public void miss() {
+        misses.increment();
+    }
+
+    /**
+     * Records that a build had to be loaded from disk, whether for a lookup or ahead of one.
+     */
+    public void loaded(long nanos) {
+        loads.record(nanos);
+    }
+
+    synchronized boolean contains(Object build) {
+        for (Node node : clock) {
+            if (node.cached && node.build == build) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Exported
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Exported
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Number of builds in the cache.
+     */
+    @Exported
+    public synchronized int getEntries() {
+        return entries;
+    }
+
+    /**
+     * Total size of the builds in the cache, in bytes.
+     */
+    @Exported
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Number of lookups that found the build in memory.
+     */
+    @Exported
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of lookups that had to load the build from disk, or wait for it to load.
+     */
+    @Exported
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Fraction of the lookups that did not need to load anything, between 0 and 1.
+     */
+    @Exported
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Number of builds dropped to stay within the budget.
+     */
+    @Exported
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Time taken to load builds from disk.
+     */
+    @Exported
+    public DurationHistogram getLoads() {
+        return loads;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BuildCache{entries=" + entries + ";size=" + size + ";hits=" + hits.sum()
+                + ";misses=" + misses.sum() + ";evictions=" + evictions + "}";
+    }
+
+    /**
+     * A build while it is in the cache, which is what keeps it strongly reachable.
+     */
+    private static final class Node {
+        final long size;
+        /**
+         * Cleared once dropped from the cache. Guarded by the cache.
+         */
+        Object build;
+        volatile boolean cached = true;
+        /**
+         * Whether the build was used since it was last considered for eviction.
+         */
+        volatile boolean referenced;
+
+        Node(Object build, long size) {
+            this.build = build;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Holder of a build admitted to a {@link BuildCache}.
+     * The cache keeps the build reachable; this only refers to it weakly.
+     */
+    static final class Entry<R> implements BuildReference.Holder<R> {
+        private final BuildCache cache;
+        private final WeakReference<R> build;
+        private final long size;
+        private volatile Node node;
+
+        Entry(BuildCache cache, R build, long size) {
+            this.cache = cache;
+            this.build = new WeakReference<R>(build);
+            this.size = size;
+            this.node = cache.admit(build, size);
+        }
+
+        @Override
+        public R get() {
+            R r = build.get();
+            if (r != null) {
+                Node n = node;
+                if (n.cached) {
+                    n.referenced = true;
+                } else {
+                    // evicted, but still in use elsewhere
+                    cache.readmit(this, r);
+                }
+            }
+            return r;
+        }
+
+        void uncache() {
+            cache.remove(node);
+        }
+    }
+}
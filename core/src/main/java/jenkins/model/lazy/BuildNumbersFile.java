@@ -0,0 +1,131 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cached listing of the build numbers in a builds directory, kept in a {@code buildNumbers} file inside it,
+ * so that {@link AbstractLazyLoadRunMap} does not need to list directories with many builds at startup.
+ *
+ * <p>
+ * The file records the modification time of the directory it was listed at, and is only trusted while the
+ * directory still has that modification time; adding, removing or renaming builds changes it.
+ * A listing is only cached if the directory had been left alone for {@link #STABLE_MILLIS} before it was taken,
+ * so that a change made right after it cannot go unnoticed on file systems with a coarse timestamp resolution.
+ * The file is overwritten in place rather than replaced, since replacing it would itself change
+ * the modification time of the directory; a torn write is detected by the length of the file.
+ * Creating the file does change it, so the first listing of a directory is only cached on the next startup.
+ *
+ * @since 2.82
+ */
+final class BuildNumbersFile {
+    static final String FILE_NAME = "buildNumbers";
+
+    private static final int MAGIC = 0x424E554D;
+
+    /**
+     * How long a directory must have been left alone before its listing is cached.
+     */
+    static final long STABLE_MILLIS = 2000;
+
+    private BuildNumbersFile() {}
+
+    /**
+     * Reads the cached listing of the directory.
+     *
+     * @return null if there is none, or it is out of date.
+     */
+    static @CheckForNull SortedIntList read(@Nonnull File dir) {
+        File f = new File(dir, FILE_NAME);
+        long length = f.length();
+        if (length < 16 || (length - 16) % 4 != 0) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != MAGIC || in.readLong() != dir.lastModified()) {
+                return null;
+            }
+            int size = in.readInt();
+            if (size != (length - 16) / 4) {
+                return null;
+            }
+            SortedIntList list = new SortedIntList(size);
+            for (int i = 0; i < size; i++) {
+                list.add(in.readInt());
+            }
+            return list;
+        } catch (EOFException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to read " + f, e);
+            return null;
+        }
+    }
+
+    /**
+     * Caches the listing of a directory, if it is safe to.
+     *
+     * @param listedAt
+     *      {@link System#currentTimeMillis()} from right before the directory was listed.
+     * @param lastModified
+     *      {@link File#lastModified()} of the directory from right after it was listed.
+     */
+    static void write(@Nonnull File dir, @Nonnull SortedIntList list, long listedAt, long lastModified) {
+        if (lastModified <= 0 || lastModified > listedAt - STABLE_MILLIS) {
+            return;
+        }
+        File f = new File(dir, FILE_NAME);
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(16 + list.size() * 4);
+            DataOutputStream out = new DataOutputStream(buf);
+            out.writeInt(MAGIC);
+            out.writeLong(lastModified);
+            out.writeInt(list.size());
+            for (int i = 0; i < list.size(); i++) {
+                out.writeInt(list.get(i));
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                raf.setLength(0);
+                raf.write(buf.toByteArray());
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to write " + f, e);
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(BuildNumbersFile.class.getName());
+}
@@ -62,6 +62,16 @@ public final class BuildReference<R> {
         holder = null;
     }
 
+    /**
+     * Drops the build from the {@link BuildCache}, if it is held there, without clearing this reference.
+     */
+    /*package*/ void uncache() {
+        Holder<R> h = holder; // capture
+        if (h instanceof BuildCache.Entry) {
+            ((BuildCache.Entry<R>) h).uncache();
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -133,6 +143,8 @@ public final class BuildReference<R> {
      * <dl>
      * <dt><code>soft</code> (default)
      * <dd>Use {@link SoftReference}s. Builds will be kept around so long as memory pressure is not too high.
+     * <dt><code>cached</code>
+     * <dd>Use the {@link BuildCache}. The most recently used builds of all jobs will be kept around, within a fixed budget.
      * <dt><code>weak</code>
      * <dd>Use {@link WeakReference}s. Builds will be kept only until the next full garbage collection cycle.
      * <dt><code>strong</code>
@@ -150,6 +162,8 @@ public final class BuildReference<R> {
         @Override public <R> Holder<R> make(R referent) {
             if (mode == null || mode.equals("soft")) {
                 return new SoftHolder<R>(referent);
+            } else if (mode.equals("cached")) {
+                return BuildCache.get().make(referent);
             } else if (mode.equals("weak")) {
                 return new WeakHolder<R>(referent);
             } else if (mode.equals("strong")) {
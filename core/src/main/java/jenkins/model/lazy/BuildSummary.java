@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Node;
+import hudson.model.Result;
+import hudson.model.Run;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * What {@link BuildSummaryIndex} knows about a completed build without loading it.
+ *
+ * @since 2.82
+ */
+@Restricted(NoExternalUse.class)
+public final class BuildSummary {
+    private final int number;
+    private final Result result;
+    private final long timestamp;
+    private final long duration;
+    /**
+     * As {@link AbstractBuild#getBuiltOnStr()}, or null if not an {@link AbstractBuild} or not known.
+     */
+    private final String builtOn;
+    private final boolean abstractBuild;
+    private final boolean customDisplayName;
+
+    BuildSummary(int number, @Nonnull Result result, long timestamp, long duration,
+                 @CheckForNull String builtOn, boolean abstractBuild, boolean customDisplayName) {
+        this.number = number;
+        this.result = result;
+        this.timestamp = timestamp;
+        this.duration = duration;
+        this.builtOn = builtOn;
+        this.abstractBuild = abstractBuild;
+        this.customDisplayName = customDisplayName;
+    }
+
+    /**
+     * Summarizes a build.
+     *
+     * @return null if the build is not completed yet.
+     */
+    public static @CheckForNull BuildSummary of(@Nonnull Run<?,?> r) {
+        Result result = r.getResult();
+        if (result == null || r.isLogUpdated()) {
+            return null;
+        }
+        String builtOn = null;
+        boolean abstractBuild = r instanceof AbstractBuild;
+        if (abstractBuild) {
+            builtOn = ((AbstractBuild<?,?>) r).getBuiltOnStr();
+            if (builtOn == null) {
+                builtOn = "";
+            }
+        }
+        return new BuildSummary(r.getNumber(), result, r.getTimeInMillis(), r.getDuration(), builtOn, abstractBuild,
+                !r.getDisplayName().equals("#" + r.getNumber()));
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * As {@link Run#getResult()}; never null as only completed builds are summarized.
+     */
+    public @Nonnull Result getResult() {
+        return result;
+    }
+
+    /**
+     * As {@link Run#getTimeInMillis()}.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * As {@link Run#getDuration()}.
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Whether the build is an {@link AbstractBuild}, and so ran on a single node.
+     */
+    public boolean isAbstractBuild() {
+        return abstractBuild;
+    }
+
+    /**
+     * As {@link AbstractBuild#getBuiltOnStr()}, with the empty string for the master.
+     *
+     * @return null if not an {@link AbstractBuild}, or if the name did not fit in the index.
+     */
+    public @CheckForNull String getBuiltOnStr() {
+        return builtOn;
+    }
+
+    /**
+     * As {@link AbstractBuild#getBuiltOn()}.
+     *
+     * @return null if the node no longer exists, or is not known.
+     */
+    public @CheckForNull Node getBuiltOn() {
+        if (builtOn == null) {
+            return null;
+        }
+        return builtOn.isEmpty() ? Jenkins.getInstance() : Jenkins.getInstance().getNode(builtOn);
+    }
+
+    /**
+     * Whether {@link Run#getDisplayName()} is anything other than the default {@code #number},
+     * in which case the build has to be loaded to tell.
+     */
+    public boolean hasCustomDisplayName() {
+        return customDisplayName;
+    }
+
+    /**
+     * Whether this tells everything that lists of builds show about a build, so that it need not be loaded.
+     */
+    public boolean isComplete() {
+        return !customDisplayName && (!abstractBuild || builtOn != null);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BuildSummary)) {
+            return false;
+        }
+        BuildSummary that = (BuildSummary) o;
+        return number == that.number && result == that.result && timestamp == that.timestamp
+                && duration == that.duration && abstractBuild == that.abstractBuild
+                && customDisplayName == that.customDisplayName
+                && (builtOn == null ? that.builtOn == null : builtOn.equals(that.builtOn));
+    }
+
+    @Override
+    public int hashCode() {
+        return number;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + number + " " + result + " at " + timestamp + " for " + duration + "ms"
+                + (builtOn != null ? " on '" + builtOn + "'" : "");
+    }
+}
@@ -0,0 +1,383 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.RunMap;
+import hudson.model.Saveable;
+import hudson.model.listeners.RunListener;
+import hudson.model.listeners.SaveableListener;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per-job file of fixed-width records summarizing each completed build, so that history queries such as
+ * {@link hudson.util.RunList#failureOnly()} or the build time trend do not have to load every {@code build.xml}.
+ *
+ * <p>
+ * The file lives next to the build directories and is only ever appended to; a later record for the same
+ * build number supersedes an earlier one, and a record with no result stands for a deleted build. Once
+ * superseded records make up most of the file, it is rewritten. Builds get indexed when they complete, when
+ * they are saved afterwards (as when their display name changes), and when loaded for any other reason while
+ * missing from the index, so existing jobs fill their index as their history is browsed.
+ *
+ * <p>
+ * The index is only a shortcut: callers must treat a missing summary as "load the build", and it can be
+ * deleted at any time. The records read are held through a {@link SoftReference}.
+ *
+ * @since 2.82
+ * @see RunMap#getSummaryIndex()
+ */
+@Restricted(NoExternalUse.class)
+public final class BuildSummaryIndex {
+    /**
+     * Name of the index file in the builds directory.
+     */
+    public static final String FILE_NAME = "summaries";
+
+    static final int RECORD_SIZE = 64;
+    /**
+     * Bytes left for the node name once the other fields are written.
+     */
+    static final int MAX_NODE_NAME = RECORD_SIZE - 4 - 1 - 1 - 8 - 8 - 1;
+    private static final int MAGIC = 0x4a425349; // "JBSI"
+    private static final int VERSION = 1;
+
+    private static final byte DELETED = -1;
+    private static final Result[] RESULTS = {Result.SUCCESS, Result.UNSTABLE, Result.FAILURE, Result.NOT_BUILT, Result.ABORTED};
+
+    private static final int ABSTRACT_BUILD = 1;
+    private static final int BUILT_ON_TRUNCATED = 2;
+    private static final int CUSTOM_DISPLAY_NAME = 4;
+
+    private final File file;
+    private SoftReference<TreeMap<Integer, BuildSummary>> summaries = new SoftReference<TreeMap<Integer, BuildSummary>>(null);
+    /**
+     * Number of records in the file, or -1 if not known yet.
+     */
+    private int records = -1;
+
+    public BuildSummaryIndex(@Nonnull File buildDir) {
+        this.file = new File(buildDir, FILE_NAME);
+    }
+
+    public @Nonnull File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the summary of a build.
+     *
+     * @return null if the build is not indexed, which does not mean it does not exist.
+     */
+    public synchronized @CheckForNull BuildSummary get(int number) {
+        return load().get(number);
+    }
+
+    /**
+     * Number of indexed builds.
+     */
+    public synchronized int size() {
+        return load().size();
+    }
+
+    /**
+     * Indexes a completed build, if it is not already indexed as it is now.
+     */
+    public synchronized void put(@Nonnull BuildSummary s) {
+        TreeMap<Integer, BuildSummary> m = load();
+        if (s.equals(m.get(s.getNumber()))) {
+            return;
+        }
+        m.put(s.getNumber(), s);
+        append(s.getNumber(), s);
+    }
+
+    /**
+     * Indexes the build if it is completed.
+     */
+    public void offer(@Nonnull Run<?,?> r) {
+        BuildSummary s = BuildSummary.of(r);
+        if (s != null) {
+            put(s);
+        }
+    }
+
+    /**
+     * Forgets about a deleted build.
+     */
+    public synchronized void remove(int number) {
+        if (load().remove(number) != null) {
+            append(number, null);
+        }
+    }
+
+    private TreeMap<Integer, BuildSummary> load() {
+        TreeMap<Integer, BuildSummary> m = summaries.get();
+        if (m != null) {
+            return m;
+        }
+        m = new TreeMap<Integer, BuildSummary>();
+        records = 0;
+        boolean unreadable = false;
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    LOGGER.log(Level.WARNING, "Ignoring {0} as it is not a build summary index of a known version", file);
+                    unreadable = true;
+                } else {
+                    in.skipBytes(RECORD_SIZE - 8);
+                    byte[] record = new byte[RECORD_SIZE];
+                    while (true) {
+                        try {
+                            in.readFully(record);
+                        } catch (EOFException e) {
+                            break; // a clean end, or a record cut short by a crash, which is as good as absent
+                        }
+                        records++;
+                        int number = readInt(record, 0);
+                        BuildSummary s = decode(number, record);
+                        if (s != null) {
+                            m.put(number, s);
+                        } else {
+                            m.remove(number);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to read " + file, e);
+                unreadable = true;
+            }
+        }
+        summaries = new SoftReference<TreeMap<Integer, BuildSummary>>(m);
+        if (unreadable || records > 2 * m.size() + 100) {
+            rewrite(m);
+        }
+        return m;
+    }
+
+    private void append(int number, @CheckForNull BuildSummary s) {
+        TreeMap<Integer, BuildSummary> m = load();
+        if (records > 2 * m.size() + 100) {
+            rewrite(m);
+            return;
+        }
+        if (!file.getParentFile().isDirectory()) {
+            return; // job not saved yet, or being deleted
+        }
+        boolean fresh = !file.exists();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            if (fresh) {
+                out.write(header());
+            }
+            out.write(encode(number, s));
+            records++;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to update " + file, e);
+        }
+    }
+
+    /**
+     * Rewrites the file with just the current summaries.
+     */
+    private void rewrite(Map<Integer, BuildSummary> m) {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory()) {
+            return;
+        }
+        File tmp = new File(dir, FILE_NAME + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.write(header());
+                for (BuildSummary s : m.values()) {
+                    out.write(encode(s.getNumber(), s));
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            records = m.size();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to rewrite " + file, e);
+            tmp.delete();
+        }
+    }
+
+    private static byte[] header() {
+        byte[] b = new byte[RECORD_SIZE];
+        writeInt(b, 0, MAGIC);
+        writeInt(b, 4, VERSION);
+        return b;
+    }
+
+    /**
+     * Lays out a record as: number (4 bytes), result (1), flags (1), timestamp (8), duration (8),
+     * length of the node name (1) and the UTF-8 node name, padded with zeros.
+     */
+    static byte[] encode(int number, @CheckForNull BuildSummary s) {
+        byte[] b = new byte[RECORD_SIZE];
+        writeInt(b, 0, number);
+        if (s == null) {
+            b[4] = DELETED;
+            return b;
+        }
+        b[4] = (byte) Arrays.asList(RESULTS).indexOf(s.getResult());
+        int flags = 0;
+        byte[] name = new byte[0];
+        if (s.isAbstractBuild()) {
+            flags |= ABSTRACT_BUILD;
+            String builtOn = s.getBuiltOnStr();
+            if (builtOn != null) {
+                name = builtOn.getBytes(StandardCharsets.UTF_8);
+            }
+            if (builtOn == null || name.length > MAX_NODE_NAME) {
+                flags |= BUILT_ON_TRUNCATED;
+                name = new byte[0];
+            }
+        }
+        if (s.hasCustomDisplayName()) {
+            flags |= CUSTOM_DISPLAY_NAME;
+        }
+        b[5] = (byte) flags;
+        writeLong(b, 6, s.getTimestamp());
+        writeLong(b, 14, s.getDuration());
+        b[22] = (byte) name.length;
+        System.arraycopy(name, 0, b, 23, name.length);
+        return b;
+    }
+
+    static @CheckForNull BuildSummary decode(int number, byte[] b) {
+        int result = b[4];
+        if (result < 0 || result >= RESULTS.length) {
+            return null;
+        }
+        int flags = b[5];
+        String builtOn = null;
+        if ((flags & ABSTRACT_BUILD) != 0 && (flags & BUILT_ON_TRUNCATED) == 0) {
+            builtOn = new String(b, 23, Math.min(b[22] & 0xFF, MAX_NODE_NAME), StandardCharsets.UTF_8);
+        }
+        return new BuildSummary(number, RESULTS[result], readLong(b, 6), readLong(b, 14), builtOn,
+                (flags & ABSTRACT_BUILD) != 0, (flags & CUSTOM_DISPLAY_NAME) != 0);
+    }
+
+    private static void writeInt(byte[] b, int off, int v) {
+        for (int i = 3; i >= 0; i--, v >>>= 8) {
+            b[off + i] = (byte) v;
+        }
+    }
+
+    private static void writeLong(byte[] b, int off, long v) {
+        for (int i = 7; i >= 0; i--, v >>>= 8) {
+            b[off + i] = (byte) v;
+        }
+    }
+
+    private static int readInt(byte[] b, int off) {
+        int v = 0;
+        for (int i = 0; i < 4; i++) {
+            v = (v << 8) | (b[off + i] & 0xFF);
+        }
+        return v;
+    }
+
+    private static long readLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[off + i] & 0xFF);
+        }
+        return v;
+    }
+
+    /**
+     * Gets the index of the job the build belongs to, if it has one.
+     */
+    static @CheckForNull BuildSummaryIndex of(@Nonnull Run<?,?> r) {
+        Job<?,?> j = r.getParent();
+        if (!(j instanceof LazyBuildMixIn.LazyLoadingJob)) {
+            return null;
+        }
+        return ((LazyBuildMixIn.LazyLoadingJob<?,?>) j).getLazyBuildMixIn()._getRuns().getSummaryIndex();
+    }
+
+    /**
+     * Indexes builds as they complete.
+     */
+    @Extension @Restricted(NoExternalUse.class)
+    public static final class RunListenerImpl extends RunListener<Run<?,?>> {
+        @Override
+        public void onFinalized(Run<?,?> r) {
+            BuildSummaryIndex index = of(r);
+            if (index != null) {
+                index.offer(r);
+            }
+        }
+    }
+
+    /**
+     * Re-indexes completed builds as they are modified.
+     */
+    @Extension @Restricted(NoExternalUse.class)
+    public static final class SaveableListenerImpl extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Run && !((Run<?,?>) o).isLogUpdated()) {
+                BuildSummaryIndex index = of((Run<?,?>) o);
+                if (index != null) {
+                    index.offer((Run<?,?>) o);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether to keep out of the index altogether, and so load every build as before.
+     */
+    public static boolean DISABLED = SystemProperties.getBoolean(BuildSummaryIndex.class.getName() + ".disabled");
+
+    private static final Logger LOGGER = Logger.getLogger(BuildSummaryIndex.class.getName());
+}
@@ -45,6 +45,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 import jenkins.MasterToSlaveFileCallable;
@@ -162,6 +163,18 @@ public abstract class VirtualFile implements Comparable<VirtualFile>, Serializab
      */
     public abstract InputStream open() throws IOException;
 
+    /**
+     * Gets the file on the master's disk holding the contents of this one, if there is such a file.
+     * Callers may then read it through a {@link java.nio.channels.FileChannel} rather than {@link #open},
+     * for example to send it to an HTTP client without copying it through the heap.
+     * The default implementation returns null, which is always safe.
+     * @return a local file, or null if the contents are only available through {@link #open}
+     * @since 2.82
+     */
+    public @CheckForNull File toLocalFile() {
+        return null;
+    }
+
     /**
      * Does case-insensitive comparison.
      * {@inheritDoc}
@@ -301,6 +314,9 @@ public abstract class VirtualFile implements Comparable<VirtualFile>, Serializab
                     throw new IOException(e);
                 }
             }
+            @Override public File toLocalFile() {
+                return isIllegalSymlink() ? null : f;
+            }
         private boolean isIllegalSymlink() { // TODO JENKINS-26838
             try {
                 String myPath = f.toPath().toRealPath(new LinkOption[0]).toString();
@@ -412,6 +428,9 @@ public abstract class VirtualFile implements Comparable<VirtualFile>, Serializab
                     throw (IOException) new IOException(x.toString()).initCause(x);
                 }
             }
+            @Override public File toLocalFile() {
+                return f.isRemote() ? null : new File(f.getRemote());
+            }
             @Override public <V> V run(Callable<V,IOException> callable) throws IOException {
                 try {
                     return f.act(callable);
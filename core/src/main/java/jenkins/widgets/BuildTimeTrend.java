@@ -24,11 +24,13 @@
 
 package jenkins.widgets;
 
+import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.BallColor;
 import hudson.model.Node;
 import hudson.model.Run;
 import jenkins.model.Jenkins;
+import jenkins.model.lazy.BuildSummary;
 import net.sf.json.JSONObject;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
@@ -47,18 +49,37 @@ public class BuildTimeTrend extends RunListProgressiveRendering {
         element.put("durationString", build.getDurationString());
         if (build instanceof AbstractBuild) {
             AbstractBuild<?,?> b = (AbstractBuild) build;
-            Node n = b.getBuiltOn();
-            if (n == null) {
-                String ns = b.getBuiltOnStr();
-                if (ns != null && !ns.isEmpty()) {
-                    element.put("builtOnStr", ns);
-                }
-            } else if (n != Jenkins.getInstance()) {
-                element.put("builtOn", n.getNodeName());
-                element.put("builtOnStr", n.getDisplayName());
-            } else {
-                element.put("builtOnStr", hudson.model.Messages.Hudson_Computer_DisplayName());
+            builtOn(b.getBuiltOn(), b.getBuiltOnStr(), element);
+        }
+    }
+
+    /**
+     * Same as {@link #calculate(Run, JSONObject)} for a build whose summary {@linkplain BuildSummary#isComplete() is complete}.
+     */
+    @Override protected void calculate(BuildSummary build, JSONObject element) {
+        BallColor iconColor = build.getResult().color;
+        element.put("iconColorOrdinal", iconColor.ordinal());
+        element.put("iconColorDescription", iconColor.getDescription());
+        element.put("buildStatusUrl", iconColor.getImage());
+        element.put("number", build.getNumber());
+        element.put("displayName", "#" + build.getNumber());
+        element.put("duration", build.getDuration());
+        element.put("durationString", Util.getTimeSpanString(build.getDuration()));
+        if (build.isAbstractBuild()) {
+            builtOn(build.getBuiltOn(), build.getBuiltOnStr(), element);
+        }
+    }
+
+    private static void builtOn(Node n, String ns, JSONObject element) {
+        if (n == null) {
+            if (ns != null && !ns.isEmpty()) {
+                element.put("builtOnStr", ns);
             }
+        } else if (n != Jenkins.getInstance()) {
+            element.put("builtOn", n.getNodeName());
+            element.put("builtOnStr", n.getDisplayName());
+        } else {
+            element.put("builtOnStr", hudson.model.Messages.Hudson_Computer_DisplayName());
         }
     }
 
@@ -32,6 +32,7 @@ import hudson.model.ParametersAction;
 import hudson.model.Queue;
 import hudson.model.Run;
 import hudson.search.UserSearchProperty;
+import hudson.util.RunList;
 import hudson.widgets.HistoryWidget;
 
 import javax.annotation.Nonnull;
@@ -125,7 +126,7 @@ public class HistoryPageFilter<T> {
      * @since 2.17
      */
     public void add(@Nonnull Iterable<T> runItems) {
-        addInternal(runItems);
+        addInternal(skipNewer(runItems));
     }
 
     /**
@@ -137,7 +138,35 @@ public class HistoryPageFilter<T> {
      */
     public void add(@Nonnull Iterable<T> runItems, @Nonnull List<Queue.Item> queueItems) {
         sort(queueItems);
-        addInternal(Iterables.concat(queueItems, runItems));
+        addInternal(Iterables.concat(queueItems, skipNewer(runItems)));
+    }
+
+    /**
+     * When paging down through the builds of a job, skips the ones above the page by their number,
+     * rather than loading each of them only to find it is too new,
+     * and starts loading the builds of the page in parallel.
+     */
+    @SuppressWarnings("unchecked")
+    private Iterable<T> skipNewer(Iterable<T> runItems) {
+        if (!(runItems instanceof RunList)) {
+            return runItems;
+        }
+        RunList<?> all = (RunList<?>) runItems;
+        if (olderThan != null) {
+            long number = olderThan - Long.MIN_VALUE; // see HistoryPageEntry.getEntryId
+            if (number <= 0 || number > Integer.MAX_VALUE) {
+                return runItems;
+            }
+            Run<?,?> newest = all.getLastBuild();
+            if (newest != null && newest.getNumber() >= number) {
+                hasUpPage = true;
+            }
+            all = all.below((int) number);
+        }
+        if (newerThan == null && searchString == null) {
+            all.prefetch(maxEntries + 1); // one more to tell whether there is a down page
+        }
+        return (Iterable<T>) all;
     }
 
     /**
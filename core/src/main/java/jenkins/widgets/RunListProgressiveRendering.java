@@ -28,6 +28,7 @@ import hudson.model.Run;
 import hudson.util.RunList;
 import java.util.ArrayList;
 import java.util.List;
+import jenkins.model.lazy.BuildSummary;
 import jenkins.util.ProgressiveRendering;
 import net.sf.json.JSON;
 import net.sf.json.JSONArray;
@@ -57,12 +58,20 @@ public abstract class RunListProgressiveRendering extends ProgressiveRendering {
 
     @Override protected void compute() throws Exception {
         double decay = 1;
-        for (Run<?,?> build : builds) {
+        Iterable<?> items = builds instanceof RunList ? ((RunList<?>) builds).summarized() : builds;
+        for (Object item : items) {
             if (canceled()) {
                 return;
             }
             JSONObject element = new JSONObject();
-            calculate(build, element);
+            if (item instanceof BuildSummary) {
+                calculate((BuildSummary) item, element);
+            } else {
+                calculate((Run<?,?>) item, element);
+            }
+            if (element.isEmpty()) {
+                continue; // deleted in the meantime
+            }
             synchronized (this) {
                 results.add(element);
             }
@@ -78,4 +87,15 @@ public abstract class RunListProgressiveRendering extends ProgressiveRendering {
     }
 
     protected abstract void calculate(Run<?,?> build, JSONObject element);
+
+    /**
+     * Same as {@link #calculate(Run, JSONObject)}, for a completed build known by its {@link BuildSummary} only so far.
+     * By default the build is loaded; override this when the summary has all that is needed.
+     */
+    protected void calculate(BuildSummary build, JSONObject element) {
+        Run<?,?> r = ((RunList<?>) builds).load(build);
+        if (r != null) {
+            calculate(r, element);
+        }
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class CompactConsoleNotesTest {
+    private boolean insecure, compact;
+
+    @Before
+    public void setUp() {
+        insecure = ConsoleNote.INSECURE;
+        compact = ConsoleNote.COMPACT;
+        // no Jenkins here, so notes cannot be signed
+        ConsoleNote.INSECURE = true;
+    }
+
+    @After
+    public void tearDown() {
+        ConsoleNote.INSECURE = insecure;
+        ConsoleNote.COMPACT = compact;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        HyperlinkNote link = (HyperlinkNote) decode(new HyperlinkNote("/job/p/", 1).encode());
+        assertSame(HyperlinkNote.class, link.getClass());
+        assertEquals("/job/p/", link.getUrl());
+        assertEquals(1, link.getLength());
+
+        ModelHyperlinkNote model = (ModelHyperlinkNote) decode(new ModelHyperlinkNote("/computer/é", 300).encode());
+        assertEquals("/computer/é", model.getUrl());
+        assertEquals(300, model.getLength());
+
+        ExpandableDetailsNote details = (ExpandableDetailsNote) decode(new ExpandableDetailsNote("More", "<b>x</b>").encode());
+        assertEquals("More", details.getCaption());
+        assertEquals("<b>x</b>", details.getHtml());
+    }
+
+    @Test
+    public void legacyForm() throws Exception {
+        ConsoleNote.COMPACT = false;
+        String legacy = new HyperlinkNote("/job/p/", 5).encode();
+        ConsoleNote.COMPACT = true;
+        String compact = new HyperlinkNote("/job/p/", 5).encode();
+        assertTrue(compact.length() < legacy.length() / 4);
+        HyperlinkNote link = (HyperlinkNote) decode(legacy);
+        assertEquals("/job/p/", link.getUrl());
+        assertEquals(5, link.getLength());
+        String base64 = compact.substring(ConsoleNote.PREAMBLE_STR.length(), compact.length() - ConsoleNote.POSTAMBLE_STR.length());
+        assertEquals(HyperlinkNote.class.getName(), ConsoleNoteIndex.typeOf(base64.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void subclassesAreSerialized() throws Exception {
+        ConsoleNote.COMPACT = false;
+        String legacy = new CustomNote("/", 1).encode();
+        ConsoleNote.COMPACT = true;
+        assertEquals(legacy.length(), new CustomNote("/", 1).encode().length());
+        assertSame(CustomNote.class, decode(legacy).getClass());
+        assertNull(CompactConsoleNotes.encode(new HyperlinkNote(null, 1)));
+    }
+
+    @Test
+    public void varInt() throws Exception {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        int[] values = {0, 1, 127, 128, 300, Integer.MAX_VALUE, -1};
+        for (int v : values) {
+            CompactConsoleNotes.writeVarInt(out, v);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf.toByteArray()));
+        for (int v : values) {
+            assertEquals(v, CompactConsoleNotes.readVarInt(in));
+        }
+    }
+
+    private static final class CustomNote extends HyperlinkNote {
+        CustomNote(String url, int length) {
+            super(url, length);
+        }
+    }
+
+    private static ConsoleNote decode(String encoded) throws Exception {
+        return ConsoleNote.readFrom(new DataInputStream(new ByteArrayInputStream(encoded.getBytes(StandardCharsets.US_ASCII))));
+    }
+}
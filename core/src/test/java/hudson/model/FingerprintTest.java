@@ -26,6 +26,11 @@ package hudson.model;
 import hudson.Util;
 import hudson.model.Fingerprint.RangeSet;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
 import jenkins.model.FingerprintFacet;
 
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -211,6 +216,74 @@ public class FingerprintTest {
         assertFalse(x.removeAll(y));
     }
 
+    @Test
+    public void listNumbers() {
+        RangeSet x = RangeSet.fromString("1-3,7,10-11", false);
+        List<Integer> numbers = new ArrayList<Integer>();
+        for (int n : x.listNumbers()) {
+            numbers.add(n);
+        }
+        assertEquals(Arrays.asList(1, 2, 3, 7, 10, 11), numbers);
+        numbers.clear();
+        for (int n : x.listNumbersReverse()) {
+            numbers.add(n);
+        }
+        assertEquals(Arrays.asList(11, 10, 7, 3, 2, 1), numbers);
+        assertFalse(new RangeSet().listNumbers().iterator().hasNext());
+    }
+
+    @Test
+    public void unsortedRangesAreMergedOnceModified() {
+        RangeSet x = RangeSet.fromString("5,1-2,3", false);
+        assertEquals("[5,6),[1,3),[3,4)", x.toString());
+        assertTrue(x.includes(3));
+        assertFalse(x.includes(4));
+        x.add(4);
+        assertEquals("[1,6)", x.toString());
+    }
+
+    @Test
+    public void agreesWithBitSet() {
+        Random r = new Random(0);
+        for (int round = 0; round < 1000; round++) {
+            BitSet a = new BitSet(), b = new BitSet();
+            RangeSet x = new RangeSet(), y = new RangeSet();
+            for (int i = r.nextInt(20); i > 0; i--) {
+                int n = r.nextInt(50);
+                a.set(n);
+                x.add(n);
+            }
+            for (int i = r.nextInt(20); i > 0; i--) {
+                int n = r.nextInt(50);
+                b.set(n);
+                y.addAll(n);
+            }
+            switch (r.nextInt(3)) {
+            case 0:
+                a.or(b);
+                x.add(y);
+                break;
+            case 1:
+                BitSet before = (BitSet) a.clone();
+                a.and(b);
+                assertEquals(!a.equals(before), x.retainAll(y));
+                break;
+            default:
+                before = (BitSet) a.clone();
+                a.andNot(b);
+                assertEquals(!a.equals(before), x.removeAll(y));
+            }
+            RangeSet expected = new RangeSet();
+            for (int n = 0; n < 50; n++) {
+                assertEquals(x + " includes " + n, a.get(n), x.includes(n));
+                if (a.get(n)) {
+                    expected.add(n);
+                }
+            }
+            assertEquals(expected, x);
+        }
+    }
+
     @Test public void deserialize() throws Exception {
         assertEquals("Fingerprint["
                 + "original=stapler/org.kohsuke.stapler:stapler-jelly #123,"
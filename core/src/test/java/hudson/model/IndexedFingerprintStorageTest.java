@@ -0,0 +1,314 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model;
+
+import hudson.Util;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class IndexedFingerprintStorageTest {
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final byte[] MD5 = Util.fromHexString(Util.getDigestOf("whatever"));
+    private static final byte[] OTHER_MD5 = Util.fromHexString(Util.getDigestOf("something else"));
+
+    @Test
+    public void roundTrip() throws Exception {
+        IndexedFingerprintStorage storage = new IndexedFingerprintStorage(tmp.getRoot());
+        Fingerprint f = fingerprint(MD5);
+        storage.save(f);
+        assertEquals(f.toString(), storage.load(MD5).toString());
+        assertNull(storage.load(OTHER_MD5));
+
+        f.addWithoutSaving("other", 7);
+        storage.save(f);
+        assertEquals(f.toString(), storage.load(MD5).toString());
+
+        // read back from disk
+        storage = new IndexedFingerprintStorage(tmp.getRoot());
+        assertEquals(f.toString(), storage.load(MD5).toString());
+
+        storage.delete(MD5);
+        assertNull(storage.load(MD5));
+        assertNull(new IndexedFingerprintStorage(tmp.getRoot()).load(MD5));
+    }
+
+    @Test
+    public void facets() throws Exception {
+        IndexedFingerprintStorage storage = new IndexedFingerprintStorage(tmp.getRoot());
+        Fingerprint f = fingerprint(MD5);
+        f.facets.setOwner(Saveable.NOOP);
+        f.facets.add(new FingerprintTest.TestFacet(f, 123, "val"));
+        storage.save(f);
+        Fingerprint f2 = storage.load(MD5);
+        assertEquals(f.toString(), f2.toString());
+        assertEquals(f2, ((FingerprintTest.TestFacet) f2.facets.get(0)).getFingerprint());
+    }
+
+    @Test
+    public void compactEncoding() throws Exception {
+        Fingerprint f = fingerprint(MD5);
+        File xml = tmp.newFile();
+        f.save(xml);
+        assertTrue(IndexedFingerprintStorage.encode(f).length * 4 < xml.length());
+        assertEquals(f.toString(), IndexedFingerprintStorage.decode(MD5, IndexedFingerprintStorage.encode(f)).toString());
+    }
+
+    @Test
+    public void truncatedRecord() throws Exception {
+        IndexedFingerprintStorage storage = new IndexedFingerprintStorage(tmp.getRoot());
+        storage.save(fingerprint(MD5));
+        Fingerprint f = fingerprint(MD5);
+        f.addWithoutSaving("other", 7);
+        storage.save(f);
+        File segment = new File(tmp.getRoot(), "fingerprints/segments/" + Util.toHexString(MD5, 0, 1));
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        // the first version is what survived
+        assertEquals(fingerprint(MD5).getUsages().toString(), new IndexedFingerprintStorage(tmp.getRoot()).load(MD5).getUsages().toString());
+    }
+
+    @Test
+    public void corruptRecordIsSkipped() throws Exception {
+        IndexedFingerprintStorage storage = new IndexedFingerprintStorage(tmp.getRoot());
+        for (int i = 0; i < 3; i++) {
+            storage.save(fingerprint(md5(0, i)));
+        }
+        File segment = new File(tmp.getRoot(), "fingerprints/segments/00");
+        long length = segment.length();
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            // somewhere in the data of the second record
+            long offset = length / 2;
+            raf.seek(offset);
+            byte b = raf.readByte();
+            raf.seek(offset);
+            raf.writeByte(b ^ 0xFF);
+        }
+        storage = new IndexedFingerprintStorage(tmp.getRoot());
+        assertNotNull(storage.load(md5(0, 0)));
+        assertNull(storage.load(md5(0, 1)));
+        // the record after it is kept
+        assertEquals(fingerprint(md5(0, 2)).toString(), storage.load(md5(0, 2)).toString());
+        assertEquals(length, segment.length());
+        // and appending still works
+        storage.save(fingerprint(md5(0, 1)));
+        assertNotNull(new IndexedFingerprintStorage(tmp.getRoot()).load(md5(0, 1)));
+    }
+
+    @Test
+    public void compaction() throws Exception {
+        IndexedFingerprintStorage storage = new IndexedFingerprintStorage(tmp.getRoot());
+        List<Fingerprint> fingerprints = new ArrayList<Fingerprint>();
+        for (int i = 0; i < 50; i++) {
+            fingerprints.add(fingerprint(md5(7, i)));
+        }
+        assertEquals(0, storage.compact());
+        for (int n = 20; n < 60; n++) {
+            for (Fingerprint f : fingerprints) {
+                f.addWithoutSaving("other", n);
+                storage.save(f);
+            }
+        }
+        storage.delete(md5(7, 0));
+        File segment = new File(tmp.getRoot(), "fingerprints/segments/07");
+        long length = segment.length();
+        assertEquals(1, storage.compact());
+        assertTrue(segment.length() * 10 < length);
+        assertEquals(0, storage.compact());
+        for (IndexedFingerprintStorage s : Arrays.asList(storage, new IndexedFingerprintStorage(tmp.getRoot()))) {
+            assertNull(s.load(md5(7, 0)));
+            for (Fingerprint f : fingerprints.subList(1, fingerprints.size())) {
+                assertEquals(f.toString(), s.load(Util.fromHexString(f.getHashString())).toString());
+            }
+        }
+    }
+
+    @Test
+    public void cleanUpDeletesUnusedFingerprints() throws Exception {
+        IndexedFingerprintStorage storage = new IndexedFingerprintStorage(tmp.getRoot());
+        for (int i = 0; i < 2000; i++) {
+            // referring to no build at all
+            storage.save(new Fingerprint((Fingerprint.BuildPtr) null, "unused" + i, md5(3, i)));
+        }
+        File segment = new File(tmp.getRoot(), "fingerprints/segments/03");
+        assertTrue(segment.length() > 64 * 1024);
+        assertEquals(2000, storage.cleanUp(TaskListener.NULL));
+        assertNull(storage.load(md5(3, 0)));
+        // and then the tombstones were compacted away
+        assertEquals(0, segment.length());
+        assertNull(new IndexedFingerprintStorage(tmp.getRoot()).load(md5(3, 0)));
+    }
+
+    @Test
+    public void offsetIndex() {
+        Random random = new Random(42);
+        IndexedFingerprintStorage.OffsetIndex index = new IndexedFingerprintStorage.OffsetIndex();
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        for (int i = 0; i < 100000; i++) {
+            // few distinct keys, many of them ending up in the same slots
+            long key = random.nextInt(2000) * (1L << 40);
+            int slot = index.first(key);
+            switch (random.nextInt(3)) {
+            case 0:
+                if (slot < 0) {
+                    index.add(key, i);
+                } else {
+                    index.set(slot, i);
+                }
+                expected.put(key, (long) i);
+                break;
+            case 1:
+                if (slot >= 0) {
+                    index.remove(slot);
+                }
+                expected.remove(key);
+                break;
+            default:
+                assertEquals(expected.get(key), slot < 0 ? null : index.offset(slot));
+                assertTrue(slot < 0 || index.next(key, slot) < 0);
+            }
+        }
+        assertEquals(expected.size(), index.size());
+        for (Map.Entry<Long, Long> e : expected.entrySet()) {
+            assertEquals(e.getValue().longValue(), index.offset(index.first(e.getKey())));
+        }
+    }
+
+    @Test
+    public void concurrentSaveAll() throws Exception {
+        final IndexedFingerprintStorage storage = new IndexedFingerprintStorage(tmp.getRoot());
+        final Fingerprint f = fingerprint(MD5);
+        final Fingerprint other = fingerprint(OTHER_MD5);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 4; t++) {
+                final String job = "job" + t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int n = 1; n <= 200; n++) {
+                            synchronized (f) {
+                                f.addWithoutSaving(job, n);
+                            }
+                            storage.saveAll(n % 2 == 0 ? Arrays.asList(f, other) : Arrays.asList(other, f));
+                            // not overwritten by an older state saved by another thread
+                            assertTrue(job + " #" + n, storage.load(MD5).getUsages().get(job).includes(n));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(f.getUsages().toString(), new IndexedFingerprintStorage(tmp.getRoot()).load(MD5).getUsages().toString());
+    }
+
+    @Test
+    public void legacyFiles() throws Exception {
+        IndexedFingerprintStorage storage = new IndexedFingerprintStorage(tmp.getRoot());
+        Fingerprint f = fingerprint(MD5);
+        File legacy = Fingerprint.getFingerprintFile(tmp.getRoot(), MD5);
+        f.save(legacy);
+        assertEquals(f.toString(), storage.load(MD5).toString());
+        storage.save(f);
+        assertFalse(legacy.exists());
+        assertEquals(f.toString(), storage.load(MD5).toString());
+    }
+
+    @Test
+    public void idleIndexesAreDropped() throws Exception {
+        IndexedFingerprintStorage storage = new IndexedFingerprintStorage(tmp.getRoot());
+        Fingerprint f = fingerprint(md5(0, 1));
+        storage.save(f);
+        storage.save(fingerprint(md5(1, 1)));
+        assertEquals(2, storage.getIndexedSegments());
+        // nothing is idle yet
+        assertEquals(0, storage.evictIdleIndexes());
+
+        long timeout = IndexedFingerprintStorage.INDEX_TIMEOUT;
+        IndexedFingerprintStorage.INDEX_TIMEOUT = 0;
+        try {
+            assertEquals(2, storage.evictIdleIndexes());
+            assertEquals(0, storage.getIndexedSegments());
+        } finally {
+            IndexedFingerprintStorage.INDEX_TIMEOUT = timeout;
+        }
+        // read through again when next needed
+        assertEquals(f.toString(), storage.load(md5(0, 1)).toString());
+        assertEquals(1, storage.getIndexedSegments());
+    }
+
+    @Test
+    public void compactionDropsTheIndexesItBuilt() throws Exception {
+        IndexedFingerprintStorage storage = new IndexedFingerprintStorage(tmp.getRoot());
+        for (int i = 0; i < 4; i++) {
+            storage.save(fingerprint(md5(i, i)));
+        }
+        storage = new IndexedFingerprintStorage(tmp.getRoot());
+        storage.load(md5(0, 0));
+        assertEquals(1, storage.getIndexedSegments());
+        storage.compact();
+        assertEquals(1, storage.getIndexedSegments());
+    }
+
+    /**
+     * A made up hash falling in the given segment.
+     */
+    private static byte[] md5(int segment, int i) {
+        byte[] md5sum = Util.fromHexString(Util.getDigestOf(Integer.toString(i)));
+        md5sum[0] = (byte) segment;
+        return md5sum;
+    }
+
+    private static Fingerprint fingerprint(byte[] md5sum) {
+        Fingerprint f = new Fingerprint(new Fingerprint.BuildPtr("foo", 13), "stuff&more.jar", md5sum);
+        f.addWithoutSaving("some", 1);
+        f.addWithoutSaving("some", 2);
+        f.addWithoutSaving("some", 3);
+        f.addWithoutSaving("some", 10);
+        return f;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class DurationHistogramTest {
+    @Test
+    public void buckets() {
+        DurationHistogram h = new DurationHistogram();
+        h.record(TimeUnit.MICROSECONDS.toNanos(5));
+        h.record(TimeUnit.MICROSECONDS.toNanos(10)); // bounds are inclusive
+        h.record(TimeUnit.MILLISECONDS.toNanos(5));
+        h.record(TimeUnit.SECONDS.toNanos(500));
+        h.record(-1); // clock went backwards
+        // long queue waits and builds get buckets of their own
+        h.record(TimeUnit.MINUTES.toNanos(90));
+        h.record(TimeUnit.DAYS.toNanos(2));
+
+        assertArrayEquals(new long[] {3, 0, 0, 1, 0, 0, 0, 0, 1, 0, 1, 1}, h.getBuckets());
+        assertEquals(DurationHistogram.getBucketLabels().length, h.getBuckets().length);
+        assertEquals(7, h.getCount());
+        assertEquals(TimeUnit.DAYS.toMillis(2), h.getMaxMillis());
+        assertEquals(TimeUnit.DAYS.toMillis(2) + TimeUnit.MINUTES.toMillis(90) + TimeUnit.SECONDS.toMillis(500) + 5, h.getTotalMillis());
+    }
+
+    @Test
+    public void empty() {
+        DurationHistogram h = new DurationHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMeanMillis(), 0);
+        assertEquals(0, h.getMaxMillis());
+    }
+
+    @Test
+    public void window() {
+        final AtomicLong now = new AtomicLong(-TimeUnit.MINUTES.toNanos(1)); // System.nanoTime() may be negative
+        DurationHistogram h = new DurationHistogram(TimeUnit.MINUTES.toNanos(60), new Ticker() {
+            @Override
+            public long read() {
+                return now.get();
+            }
+        });
+        assertEquals(60, h.getWindowMinutes());
+        h.record(TimeUnit.SECONDS.toNanos(50));
+        now.addAndGet(TimeUnit.MINUTES.toNanos(30));
+        h.record(TimeUnit.MILLISECONDS.toNanos(5));
+        assertEquals(2, h.getCount());
+        assertEquals(TimeUnit.SECONDS.toMillis(50), h.getMaxMillis());
+
+        now.addAndGet(TimeUnit.MINUTES.toNanos(25)); // the first duration left the window
+        assertEquals(1, h.getCount());
+        assertEquals(5, h.getMaxMillis());
+        assertArrayEquals(new long[] {0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0}, h.getBuckets());
+        h.record(TimeUnit.MILLISECONDS.toNanos(50)); // reuses the slot of the first duration
+        assertEquals(2, h.getCount());
+        assertEquals(55, h.getTotalMillis());
+
+        now.addAndGet(TimeUnit.HOURS.toNanos(2));
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMaxMillis());
+    }
+}
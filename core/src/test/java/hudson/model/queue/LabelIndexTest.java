@@ -0,0 +1,113 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+import hudson.model.labels.LabelExpression;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class LabelIndexTest {
+    private final LabelAtom linux = new LabelAtom("linux");
+    private final LabelAtom windows = new LabelAtom("windows");
+    private final LabelAtom docker = new LabelAtom("docker");
+
+    private LabelIndex<String> index;
+
+    @Before
+    public void setUp() {
+        index = new LabelIndex<String>();
+        index.add("a", Arrays.asList(linux, docker));
+        index.add("b", Arrays.asList(linux));
+        index.add("c", Arrays.asList(windows));
+    }
+
+    @Test
+    public void atoms() {
+        assertEquals(set("a", "b"), index.select(linux));
+        assertEquals(set("c"), index.select(windows));
+        assertEquals(set(), index.select(new LabelAtom("solaris")));
+    }
+
+    @Test
+    public void expressions() {
+        assertEquals(set("a"), index.select(new LabelExpression.And(linux, docker)));
+        assertEquals(set("a", "c"), index.select(new LabelExpression.Or(windows, docker)));
+        assertEquals(set("c"), index.select(new LabelExpression.Not(linux)));
+        assertEquals(set("a", "b"), index.select(new LabelExpression.Paren(linux)));
+        // docker -> linux holds for everyone here
+        assertEquals(set("a", "b", "c"), index.select(new LabelExpression.Implies(docker, linux)));
+        // linux <-> docker holds for a (both) and c (neither)
+        assertEquals(set("a", "c"), index.select(new LabelExpression.Iff(linux, docker)));
+    }
+
+    @Test
+    public void expressionsAgreeWithMatches() {
+        Label[] labels = {
+                new LabelExpression.And(linux, new LabelExpression.Not(docker)),
+                new LabelExpression.Or(new LabelExpression.Not(windows), docker),
+                new LabelExpression.Iff(windows, new LabelExpression.Not(linux)),
+        };
+        for (Label l : labels) {
+            Set<String> expected = new HashSet<String>();
+            if (l.matches(Arrays.asList(linux, docker))) expected.add("a");
+            if (l.matches(Arrays.asList(linux))) expected.add("b");
+            if (l.matches(Arrays.asList(windows))) expected.add("c");
+            assertEquals(l.toString(), expected, index.select(l));
+        }
+    }
+
+    @Test
+    public void updates() {
+        assertTrue(index.remove("a"));
+        assertFalse(index.remove("a"));
+        assertEquals(set(), index.select(docker));
+
+        // relabelling replaces the previous entry
+        index.add("b", Arrays.asList(windows));
+        assertEquals(set(), index.select(linux));
+        assertEquals(set("b", "c"), index.select(windows));
+
+        assertFalse(index.update("b", set(windows)));
+        assertTrue(index.update("b", set(docker)));
+        assertEquals(set("a", "b"), index.select(docker));
+        assertEquals(set("c"), index.select(windows));
+
+        index.retainAll(Arrays.asList("c"));
+        assertEquals(set("c"), index.all());
+        assertEquals(1, index.size());
+    }
+
+    @SafeVarargs
+    private static <T> Set<T> set(T... values) {
+        return new HashSet<T>(Arrays.asList(values));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.slaves;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DemandForecasterTest {
+    private static final long PERIOD = 10000;
+
+    @Test
+    public void steadyArrivals() {
+        DemandForecaster f = new DemandForecaster(PERIOD, 120000);
+        // one build a period, each taking six periods, keeps six executors busy
+        for (long now = 0; now < 3600000; now += PERIOD) {
+            f.arrived("linux", now, 6 * PERIOD);
+            f.observe("linux", now, 6);
+            f.forecast("linux", now);
+        }
+        assertEquals(6.0, f.forecast("linux", 3600000), 0.01);
+        DemandForecaster.LabelForecast lf = f.getLabels().get(0);
+        assertEquals("linux", lf.getName());
+        assertEquals(6.0, lf.getArrivalRate(), 0.01);
+        assertEquals(6 * PERIOD, lf.getMeanDuration());
+        assertEquals(6, lf.getActual());
+        assertTrue(lf.getSettled() > 0);
+        assertTrue(lf.getMeanAbsoluteError() < 0.1);
+    }
+
+    @Test
+    public void risingArrivalsAreExtrapolated() {
+        DemandForecaster f = new DemandForecaster(PERIOD, 120000);
+        long now = 0;
+        for (int i = 1; i <= 60; i++, now += PERIOD) {
+            for (int j = 0; j < i; j++) {
+                f.arrived("linux", now, PERIOD);
+            }
+        }
+        // the rate keeps growing by one a period, so twelve periods ahead should be well above the current 60
+        assertTrue(f.forecast("linux", now) > 60);
+    }
+
+    @Test
+    public void unknownDurationsFallBackToLeadTime() {
+        DemandForecaster f = new DemandForecaster(PERIOD, 3 * PERIOD);
+        for (long now = 0; now < 600000; now += PERIOD) {
+            f.arrived("", now, -1);
+        }
+        assertEquals(-1, f.getLabels().get(0).getMeanDuration());
+        assertEquals(3.0, f.forecast("", 600000), 0.01);
+    }
+
+    @Test
+    public void idleLabelsDecay() {
+        DemandForecaster f = new DemandForecaster(PERIOD, 0);
+        for (long now = 0; now < 600000; now += PERIOD) {
+            f.arrived("linux", now, PERIOD);
+        }
+        assertEquals(1.0, f.forecast("linux", 600000), 0.01);
+        assertEquals(0.0, f.forecast("linux", 600000 + 1000 * 1000 * PERIOD), 0.0);
+    }
+
+    @Test
+    public void excessWorkload() {
+        assertEquals(0, PredictiveProvisioningStrategy.excessWorkload(2.9, 2, 10));
+        assertEquals(1, PredictiveProvisioningStrategy.excessWorkload(3.0, 2, 10));
+        assertEquals(0, PredictiveProvisioningStrategy.excessWorkload(1, 5, 10));
+        assertEquals(10, PredictiveProvisioningStrategy.excessWorkload(100, 5, 10));
+    }
+}
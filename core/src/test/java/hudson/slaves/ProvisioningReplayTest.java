@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.slaves;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ProvisioningReplayTest {
+    private static final long PERIOD = TimeUnit.SECONDS.toMillis(10);
+    private static final long DELAY = TimeUnit.MINUTES.toMillis(2);
+
+    @Test
+    public void forecastsCutWaitingOnRisingTraffic() {
+        // from one to twenty builds of five minutes a minute, over half an hour
+        List<ProvisioningReplay.Arrival> trace = new ArrayList<ProvisioningReplay.Arrival>();
+        for (int minute = 0; minute < 30; minute++) {
+            int n = 1 + minute * 2 / 3;
+            for (int i = 0; i < n; i++) {
+                long duration = TimeUnit.MINUTES.toMillis(5);
+                trace.add(new ProvisioningReplay.Arrival(TimeUnit.MINUTES.toMillis(minute) + i * TimeUnit.MINUTES.toMillis(1) / n, "linux", duration, duration));
+            }
+        }
+        ProvisioningReplay replay = new ProvisioningReplay(PERIOD, DELAY, TimeUnit.MINUTES.toMillis(10));
+
+        ProvisioningReplay.Result reactive = replay.run(trace, null, 0);
+        DemandForecaster forecaster = new DemandForecaster(PERIOD, DELAY);
+        ProvisioningReplay.Result predictive = replay.run(trace, forecaster, 10);
+
+        assertEquals(trace.size(), reactive.getBuilds());
+        assertEquals(trace.size(), predictive.getBuilds());
+        assertTrue(reactive + " vs. " + predictive, predictive.getMeanWait() * 2 < reactive.getMeanWait());
+        assertTrue(forecaster.getLabels().get(0).getProvisioned() > 0);
+    }
+
+    @Test
+    public void parse() throws Exception {
+        List<ProvisioningReplay.Arrival> trace = ProvisioningReplay.parse(new StringReader(
+                "# time,label,duration,estimate\n0,linux,1000\n\n500,,2000,1500\n"));
+        assertEquals(2, trace.size());
+        assertEquals("linux", trace.get(0).label);
+        assertEquals(1000, trace.get(0).estimatedDuration);
+        assertEquals("", trace.get(1).label);
+        assertEquals(1500, trace.get(1).estimatedDuration);
+
+        ProvisioningReplay.Result r = new ProvisioningReplay(PERIOD, DELAY, DELAY).run(trace, null, 0);
+        assertEquals(2, r.getBuilds());
+        // nothing is online to begin with, so both wait for their node
+        assertTrue(r.getMaxWait() >= DELAY);
+        assertEquals(2, r.getProvisioned());
+    }
+}
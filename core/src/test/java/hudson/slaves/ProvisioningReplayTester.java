@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.slaves;
+
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares provisioning with and without forecasts on a trace file, as described in {@link ProvisioningReplay}.
+ */
+public class ProvisioningReplayTester {
+    /**
+     * @param args the trace file, and optionally the provisioning delay and the lead time in seconds
+     */
+    public static void main(String... args) throws Exception {
+        if (args.length < 1) {
+            throw new Exception("pass the trace file, and optionally the provisioning delay and lead time in seconds");
+        }
+        List<ProvisioningReplay.Arrival> trace;
+        try (Reader r = new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8)) {
+            trace = ProvisioningReplay.parse(r);
+        }
+        long delay = TimeUnit.SECONDS.toMillis(args.length > 1 ? Long.parseLong(args[1]) : 120);
+        long leadTime = args.length > 2 ? TimeUnit.SECONDS.toMillis(Long.parseLong(args[2])) : delay;
+        long period = TimeUnit.SECONDS.toMillis(10);
+        ProvisioningReplay replay = new ProvisioningReplay(period, delay, TimeUnit.MINUTES.toMillis(10));
+
+        System.out.println("reactive:   " + replay.run(trace, null, 0));
+        DemandForecaster forecaster = new DemandForecaster(period, leadTime);
+        System.out.println("predictive: " + replay.run(trace, forecaster, PredictiveProvisioningStrategy.MAX_AHEAD));
+        for (DemandForecaster.LabelForecast f : forecaster.getLabels()) {
+            System.out.printf("  '%s': %d forecasts off by %.2f executors on average, %d executors provisioned ahead%n",
+                    f.getName(), f.getSettled(), f.getMeanAbsoluteError(), f.getProvisioned());
+        }
+    }
+}
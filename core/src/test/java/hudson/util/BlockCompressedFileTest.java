@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.util;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BlockCompressedFileTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws Exception {
+        byte[] data = sampleData(3 * BlockCompressedFile.BLOCK_SIZE + 1234);
+        BlockCompressedFile f = compress(data);
+        assertEquals(data.length, f.length());
+        assertEquals(4, f.getBlockCount());
+        assertTrue("compressible text should shrink", f.getFile().length() < data.length / 2);
+        try (InputStream in = f.read(0)) {
+            assertArrayEquals(data, IOUtils.toByteArray(in));
+        }
+    }
+
+    @Test
+    public void seek() throws Exception {
+        byte[] data = sampleData(5 * BlockCompressedFile.BLOCK_SIZE);
+        BlockCompressedFile f = compress(data);
+        Random r = new Random(0);
+        for (int i = 0; i < 20; i++) {
+            int offset = r.nextInt(data.length + 1);
+            try (InputStream in = f.read(offset)) {
+                assertArrayEquals("from " + offset, Arrays.copyOfRange(data, offset, data.length), IOUtils.toByteArray(in));
+            }
+        }
+        // exactly on block boundaries and past the end
+        for (long offset : new long[] {BlockCompressedFile.BLOCK_SIZE, 2L * BlockCompressedFile.BLOCK_SIZE, data.length, data.length + 100}) {
+            try (InputStream in = f.read(offset)) {
+                assertEquals("from " + offset, Math.max(0, data.length - offset), IOUtils.toByteArray(in).length);
+            }
+        }
+    }
+
+    @Test
+    public void readBlock() throws Exception {
+        byte[] data = sampleData(2 * BlockCompressedFile.BLOCK_SIZE + 10);
+        BlockCompressedFile f = compress(data);
+        assertArrayEquals(Arrays.copyOfRange(data, BlockCompressedFile.BLOCK_SIZE, 2 * BlockCompressedFile.BLOCK_SIZE), f.readBlock(1));
+        assertArrayEquals(Arrays.copyOfRange(data, 2 * BlockCompressedFile.BLOCK_SIZE, data.length), f.readBlock(2));
+    }
+
+    @Test
+    public void empty() throws Exception {
+        BlockCompressedFile f = compress(new byte[0]);
+        assertEquals(0, f.length());
+        assertEquals(0, f.getBlockCount());
+        try (InputStream in = f.read(0)) {
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void notBlockCompressed() throws Exception {
+        File plain = tmp.newFile();
+        FileUtils.writeByteArrayToFile(plain, sampleData(1000));
+        try {
+            BlockCompressedFile.open(plain);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private BlockCompressedFile compress(byte[] data) throws IOException {
+        File src = tmp.newFile();
+        FileUtils.writeByteArrayToFile(src, data);
+        File dst = new File(tmp.getRoot(), src.getName() + ".blocks");
+        BlockCompressedFile.compress(src, dst);
+        assertEquals("no temporary file left behind", 2, tmp.getRoot().list().length);
+        return BlockCompressedFile.open(dst);
+    }
+
+    private static byte[] sampleData(int length) {
+        StringBuilder b = new StringBuilder(length);
+        for (int i = 0; b.length() < length; i++) {
+            b.append("[INFO] line ").append(i).append(" of some build output\n");
+        }
+        return b.substring(0, length).getBytes();
+    }
+}
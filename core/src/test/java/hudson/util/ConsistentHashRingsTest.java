@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.util;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ConsistentHashRingsTest {
+    /**
+     * Whatever was cached before, the order must be the one a fresh {@link ConsistentHash} would give.
+     */
+    @Test
+    public void sameOrderAsConsistentHash() {
+        ConsistentHashRings rings = new ConsistentHashRings();
+        Random r = new Random(0);
+        for (int round = 0; round < 50; round++) {
+            Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+            for (int n = 0; n < 10; n++) {
+                if (r.nextBoolean()) {
+                    weights.put("node" + n, (1 + r.nextInt(4)) * 100);
+                }
+            }
+            ConsistentHash<String> hash = new ConsistentHash<String>();
+            hash.addAll(weights);
+            for (int q = 0; q < 10; q++) {
+                String key = "job" + r.nextInt(1000);
+                List<String> expected = Lists.newArrayList(hash.list(key));
+                assertEquals(expected, rings.list("label" + round % 3, key, weights, Predicates.<String>alwaysTrue()));
+            }
+        }
+        assertEquals(3, rings.size());
+    }
+
+    @Test
+    public void subsetsAndWeights() {
+        ConsistentHashRings rings = new ConsistentHashRings();
+        Map<String, Integer> all = new HashMap<String, Integer>();
+        all.put("a", 300);
+        all.put("b", 100);
+        all.put("c", 200);
+        rings.list("", "x", all, Predicates.<String>alwaysTrue());
+
+        Map<String, Integer> some = new HashMap<String, Integer>();
+        some.put("a", 100);
+        some.put("c", 200);
+        ConsistentHash<String> hash = new ConsistentHash<String>();
+        hash.addAll(some);
+        assertEquals(Lists.newArrayList(hash.list("x")), rings.list("", "x", some, Predicates.<String>alwaysTrue()));
+
+        assertTrue(rings.list("", "x", new HashMap<String, Integer>(), Predicates.<String>alwaysTrue()).isEmpty());
+    }
+
+    @Test
+    public void forgetsDeadMembers() {
+        ConsistentHashRings rings = new ConsistentHashRings();
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        weights.put("gone", 100);
+        rings.list("", "x", weights, Predicates.<String>alwaysTrue());
+
+        // a new member forces a rebuild, which drops the members that are not alive
+        weights.clear();
+        weights.put("new", 100);
+        Predicate<String> alive = Predicates.not(Predicates.equalTo("gone"));
+        rings.list("", "x", weights, alive);
+
+        weights.put("gone", 100);
+        ConsistentHash<String> hash = new ConsistentHash<String>();
+        hash.addAll(weights);
+        assertEquals(Lists.newArrayList(hash.list("y")), rings.list("", "y", weights, alive));
+    }
+}
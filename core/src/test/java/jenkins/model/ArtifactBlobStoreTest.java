@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class ArtifactBlobStoreTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private ArtifactBlobStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        store = new ArtifactBlobStore(tmp.newFolder("store"));
+    }
+
+    @Test
+    public void referenceCounting() throws Exception {
+        String digest = add("hello");
+        assertFalse(store.retainAll(Arrays.asList(digest, ArtifactBlobStore.digest(stage("missing")))));
+        assertTrue(store.retainAll(Arrays.asList(digest, digest)));
+        assertTrue(store.retainAll(Collections.singleton(digest)));
+
+        // adding the same content again leaves the stored copy alone
+        assertEquals(digest, add("hello"));
+        store.releaseAll(Arrays.asList(digest, digest));
+        assertTrue(store.getBlob(digest).isFile());
+        store.releaseAll(Collections.singleton(digest));
+        assertFalse(store.getBlob(digest).exists());
+        assertFalse(store.retainAll(Collections.singleton(digest)));
+    }
+
+    @Test
+    public void rejectsContentNotMatchingItsDigest() throws Exception {
+        File staged = stage("tampered");
+        String digest = ArtifactBlobStore.digest(stage("original"));
+        try {
+            store.add(digest, staged);
+            fail();
+        } catch (IOException x) {
+            // expected
+        }
+        assertFalse(store.getBlob(digest).exists());
+    }
+
+    @Test
+    public void renamed() throws Exception {
+        File manifest = store.getManifest("folder/old", 1);
+        Files.createDirectories(manifest.getParentFile().toPath());
+        Files.write(manifest.toPath(), new byte[0]);
+        store.renamed("folder/old", "other/new");
+        assertFalse(manifest.exists());
+        assertTrue(store.getManifest("other/new", 1).isFile());
+    }
+
+    @Test
+    public void rejectsForgedDigests() throws Exception {
+        String forged = "../../../secrets/master.key";
+        File victim = new File(tmp.getRoot(), "secrets/master.key");
+        Files.createDirectories(victim.getParentFile().toPath());
+        Files.write(victim.toPath(), "secret".getBytes(StandardCharsets.UTF_8));
+        try {
+            store.retainAll(Collections.singleton(forged));
+            fail();
+        } catch (IllegalArgumentException x) {
+            // expected
+        }
+        assertFalse(ArtifactBlobStore.isDigest(forged));
+        assertFalse(ArtifactBlobStore.isDigest(ArtifactBlobStore.digest(victim).toUpperCase()));
+        assertTrue(ArtifactBlobStore.isDigest(ArtifactBlobStore.digest(victim)));
+
+        // as reported by an agent
+        Map<String,String> artifacts = Collections.singletonMap("a.txt", "a.txt");
+        Map<String,DeduplicatingArtifactManager.Entry> entries = new TreeMap<String,DeduplicatingArtifactManager.Entry>();
+        entries.put("a.txt", new DeduplicatingArtifactManager.Entry(forged, null, 6, 0, "a.txt"));
+        DeduplicatingArtifactManager.Manifest reported = new DeduplicatingArtifactManager.Manifest(entries);
+        try {
+            DeduplicatingArtifactManager.Manifest.verify(reported, artifacts);
+            fail();
+        } catch (IOException x) {
+            // expected
+        }
+        entries.put("a.txt", new DeduplicatingArtifactManager.Entry(ArtifactBlobStore.digest(victim), null, 6, 0, "../elsewhere"));
+        entries.put("extra.txt", new DeduplicatingArtifactManager.Entry(ArtifactBlobStore.digest(victim), null, 6, 0, "extra.txt"));
+        try {
+            DeduplicatingArtifactManager.Manifest.verify(new DeduplicatingArtifactManager.Manifest(entries), artifacts);
+            fail();
+        } catch (IOException x) {
+            // expected
+        }
+        entries.remove("extra.txt");
+        assertEquals("a.txt", DeduplicatingArtifactManager.Manifest.verify(new DeduplicatingArtifactManager.Manifest(entries), artifacts).entries.get("a.txt").source);
+
+        // as tampered with on disk
+        File manifest = store.getManifest("p", 1);
+        entries.put("a.txt", new DeduplicatingArtifactManager.Entry(forged, null, 6, 0, null));
+        new DeduplicatingArtifactManager.Manifest(entries).write(manifest);
+        try {
+            DeduplicatingArtifactManager.Manifest.read(manifest);
+            fail();
+        } catch (IOException x) {
+            // expected
+        }
+        assertTrue(victim.isFile());
+    }
+
+    private File stage(String content) throws IOException {
+        File staged = new File(store.createStagingDirectory(), "file");
+        Files.write(staged.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return staged;
+    }
+
+    private String add(String content) throws IOException {
+        File staged = stage(content);
+        String digest = ArtifactBlobStore.digest(staged);
+        store.add(digest, staged);
+        assertFalse(staged.exists());
+        return digest;
+    }
+}
@@ -25,6 +25,7 @@
 package jenkins.model;
 
 import java.io.File;
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.Rule;
@@ -43,4 +44,24 @@ public class PeepholePermalinkTest {
         assertEquals("stuff", PeepholePermalink.readSymlink(link));
     }
 
+    @Test public void permalinkFile() throws Exception {
+        File f = new File(tmp.getRoot(), PermalinkFile.FILE_NAME);
+        PermalinkFile cache = new PermalinkFile(f);
+        assertNull(cache.get("lastSuccessfulBuild"));
+        cache.put("lastSuccessfulBuild", 42);
+        cache.put("lastFailedBuild", PermalinkFile.RESOLVES_TO_NONE);
+        assertEquals(Integer.valueOf(42), cache.get("lastSuccessfulBuild"));
+        assertArrayEquals("no temporary file left behind", new String[] {PermalinkFile.FILE_NAME}, tmp.getRoot().list());
+
+        PermalinkFile reread = new PermalinkFile(f);
+        assertEquals(Integer.valueOf(42), reread.get("lastSuccessfulBuild"));
+        assertEquals(Integer.valueOf(PermalinkFile.RESOLVES_TO_NONE), reread.get("lastFailedBuild"));
+
+        FileUtils.writeStringToFile(f, "lastStableBuild 7\ngarbage\nlastUnstableBuild x\n", "UTF-8");
+        reread = new PermalinkFile(f);
+        assertEquals(Integer.valueOf(7), reread.get("lastStableBuild"));
+        assertNull(reread.get("lastUnstableBuild"));
+        assertNull(reread.get("garbage"));
+    }
+
 }
@@ -32,6 +32,7 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -40,8 +41,12 @@ import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import jenkins.util.Timer;
@@ -103,6 +108,23 @@ public class AbstractLazyLoadRunMapTest {
         }
     };
     
+    private final ConcurrentMap<Integer,AtomicInteger> countingBuilderLoadCount = new ConcurrentHashMap<>();
+    @Rule
+    public FakeMapBuilder countingBuilder = new FakeMapBuilder() {
+        @Override
+        public FakeMap make() {
+            return new FakeMap(getDir()) {
+                @Override
+                protected Build retrieve(File dir) throws IOException {
+                    Build b = super.retrieve(dir);
+                    countingBuilderLoadCount.putIfAbsent(b.n, new AtomicInteger());
+                    countingBuilderLoadCount.get(b.n).incrementAndGet();
+                    return b;
+                }
+            };
+        }
+    };
+
     @BeforeClass
     public static void setUpClass() {
         AbstractLazyLoadRunMap.LOGGER.setLevel(Level.OFF);
@@ -420,4 +442,114 @@ public class AbstractLazyLoadRunMapTest {
         assertSame(second, first);
     }
 
+    @Test
+    public void prefetch() throws Exception {
+        for (int i = 1; i <= 20; i++) {
+            countingBuilder.add(i);
+        }
+        FakeMap m = countingBuilder.make();
+        m.prefetch(Arrays.asList(20, 19, 18, 42));
+        for (int i = 20; i >= 18; i--) {
+            m.getByNumber(i).asserts(i);
+        }
+        for (int i = 20; i >= 18; i--) {
+            assertEquals("#" + i + " loaded once", 1, countingBuilderLoadCount.get(i).get());
+        }
+        assertNull("nothing else was loaded", countingBuilderLoadCount.get(17));
+        assertEquals(3, m.getLoadedBuilds().size());
+    }
+
+    @Test
+    public void readAhead() throws Exception {
+        for (int i = 1; i <= 20; i++) {
+            countingBuilder.add(i);
+        }
+        FakeMap m = countingBuilder.make();
+        m.getByNumber(20);
+        // anything prefetched would either still be listed, or have been counted before it was unlisted
+        assertTrue("a single lookup prefetches nothing", m.prefetching.isEmpty());
+        assertEquals("a single lookup loads nothing more", 1, countingBuilderLoadCount.size());
+        m.getByNumber(19);
+        assertTrue("nor do two", m.prefetching.isEmpty());
+        assertEquals("two lookups load nothing more", 2, countingBuilderLoadCount.size());
+        // walking down, so the next ones get loaded ahead
+        for (int i = 18; i > 18 - AbstractLazyLoadRunMap.PREFETCH; i--) {
+            m.getByNumber(i).asserts(i);
+        }
+        for (int i = 20; i > 18 - AbstractLazyLoadRunMap.PREFETCH; i--) {
+            assertEquals("#" + i + " loaded once", 1, countingBuilderLoadCount.get(i).get());
+        }
+    }
+
+    @Rule
+    public FakeMapBuilder parentBuilder = new FakeMapBuilder();
+    @Rule
+    public FakeMapBuilder childBuilder = new FakeMapBuilder();
+
+    @Test
+    public void loadingDoesNotWaitForPrefetchInAnotherMap() throws Exception {
+        final CountDownLatch childPrefetching = new CountDownLatch(1);
+        final CountDownLatch parentLoading = new CountDownLatch(1);
+        final FakeMap[] maps = new FakeMap[2];
+        // like a matrix build, which loads its configuration builds, which load their parent build
+        maps[0] = new FakeMap(parentBuilder.add(1).getDir()) {
+            @Override
+            protected Build retrieve(File dir) throws IOException {
+                parentLoading.countDown();
+                maps[1].getByNumber(1).asserts(1);
+                return super.retrieve(dir);
+            }
+        };
+        maps[1] = new FakeMap(childBuilder.add(1).getDir()) {
+            @Override
+            protected Build retrieve(File dir) throws IOException {
+                if (childPrefetching.getCount() > 0) {
+                    childPrefetching.countDown();
+                    try {
+                        parentLoading.await();
+                    } catch (InterruptedException x) {
+                        throw new IOException(x);
+                    }
+                    // blocks until the parent map is unlocked
+                    maps[0].getByNumber(1);
+                }
+                return super.retrieve(dir);
+            }
+        };
+        maps[1].prefetch(Arrays.asList(1));
+        childPrefetching.await();
+        Future<Build> parent = Timer.get().submit(new Callable<Build>() {
+            @Override
+            public Build call() throws Exception {
+                // holding the lock of the parent map, this must load the child itself rather than wait for the prefetching thread
+                return maps[0].getByNumber(1);
+            }
+        });
+        parent.get(30, TimeUnit.SECONDS).asserts(1);
+    }
+
+    @Test
+    public void lookupsCountAsHitsOrMisses() {
+        BuildCache cache = BuildCache.get();
+        long hits = cache.getHits(), misses = cache.getMisses();
+        a.getByNumber(3).asserts(3); // loaded
+        a.getByNumber(3).asserts(3); // in memory
+        assertNull(a.getByNumber(4)); // neither, there is no such build
+        assertEquals(hits + 1, cache.getHits());
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    public void subMapPrefetches() throws Exception {
+        for (int i = 1; i <= 20; i++) {
+            countingBuilder.add(i);
+        }
+        FakeMap m = countingBuilder.make();
+        assertEquals(10, m.subMap(15, 5).size());
+        for (int i = 15; i > 5; i--) {
+            assertEquals("#" + i + " loaded once", 1, countingBuilderLoadCount.get(i).get());
+        }
+        assertNull(countingBuilderLoadCount.get(16));
+    }
+
 }
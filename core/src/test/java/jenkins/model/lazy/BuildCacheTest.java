@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BuildCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        BuildCache cache = new BuildCache(2, Long.MAX_VALUE);
+        String a = "a", b = "b", c = "c";
+        BuildReference.Holder<String> ha = cache.make(a, 1);
+        cache.make(b, 1);
+        assertEquals("a", ha.get()); // now b is the least recently used
+        cache.make(c, 1);
+        assertTrue(cache.contains(a));
+        assertFalse(cache.contains(b));
+        assertTrue(cache.contains(c));
+        assertEquals(2, cache.getEntries());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void sizeBudget() {
+        BuildCache cache = new BuildCache(100, 10);
+        String a = "a", b = "b", c = "c";
+        cache.make(a, 4);
+        cache.make(b, 4);
+        assertEquals(8, cache.getSize());
+        cache.make(c, 4);
+        assertFalse(cache.contains(a));
+        assertEquals(8, cache.getSize());
+
+        // a build over the whole budget is still kept, on its own
+        String huge = "huge";
+        cache.make(huge, 50);
+        assertTrue(cache.contains(huge));
+        assertEquals(1, cache.getEntries());
+        assertEquals(50, cache.getSize());
+    }
+
+    @Test
+    public void evictedBuildStillInUseComesBack() {
+        BuildCache cache = new BuildCache(1, Long.MAX_VALUE);
+        String a = "a", b = "b";
+        BuildReference.Holder<String> ha = cache.make(a, 1);
+        cache.make(b, 1);
+        assertFalse(cache.contains(a));
+        // we still hold a strongly, so the weak reference is intact
+        assertSame(a, ha.get());
+        assertTrue(cache.contains(a));
+        assertFalse(cache.contains(b));
+    }
+
+    @Test
+    public void removeAndStatistics() {
+        BuildCache cache = new BuildCache(10, Long.MAX_VALUE);
+        String a = "a";
+        BuildReference.Holder<String> ha = cache.make(a, 3);
+        ((BuildCache.Entry<String>) ha).uncache();
+        assertEquals(0, cache.getEntries());
+        assertEquals(0, cache.getSize());
+        ((BuildCache.Entry<String>) ha).uncache();
+        assertEquals(0, cache.getEntries());
+
+        cache.hit();
+        cache.miss();
+        cache.loaded(1000000);
+        cache.loaded(1000000); // a prefetch, which is not a lookup
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 0);
+        assertEquals(2, cache.getLoads().getCount());
+    }
+
+    @Test
+    public void readmittedOnceFromManyThreads() throws Exception {
+        final BuildCache cache = new BuildCache(2, Long.MAX_VALUE);
+        final String a = "a";
+        final BuildReference.Holder<String> ha = cache.make(a, 1);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        // evict a by admitting two others, then have every thread bring it back at once
+                        cache.make("b" + j, 1);
+                        cache.make("c" + j, 1);
+                        assertSame(a, ha.get());
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(2, cache.getEntries());
+        assertEquals(2, cache.getSize());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class BuildNumbersFileTest {
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws Exception {
+        File dir = tmp.newFolder();
+        SortedIntList list = list(1, 2, 5);
+        // the file has to exist beforehand, as creating it changes the directory
+        assertTrue(new File(dir, BuildNumbersFile.FILE_NAME).createNewFile());
+        long stable = stabilize(dir);
+        BuildNumbersFile.write(dir, list, System.currentTimeMillis(), stable);
+        assertEquals(stable, dir.lastModified());
+        assertEquals(list, BuildNumbersFile.read(dir));
+
+        // a new build changes the directory
+        assertTrue(new File(dir, "6").mkdir());
+        assertTrue(dir.setLastModified(stable + 1000));
+        assertNull(BuildNumbersFile.read(dir));
+    }
+
+    @Test
+    public void unstableDirectoriesAreNotCached() throws Exception {
+        File dir = tmp.newFolder();
+        assertTrue(new File(dir, BuildNumbersFile.FILE_NAME).createNewFile());
+        BuildNumbersFile.write(dir, list(1), System.currentTimeMillis(), dir.lastModified());
+        assertEquals(0, new File(dir, BuildNumbersFile.FILE_NAME).length());
+        assertNull(BuildNumbersFile.read(dir));
+    }
+
+    @Test
+    public void tornWrite() throws Exception {
+        File dir = tmp.newFolder();
+        File f = new File(dir, BuildNumbersFile.FILE_NAME);
+        assertTrue(f.createNewFile());
+        long stable = stabilize(dir);
+        BuildNumbersFile.write(dir, list(1, 2, 3), System.currentTimeMillis(), stable);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+        dir.setLastModified(stable);
+        assertNull(BuildNumbersFile.read(dir));
+    }
+
+    private static long stabilize(File dir) {
+        long t = (System.currentTimeMillis() - 60000) / 1000 * 1000;
+        assertTrue(dir.setLastModified(t));
+        return dir.lastModified();
+    }
+
+    private static SortedIntList list(int... numbers) {
+        SortedIntList l = new SortedIntList(numbers.length);
+        for (int n : numbers) {
+            l.add(n);
+        }
+        return l;
+    }
+}
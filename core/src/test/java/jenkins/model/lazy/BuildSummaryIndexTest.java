@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import hudson.model.Result;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class BuildSummaryIndexTest {
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void encoding() {
+        BuildSummary s = new BuildSummary(42, Result.UNSTABLE, 1234567890123L, 98765, "agent-1", true, false);
+        byte[] record = BuildSummaryIndex.encode(42, s);
+        assertEquals(BuildSummaryIndex.RECORD_SIZE, record.length);
+        assertEquals(s, BuildSummaryIndex.decode(42, record));
+        assertTrue(s.isComplete());
+
+        // names too long for the record are left out, so that callers load the build instead
+        String longName = "a-rather-long-agent-name-that-does-not-fit-in-a-record";
+        BuildSummary truncated = BuildSummaryIndex.decode(1, BuildSummaryIndex.encode(1,
+                new BuildSummary(1, Result.SUCCESS, 0, 0, longName, true, false)));
+        assertNull(truncated.getBuiltOnStr());
+        assertTrue(truncated.isAbstractBuild());
+        assertFalse(truncated.isComplete());
+
+        BuildSummary other = BuildSummaryIndex.decode(2, BuildSummaryIndex.encode(2,
+                new BuildSummary(2, Result.ABORTED, 0, 0, null, false, true)));
+        assertEquals(Result.ABORTED, other.getResult());
+        assertFalse(other.isAbstractBuild());
+        assertTrue(other.hasCustomDisplayName());
+
+        assertNull(BuildSummaryIndex.decode(3, BuildSummaryIndex.encode(3, null)));
+    }
+
+    @Test
+    public void persistence() throws Exception {
+        File dir = tmp.getRoot();
+        BuildSummaryIndex index = new BuildSummaryIndex(dir);
+        assertEquals(0, index.size());
+        assertFalse(index.getFile().exists());
+
+        index.put(summary(1, Result.SUCCESS));
+        index.put(summary(2, Result.FAILURE));
+        index.put(summary(3, Result.SUCCESS));
+        index.put(summary(3, Result.SUCCESS)); // unchanged, so not written again
+        index.remove(2);
+        assertEquals((1 + 4) * BuildSummaryIndex.RECORD_SIZE, index.getFile().length());
+
+        index = new BuildSummaryIndex(dir);
+        assertEquals(2, index.size());
+        assertEquals(summary(1, Result.SUCCESS), index.get(1));
+        assertNull(index.get(2));
+        assertEquals(summary(3, Result.SUCCESS), index.get(3));
+    }
+
+    @Test
+    public void truncatedRecordIsIgnored() throws Exception {
+        File dir = tmp.getRoot();
+        BuildSummaryIndex index = new BuildSummaryIndex(dir);
+        index.put(summary(1, Result.SUCCESS));
+        index.put(summary(2, Result.SUCCESS));
+        try (RandomAccessFile f = new RandomAccessFile(index.getFile(), "rw")) {
+            f.setLength(f.length() - 10);
+        }
+        index = new BuildSummaryIndex(dir);
+        assertEquals(1, index.size());
+        assertNotNull(index.get(1));
+    }
+
+    @Test
+    public void compaction() throws Exception {
+        File dir = tmp.getRoot();
+        BuildSummaryIndex index = new BuildSummaryIndex(dir);
+        for (int i = 0; i < 200; i++) {
+            index.put(summary(1, i % 2 == 0 ? Result.SUCCESS : Result.FAILURE));
+        }
+        // superseded records get dropped once they make up most of the file
+        assertTrue(index.getFile().length() < 200 * BuildSummaryIndex.RECORD_SIZE);
+        index = new BuildSummaryIndex(dir);
+        assertEquals(1, index.size());
+        assertEquals(Result.FAILURE, index.get(1).getResult());
+    }
+
+    @Test
+    public void foreignFileIsReplaced() throws Exception {
+        File dir = tmp.getRoot();
+        File file = new File(dir, BuildSummaryIndex.FILE_NAME);
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.writeBytes("not an index at all, but long enough to have a header and then some more bytes");
+        }
+        BuildSummaryIndex index = new BuildSummaryIndex(dir);
+        assertEquals(0, index.size());
+        index.put(summary(1, Result.SUCCESS));
+        assertEquals(1, new BuildSummaryIndex(dir).size());
+    }
+
+    private static BuildSummary summary(int number, Result result) {
+        return new BuildSummary(number, result, 1000L * number, 10, "", true, false);
+    }
+}
@@ -26,28 +26,36 @@ package hudson.console;
 
 import hudson.MarkupText;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.StringWriter;
 import java.util.logging.Level;
 import org.apache.commons.io.Charsets;
+import org.apache.commons.lang.RandomStringUtils;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 import org.junit.ClassRule;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.jvnet.hudson.test.For;
 import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.LoggerRule;
 import org.kohsuke.stapler.framework.io.ByteBuffer;
 
-@For({AnnotatedLargeText.class, ConsoleNote.class, ConsoleAnnotationOutputStream.class, PlainTextConsoleOutputStream.class})
+@For({AnnotatedLargeText.class, ConsoleNote.class, ConsoleAnnotationOutputStream.class, PlainTextConsoleOutputStream.class, ConsoleNoteIndex.class})
 public class AnnotatedLargeTextTest {
 
     @ClassRule
     public static JenkinsRule r = new JenkinsRule();
 
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
     @Rule
     public LoggerRule logging = new LoggerRule().record(ConsoleAnnotationOutputStream.class, Level.FINE).capture(100);
 
@@ -105,6 +113,70 @@ public class AnnotatedLargeTextTest {
         assertThat(logging.getMessages(), hasItem("Failed to resurrect annotation")); // TODO assert that this is IOException: MAC mismatch
     }
 
+    @Test
+    public void noteIndex() throws Exception {
+        File log = tmp.newFile("log");
+        File notes = new File(tmp.getRoot(), "log.notes");
+        String note = TestNote.encodeTo("/root", "your home");
+        byte[] line = ("Go back to " + note + ".\n").getBytes();
+        try (OutputStream out = ConsoleNoteIndex.record(new FileOutputStream(log), notes)) {
+            out.write("Some text.\n".getBytes());
+            // a note split across writes is still found
+            out.write(line, 0, 15);
+            for (int i = 15; i < line.length; i++) {
+                out.write(line[i]);
+            }
+            out.write(("More " + note + " text.\n").getBytes());
+        }
+
+        assertNull("not for this log", ConsoleNoteIndex.load(notes, log.length() + 1));
+        ConsoleNoteIndex index = ConsoleNoteIndex.load(notes, log.length());
+        assertNotNull(index);
+        assertEquals(2, index.size());
+        assertEquals("Some text.\nGo back to ".length(), index.getOffset(0));
+        assertEquals(note.length() - "your home".length(), index.getLength(0));
+        assertEquals(TestNote.class.getName(), index.getType(0));
+        assertEquals(1, index.indexOf(index.getOffset(0) + 1));
+
+        AnnotatedLargeText<Void> text = new AnnotatedLargeText<>(log, Charsets.UTF_8, true, null);
+        text.setNoteIndex(notes);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        assertEquals(log.length(), text.writeLogTo(0, baos));
+        assertEquals("Some text.\nGo back to your home.\nMore your home text.\n", baos.toString());
+        baos.reset();
+        text.writeLogTo(index.getOffset(0) + 3, baos); // in the middle of a note
+        assertEquals("your home.\nMore your home text.\n", baos.toString());
+        StringWriter w = new StringWriter();
+        text.writeHtmlTo(0, w);
+        assertEquals("Some text.\nGo back to <a href='/root'>your home</a>.\nMore <a href='/root'>your home</a> text.\n", w.toString());
+    }
+
+    @Test
+    public void oversizedNoteIndex() throws Exception {
+        File log = tmp.newFile("log");
+        File notes = new File(tmp.getRoot(), "log.notes");
+        // random enough not to compress below the size up to which classes are looked up
+        String note = TestNote.encodeTo("/" + RandomStringUtils.randomAlphanumeric(2 * 1024 * 1024), "your home");
+        try (OutputStream out = ConsoleNoteIndex.record(new FileOutputStream(log), notes)) {
+            out.write(("Go to " + note + ".\n").getBytes());
+            // a preamble without its postamble on the same line is no note
+            out.write(("Stray " + ConsoleNote.PREAMBLE_STR + "abc\nand " + note + ".\n").getBytes());
+        }
+
+        ConsoleNoteIndex index = ConsoleNoteIndex.load(notes, log.length());
+        assertNotNull(index);
+        assertEquals(2, index.size());
+        assertEquals("Go to ".length(), index.getOffset(0));
+        assertEquals(note.length() - "your home".length(), index.getLength(0));
+        assertEquals("class not looked up", "", index.getType(0));
+
+        AnnotatedLargeText<Void> text = new AnnotatedLargeText<>(log, Charsets.UTF_8, true, null);
+        text.setNoteIndex(notes);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        text.writeLogTo(0, baos);
+        assertEquals("Go to your home.\nStray " + ConsoleNote.PREAMBLE_STR + "abc\nand your home.\n", baos.toString());
+    }
+
     /** Simplified version of {@link HyperlinkNote}. */
     static class TestNote extends ConsoleNote<Void> {
         private final String url;
@@ -23,8 +23,10 @@
  */
 package hudson.model;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import hudson.FilePath;
 import hudson.Functions;
@@ -50,8 +52,11 @@ import org.jvnet.hudson.test.TestBuilder;
 
 import com.gargoylesoftware.htmlunit.Page;
 import com.gargoylesoftware.htmlunit.UnexpectedPage;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 import java.io.OutputStream;
+import java.net.URL;
 import org.apache.commons.io.IOUtils;
 
 /**
@@ -201,6 +206,51 @@ public class DirectoryBrowserSupportTest {
         }
     }
 
+    @Test
+    public void range() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.setScm(new SingleFileSCM("artifact.bin", "0123456789"));
+        p.getPublishersList().add(new ArtifactArchiver("*", "", true));
+        j.buildAndAssertSuccess(p);
+
+        JenkinsRule.WebClient wc = j.createWebClient();
+        wc.getOptions().setThrowExceptionOnFailingStatusCode(false);
+        URL url = new URL(j.getURL(), "job/" + p.getName() + "/lastSuccessfulBuild/artifact/artifact.bin");
+
+        WebRequest req = new WebRequest(url);
+        WebResponse rsp = wc.getPage(req).getWebResponse();
+        assertEquals(200, rsp.getStatusCode());
+        assertEquals("bytes", rsp.getResponseHeaderValue("Accept-Ranges"));
+        assertEquals("0123456789", rsp.getContentAsString());
+
+        req.setAdditionalHeader("Range", "bytes=2-5");
+        rsp = wc.getPage(req).getWebResponse();
+        assertEquals(206, rsp.getStatusCode());
+        assertEquals("bytes 2-5/10", rsp.getResponseHeaderValue("Content-Range"));
+        assertEquals("2345", rsp.getContentAsString());
+
+        req.setAdditionalHeader("Range", "bytes=-3");
+        assertEquals("789", wc.getPage(req).getWebResponse().getContentAsString());
+
+        req.setAdditionalHeader("Range", "bytes=20-");
+        rsp = wc.getPage(req).getWebResponse();
+        assertEquals(416, rsp.getStatusCode());
+        assertEquals("bytes */10", rsp.getResponseHeaderValue("Content-Range"));
+    }
+
+    @Test
+    public void parseRange() {
+        assertArrayEquals(new long[] {0, 10}, DirectoryBrowserSupport.parseRange("bytes=0-", 10));
+        assertArrayEquals(new long[] {3, 10}, DirectoryBrowserSupport.parseRange("bytes=3-99", 10));
+        assertArrayEquals(new long[] {7, 10}, DirectoryBrowserSupport.parseRange("bytes=-3", 10));
+        assertArrayEquals(new long[] {0, 10}, DirectoryBrowserSupport.parseRange("bytes=-30", 10));
+        assertArrayEquals(new long[0], DirectoryBrowserSupport.parseRange("bytes=10-", 10));
+        assertNull(DirectoryBrowserSupport.parseRange("bytes=0-1,3-4", 10));
+        assertNull(DirectoryBrowserSupport.parseRange("bytes=5-2", 10));
+        assertNull(DirectoryBrowserSupport.parseRange("lines=1-2", 10));
+        assertNull(DirectoryBrowserSupport.parseRange("bytes=x-", 10));
+    }
+
     private File download(UnexpectedPage page) throws IOException {
 
         File file = File.createTempFile("DirectoryBrowserSupport", "zipDownload");
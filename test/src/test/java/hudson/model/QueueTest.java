@@ -23,6 +23,8 @@
  */
 package hudson.model;
 
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.WebRequest;
 import com.gargoylesoftware.htmlunit.html.DomElement;
 import com.gargoylesoftware.htmlunit.html.DomNode;
 import com.gargoylesoftware.htmlunit.html.HtmlFileInput;
@@ -47,8 +49,13 @@ import hudson.model.Queue.Executable;
 import hudson.model.Queue.WaitingItem;
 import hudson.model.labels.LabelExpression;
 import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.DispatcherEvaluator;
+import hudson.model.queue.DispatcherStatistics;
+import hudson.model.queue.DurationHistogram;
+import hudson.model.queue.QueueMetrics;
 import hudson.model.queue.QueueTaskDispatcher;
 import hudson.model.queue.QueueTaskFuture;
+import hudson.model.queue.ScheduleRequest;
 import hudson.model.queue.ScheduleResult;
 import hudson.model.queue.SubTask;
 import hudson.security.ACL;
@@ -70,8 +77,11 @@ import hudson.triggers.TimerTrigger.TimerTriggerCause;
 import hudson.util.OneShotEvent;
 import hudson.util.XStream2;
 import jenkins.model.Jenkins;
+import jenkins.model.ParameterizedJobMixIn;
 import jenkins.security.QueueItemAuthenticatorConfiguration;
 import jenkins.triggers.ReverseBuildTrigger;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.acegisecurity.Authentication;
 import org.acegisecurity.GrantedAuthority;
 import org.acegisecurity.acls.sid.PrincipalSid;
@@ -89,6 +99,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
 import org.jvnet.hudson.test.MockQueueItemAuthenticator;
 import org.jvnet.hudson.test.SequenceLock;
 import org.jvnet.hudson.test.SleepBuilder;
@@ -102,6 +113,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -154,6 +166,61 @@ public class QueueTest {
         assertSame(q.getItems()[0].task,testProject);
     }
 
+    /**
+     * Checks that the queue is restored from the journal when it was not saved before going down.
+     */
+    @Test public void journal() throws Exception {
+        Queue.JOURNAL = true;
+        try {
+            Queue q = r.jenkins.getQueue();
+            r.jenkins.setNumExecutors(0);
+
+            FreeStyleProject testProject = r.createFreeStyleProject("test");
+            testProject.scheduleBuild(new UserIdCause());
+            q.maintain();
+            q.flushJournal(); // otherwise written in the background
+            assertTrue(new File(r.jenkins.getRootDir(), "queue.journal").exists());
+
+            // no save(), as if Jenkins had crashed
+            q.load();
+            assertEquals(1, q.getItems().length);
+            assertSame(testProject, q.getItems()[0].task);
+
+            // compacted on load
+            assertTrue(new File(r.jenkins.getRootDir(), "queue.xml").exists());
+            assertFalse(new File(r.jenkins.getRootDir(), "queue.journal").exists());
+        } finally {
+            Queue.JOURNAL = false;
+        }
+    }
+
+    /**
+     * Checks that the queue is saved in full when the journal cannot keep up.
+     */
+    @Test public void journalFallingBehind() throws Exception {
+        Queue.JOURNAL = true;
+        int maxPending = QueueJournal.MAX_PENDING;
+        QueueJournal.MAX_PENDING = 0;
+        try {
+            Queue q = r.jenkins.getQueue();
+            r.jenkins.setNumExecutors(0);
+
+            FreeStyleProject testProject = r.createFreeStyleProject("test");
+            testProject.scheduleBuild(new UserIdCause());
+            q.maintain();
+            q.flushJournal();
+            assertFalse(new File(r.jenkins.getRootDir(), "queue.journal").exists());
+            assertTrue(new File(r.jenkins.getRootDir(), "queue.xml").exists());
+
+            q.load();
+            assertEquals(1, q.getItems().length);
+            assertSame(testProject, q.getItems()[0].task);
+        } finally {
+            Queue.JOURNAL = false;
+            QueueJournal.MAX_PENDING = maxPending;
+        }
+    }
+
     /**
      * Make sure the queue can be reconstructed from a List queue.xml.
      * Prior to the Queue.State class, the Queue items were just persisted as a List.
@@ -952,6 +1019,314 @@ public class QueueTest {
         assertEquals("project", projects.get(0).toString());
     }
 
+    @Test public void incrementalMaintenanceSkipsCleanItems() throws Exception {
+        Queue.INCREMENTAL_MAINTENANCE = true;
+        Queue.FULL_SWEEP_INTERVAL = Long.MAX_VALUE;
+        try {
+            Queue q = r.jenkins.getQueue();
+            FreeStyleProject p = r.createFreeStyleProject();
+            CountingDispatcher.blocked = true;
+            QueueTaskFuture<FreeStyleBuild> f = p.scheduleBuild2(0);
+            q.maintain();
+            assertTrue(q.getItem(p) instanceof BlockedItem);
+
+            // nothing changed, so the dispatcher is not asked again
+            int calls = CountingDispatcher.calls.get();
+            q.maintain();
+            assertEquals(calls, CountingDispatcher.calls.get());
+            assertFalse(q.getMaintenanceStatistics().isLastFullSweep());
+            assertTrue(q.getMaintenanceStatistics().getLastSkipped() >= 1);
+
+            // once told about the change, the item proceeds
+            CountingDispatcher.blocked = false;
+            q.markDirty(p);
+            q.scheduleMaintenance();
+            r.assertBuildStatusSuccess(f);
+        } finally {
+            Queue.INCREMENTAL_MAINTENANCE = false;
+            Queue.FULL_SWEEP_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+            CountingDispatcher.blocked = false;
+        }
+    }
+
+    @Test public void incrementalMaintenanceOffersReusedExecutors() throws Exception {
+        Queue.INCREMENTAL_MAINTENANCE = true;
+        Queue.FULL_SWEEP_INTERVAL = Long.MAX_VALUE;
+        try {
+            r.jenkins.setNumExecutors(1);
+            FreeStyleProject p1 = r.createFreeStyleProject();
+            FreeStyleProject p2 = r.createFreeStyleProject();
+            QueueTaskFuture<FreeStyleBuild> f1 = p1.scheduleBuild2(0);
+            QueueTaskFuture<FreeStyleBuild> f2 = p2.scheduleBuild2(0);
+            // the single executor takes one of them, and the other is left unmappable;
+            // once the executor parks again, even without having been seen busy, the other one must get it
+            r.assertBuildStatusSuccess(f1);
+            r.assertBuildStatusSuccess(f2.get(30, TimeUnit.SECONDS));
+        } finally {
+            Queue.INCREMENTAL_MAINTENANCE = false;
+            Queue.FULL_SWEEP_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+        }
+    }
+
+    @Test public void incrementalMaintenanceFollowsQuietDown() throws Exception {
+        Queue.INCREMENTAL_MAINTENANCE = true;
+        Queue.FULL_SWEEP_INTERVAL = Long.MAX_VALUE;
+        try {
+            Queue q = r.jenkins.getQueue();
+            FreeStyleProject p = r.createFreeStyleProject();
+            r.jenkins.doQuietDown(false, 0);
+            QueueTaskFuture<FreeStyleBuild> f = p.scheduleBuild2(0);
+            q.maintain();
+            q.maintain();
+            assertTrue(q.getItem(p) instanceof BlockedItem);
+
+            // nobody marks the item dirty, yet it must not wait for a full sweep
+            r.jenkins.doCancelQuietDown();
+            r.assertBuildStatusSuccess(f.get(10, TimeUnit.SECONDS));
+        } finally {
+            Queue.INCREMENTAL_MAINTENANCE = false;
+            Queue.FULL_SWEEP_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+        }
+    }
+
+    @Test public void idleExecutorsFollowLabelChanges() throws Exception {
+        DumbSlave s = r.createOnlineSlave(Label.get("old"));
+        FreeStyleProject p = r.createFreeStyleProject();
+        p.setAssignedLabel(Label.get("new"));
+        Queue q = r.jenkins.getQueue();
+        q.maintain(); // the idle executors are indexed under the old label now
+
+        s.setLabelString("new");
+        r.jenkins.updateNode(s);
+        assertEquals(s, r.buildAndAssertSuccess(p).getBuiltOn());
+
+        // nobody tells the queue about this one
+        p.setAssignedLabel(Label.get("relabeled"));
+        q.maintain();
+        s.setLabelString("relabeled");
+        assertEquals(s, r.buildAndAssertSuccess(p).getBuiltOn());
+    }
+
+    @Test public void snapshot() throws Exception {
+        Queue q = r.jenkins.getQueue();
+        r.jenkins.setNumExecutors(0);
+        FreeStyleProject p = r.createFreeStyleProject();
+        p.setAssignedLabel(r.jenkins.getLabel("nowhere"));
+
+        Queue.Snapshot before = q.getSnapshot();
+        assertNull(before.getItem(p));
+        p.scheduleBuild2(0);
+        q.maintain();
+
+        Queue.Snapshot after = q.getSnapshot();
+        assertTrue(after.getGeneration() > before.getGeneration());
+        assertSame(after, q.getSnapshot());
+        Queue.Item item = after.getItem(p);
+        assertNotNull(item);
+        assertSame(item, after.getItem(item.getId()));
+        assertEquals(Collections.singletonList(item), after.getItems(p));
+        assertEquals(Collections.singletonList(item), after.getBuildableItems(r.jenkins.getLabel("nowhere")));
+        assertTrue(after.getBuildableItems(null).isEmpty());
+        assertEquals(1, q.strictCountBuildableItemsFor(r.jenkins.getLabel("nowhere")));
+    }
+
+    @Test public void scheduleBatch() throws Exception {
+        final Queue q = r.jenkins.getQueue();
+        r.jenkins.setNumExecutors(0);
+        FreeStyleProject a = r.createFreeStyleProject();
+        FreeStyleProject b = r.createFreeStyleProject();
+        a.disable();
+
+        assertNull(ParameterizedJobMixIn.scheduleRequest(a, 0));
+        ScheduleRequest request = ParameterizedJobMixIn.scheduleRequest(b, 0, new CauseAction(new Cause.UserIdCause()));
+        assertNotNull(request);
+
+        final List<ScheduleRequest> batch = Arrays.asList(request, new ScheduleRequest(b, 0, (Action) null));
+        final List<ScheduleResult> results = new ArrayList<ScheduleResult>();
+        final long[] generations = new long[2];
+        Queue.withLock(new Runnable() {
+            @Override
+            public void run() {
+                // holding the lock keeps maintenance out, so only the batch publishes snapshots
+                generations[0] = q.getSnapshot().getGeneration();
+                results.addAll(q.schedule2(batch));
+                generations[1] = q.getSnapshot().getGeneration();
+            }
+        });
+        assertEquals("one snapshot for the whole batch", generations[0] + 1, generations[1]);
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).isCreated());
+        assertFalse(results.get(1).isCreated());
+        assertSame(results.get(0).getItem(), results.get(1).getItem());
+        assertEquals(1, q.getItems().length);
+        assertTrue(q.schedule2(Collections.<ScheduleRequest>emptyList()).isEmpty());
+    }
+
+    @Test public void scheduleBatchOverHttp() throws Exception {
+        r.jenkins.setNumExecutors(0);
+        FreeStyleProject a = r.createFreeStyleProject("a");
+        FreeStyleProject b = r.createFreeStyleProject("b");
+        FreeStyleProject c = r.createFreeStyleProject("c");
+        c.disable();
+        r.createFreeStyleProject("hidden");
+        r.jenkins.setSecurityRealm(r.createDummySecurityRealm());
+        r.jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy().
+            grant(Jenkins.READ).everywhere().to("dev").
+            grant(Item.READ, Item.BUILD).onItems(a, c).to("dev").
+            grant(Item.READ).onItems(b).to("dev"));
+
+        JenkinsRule.WebClient wc = r.createWebClient().login("dev");
+        WebRequest req = new WebRequest(wc.createCrumbedUrl("queue/scheduleBatch?job=a&job=b&job=c&job=hidden&job=missing&job=a&delay=0"), HttpMethod.POST);
+        JSONArray data = JSONArray.fromObject(wc.getPage(req).getWebResponse().getContentAsString());
+        assertEquals(6, data.size());
+        JSONObject scheduled = data.getJSONObject(0);
+        assertEquals("a", scheduled.getString("job"));
+        assertTrue(scheduled.getBoolean("created"));
+        // not allowed to build, disabled, not allowed to see, and not there at all
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(data.getJSONObject(i).toString(), data.getJSONObject(i).optBoolean("refused"));
+            assertFalse(data.getJSONObject(i).has("id"));
+        }
+        // the rest of the batch went through all the same
+        assertFalse(data.getJSONObject(5).getBoolean("created"));
+        assertEquals(scheduled.getLong("id"), data.getJSONObject(5).getLong("id"));
+        Queue.Item[] items = r.jenkins.getQueue().getItems();
+        assertEquals(1, items.length);
+        assertEquals(a, items[0].task);
+
+        wc.assertFails("queue/scheduleBatch?job=a", HttpURLConnection.HTTP_BAD_METHOD);
+        wc.getOptions().setThrowExceptionOnFailingStatusCode(false);
+        assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, wc.getPage(new WebRequest(wc.createCrumbedUrl("queue/scheduleBatch"), HttpMethod.POST)).getWebResponse().getStatusCode());
+
+        // anonymous users may not even read
+        JenkinsRule.WebClient anonymous = r.createWebClient();
+        anonymous.getOptions().setThrowExceptionOnFailingStatusCode(false);
+        assertEquals(HttpURLConnection.HTTP_FORBIDDEN, anonymous.getPage(new WebRequest(anonymous.createCrumbedUrl("queue/scheduleBatch?job=a"), HttpMethod.POST)).getWebResponse().getStatusCode());
+        assertEquals(1, r.jenkins.getQueue().getItems().length);
+    }
+
+    @Test public void threadSafeDispatcherAnswersAreReused() throws Exception {
+        r.jenkins.setNumExecutors(3);
+        Computer c = r.jenkins.toComputer();
+        while (c.countIdle() < 3) {
+            Thread.sleep(100);
+        }
+        FreeStyleProject p = r.createFreeStyleProject();
+        p.scheduleBuild2(0);
+        Queue q = r.jenkins.getQueue();
+        q.maintain();
+        assertTrue(q.getItem(p) instanceof Queue.BuildableItem);
+
+        DispatcherStatistics stats = null;
+        for (DispatcherStatistics s : q.getDispatcherStatistics()) {
+            if (s.getDispatcher().equals(ThreadSafeDispatcher.class.getName())) {
+                stats = s;
+            }
+        }
+        assertNotNull(stats);
+        assertTrue(stats.getCalls() > 0);
+        assertEquals(stats.getCalls(), stats.getVetoes());
+        // the three executors are all on the same node
+        assertTrue(stats.getMemoized() > 0);
+    }
+
+    @Test public void parallelDispatchersTakingTheLock() throws Exception {
+        DispatcherEvaluator.PARALLEL = true;
+        DispatcherEvaluator.PREFETCH_TIMEOUT = 500;
+        try {
+            r.createOnlineSlave(Label.get("parallel"));
+            r.createOnlineSlave(Label.get("parallel"));
+            FreeStyleProject p = r.createFreeStyleProject();
+            p.setAssignedLabel(Label.get("parallel"));
+            // the prefetch gives up on the dispatcher, and the maintenance thread asks it again itself
+            r.assertBuildStatusSuccess(p.scheduleBuild2(0).get(30, TimeUnit.SECONDS));
+            assertTrue(LockingDispatcher.calls.get() > 0);
+        } finally {
+            DispatcherEvaluator.PARALLEL = false;
+            DispatcherEvaluator.PREFETCH_TIMEOUT = 5000;
+        }
+    }
+
+    @Test public void metrics() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject();
+        r.buildAndAssertSuccess(p);
+        Queue q = r.jenkins.getQueue();
+        q.maintain();
+
+        QueueMetrics m = q.getMetrics();
+        assertTrue(m.getLockHold().getCount() > 0);
+        assertEquals(m.getLockHold().getCount(), m.getLockWait().getCount());
+        assertTrue(m.getStarted() >= 1);
+        assertTrue(m.getTimeToExecutor().containsKey(""));
+        m.tick();
+
+        JenkinsRule.WebClient wc = r.createWebClient();
+        wc.goTo("queueMetrics");
+        wc.goTo("queueMetrics/api/json", "application/json");
+        wc.goTo("provisioningForecasts"); // says the strategy is not enabled
+    }
+
+    @Test public void metricsTrackBoundedLabels() {
+        int max = QueueMetrics.MAX_LABELS;
+        QueueMetrics.MAX_LABELS = 2;
+        try {
+            QueueMetrics m = new QueueMetrics();
+            m.recordStarted(null, 1);
+            m.recordStarted(r.jenkins.getLabel("a"), 1);
+            m.recordStarted(r.jenkins.getLabel("b"), 1);
+            m.recordStarted(r.jenkins.getLabel("c"), 1);
+            m.recordStarted(r.jenkins.getLabel("a"), 1);
+            Map<String, DurationHistogram> timeToExecutor = m.getTimeToExecutor();
+            assertEquals(Arrays.asList("", QueueMetrics.OTHER_LABELS, "a"), new ArrayList<String>(timeToExecutor.keySet()));
+            assertEquals(2, timeToExecutor.get("a").getCount());
+            assertEquals(2, timeToExecutor.get(QueueMetrics.OTHER_LABELS).getCount());
+        } finally {
+            QueueMetrics.MAX_LABELS = max;
+        }
+    }
+
+    @TestExtension("threadSafeDispatcherAnswersAreReused")
+    public static class ThreadSafeDispatcher extends QueueTaskDispatcher {
+        @Override
+        public CauseOfBlockage canTake(Node node, Queue.BuildableItem item) {
+            return CauseOfBlockage.fromMessage(Messages._Queue_Unknown());
+        }
+        @Override
+        public boolean isThreadSafe() {
+            return true;
+        }
+    }
+
+    @TestExtension("parallelDispatchersTakingTheLock")
+    public static class LockingDispatcher extends QueueTaskDispatcher {
+        static final AtomicInteger calls = new AtomicInteger();
+        @Override
+        public CauseOfBlockage canTake(Node node, Queue.BuildableItem item) {
+            Queue.withLock(new Runnable() {
+                @Override
+                public void run() {
+                    calls.incrementAndGet();
+                }
+            });
+            return null;
+        }
+        @Override
+        public boolean isThreadSafe() {
+            return true; // wrongly
+        }
+    }
+
+    @TestExtension("incrementalMaintenanceSkipsCleanItems")
+    public static class CountingDispatcher extends QueueTaskDispatcher {
+        static volatile boolean blocked;
+        static final AtomicInteger calls = new AtomicInteger();
+        @Override
+        public CauseOfBlockage canRun(Queue.Item item) {
+            calls.incrementAndGet();
+            return blocked ? CauseOfBlockage.fromMessage(Messages._Queue_Unknown()) : null;
+        }
+    }
+
     //we force the project not to be executed so that it stays in the queue
     @TestExtension("queueApiOutputShouldBeFilteredByUserPermission")
     public static class MyQueueTaskDispatcher extends QueueTaskDispatcher {
@@ -23,7 +23,12 @@
  */
 package hudson.model;
 
+import hudson.Launcher;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -32,6 +37,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
 
 /**
  * @author Kohsuke Kawaguchi
@@ -73,4 +79,43 @@ public class RunTest  {
         assertEquals(Run.KeepLogBuildBadge.class, badgeActions.get(0).getClass());
     }
 
+    @Test public void compressedLog() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildersList().add(new TestBuilder() {
+            @Override public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                for (int i = 0; i < 10000; i++) {
+                    listener.getLogger().println("line " + i);
+                }
+                return true;
+            }
+        });
+        Run.COMPRESS_LOG = true;
+        FreeStyleBuild b;
+        try {
+            b = j.buildAndAssertSuccess(p);
+        } finally {
+            Run.COMPRESS_LOG = false;
+        }
+        File log = new File(b.getRootDir(), "log");
+        long length = log.length();
+        for (int i = 0; log.exists() && i < 100; i++) {
+            Thread.sleep(100);
+        }
+        assertFalse("compressed in the background", log.exists());
+        assertEquals("log.blocks", b.getLogFile().getName());
+        assertTrue(b.getLogFile().length() < length);
+
+        assertEquals(length, b.getLogText().length());
+        assertEquals(Arrays.asList("line 9998", "line 9999", "Finished: SUCCESS"), b.getLog(3));
+        ByteArrayOutputStream tail = new ByteArrayOutputStream();
+        b.getLogText().writeLogTo(length - 40, tail);
+        assertTrue(tail.toString(), tail.toString().trim().endsWith("line 9999" + System.lineSeparator() + "Finished: SUCCESS"));
+        assertFalse(tail.toString(), tail.toString().contains("line 9997"));
+        @SuppressWarnings("deprecation")
+        String whole = b.getLog();
+        assertEquals(length, whole.length());
+        assertTrue(whole.contains("line 5000"));
+        j.assertLogContains("line 5000", b);
+    }
+
 }
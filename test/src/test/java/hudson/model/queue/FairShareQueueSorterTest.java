@@ -0,0 +1,75 @@
+package hudson.model.queue;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Queue;
+import hudson.model.Queue.BuildableItem;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
+
+public class FairShareQueueSorterTest {
+
+    @Rule
+    public JenkinsRule r = new JenkinsRule();
+
+    private List<BuildableItem> buildables;
+
+    @Before
+    public void schedule() throws Exception {
+        r.jenkins.setNumExecutors(0);
+        MockFolder a = r.createFolder("a");
+        MockFolder b = r.createFolder("b");
+        List<FreeStyleProject> projects = new ArrayList<FreeStyleProject>();
+        for (int i = 0; i < 4; i++) {
+            projects.add(a.createProject(FreeStyleProject.class, "a" + i));
+        }
+        for (int i = 0; i < 2; i++) {
+            projects.add(b.createProject(FreeStyleProject.class, "b" + i));
+        }
+        Queue q = r.jenkins.getQueue();
+        for (FreeStyleProject p : projects) {
+            assertNotNull(p.scheduleBuild2(0));
+        }
+        q.maintain();
+        buildables = new ArrayList<BuildableItem>(q.getSnapshot().getBuildableItems());
+        assertEquals(6, buildables.size());
+    }
+
+    @Test
+    public void tenantsTakeTurns() {
+        FairShareQueueSorter s = new FairShareQueueSorter(FairShareQueueSorter.Tenancy.FOLDER);
+        s.sortBuildableItems(buildables);
+        assertEquals("[a0, b0, a1, b1, a2, a3]", names(buildables));
+    }
+
+    @Test
+    public void weights() {
+        FairShareQueueSorter s = new FairShareQueueSorter(FairShareQueueSorter.Tenancy.FOLDER);
+        s.setWeight("a", 3);
+        s.sortBuildableItems(buildables);
+        assertEquals("[a0, b0, a1, a2, a3, b1]", names(buildables));
+        assertEquals(3, s.getWeight("a"));
+        assertEquals(1, s.getWeight("b"));
+    }
+
+    @Test
+    public void otherTenancies() {
+        FairShareQueueSorter.Tenancy t = FairShareQueueSorter.Tenancy.LABEL;
+        assertEquals("", t.tenantOf(buildables.get(0)));
+        t = FairShareQueueSorter.Tenancy.AUTHENTICATION;
+        assertEquals("SYSTEM", t.tenantOf(buildables.get(0)));
+    }
+
+    private static String names(List<BuildableItem> items) {
+        List<String> names = new ArrayList<String>();
+        for (BuildableItem bi : items) {
+            names.add(bi.task.getName());
+        }
+        return names.toString();
+    }
+}
@@ -26,6 +26,7 @@ package hudson.tasks;
 
 import hudson.AbortException;
 import hudson.FilePath;
+import hudson.FilePath.TarCompression;
 import hudson.Functions;
 import hudson.Launcher;
 import hudson.Util;
@@ -45,7 +46,10 @@ import java.util.List;
 import hudson.remoting.VirtualChannel;
 import hudson.slaves.DumbSlave;
 import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.StandardArtifactManager;
 import jenkins.util.VirtualFile;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.hamcrest.Matchers;
 import org.jenkinsci.plugins.structs.describable.DescribableModel;
 
@@ -316,6 +320,46 @@ public class ArtifactArchiverTest {
         assertThat("No stacktrace shown", build.getLog(31), Matchers.iterableWithSize(lessThan(30)));
     }
 
+    @Test public void archiveInParallelFromAgent() throws Exception {
+        DumbSlave slave = j.createOnlineSlave(Label.get("target"));
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                FilePath ws = build.getWorkspace();
+                for (int i = 0; i < 10; i++) {
+                    ws.child("out/small" + i + ".txt").write("small " + i, null);
+                }
+                ws.child("out/large.bin").write(StringUtils.repeat("large", 1000), null);
+                return true;
+            }
+        });
+        p.getPublishersList().add(new ArtifactArchiver("out/**"));
+        p.setAssignedNode(slave);
+
+        long threshold = StandardArtifactManager.PARALLEL_ARCHIVE_THRESHOLD;
+        long largeFileSize = StandardArtifactManager.LARGE_FILE_SIZE;
+        TarCompression compression = StandardArtifactManager.ARCHIVE_COMPRESSION;
+        StandardArtifactManager.PARALLEL_ARCHIVE_THRESHOLD = 0;
+        StandardArtifactManager.LARGE_FILE_SIZE = 1000;
+        StandardArtifactManager.ARCHIVE_COMPRESSION = TarCompression.GZIP_FAST;
+        try {
+            FreeStyleBuild b = j.buildAndAssertSuccess(p);
+            // the large file on its own, and the small ones spread over the other streams
+            j.assertLogContains("Stream 1 of " + (StandardArtifactManager.ARCHIVE_STREAMS + 1) + ": archived 1 files", b);
+            assertEquals(11, b.getArtifacts().size());
+            VirtualFile out = b.getArtifactManager().root().child("out");
+            for (int i = 0; i < 10; i++) {
+                assertEquals("small " + i, IOUtils.toString(out.child("small" + i + ".txt").open()));
+            }
+            assertEquals(5000, out.child("large.bin").length());
+        } finally {
+            StandardArtifactManager.PARALLEL_ARCHIVE_THRESHOLD = threshold;
+            StandardArtifactManager.LARGE_FILE_SIZE = largeFileSize;
+            StandardArtifactManager.ARCHIVE_COMPRESSION = compression;
+        }
+    }
+
     private static class RemoveReadPermission extends MasterToSlaveFileCallable<Object> {
         @Override
         public Object invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
@@ -111,6 +111,25 @@ public class FingerprinterTest {
         assertTrue(downstreamProjects.contains(downstream));
     }
 
+    @Test public void recordsAllFilesAtOnce() throws Exception {
+        FreeStyleProject p = createFreeStyleProjectWithFingerprints(doubleContents, doubleFiles);
+        FreeStyleBuild b = j.buildAndAssertSuccess(p);
+        j.assertLogContains("Recorded 2 fingerprints", b);
+
+        Fingerprinter.FingerprintAction action = b.getAction(Fingerprinter.FingerprintAction.class);
+        assertEquals(ImmutableSet.of(doubleFiles[0], doubleFiles[1]), action.getRecords().keySet());
+        for (int i = 0; i < doubleContents.length; i++) {
+            String md5sum = Util.getDigestOf(doubleContents[i] + System.lineSeparator());
+            assertEquals(md5sum, action.getRecords().get(doubleFiles[i]));
+            // reloaded from disk, so this checks the batch was saved
+            Fingerprint f = FingerprintStorage.get().load(Util.fromHexString(md5sum));
+            assertNotNull(f);
+            assertEquals(doubleFiles[i], f.getFileName());
+            assertEquals(b, f.getOriginal().getRun());
+            assertTrue(f.getRangeSet(p).includes(b.getNumber()));
+        }
+    }
+
     private static class FingerprintAddingBuilder extends Builder {
         @Override
         public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
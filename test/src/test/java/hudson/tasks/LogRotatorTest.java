@@ -27,6 +27,7 @@ import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -41,6 +42,7 @@ import hudson.model.Run;
 import hudson.model.queue.QueueTaskFuture;
 import hudson.tasks.ArtifactArchiverTest.CreateArtifact;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
@@ -49,6 +51,8 @@ import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import jenkins.model.BackgroundBuildDiscarder;
+
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.FailureBuilder;
@@ -174,6 +178,7 @@ public class LogRotatorTest {
         assertThat("we have artifacts in run3", run3.getHasArtifacts(), is(true));
         sync.release(run1.getNumber());
         futureRun1.get();
+        BackgroundBuildDiscarder.await();
         assertThat("we have released run1's guard", run1.isBuilding(), is(false));
         assertThat("we haven't released run2's guard", run2.isBuilding(), is(true));
         assertThat("we haven't released run3's guard", run3.isBuilding(), is(true));
@@ -184,6 +189,7 @@ public class LogRotatorTest {
         assertThat("we have artifacts in run3", run3.getHasArtifacts(), is(true));
         sync.release(run2.getNumber());
         futureRun2.get();
+        BackgroundBuildDiscarder.await();
         assertThat("we have released run2's guard", run2.isBuilding(), is(false));
         assertThat("we haven't released run3's guard", run3.isBuilding(), is(true));
         assertThat("we have no artifacts in run1", run1.getHasArtifacts(), is(false));
@@ -193,6 +199,7 @@ public class LogRotatorTest {
         assertThat("we have artifacts in run3", run3.getHasArtifacts(), is(true));
         sync.release(run3.getNumber());
         futureRun3.get();
+        BackgroundBuildDiscarder.await();
         assertThat("we have released run3's guard", run3.isBuilding(), is(false));
         assertThat("we have no artifacts in run1", run1.getHasArtifacts(), is(false));
         assertThat("we have no artifacts in run2", run2.getHasArtifacts(), is(false));
@@ -201,8 +208,60 @@ public class LogRotatorTest {
         assertThat("we have artifacts in run3", run3.getHasArtifacts(), is(true));
     }
 
+    @Test
+    public void deletionInBackground() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.setBuildDiscarder(new LogRotator(-1, 1, -1, -1));
+        assertEquals(Result.SUCCESS, build(project)); // #1
+        File dir = project.getBuildByNumber(1).getRootDir();
+        assertEquals(Result.SUCCESS, build(project)); // #2
+        assertNull(project.getBuildByNumber(1));
+        assertFalse(dir.exists());
+        assertFalse(new File(dir.getParentFile(), ".1").exists());
+        BackgroundBuildDiscarder.Statistics stats = BackgroundBuildDiscarder.getStatistics();
+        assertEquals(0, stats.getPendingRotations());
+        assertEquals(0, stats.getPendingDeletions());
+        long deleted = stats.getDeleted();
+        assertTrue(deleted >= 1);
+
+        // left behind by a restart
+        File leftover = new File(project.getBuildDir(), ".42");
+        assertTrue(new File(leftover, "archive").mkdirs());
+        assertEquals(Result.SUCCESS, build(project)); // #3
+        assertFalse(leftover.exists());
+        assertEquals(deleted + 2, stats.getDeleted()); // #2 as well as the leftover
+    }
+
+    @Test
+    public void deleteSameNumberTwice() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject();
+        FreeStyleBuild first = j.buildAndAssertSuccess(project);
+        long pause = BackgroundBuildDiscarder.DELETION_PAUSE;
+        BackgroundBuildDiscarder.DELETION_PAUSE = 3000;
+        try {
+            // keep the deletion thread busy, so that the old #1 is still waiting when the new #1 is deleted
+            File busy = new File(project.getBuildDir(), ".99");
+            assertTrue(busy.mkdirs());
+            BackgroundBuildDiscarder.deleteLater(busy);
+            first.delete();
+            project.updateNextBuildNumber(1);
+            FreeStyleBuild second = j.buildAndAssertSuccess(project);
+            assertEquals(1, second.getNumber());
+            second.delete();
+        } finally {
+            BackgroundBuildDiscarder.DELETION_PAUSE = pause;
+        }
+        BackgroundBuildDiscarder.await();
+        assertEquals(0, BackgroundBuildDiscarder.getStatistics().getPendingDeletions());
+        for (String name : project.getBuildDir().list()) {
+            assertFalse(name + " left behind", name.startsWith("."));
+        }
+    }
+
     static Result build(FreeStyleProject project) throws Exception {
-        return project.scheduleBuild2(0).get().getResult();
+        Result result = project.scheduleBuild2(0).get().getResult();
+        BackgroundBuildDiscarder.await();
+        return result;
     }
 
     private static int numberOf(Run<?,?> run) {
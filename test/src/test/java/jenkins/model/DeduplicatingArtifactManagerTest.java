@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.tasks.ArtifactArchiver;
+import java.io.File;
+import java.io.IOException;
+import jenkins.util.VirtualFile;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import static org.junit.Assert.*;
+
+public class DeduplicatingArtifactManagerTest {
+
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    @Before public void useDeduplicatingArtifactManager() {
+        ArtifactManagerConfiguration.get().getArtifactManagerFactories().add(new DeduplicatingArtifactManagerFactory());
+    }
+
+    @Test public void storesIdenticalContentsOnce() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject("p");
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                FilePath ws = build.getWorkspace();
+                ws.child("out/a.txt").write("same", null);
+                ws.child("out/sub/b.txt").write("same", null);
+                return true;
+            }
+        });
+        p.getPublishersList().add(new ArtifactArchiver("out/**"));
+        FreeStyleBuild b1 = j.buildAndAssertSuccess(p);
+        j.assertLogContains("Archived 2 artifacts, transferring 1 new contents", b1);
+        FreeStyleBuild b2 = j.buildAndAssertSuccess(p);
+        j.assertLogContains("Archived 2 artifacts, transferring 0 new contents", b2);
+
+        assertTrue(b2.getArtifactManager() instanceof DeduplicatingArtifactManager);
+        assertEquals(2, b2.getArtifacts().size());
+        VirtualFile out = b2.getArtifactManager().root().child("out");
+        assertTrue(out.isDirectory());
+        assertTrue(out.child("sub").isDirectory());
+        assertEquals("same", IOUtils.toString(out.child("sub/b.txt").open()));
+        File blob = out.child("a.txt").toLocalFile();
+        assertNotNull(blob);
+        assertEquals(blob, out.child("sub/b.txt").toLocalFile());
+        assertFalse(new File(b2.getRootDir(), "archive").exists());
+
+        b1.delete();
+        assertTrue(blob.isFile());
+        b2.deleteArtifacts();
+        assertFalse(b2.getArtifactManager().root().child("out/a.txt").exists());
+        assertFalse(blob.exists());
+    }
+
+    @Test public void sweepsDeletedJobs() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject("p");
+        p.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+                build.getWorkspace().child("a.txt").write("content", null);
+                return true;
+            }
+        });
+        p.getPublishersList().add(new ArtifactArchiver("a.txt"));
+        FreeStyleBuild b = j.buildAndAssertSuccess(p);
+        File blob = b.getArtifactManager().root().child("a.txt").toLocalFile();
+        assertTrue(blob.isFile());
+
+        p.renameTo("q");
+        ArtifactBlobStore store = ArtifactBlobStore.get();
+        assertTrue(store.getManifest("q", 1).isFile());
+        assertEquals(0, store.sweep(j.createTaskListener()));
+        assertTrue(store.getManifest("q", 1).isFile());
+        p.delete();
+        // the first sweep only marks it, in case the job is merely being renamed
+        assertEquals(0, store.sweep(j.createTaskListener()));
+        assertTrue(blob.isFile());
+        assertEquals(1, store.sweep(j.createTaskListener()));
+        assertFalse(blob.exists());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2017 CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.Util;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import java.io.File;
+import java.util.Collections;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.FailureBuilder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.*;
+
+public class PermalinkFileTest {
+
+    @Rule public JenkinsRule r = new JenkinsRule();
+
+    @Test public void resolve() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject("p");
+        FreeStyleBuild b1 = r.buildAndAssertSuccess(p);
+        p.getBuildersList().add(new FailureBuilder());
+        FreeStyleBuild b2 = r.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0).get());
+        assertEquals(b1, p.getLastSuccessfulBuild());
+        assertEquals(b2, p.getLastFailedBuild());
+        assertNull(p.getLastUnstableBuild());
+
+        String contents = FileUtils.readFileToString(PermalinkFile.of(p).getFile(), "UTF-8");
+        assertThat(contents, containsString("lastSuccessfulBuild 1\n"));
+        assertThat(contents, containsString("lastFailedBuild 2\n"));
+        assertThat(contents, containsString("lastUnstableBuild -1\n"));
+    }
+
+    @Test public void legacySymlinks() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject("p");
+        FreeStyleBuild b1 = r.buildAndAssertSuccess(p);
+        r.buildAndAssertSuccess(p);
+        forgetFile(p);
+        // as left behind by an older version, here out of date but still pointing to a successful build
+        PeepholePermalink.writeSymlink(new File(p.getBuildDir(), "lastSuccessfulBuild"), "1");
+        PeepholePermalink.symlinks.clear();
+
+        long walks = PeepholePermalink.getStatistics().getFallbackWalks();
+        assertEquals("taken from the symlink rather than found again", b1, p.getLastSuccessfulBuild());
+        assertEquals(walks, PeepholePermalink.getStatistics().getFallbackWalks());
+        assertEquals(Integer.valueOf(1), PermalinkFile.of(p).get("lastSuccessfulBuild"));
+    }
+
+    @Test public void repair() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject("p");
+        r.buildAndAssertSuccess(p);
+        p.getBuildersList().add(new FailureBuilder());
+        r.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0).get());
+        p.getBuildersList().clear();
+        r.buildAndAssertSuccess(p);
+        forgetFile(p);
+        forgetSymlinks(p);
+
+        PeepholePermalink.Statistics stats = PeepholePermalink.getStatistics();
+        long walks = stats.getRepairWalks();
+        PermalinkFile cache = PermalinkFile.of(p);
+        assertTrue(cache.repairIfIdle(p));
+        assertEquals("a single walk for all the permalinks", walks + 1, stats.getRepairWalks());
+        assertEquals(Integer.valueOf(3), cache.get("lastSuccessfulBuild"));
+        assertEquals(Integer.valueOf(2), cache.get("lastFailedBuild"));
+        assertEquals(Integer.valueOf(PermalinkFile.RESOLVES_TO_NONE), cache.get("lastUnstableBuild"));
+        assertTrue(cache.getFile().exists());
+    }
+
+    @Test public void repairLater() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject("p");
+        r.buildAndAssertSuccess(p);
+        forgetFile(p);
+        forgetSymlinks(p);
+
+        PermalinkFile.repairLater(Collections.singletonList(p));
+        File file = PermalinkFile.of(p).getFile();
+        while (!file.exists() || PermalinkFile.getPendingRepairs() > 0) {
+            Thread.sleep(100);
+        }
+        assertEquals(Integer.valueOf(1), PermalinkFile.of(p).get("lastSuccessfulBuild"));
+    }
+
+    @Test public void forgottenOnceMovedOrDeleted() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject("p");
+        r.buildAndAssertSuccess(p);
+        PermalinkFile old = PermalinkFile.of(p);
+        File oldDir = p.getBuildDir();
+
+        p.renameTo("q");
+        PermalinkFile cache = PermalinkFile.of(p);
+        assertNotSame(old, cache);
+        assertEquals(new File(p.getBuildDir(), PermalinkFile.FILE_NAME), cache.getFile());
+        old.put("lastSuccessfulBuild", 1);
+        assertFalse("nothing written where the job used to be", oldDir.exists());
+
+        p.delete();
+        cache.put("lastSuccessfulBuild", 1);
+        assertFalse(cache.getFile().exists());
+    }
+
+    @Test public void statisticsPage() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject("p");
+        r.buildAndAssertSuccess(p);
+        JenkinsRule.WebClient wc = r.createWebClient();
+        wc.goTo("buildRecords");
+        wc.goTo("buildRecords/permalinks/api/json", "application/json");
+        wc.goTo("buildRecords/buildCache/api/json", "application/json");
+        wc.goTo("buildRecords/buildDiscarder/api/json", "application/json");
+    }
+
+    private static void forgetFile(FreeStyleProject p) {
+        assertTrue(PermalinkFile.of(p).getFile().delete());
+        PermalinkFile.forget(p);
+    }
+
+    private static void forgetSymlinks(FreeStyleProject p) {
+        for (PeepholePermalink pp : Util.filter(p.getPermalinks(), PeepholePermalink.class)) {
+            pp.getPermalinkFile(p).delete();
+        }
+        PeepholePermalink.symlinks.clear();
+    }
+}
@@ -26,11 +26,18 @@ package jenkins.model.lazy;
 
 import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
+import hudson.model.Result;
 import hudson.model.listeners.RunListener;
+import hudson.util.RunList;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import static org.junit.Assert.*;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.Issue;
+import org.jvnet.hudson.test.FailureBuilder;
 import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.SleepBuilder;
@@ -92,4 +99,31 @@ public class LazyBuildMixInTest {
         FreeStyleBuild b2 = p.scheduleBuild2(0).waitForStart();
         assertSame(b2, b1.getNextBuild());
     }
+
+    @Test public void historyQueriesUseSummaries() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject();
+        r.buildAndAssertSuccess(p);
+        p.getBuildersList().add(new FailureBuilder());
+        r.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0).get());
+        p.getBuildersList().clear();
+        r.buildAndAssertSuccess(p);
+        assertTrue(new File(p.getBuildDir(), BuildSummaryIndex.FILE_NAME).isFile());
+        BuildSummaryIndex index = p._getRuns().getSummaryIndex();
+        assertEquals(3, index.size());
+        assertEquals(Result.FAILURE, index.get(2).getResult());
+
+        p._getRuns().purgeCache();
+        RunList<FreeStyleBuild> failures = p.getBuilds().failureOnly();
+        assertTrue("filtering loads nothing by itself", p._getRuns().getLoadedBuilds().isEmpty());
+        List<Integer> numbers = new ArrayList<>();
+        for (FreeStyleBuild b : failures) {
+            numbers.add(b.getNumber());
+        }
+        assertEquals(Collections.singletonList(2), numbers);
+        assertEquals("only the matching build was loaded", Collections.singleton(2), p._getRuns().getLoadedBuilds().keySet());
+
+        p.getBuildByNumber(2).delete();
+        assertNull(index.get(2));
+        assertTrue(p.getBuilds().failureOnly().isEmpty());
+    }
 }